@@ -10,6 +10,8 @@ import Service.GTFS_RT.Fetcher.Alerts.AlertsService;
 import Service.GTFS_RT.Fetcher.TripUpdates.TripUpdatesService;
 import Service.GTFS_RT.Fetcher.Vehicle.VehiclePositionsService;
 import Service.GTFS_RT.Status.ConnectionStatusService;
+import Service.Parsing.Csv.GtfsArchive;
+import Service.Parsing.Static.StaticGtfsFeed;
 import Service.User.Fav.FavoritesService;
 import View.AppShellView;
 import View.DashboardView;
@@ -24,14 +26,18 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Controller principale dell’app (entry-point logico lato UI).
@@ -42,6 +48,7 @@ import java.util.stream.Collectors;
  * - Creare il RealTimeController e collegare i callback verso la UI (InfoBar, ecc.).
  * - Costruire la shell dell’app (AppShellView) e gestire autenticazione, dropdown account e preferiti.
  * - Gestire shutdown pulito (stop timer/service e chiusura finestra).
+ * - Controllare periodicamente {@code ~/.damose/gtfs}: un nuovo feed zip viene caricato a caldo.
  *
  * Note di design:
  * - La logica di wiring è centralizzata qui per evitare codice UI sparso nel Main.
@@ -72,13 +79,22 @@ public class AppController {
     // ========================= CSV GTFS statici =========================
 
     // In IDE questi file esistono anche su filesystem sotto src/main/resources.
-    // Nel JAR invece vanno letti dal classpath: li estraiamo in una cartella temporanea e passiamo un path reale.
-    private static final String STOPS_RES      = "/rome_static_gtfs/stops.csv";
-    private static final String ROUTES_RES     = "/rome_static_gtfs/routes.csv";
-    private static final String TRIPS_RES      = "/rome_static_gtfs/trips.csv";
-    private static final String STOP_TIMES_RES = "/rome_static_gtfs/stop_times.csv";
+    // Altrimenti il feed è uno zip letto direttamente (senza estrazione): i path diventano path logici dell'archivio.
+    private static final String STOPS_RES      = "rome_static_gtfs/stops.csv";
+    private static final String ROUTES_RES     = "rome_static_gtfs/routes.csv";
+    private static final String TRIPS_RES      = "rome_static_gtfs/trips.csv";
+    private static final String STOP_TIMES_RES = "rome_static_gtfs/stop_times.csv";
 
-    // Path reali su disco (risolti a runtime). Verranno valorizzati in start().
+    /** Feed zip incluso nel classpath (alternativa ai CSV sciolti). */
+    private static final String GTFS_ZIP_RES = "/rome_static_gtfs.zip";
+
+    /** Cartella in cui l'utente può lasciare un nuovo feed zip (vince il più recente). */
+    private static final Path GTFS_DROP_DIR = Path.of(System.getProperty("user.home"), ".damose", "gtfs");
+
+    /** Intervallo di controllo della cartella dei feed (ms). */
+    private static final int GTFS_WATCH_INTERVAL_MS = 60_000;
+
+    // Path dei CSV (file su disco o path logici di un GtfsArchive). Verranno valorizzati in start().
     private String stopsCsvPath;
     private String routesCsvPath;
     private String tripsCsvPath;
@@ -88,6 +104,10 @@ public class AppController {
 
     private JFrame frame;
     private Timer followTimer;
+    private Timer gtfsWatchTimer;
+
+    /** Zip (path + data di modifica) del feed statico attualmente caricato dalla cartella utente. */
+    private volatile String loadedDropStamp = null;
 
     private ConnectionStatusService statusService;
     private RealTimeController rtController;
@@ -134,7 +154,7 @@ public class AppController {
         TripUpdatesService tripSvc = new TripUpdatesService(GTFS_RT_TRIP_URL);
         AlertsService alertsSvc = new AlertsService(GTFS_RT_ALERTS_URL);
 
-        // 1.5) Risolvo i CSV GTFS statici: in IDE posso usare src/main/resources, nel JAR estraggo dal classpath.
+        // 1.5) Risolvo i CSV GTFS statici: in IDE posso usare src/main/resources, altrimenti leggo un feed zip.
         resolveStaticGtfsPaths();
 
         // 2) Dashboard controller (riceve i service per leggere cache e costruire UI)
@@ -175,6 +195,11 @@ public class AppController {
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
 
+        // Feed statico: un nuovo zip nella cartella utente viene caricato senza riavviare l'app.
+        gtfsWatchTimer = new Timer(GTFS_WATCH_INTERVAL_MS, e -> checkDroppedGtfsFeed());
+        gtfsWatchTimer.setRepeats(true);
+        gtfsWatchTimer.start();
+
         // Close: shutdown controllato (no EXIT brutale senza stop dei service).
         frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         frame.addWindowListener(new WindowAdapter() {
@@ -444,6 +469,7 @@ public class AppController {
     private void shutdown() {
         try {
             if (followTimer != null) followTimer.stop();
+            if (gtfsWatchTimer != null) gtfsWatchTimer.stop();
             if (rtController != null) rtController.stop();
             if (statusService != null) statusService.stop();
         } finally {
@@ -746,15 +772,18 @@ public class AppController {
     /**
      * Risolve i path dei CSV GTFS statici.
      * - Se esistono su filesystem (esecuzione da progetto/IDE), usa quelli.
-     * - Altrimenti (esecuzione da JAR), estrae le risorse dal classpath in una cartella temporanea.
+     * - Altrimenti usa un feed zip, letto direttamente senza estrazione in cartelle temporanee:
+     *   1) lo zip più recente in {@code ~/.damose/gtfs} (aggiornare il feed = copiare lì il nuovo zip)
+     *   2) lo zip incluso nel classpath ({@code /rome_static_gtfs.zip})
+     *   3) i CSV inclusi nel JAR in esecuzione (il JAR stesso è uno zip)
      */
     private void resolveStaticGtfsPaths() {
         // Tentativo 1: path locali (IDE)
         String base = "src/main/resources";
-        Path pStops = Path.of(base, "rome_static_gtfs", "stops.csv");
-        Path pRoutes = Path.of(base, "rome_static_gtfs", "routes.csv");
-        Path pTrips = Path.of(base, "rome_static_gtfs", "trips.csv");
-        Path pStopTimes = Path.of(base, "rome_static_gtfs", "stop_times.csv");
+        Path pStops = Path.of(base, STOPS_RES);
+        Path pRoutes = Path.of(base, ROUTES_RES);
+        Path pTrips = Path.of(base, TRIPS_RES);
+        Path pStopTimes = Path.of(base, STOP_TIMES_RES);
 
         if (Files.exists(pStops) && Files.exists(pRoutes) && Files.exists(pTrips) && Files.exists(pStopTimes)) {
             stopsCsvPath = pStops.toString();
@@ -765,35 +794,121 @@ public class AppController {
             return;
         }
 
-        // Tentativo 2: estrazione da classpath (JAR)
+        // Tentativo 2: feed zip (cartella utente, classpath o JAR in esecuzione)
         try {
-            Path dir = Files.createTempDirectory("damose-gtfs-");
-            dir.toFile().deleteOnExit();
+            loadedDropStamp = dropStamp(newestZip(GTFS_DROP_DIR));
+            GtfsArchive archive = openGtfsArchive().mount();
 
-            stopsCsvPath = extractResourceToFile(STOPS_RES, dir).toString();
-            routesCsvPath = extractResourceToFile(ROUTES_RES, dir).toString();
-            tripsCsvPath = extractResourceToFile(TRIPS_RES, dir).toString();
-            stopTimesCsvPath = extractResourceToFile(STOP_TIMES_RES, dir).toString();
+            boolean looseCsv = archive.contains(STOPS_RES);
+            stopsCsvPath = archive.path(looseCsv ? STOPS_RES : "stops");
+            routesCsvPath = archive.path(looseCsv ? ROUTES_RES : "routes");
+            tripsCsvPath = archive.path(looseCsv ? TRIPS_RES : "trips");
+            stopTimesCsvPath = archive.path(looseCsv ? STOP_TIMES_RES : "stop_times");
 
-            System.out.println("[AppController] GTFS static (JAR extracted): " + stopsCsvPath);
+            System.out.println("[AppController] GTFS static (zip): " + archive.name());
         } catch (IOException e) {
-            throw new RuntimeException("Impossibile risolvere i CSV GTFS statici (mancano risorse nel JAR?)", e);
+            throw new RuntimeException("Impossibile risolvere il GTFS statico (nessun feed zip/CSV disponibile)", e);
         }
     }
 
-    private static Path extractResourceToFile(String resourcePath, Path targetDir) throws IOException {
-        if (resourcePath == null || resourcePath.isBlank()) {
-            throw new IOException("resourcePath vuoto");
+    /**
+     * Controllo periodico (EDT) della cartella dei feed: se compare uno zip più recente di quello caricato,
+     * lo apre e chiede alla dashboard un reload in background. Fino al termine la UI usa il feed precedente.
+     * In modalità IDE (CSV su filesystem) non fa nulla.
+     */
+    private void checkDroppedGtfsFeed() {
+        if (dashboardController == null || !GtfsArchive.isArchivePath(stopsCsvPath)) return;
+
+        Path newest = newestZip(GTFS_DROP_DIR);
+        String stamp = dropStamp(newest);
+        if (stamp == null || stamp.equals(loadedDropStamp)) return;
+        loadedDropStamp = stamp;
+
+        CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        return GtfsArchive.open(newest).mount();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .thenCompose(archive -> dashboardController.reloadStaticGtfs(
+                        archive.path("stops"),
+                        archive.path("routes"),
+                        archive.path("trips"),
+                        archive.path("stop_times")
+                ).whenComplete((feed, ex) -> {
+                    // archivio non adottato dalla versione corrente (reload fallito o superato): non serve più.
+                    // Quello della versione sostituita lo smonta StaticGtfsFeed.publish.
+                    StaticGtfsFeed current = StaticGtfsFeed.current();
+                    String inUse = (current == null) ? null
+                            : GtfsArchive.archiveOf(current.path(StaticGtfsFeed.Source.STOPS));
+                    if (!Objects.equals(inUse, GtfsArchive.archiveOf(archive.path("stops")))) archive.unmount();
+                }))
+                .whenComplete((feed, ex) -> {
+                    if (ex != null) {
+                        System.err.println("[AppController] nuovo feed GTFS non caricato (" + newest + "): " + ex.getMessage());
+                    } else {
+                        System.out.println("[AppController] GTFS static aggiornato da " + newest + ": " + feed);
+                    }
+                });
+    }
+
+    /**
+     * @param zip zip del feed (può essere null)
+     * @return identificativo path + data di modifica, oppure null
+     */
+    private static String dropStamp(Path zip) {
+        return (zip == null) ? null : zip.toAbsolutePath() + "#" + zip.toFile().lastModified();
+    }
+
+    /**
+     * Apre il feed zip secondo l'ordine di priorità descritto in {@link #resolveStaticGtfsPaths()}.
+     *
+     * @return archivio del feed (non ancora montato)
+     * @throws IOException se nessuna sorgente è disponibile
+     */
+    private static GtfsArchive openGtfsArchive() throws IOException {
+        Path dropped = newestZip(GTFS_DROP_DIR);
+        if (dropped != null) {
+            return GtfsArchive.open(dropped);
         }
-        try (InputStream in = AppController.class.getResourceAsStream(resourcePath)) {
-            if (in == null) {
-                throw new IOException("Risorsa non trovata nel classpath: " + resourcePath);
+
+        if (AppController.class.getResource(GTFS_ZIP_RES) != null) {
+            return GtfsArchive.fromResource(GTFS_ZIP_RES);
+        }
+
+        try {
+            Path jar = Path.of(AppController.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isRegularFile(jar)) {
+                GtfsArchive self = GtfsArchive.open(jar);
+                if (self.contains(STOPS_RES)) {
+                    return self;
+                }
             }
-            String fileName = Path.of(resourcePath).getFileName().toString();
-            Path out = targetDir.resolve(fileName);
-            Files.copy(in, out, StandardCopyOption.REPLACE_EXISTING);
-            out.toFile().deleteOnExit();
-            return out;
+        } catch (URISyntaxException | RuntimeException e) {
+            System.err.println("[AppController] JAR in esecuzione non leggibile: " + e.getMessage());
+        }
+        throw new IOException("Nessun feed GTFS: copiare uno zip in " + GTFS_DROP_DIR);
+    }
+
+    /**
+     * @param dir cartella da esaminare
+     * @return zip modificato più di recente nella cartella, oppure null
+     */
+    private static Path newestZip(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .filter(p -> p.getFileName().toString().toLowerCase().endsWith(".zip"))
+                    .filter(Files::isRegularFile)
+                    .max(Comparator.comparingLong(p -> p.toFile().lastModified()))
+                    .orElse(null);
+        } catch (IOException e) {
+            System.err.println("[AppController] lettura " + dir + " fallita: " + e.getMessage());
+            return null;
         }
     }
 }
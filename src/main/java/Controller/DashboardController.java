@@ -21,7 +21,9 @@ import Service.GTFS_RT.Fetcher.Vehicle.VehiclePositionsService;
 import Model.Net.ConnectionStatusProvider;
 
 import Service.Parsing.Static.StaticGtfsRepository;
-import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.Static.StaticGtfsFeed;
+import Service.Parsing.Static.StaticGtfsLoader;
+import Service.Parsing.Static.StaticGtfsSnapshot;
 
 import View.DashboardView;
 import View.Map.LineStopsView;
@@ -30,6 +32,8 @@ import View.SearchBar.SearchBarView;
 import View.User.Fav.FavoritesView;
 
 import javax.swing.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 public class DashboardController {
 
@@ -45,6 +49,9 @@ public class DashboardController {
 
     private final ArrivalPredictionService arrivalPredictionService;
 
+    /** Feed GTFS static corrente (ricaricabile senza riavviare la dashboard). */
+    private final StaticGtfsLoader staticFeed;
+
     public DashboardController(
             String stopsCsvPath,
             String routesCsvPath,
@@ -65,16 +72,14 @@ public class DashboardController {
         // MODEL
         this.mapModel = new MapModel();
 
-        // STATIC REPO (puoi anche costruirlo in Main e passarlo)
-        StaticGtfsRepository repo = new StaticGtfsRepositoryBuilder()
-                .withStopsPath(stopsCsvPath)
-                .withRoutesPath(routesCsvPath)
-                .withTripsPath(tripsCsvPath)
-                .withStopTimesPath(stopTimesPath)
-                .indexStopToRoutes(true)
-                .indexTripStopTimes(true)
-                .indexStopStopTimes(true)
-                .build();
+        // STATIC FEED: unica versione condivisa da tutti i controller, ogni file letto una volta
+        // (hot-reload con scambio atomico, vedi reloadStaticGtfs)
+        this.staticFeed = new StaticGtfsLoader(
+                new StaticGtfsLoader.Paths(stopsCsvPath, routesCsvPath, tripsCsvPath, stopTimesPath),
+                StaticGtfsSnapshot.defaultDirectory()
+        );
+        staticFeed.current();
+        Supplier<StaticGtfsRepository> repo = staticFeed::currentRepository;
 
         // ARRIVAL PREDICTION (ETA)
         this.arrivalPredictionService = new ArrivalPredictionService(
@@ -82,12 +87,13 @@ public class DashboardController {
                 statusProvider,
                 repo
         );
+        arrivalPredictionService.start();
 
         // MAP CONTROLLER (usa vehiclePositionsService ricevuto)
         this.mapController = new MapController(
                 mapModel,
                 mapView,
-                stopsCsvPath,
+                staticFeed,
                 vehiclePositionsService
         );
 
@@ -95,7 +101,7 @@ public class DashboardController {
 
         // SEARCH CONTROLLERS
         this.lineSearchController =
-                new LineSearchController(searchBar, mapController, routesCsvPath, tripsCsvPath);
+                new LineSearchController(searchBar, mapController, staticFeed);
 
         // LIST PANELS
         this.lineStopsController =
@@ -113,7 +119,7 @@ public class DashboardController {
 
         // ✅ StopSearchController ora richiama automaticamente stopLinesController.showLinesForStop(stop)
         this.stopSearchController =
-                new StopSearchController(searchBar, mapController, stopsCsvPath, stopLinesController);
+                new StopSearchController(searchBar, mapController, staticFeed, stopLinesController);
 
         // FAVORITES
         FavoritesView favoritesView = new FavoritesView();
@@ -125,6 +131,9 @@ public class DashboardController {
         // ✅ LINE MODE: doppio click su fermata -> switch a STOP + apri dettagli fermata
         lineStopsView.setOnStopDoubleClick(stop -> openStopFromLineStopDoubleClick(stop, searchBar, lineStopsView));
 
+        // HOT-RELOAD: i Service vedono già la nuova versione, qui si aggiorna solo la mappa (sull'EDT).
+        StaticGtfsFeed.addListener(feed -> SwingUtilities.invokeLater(mapController::onStaticFeedReloaded));
+
         // CALLBACKS
         searchBar.setOnModeChanged(mode -> {
             lineStopsView.clear();
@@ -283,4 +292,22 @@ public class DashboardController {
     public DashboardView getView() {
         return dashboardView;
     }
+
+    /**
+     * Ricarica in background il GTFS static (es. nuovo zip del feed) senza bloccare la UI.
+     * Fino al completamento tutti i controller continuano a usare la versione corrente.
+     *
+     * @param stopsCsvPath path stops
+     * @param routesCsvPath path routes
+     * @param tripsCsvPath path trips
+     * @param stopTimesPath path stop_times
+     * @return future completato quando la nuova versione è pubblicata
+     */
+    public CompletableFuture<StaticGtfsFeed> reloadStaticGtfs(String stopsCsvPath,
+                                                              String routesCsvPath,
+                                                              String tripsCsvPath,
+                                                              String stopTimesPath) {
+        return staticFeed.reload(new StaticGtfsLoader.Paths(
+                stopsCsvPath, routesCsvPath, tripsCsvPath, stopTimesPath));
+    }
 }
\ No newline at end of file
@@ -4,13 +4,14 @@ import Model.GTFS_RT.VehicleInfo;
 import Model.Map.MapModel;
 import Model.Net.ConnectionState;
 import Model.Net.ConnectionStatusProvider;
-import Model.Parsing.Static.ShapesModel;
 import Model.Parsing.Static.TripsModel;
 import Model.Points.ClusterModel;
 import Model.Points.StopModel;
 import Service.GTFS_RT.Fetcher.Vehicle.VehiclePositionsService;
 import Service.Parsing.ShapesService;
-import Service.Parsing.TripsService;
+import Service.Parsing.Static.ShapeGeometryStore;
+import Service.Parsing.Static.StaticGtfsFeed;
+import Service.Parsing.Static.StaticGtfsRepository;
 import Service.Points.ClusterService;
 import Service.Points.StopService;
 import View.Map.MapView;
@@ -24,11 +25,12 @@ import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-
-import static Service.Points.StopService.getAllStops;
+import java.util.function.Supplier;
 
 /**
  * Controller della mappa basato su JXMapViewer.
@@ -56,7 +58,9 @@ public class MapController {
 
     private final MapModel model;
     private final MapView view;
-    private final String stopsCsvPath;
+
+    /** Versione corrente del GTFS statico (fermate, trips, shape): letta una volta per operazione. */
+    private final Supplier<StaticGtfsFeed> feed;
 
     /** Waypoint “base” delle fermate caricate dal CSV. */
     private final Set<StopWaypoint> waypoints = new HashSet<>();
@@ -76,11 +80,6 @@ public class MapController {
     /** Painter delle shape (linee) evidenziate. */
     private final ShapePainter shapePainter;
 
-    // Percorsi GTFS statico (nel progetto sono hardcoded perché legati alle risorse locali).
-    final String shapesPath = "src/main/resources/rome_static_gtfs/shapes.csv";
-    final String routesPath = "src/main/resources/rome_static_gtfs/routes.csv";
-    final String tripsPath = "src/main/resources/rome_static_gtfs/trips.csv";
-
     /** Posizione (lat/lon) della fermata evidenziata, usata dalla View per disegnare un marker speciale. */
     private GeoPosition highlightedPosition = null;
 
@@ -102,6 +101,9 @@ public class MapController {
     /** Waypoint speciale della fermata evidenziata (manteniamo un marker singolo sempre visibile). */
     private StopWaypoint highlightedStopWaypoint = null;
 
+    /** True se la mappa mostra solo un sottoinsieme di fermate (es. fermate di una linea). */
+    private boolean stopsFiltered = false;
+
     /**
      * Crea il controller mappa e inizializza:
      * - timer di smooth-zoom,
@@ -112,16 +114,17 @@ public class MapController {
      *
      * @param model modello mappa (center/zoom/markers)
      * @param view vista mappa (contiene JXMapViewer e layer)
-     * @param stopsCsvPath path del file stops.csv usato per caricare le fermate
+     * @param feed versione corrente del GTFS statico (condivisa con gli altri controller)
      * @param vehiclePositionsService service realtime che fornisce i veicoli (cache)
      */
-    public MapController(MapModel model, MapView view, String stopsCsvPath, VehiclePositionsService vehiclePositionsService) {
+    public MapController(MapModel model, MapView view, Supplier<StaticGtfsFeed> feed,
+                         VehiclePositionsService vehiclePositionsService) {
         this.model = model;
         this.view = view;
-        this.stopsCsvPath = stopsCsvPath;
+        this.feed = feed;
         this.vehiclePositionsService = vehiclePositionsService;
 
-        this.shapePainter = new ShapePainter(routesPath, tripsPath);
+        this.shapePainter = new ShapePainter(feed);
 
         this.targetZoom = model.getZoom();
 
@@ -133,7 +136,7 @@ public class MapController {
         vehiclesRefreshTimer = new Timer(30_000, e -> refreshVehiclesLayerIfNeeded());
         vehiclesRefreshTimer.start();
 
-        loadStops(stopsCsvPath);
+        loadStops();
         setupInteractions();
         refreshView();
     }
@@ -141,16 +144,15 @@ public class MapController {
     // ========================= Caricamento fermate =========================
 
     /**
-     * Legge tutte le fermate dal CSV tramite {@link StopService} e crea i relativi {@link StopWaypoint}.
+     * Legge tutte le fermate dalla versione corrente del feed e crea i relativi {@link StopWaypoint}.
      * Questo popolamento rappresenta lo stato “base” della mappa prima di eventuali filtri (es. ricerca linea).
-     *
-     * @param filePath path del file stops.csv
      */
-    private void loadStops(String filePath) {
-        List<StopModel> stops = getAllStops(filePath);
+    private void loadStops() {
+        List<StopModel> stops = feed.get().stops();
 
         model.getMarkers().clear();
         waypoints.clear();
+        stopsFiltered = false;
 
         for (StopModel stop : stops) {
             GeoPosition pos = stop.getGeoPosition();
@@ -308,23 +310,22 @@ public class MapController {
     /**
      * Cerca la fermata più vicina a una posizione, entro un raggio massimo.
      *
-     * Nota: qui rilegge dal CSV per semplicità e coerenza con il modello StopService.
-     * Se dovesse diventare un collo di bottiglia, si può ottimizzare usando la lista già in memoria.
+     * Nota: scorre la lista fermate già in memoria nel feed corrente (nessuna rilettura del CSV).
      *
      * @param pos posizione di riferimento
      * @param radiusKm raggio massimo (km)
      * @return fermata più vicina oppure null se nessuna entro raggio
      */
     private StopModel findNearestStop(GeoPosition pos, double radiusKm) {
-        List<StopModel> stops = getAllStops(stopsCsvPath);
+        List<StopModel> stops = feed.get().stops();
         StopModel nearest = null;
         double minDist = radiusKm;
 
         for (StopModel stop : stops) {
-            GeoPosition stopPos = stop.getGeoPosition();
-            if (stopPos == null) continue;
+            if (!stop.hasPosition()) continue;
 
-            double dist = StopService.calculateDistance(pos, stopPos);
+            double dist = StopService.calculateDistance(
+                    pos.getLatitude(), pos.getLongitude(), stop.getLatitude(), stop.getLongitude());
             if (dist <= minDist) {
                 minDist = dist;
                 nearest = stop;
@@ -384,8 +385,8 @@ public class MapController {
     }
 
     /**
-     * Variante “robusta” che costruisce la {@link GeoPosition} da lat/lon.
-     * Usata quando i dati stop arrivano da parsing/ricerca e non hanno già una GeoPosition pronta.
+     * Variante “robusta” usata quando i dati stop arrivano da parsing/ricerca:
+     * se la fermata non ha coordinate valide logga e non sposta la mappa.
      *
      * @param stop fermata GTFS (lat/lon devono essere validi)
      */
@@ -393,9 +394,11 @@ public class MapController {
         if (stop == null) return;
 
         try {
-            double lat = stop.getLatitude();
-            double lon = stop.getLongitude();
-            GeoPosition pos = new GeoPosition(lat, lon);
+            GeoPosition pos = stop.getGeoPosition();
+            if (pos == null) {
+                System.err.println("[MapController] centerMapOnGtfsStop: coordinate mancanti per stop " + stop.getId());
+                return;
+            }
 
             model.setCenter(pos);
             highlightedPosition = pos;
@@ -531,12 +534,13 @@ public class MapController {
             }
         }
 
-        // 2) Rileggo tutte le fermate dal CSV e filtro.
-        List<StopModel> allStops = getAllStops(stopsCsvPath);
+        // 2) Prendo tutte le fermate del feed corrente e filtro.
+        List<StopModel> allStops = feed.get().stops();
 
         // 3) Reset marker/waypoints correnti.
         model.getMarkers().clear();
         waypoints.clear();
+        stopsFiltered = true;
 
         // 4) Aggiungo solo fermate consentite.
         for (StopModel stop : allStops) {
@@ -557,10 +561,21 @@ public class MapController {
      * Ripristina tutte le fermate dopo un filtro (es. line-search) e ridisegna.
      */
     public void showAllStops() {
-        loadStops(stopsCsvPath);
+        loadStops();
         refreshView();
     }
 
+    /**
+     * Da invocare (sull’EDT) quando viene pubblicata una nuova versione del feed statico.
+     * Se la mappa mostra tutte le fermate le ricarica subito; se è attivo un filtro (linea) lo lascia invariato:
+     * il successivo {@link #showAllStops()} o {@link #hideUselessStops(List)} leggerà già i nuovi dati.
+     */
+    public void onStaticFeedReloaded() {
+        if (!stopsFiltered) {
+            showAllStops();
+        }
+    }
+
     // ========================= Evidenziazione route (shapes) =========================
 
     /**
@@ -571,16 +586,7 @@ public class MapController {
     public void highlightRouteAllDirections(String routeId) {
         if (routeId == null || routeId.isBlank()) return;
 
-        List<String> shapeIds = TripsService.getAllTrips(tripsPath).stream()
-                .filter(trip -> routeId.equals(trip.getRoute_id()))
-                .map(TripsModel::getShape_id)
-                .filter(id -> id != null && !id.isEmpty())
-                .distinct()
-                .toList();
-
-        List<ShapesModel> shapesToDraw = ShapesService.getAllShapes(shapesPath).stream()
-                .filter(shape -> shapeIds.contains(shape.getShape_id()))
-                .toList();
+        List<ShapeGeometryStore.Shape> shapesToDraw = shapesForRoute(routeId, null);
 
         shapePainter.setHighlightedShapes(shapesToDraw);
         refreshView();
@@ -595,17 +601,7 @@ public class MapController {
     public void highlightRouteFitLine(String routeId, String directionId) {
         if (routeId == null || routeId.isBlank() || directionId == null) return;
 
-        List<String> shapeIds = TripsService.getAllTrips(tripsPath).stream()
-                .filter(trip -> routeId.equals(trip.getRoute_id())
-                        && directionId.equals(trip.getDirection_id()))
-                .map(TripsModel::getShape_id)
-                .filter(id -> id != null && !id.isEmpty())
-                .distinct()
-                .toList();
-
-        List<ShapesModel> shapesToDraw = ShapesService.getAllShapes(shapesPath).stream()
-                .filter(shape -> shapeIds.contains(shape.getShape_id()))
-                .toList();
+        List<ShapeGeometryStore.Shape> shapesToDraw = shapesForRoute(routeId, directionId);
 
         shapePainter.setHighlightedShapes(shapesToDraw);
 
@@ -624,32 +620,59 @@ public class MapController {
     public void highlightRouteKeepStopView(String routeId, String directionId) {
         if (routeId == null || routeId.isBlank() || directionId == null) return;
 
-        List<String> shapeIds = TripsService.getAllTrips(tripsPath).stream()
-                .filter(trip -> routeId.equals(trip.getRoute_id())
-                        && directionId.equals(trip.getDirection_id()))
-                .map(TripsModel::getShape_id)
-                .filter(id -> id != null && !id.isEmpty())
-                .distinct()
-                .toList();
-
-        List<ShapesModel> shapesToDraw = ShapesService.getAllShapes(shapesPath).stream()
-                .filter(shape -> shapeIds.contains(shape.getShape_id()))
-                .toList();
+        List<ShapeGeometryStore.Shape> shapesToDraw = shapesForRoute(routeId, directionId);
 
         shapePainter.setHighlightedShapes(shapesToDraw);
         refreshView();
     }
 
+    /**
+     * Geometrie shape di una route (eventualmente di una sola direzione), dalla versione corrente del feed.
+     * I trip vengono presi dall'indice route -> trips della repository e ogni shape è una get per shape_id
+     * sullo store già ordinato, senza scorrere tutti i trips o tutti i punti.
+     *
+     * @param routeId id route
+     * @param directionId direzione (come stringa per match con i model), null = tutte
+     * @return shape della route (vuota se nessuna)
+     */
+    private List<ShapeGeometryStore.Shape> shapesForRoute(String routeId, String directionId) {
+        StaticGtfsFeed f = feed.get();
+        StaticGtfsRepository repo = f.repository();
+
+        Set<String> shapeIds = new LinkedHashSet<>();
+        for (String tripId : repo.getTripIdsForRoute(routeId)) {
+            TripsModel trip = repo.getTripById(tripId);
+            if (trip == null) continue;
+            if (directionId != null && !directionId.equals(trip.getDirection_id())) continue;
+
+            String shapeId = trip.getShape_id();
+            if (shapeId != null && !shapeId.isEmpty()) {
+                shapeIds.add(shapeId);
+            }
+        }
+        if (shapeIds.isEmpty()) return List.of();
+
+        ShapeGeometryStore store = ShapesService.getShapeStore(f);
+        List<ShapeGeometryStore.Shape> out = new ArrayList<>(shapeIds.size());
+        for (String shapeId : shapeIds) {
+            ShapeGeometryStore.Shape shape = store.get(shapeId);
+            if (shape != null && shape.size() > 0) {
+                out.add(shape);
+            }
+        }
+        return out;
+    }
+
     /**
      * Fit della mappa su una lista di shape:
-     * - calcola bounds lat/lon,
+     * - unisce le bounding box precalcolate delle shape,
      * - setta il centro,
      * - trova lo zoom più alto che fa stare tutto nella viewport + padding.
      *
-     * @param shapes punti della shape (lista non vuota)
+     * @param shapes shape da inquadrare (lista non vuota)
      * @param paddingPx padding in pixel per non attaccare la linea ai bordi
      */
-    private void fitMapToShapes(List<ShapesModel> shapes, int paddingPx) {
+    private void fitMapToShapes(List<ShapeGeometryStore.Shape> shapes, int paddingPx) {
         if (shapes == null || shapes.isEmpty()) return;
 
         JXMapViewer map = view.getMapViewer();
@@ -657,13 +680,11 @@ public class MapController {
         double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
         double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
 
-        for (ShapesModel s : shapes) {
-            double lat = Double.parseDouble(s.getShape_pt_lat());
-            double lon = Double.parseDouble(s.getShape_pt_lon());
-            minLat = Math.min(minLat, lat);
-            maxLat = Math.max(maxLat, lat);
-            minLon = Math.min(minLon, lon);
-            maxLon = Math.max(maxLon, lon);
+        for (ShapeGeometryStore.Shape s : shapes) {
+            minLat = Math.min(minLat, s.minLat());
+            maxLat = Math.max(maxLat, s.maxLat());
+            minLon = Math.min(minLon, s.minLon());
+            maxLon = Math.max(maxLon, s.maxLon());
         }
 
         GeoPosition center = new GeoPosition((minLat + maxLat) / 2.0, (minLon + maxLon) / 2.0);
@@ -763,16 +784,7 @@ public class MapController {
     public void highlightRouteAllDirectionsKeepStopView(String routeId) {
         if (routeId == null || routeId.isBlank()) return;
 
-        List<String> shapeIds = TripsService.getAllTrips(tripsPath).stream()
-                .filter(trip -> routeId.equals(trip.getRoute_id()))
-                .map(TripsModel::getShape_id)
-                .filter(id -> id != null && !id.isEmpty())
-                .distinct()
-                .toList();
-
-        List<ShapesModel> shapesToDraw = ShapesService.getAllShapes(shapesPath).stream()
-                .filter(shape -> shapeIds.contains(shape.getShape_id()))
-                .toList();
+        List<ShapeGeometryStore.Shape> shapesToDraw = shapesForRoute(routeId, null);
 
         shapePainter.setHighlightedShapes(shapesToDraw);
         refreshView();
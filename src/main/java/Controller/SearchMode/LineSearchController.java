@@ -2,132 +2,62 @@ package Controller.SearchMode;
 
 import Controller.Map.MapController;
 import Model.Map.RouteDirectionOption;
-import Model.Parsing.Static.RoutesModel;
 import Service.Index.LineSearchIndex;
-import Service.Index.LineSearchIndex.TripInfo;
-import Service.Parsing.RoutesService;
+import Service.Parsing.Static.StaticGtfsFeed;
 import View.SearchBar.SearchBarView;
 
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
-
 import javax.swing.*;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * Controller della ricerca linee (route) dalla SearchBar.
  *
  * Responsabilità:
- * - Caricare e indicizzare i dati necessari alla ricerca (routes + trips).
+ * - Indicizzare i dati necessari alla ricerca (routes + trips) della versione corrente del feed.
  * - Aggiornare la lista di suggerimenti quando l’utente digita.
  * - Gestire la selezione di una linea/direzione e delegare l’effetto alla mappa:
  *   evidenziazione della shape (fit della linea) + attivazione layer veicoli realtime.
  *
  * Note di design:
- * - L’indice ({@link LineSearchIndex}) è condiviso tra istanze tramite campi statici:
- *   routes/trips non cambiano durante l’esecuzione, quindi ha senso caricarli una sola volta.
- * - Il parsing di trips.csv è “minimo”: estraiamo solo routeId, tripId, directionId e headsign,
- *   che sono i campi utili per costruire {@link RouteDirectionOption}.
+ * - L’indice ({@link LineSearchIndex}) è un dato derivato di {@link StaticGtfsFeed}: viene costruito
+ *   una sola volta per versione del feed (dopo un hot-reload, alla prima ricerca) e condiviso tra istanze.
+ * - Le direzioni/capolinea arrivano dalla {@link Service.Parsing.Static.RouteDirectionTable} della repository,
+ *   calcolata al caricamento: nessuna scansione dei trips qui.
  * - Il controller non disegna nulla: aggiorna la UI (suggestions) e comanda la {@link MapController}.
  */
 public class LineSearchController {
 
     private final SearchBarView searchView;
     private final MapController mapController;
-    private final String routesCsvPath;
-    private final String tripsCsvPath;
-
-    /** Lista completa delle route (usata per costruire l’indice di ricerca). */
-    private final List<RoutesModel> allRoutes;
-
-    // ========================= Cache/Indice statici =========================
-
-    /** True se trips.csv è già stato letto e indicizzato almeno una volta. */
-    private static boolean tripsLoaded = false;
-
-    /** Mappa routeId -> lista di TripInfo (direction + headsign) usata dall’indice. */
-    private static Map<String, List<TripInfo>> tripsByRouteId = new HashMap<>();
 
-    /** Indice testuale per la ricerca rapida di linee/direzioni. */
-    private static LineSearchIndex lineIndex = null;
+    /** Versione corrente del GTFS statico (condivisa con gli altri controller). */
+    private final Supplier<StaticGtfsFeed> feed;
 
     /**
      * Crea il controller della ricerca linee.
      *
      * @param searchView view della search bar (input + suggestions)
      * @param mapController controller mappa su cui applicare highlight e layer veicoli
-     * @param routesCsvPath path di routes.csv
-     * @param tripsCsvPath path di trips.csv
+     * @param feed versione corrente del GTFS statico
      */
     public LineSearchController(SearchBarView searchView,
                                 MapController mapController,
-                                String routesCsvPath,
-                                String tripsCsvPath) {
+                                Supplier<StaticGtfsFeed> feed) {
         this.searchView = searchView;
         this.mapController = mapController;
-        this.routesCsvPath = routesCsvPath;
-        this.tripsCsvPath = tripsCsvPath;
-
-        this.allRoutes = RoutesService.getAllRoutes(routesCsvPath);
-
-        // Caricamento lazy: se già fatto da un’altra istanza non riparte.
-        loadTripsIfNeeded();
+        this.feed = feed;
     }
 
     /**
-     * Carica trips.csv e costruisce la mappa routeId -> TripInfo, solo se non già caricata.
+     * Indice di ricerca della versione del feed indicata (costruito al primo accesso).
      *
-     * Scelta: metodo synchronized per evitare doppio caricamento in caso di chiamate concorrenti
-     * (es. inizializzazioni multiple della UI).
+     * @param feed versione del feed GTFS static
+     * @return indice linee/direzioni
      */
-    private synchronized void loadTripsIfNeeded() {
-        if (tripsLoaded) return;
-
-        Map<String, List<TripInfo>> map = new HashMap<>();
-
-        try (CSVReader reader = new CSVReader(
-                new InputStreamReader(new FileInputStream(tripsCsvPath), StandardCharsets.UTF_8))) {
-
-            String[] nextLine;
-            reader.readNext(); // header
-
-            while ((nextLine = reader.readNext()) != null) {
-                // trips.csv nel GTFS standard ha più colonne: qui usiamo solo quelle che ci servono.
-                if (nextLine.length < 6) continue;
-
-                String routeId = nextLine[0].trim();
-                String tripId = nextLine[2].trim();
-                String headsign = nextLine[3].trim();
-                String directionStr = nextLine[5].trim();
-
-                int dir;
-                try {
-                    dir = Integer.parseInt(directionStr);
-                } catch (NumberFormatException e) {
-                    // Se direction_id non è parsabile, usiamo -1 come “unknown/tutte”.
-                    dir = -1;
-                }
-
-                TripInfo info = new TripInfo(routeId, tripId, dir, headsign);
-                map.computeIfAbsent(routeId, k -> new ArrayList<>()).add(info);
-            }
-
-        } catch (IOException | CsvValidationException e) {
-            System.err.println("Errore nella lettura di trips.csv: " + e.getMessage());
-            e.printStackTrace();
-        }
-
-        tripsByRouteId = map;
-        tripsLoaded = true;
-
-        // L’indice combina routes + trips per generare opzioni route/direction ricercabili.
-        lineIndex = new LineSearchIndex(allRoutes, tripsByRouteId);
-
-        System.out.println("---LineSearchController--- Trips caricati, route distinte = " + tripsByRouteId.size());
+    static LineSearchIndex lineIndex(StaticGtfsFeed feed) {
+        return feed.derived("lineSearchIndex",
+                () -> new LineSearchIndex(feed.repository().getRouteDirections()));
     }
 
     /**
@@ -142,9 +72,7 @@ public class LineSearchController {
             return;
         }
 
-        loadTripsIfNeeded();
-
-        List<RouteDirectionOption> options = lineIndex.search(text);
+        List<RouteDirectionOption> options = lineIndex(feed.get()).search(text);
 
         // Limite UI: evitiamo liste troppo lunghe nella suggestion box.
         if (options != null && options.size() > 30) {
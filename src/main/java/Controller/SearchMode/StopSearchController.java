@@ -1,11 +1,12 @@
 package Controller.SearchMode;
 
 import Model.Points.StopModel;
-import Service.Points.StopService;
+import Service.Parsing.Static.StaticGtfsFeed;
 import View.SearchBar.SearchBarView;
 
 import javax.swing.*;
 import java.util.List;
+import java.util.function.Supplier;
 
 import Controller.Map.MapController;
 import Controller.StopLines.StopLinesController;
@@ -19,7 +20,8 @@ import Controller.StopLines.StopLinesController;
  * - MapController per il centramento della mappa
  * - StopLinesController per mostrare le linee che passano dalla fermata
  *
- * Il controller interroga il file GTFS statico (stops.csv) tramite StopService.
+ * Il controller interroga l'indice fermate della versione corrente del GTFS statico
+ * ({@link StaticGtfsFeed#stopIndex()}), senza cache proprie di stops.csv.
  * Non gestisce logica realtime: si occupa solo della selezione e visualizzazione
  * della fermata e delle relative linee.
  *
@@ -39,8 +41,8 @@ public class StopSearchController {
     /** Controller della mappa per centramento su fermata selezionata. */
     private final MapController mapController;
 
-    /** Percorso del file stops.csv (GTFS statico). */
-    private final String stopsCsvPath;
+    /** Versione corrente del GTFS statico (fermate + indice di ricerca). */
+    private final Supplier<StaticGtfsFeed> feed;
 
     /** Controller che mostra le linee associate a una fermata. */
     private final StopLinesController stopLinesController;
@@ -50,16 +52,16 @@ public class StopSearchController {
      *
      * @param searchView vista contenente il campo di ricerca e suggerimenti
      * @param mapController controller della mappa
-     * @param stopsCsvPath percorso al file GTFS stops.csv
+     * @param feed versione corrente del GTFS statico
      * @param stopLinesController controller per visualizzare le linee della fermata
      */
     public StopSearchController(SearchBarView searchView,
                                 MapController mapController,
-                                String stopsCsvPath,
+                                Supplier<StaticGtfsFeed> feed,
                                 StopLinesController stopLinesController) {
         this.searchView = searchView;
         this.mapController = mapController;
-        this.stopsCsvPath = stopsCsvPath;
+        this.feed = feed;
         this.stopLinesController = stopLinesController;
     }
 
@@ -76,7 +78,7 @@ public class StopSearchController {
     public void onSearch(String query) {
         if (query == null || query.isBlank()) return;
 
-        List<StopModel> results = StopService.searchStopByName(query, stopsCsvPath);
+        List<StopModel> results = searchByName(query);
 
         if (results.isEmpty()) {
             JOptionPane.showMessageDialog(
@@ -111,7 +113,7 @@ public class StopSearchController {
             return;
         }
 
-        List<StopModel> results = StopService.searchStopByName(text, stopsCsvPath);
+        List<StopModel> results = searchByName(text);
         if (results.size() > 30) results = results.subList(0, 30);
 
         searchView.showStopSuggestions(results);
@@ -139,6 +141,16 @@ public class StopSearchController {
         }
     }
 
+    /**
+     * Ricerca per nome sull'indice della versione corrente del feed (max 50, come StopService).
+     *
+     * @param text testo inserito dall'utente
+     * @return fermate matchate
+     */
+    private List<StopModel> searchByName(String text) {
+        return feed.get().stopIndex().searchByName(text, 50);
+    }
+
     /**
      * Ripristina correttamente il caret del campo di testo.
      *
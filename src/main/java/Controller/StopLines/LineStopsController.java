@@ -12,6 +12,7 @@ import View.Map.LineStopsView;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Controller responsabile della visualizzazione delle fermate di una linea
@@ -34,7 +35,8 @@ public class LineStopsController {
     private final LineStopsView view;
     private final MapController mapController;
     private final ArrivalPredictionService arrivalPredictionService;
-    private final StaticGtfsRepository repo;
+    /** Sorgente della repository statica corrente (letta una volta per operazione: hot-reload). */
+    private final Supplier<StaticGtfsRepository> repoSource;
 
     /** Formatter per visualizzare orari in formato HH:mm. */
     private static final DateTimeFormatter HHMM = DateTimeFormatter.ofPattern("HH:mm");
@@ -51,8 +53,23 @@ public class LineStopsController {
                                StaticGtfsRepository repo,
                                MapController mapController,
                                ArrivalPredictionService arrivalPredictionService) {
+        this(view, () -> repo, mapController, arrivalPredictionService);
+    }
+
+    /**
+     * Crea il controller leggendo la repository da una sorgente sostituibile (hot-reload del feed statico).
+     *
+     * @param view vista che mostra elenco fermate + sottotitoli
+     * @param repoSource sorgente della repository GTFS statica corrente
+     * @param mapController controller mappa per filtrare e centrare fermate
+     * @param arrivalPredictionService servizio realtime per il prossimo arrivo (può essere null)
+     */
+    public LineStopsController(LineStopsView view,
+                               Supplier<StaticGtfsRepository> repoSource,
+                               MapController mapController,
+                               ArrivalPredictionService arrivalPredictionService) {
         this.view = view;
-        this.repo = repo;
+        this.repoSource = repoSource;
         this.mapController = mapController;
         this.arrivalPredictionService = arrivalPredictionService;
     }
@@ -62,7 +79,7 @@ public class LineStopsController {
      *
      * Flusso:
      * - Recupera le fermate tramite TripStopsService.
-     * - Per ogni fermata calcola il prossimo arrivo (se disponibile).
+     * - Calcola il prossimo arrivo di tutte le fermate con una sola richiesta batch (se disponibile).
      * - Aggiorna la vista con label + lista + sottotitoli.
      * - Filtra la mappa mostrando solo le fermate della linea.
      *
@@ -81,22 +98,24 @@ public class LineStopsController {
         List<StopModel> stops = TripStopsService.getStopsForRouteDirection(
                 option.getRouteId(),
                 option.getDirectionId(),
-                repo
+                repoSource.get()
         );
 
+        // Prossimo arrivo per tutte le fermate della linea in un'unica richiesta (se il servizio è disponibile).
+        List<ArrivalRow> nextByStop = (arrivalPredictionService != null)
+                ? arrivalPredictionService.getNextForStopsOnRoute(
+                option.getRouteId(),
+                option.getDirectionId(),
+                stops.stream().map(StopModel::getId).toList()
+        )
+                : null;
+
         // Costruzione sottotitoli (prossimo arrivo per ogni fermata).
         List<String> subtitles = new ArrayList<>();
 
-        for (StopModel s : stops) {
+        for (int i = 0; i < stops.size(); i++) {
 
-            // Se il servizio realtime è disponibile, provo a recuperare la prossima corsa.
-            ArrivalRow next = (arrivalPredictionService != null)
-                    ? arrivalPredictionService.getNextForStopOnRoute(
-                    s.getId(),
-                    option.getRouteId(),
-                    option.getDirectionId()
-            )
-                    : null;
+            ArrivalRow next = (nextByStop != null) ? nextByStop.get(i) : null;
 
             String sub;
 
@@ -15,13 +15,14 @@ import java.util.List;
 import java.util.Map;
 import java.lang.reflect.Method;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class StopLinesController {
 
     private final LineStopsView view;
     private final MapController mapController;
     private final ArrivalPredictionService arrivalPredictionService;
-    private final StaticGtfsRepository repo;
+    private final Supplier<StaticGtfsRepository> repoSource;
     private final Consumer<ArrivalRow> onArrivalDoubleClick;
 
     private volatile String currentStopId = null;
@@ -41,9 +42,17 @@ public class StopLinesController {
                                MapController mapController,
                                ArrivalPredictionService arrivalPredictionService,
                                Consumer<ArrivalRow> onArrivalDoubleClick) {
+        this(view, () -> repo, mapController, arrivalPredictionService, onArrivalDoubleClick);
+    }
+
+    public StopLinesController(LineStopsView view,
+                               Supplier<StaticGtfsRepository> repoSource,
+                               MapController mapController,
+                               ArrivalPredictionService arrivalPredictionService,
+                               Consumer<ArrivalRow> onArrivalDoubleClick) {
 
         this.view = view;
-        this.repo = repo;
+        this.repoSource = repoSource;
         this.mapController = mapController;
         this.arrivalPredictionService = arrivalPredictionService;
         this.onArrivalDoubleClick = onArrivalDoubleClick;
@@ -74,6 +83,7 @@ public class StopLinesController {
                 mapController.highlightRouteAllDirectionsKeepStopView(routeId);
                 mapController.showVehiclesForRoute(routeId, -1);
 
+                StaticGtfsRepository repo = repoSource.get();
                 List<StopModel> stops0 = TripStopsService.getStopsForRouteDirection(routeId, 0, repo);
                 List<StopModel> stops1 = TripStopsService.getStopsForRouteDirection(routeId, 1, repo);
 
@@ -85,7 +95,7 @@ public class StopLinesController {
             mapController.highlightRouteKeepStopView(routeId, String.valueOf(dir));
             mapController.showVehiclesForRoute(routeId, dir);
 
-            List<StopModel> stops = TripStopsService.getStopsForRouteDirection(routeId, dir, repo);
+            List<StopModel> stops = TripStopsService.getStopsForRouteDirection(routeId, dir, repoSource.get());
             if (!stops.isEmpty()) mapController.hideUselessStops(stops);
         });
     }
@@ -1,6 +1,7 @@
 package Model.GTFS_RT;
 
 import Model.GTFS_RT.Enums.ScheduleRelationship;
+import Model.Parsing.Static.GtfsIdDictionary;
 
 /**
  * Rappresenta l’aggiornamento realtime relativo a una specifica
@@ -22,6 +23,12 @@ public class StopTimeUpdateInfo {
      */
     public final String stopId;
 
+    /**
+     * Id intero della fermata nel {@link GtfsIdDictionary} (stesso valore usato dal GTFS static),
+     * oppure {@link GtfsIdDictionary#NO_ID} se la fermata non è presente nella schedule caricata.
+     */
+    public final int stopIdx;
+
     /**
      * Posizione della fermata all’interno della corsa (ordine).
      * Può essere null se non fornito dal feed.
@@ -71,7 +78,8 @@ public class StopTimeUpdateInfo {
             Integer departureDelay,
             ScheduleRelationship scheduleRelationship
     ) {
-        this.stopId = stopId;
+        this.stopIdx = GtfsIdDictionary.STOPS.idOf(stopId);
+        this.stopId = (stopIdx == GtfsIdDictionary.NO_ID) ? stopId : GtfsIdDictionary.STOPS.name(stopIdx);
         this.stopSequence = stopSequence;
         this.arrivalTime = arrivalTime;
         this.arrivalDelay = arrivalDelay;
@@ -1,5 +1,6 @@
 package Model.GTFS_RT;
 
+import Model.Parsing.Static.GtfsIdDictionary;
 import java.util.List;
 
 /**
@@ -31,6 +32,17 @@ public class TripUpdateInfo {
      */
     public final String routeId;
 
+    /**
+     * Id intero del trip nel {@link GtfsIdDictionary} (stesso valore usato dal GTFS static),
+     * oppure {@link GtfsIdDictionary#NO_ID} se il trip non è presente nella schedule caricata.
+     */
+    public final int tripIdx;
+
+    /**
+     * Id intero della linea nel {@link GtfsIdDictionary}, oppure {@link GtfsIdDictionary#NO_ID}.
+     */
+    public final int routeIdx;
+
     /**
      * Direzione della linea (tipicamente 0 o 1).
      * Può essere null se non specificata.
@@ -69,6 +81,10 @@ public class TripUpdateInfo {
     /**
      * Costruisce un oggetto TripUpdateInfo con i dati
      * provenienti dal feed GTFS Realtime.
+     *
+     * trip_id e route_id vengono risolti sul dizionario del GTFS static
+     * (senza registrare id sconosciuti): se noti, le stringhe sono sostituite
+     * dalle istanze canoniche già in memoria.
      */
     public TripUpdateInfo(
             String entityId,
@@ -82,8 +98,10 @@ public class TripUpdateInfo {
             List<StopTimeUpdateInfo> stopTimeUpdates
     ) {
         this.entityId = entityId;
-        this.tripId = tripId;
-        this.routeId = routeId;
+        this.tripIdx = GtfsIdDictionary.TRIPS.idOf(tripId);
+        this.routeIdx = GtfsIdDictionary.ROUTES.idOf(routeId);
+        this.tripId = (tripIdx == GtfsIdDictionary.NO_ID) ? tripId : GtfsIdDictionary.TRIPS.name(tripIdx);
+        this.routeId = (routeIdx == GtfsIdDictionary.NO_ID) ? routeId : GtfsIdDictionary.ROUTES.name(routeIdx);
         this.directionId = directionId;
         this.startTime = startTime;
         this.startDate = startDate;
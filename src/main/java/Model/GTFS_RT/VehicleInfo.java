@@ -2,6 +2,7 @@ package Model.GTFS_RT;
 
 import Model.GTFS_RT.Enums.OccupancyStatus;
 import Model.GTFS_RT.Enums.VehicleCurrentStatus;
+import Model.Parsing.Static.GtfsIdDictionary;
 
 /**
  * Rappresenta lo stato attuale di un veicolo
@@ -82,6 +83,14 @@ public class VehicleInfo {
      */
     public final String stopId;
 
+    /**
+     * Id interi (trip, linea, fermata) nel {@link GtfsIdDictionary} del GTFS static,
+     * {@link GtfsIdDictionary#NO_ID} se l'id non è presente nella schedule caricata.
+     */
+    public final int tripIdx;
+    public final int routeIdx;
+    public final int stopIdx;
+
     /**
      * Stato di occupazione del mezzo (posti disponibili, pieno, ecc.).
      */
@@ -109,8 +118,10 @@ public class VehicleInfo {
     ) {
         this.entityId = entityId;
         this.vehicleId = vehicleId;
-        this.tripId = tripId;
-        this.routeId = routeId;
+        this.tripIdx = GtfsIdDictionary.TRIPS.idOf(tripId);
+        this.routeIdx = GtfsIdDictionary.ROUTES.idOf(routeId);
+        this.tripId = (tripIdx == GtfsIdDictionary.NO_ID) ? tripId : GtfsIdDictionary.TRIPS.name(tripIdx);
+        this.routeId = (routeIdx == GtfsIdDictionary.NO_ID) ? routeId : GtfsIdDictionary.ROUTES.name(routeIdx);
         this.directionId = directionId;
         this.lat = lat;
         this.lon = lon;
@@ -119,7 +130,8 @@ public class VehicleInfo {
         this.timestamp = timestamp;
         this.currentStatus = currentStatus;
         this.currentStopSequence = currentStopSequence;
-        this.stopId = stopId;
+        this.stopIdx = GtfsIdDictionary.STOPS.idOf(stopId);
+        this.stopId = (stopIdx == GtfsIdDictionary.NO_ID) ? stopId : GtfsIdDictionary.STOPS.name(stopIdx);
         this.occupancyStatus = occupancyStatus;
     }
 }
@@ -0,0 +1,60 @@
+package Model.Parsing.Static;
+
+/**
+ * Modello che rappresenta una riga del file calendar_dates.txt del dataset GTFS statico.
+ *
+ * Ogni istanza è un’eccezione puntuale al calendario settimanale ({@link CalendarModel}):
+ * il servizio viene aggiunto o soppresso in una data specifica (es. festività).
+ * Alcuni feed descrivono il servizio solo tramite questo file.
+ *
+ * Questa classe è un semplice data holder utilizzato
+ * durante il parsing dei file GTFS.
+ */
+public class CalendarDateModel {
+
+    /**
+     * Identificativo del servizio (riferito da trips.service_id).
+     */
+    private String service_id;
+
+    /**
+     * Data dell’eccezione (formato yyyyMMdd).
+     */
+    private String date;
+
+    /**
+     * Tipo di eccezione: 1 = servizio aggiunto in quella data, 2 = servizio soppresso.
+     */
+    private String exception_type;
+
+    /**
+     * Costruttore vuoto richiesto per il parsing
+     * del file GTFS.
+     */
+    public CalendarDateModel() {
+    }
+
+    public String getService_id() {
+        return service_id;
+    }
+
+    public void setService_id(String service_id) {
+        this.service_id = service_id;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    public String getException_type() {
+        return exception_type;
+    }
+
+    public void setException_type(String exception_type) {
+        this.exception_type = exception_type;
+    }
+}
@@ -0,0 +1,153 @@
+package Model.Parsing.Static;
+
+/**
+ * Modello che rappresenta una riga del file calendar.txt del dataset GTFS statico.
+ *
+ * Ogni istanza descrive un servizio (service_id) con i giorni della settimana
+ * in cui è attivo e l’intervallo di date di validità.
+ *
+ * Le eccezioni puntuali (servizio aggiunto o soppresso in una data)
+ * sono descritte da {@link CalendarDateModel}.
+ *
+ * Questa classe è un semplice data holder utilizzato
+ * durante il parsing dei file GTFS.
+ */
+public class CalendarModel {
+
+    /**
+     * Identificativo del servizio (riferito da trips.service_id).
+     */
+    private String service_id;
+
+    /**
+     * 1 se il servizio è attivo di lunedì, 0 altrimenti.
+     */
+    private String monday;
+
+    /**
+     * 1 se il servizio è attivo di martedì, 0 altrimenti.
+     */
+    private String tuesday;
+
+    /**
+     * 1 se il servizio è attivo di mercoledì, 0 altrimenti.
+     */
+    private String wednesday;
+
+    /**
+     * 1 se il servizio è attivo di giovedì, 0 altrimenti.
+     */
+    private String thursday;
+
+    /**
+     * 1 se il servizio è attivo di venerdì, 0 altrimenti.
+     */
+    private String friday;
+
+    /**
+     * 1 se il servizio è attivo di sabato, 0 altrimenti.
+     */
+    private String saturday;
+
+    /**
+     * 1 se il servizio è attivo di domenica, 0 altrimenti.
+     */
+    private String sunday;
+
+    /**
+     * Primo giorno di validità (formato yyyyMMdd).
+     */
+    private String start_date;
+
+    /**
+     * Ultimo giorno di validità, incluso (formato yyyyMMdd).
+     */
+    private String end_date;
+
+    /**
+     * Costruttore vuoto richiesto per il parsing
+     * del file GTFS.
+     */
+    public CalendarModel() {
+    }
+
+    public String getService_id() {
+        return service_id;
+    }
+
+    public void setService_id(String service_id) {
+        this.service_id = service_id;
+    }
+
+    public String getMonday() {
+        return monday;
+    }
+
+    public void setMonday(String monday) {
+        this.monday = monday;
+    }
+
+    public String getTuesday() {
+        return tuesday;
+    }
+
+    public void setTuesday(String tuesday) {
+        this.tuesday = tuesday;
+    }
+
+    public String getWednesday() {
+        return wednesday;
+    }
+
+    public void setWednesday(String wednesday) {
+        this.wednesday = wednesday;
+    }
+
+    public String getThursday() {
+        return thursday;
+    }
+
+    public void setThursday(String thursday) {
+        this.thursday = thursday;
+    }
+
+    public String getFriday() {
+        return friday;
+    }
+
+    public void setFriday(String friday) {
+        this.friday = friday;
+    }
+
+    public String getSaturday() {
+        return saturday;
+    }
+
+    public void setSaturday(String saturday) {
+        this.saturday = saturday;
+    }
+
+    public String getSunday() {
+        return sunday;
+    }
+
+    public void setSunday(String sunday) {
+        this.sunday = sunday;
+    }
+
+    public String getStart_date() {
+        return start_date;
+    }
+
+    public void setStart_date(String start_date) {
+        this.start_date = start_date;
+    }
+
+    public String getEnd_date() {
+        return end_date;
+    }
+
+    public void setEnd_date(String end_date) {
+        this.end_date = end_date;
+    }
+}
@@ -0,0 +1,222 @@
+package Model.Parsing.Static;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dizionario globale degli identificativi GTFS (trip_id, stop_id, route_id) -> int denso.
+ *
+ * Responsabilità:
+ * - assegnare a ogni identificativo un intero denso e stabile (0, 1, 2, ...) al momento del caricamento
+ * - restituire un'unica istanza String canonica per identificativo (niente duplicati in heap tra modelli)
+ * - permettere ai dati realtime di risolvere le stringhe del feed sugli stessi interi del GTFS static
+ *
+ * Contesto:
+ * - i Service di parsing (stops, routes, trips, stop_times) e lo snapshot binario registrano gli id con
+ *   {@link #intern(String)} / {@link #canonical(String)};
+ * - lo {@code StopTimesStore} usa direttamente questi interi come riferimenti di riga;
+ * - i modelli realtime ({@code TripUpdateInfo}, {@code VehicleInfo}, ...) risolvono gli id con
+ *   {@link #idOf(String)}, senza far crescere il dizionario con id sconosciuti.
+ *
+ * Note di progetto:
+ * - un dizionario per tipo di id ({@link #TRIPS}, {@link #STOPS}, {@link #ROUTES}): gli interi sono densi
+ *   per tipo e quindi usabili come indici di array.
+ * - un id resta stabile finché è usato dalla versione pubblicata del feed: a ogni reload
+ *   {@link #retainOnly(BitSet)} ritira gli id non più usati e libera quelli ritirati al reload precedente;
+ *   solo questi ultimi vengono riassegnati agli id nuovi, così gli array indicizzati per id non crescono
+ *   reload dopo reload e chi conserva un intero della versione appena sostituita (modelli realtime,
+ *   query in corso, scrittura dello snapshot) lo risolve ancora sullo stesso id.
+ * - thread-safe: lettura lock-free ({@link ConcurrentHashMap} + array pubblicato tramite campo volatile),
+ *   inserimento sincronizzato.
+ * - gli id vengono usati così come arrivano: il trim è a carico del chiamante (i parser restituiscono già valori trim()mati).
+ */
+public final class GtfsIdDictionary {
+
+    /** Dizionario dei trip_id. */
+    public static final GtfsIdDictionary TRIPS = new GtfsIdDictionary("trip_id");
+
+    /** Dizionario degli stop_id. */
+    public static final GtfsIdDictionary STOPS = new GtfsIdDictionary("stop_id");
+
+    /** Dizionario dei route_id. */
+    public static final GtfsIdDictionary ROUTES = new GtfsIdDictionary("route_id");
+
+    /** Valore restituito per id assente o non valido. */
+    public static final int NO_ID = -1;
+
+    private final String kind;
+    private final Map<String, Integer> index = new ConcurrentHashMap<>();
+
+    /** id -> stringa canonica; sostituito quando cresce, una cella viene riscritta solo quando un intero libero è riusato. */
+    private volatile String[] names = new String[1024];
+
+    /** Numero di id assegnati: scritto dopo {@link #names}, pubblica i nuovi valori ai lettori. */
+    private volatile int size;
+
+    /** Interi non usati dalla versione pubblicata: ancora risolvibili, liberati al reload successivo (accesso sincronizzato). */
+    private final BitSet retired = new BitSet();
+
+    /** Interi liberati da {@link #retainOnly(BitSet)} e riassegnabili (accesso sincronizzato). */
+    private final BitSet free = new BitSet();
+
+    private GtfsIdDictionary(String kind) {
+        this.kind = kind;
+    }
+
+    // =========================
+    // Registrazione (caricamento)
+    // =========================
+
+    /**
+     * Restituisce l'intero associato all'id, assegnandone uno nuovo se l'id non è ancora noto.
+     *
+     * @param id identificativo GTFS
+     * @return intero denso, oppure {@link #NO_ID} se {@code id} è null o vuoto
+     */
+    public int intern(String id) {
+        if (id == null || id.isEmpty()) {
+            return NO_ID;
+        }
+        Integer existing = index.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        return internSlow(id);
+    }
+
+    private synchronized int internSlow(String id) {
+        Integer existing = index.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        String[] arr = names;
+        int reused = free.nextSetBit(0);
+        if (reused >= 0) {
+            free.clear(reused);
+            arr[reused] = id;
+            names = arr;
+            index.put(id, reused);
+            return reused;
+        }
+        int next = size;
+        if (next == arr.length) {
+            arr = Arrays.copyOf(arr, next * 2);
+        }
+        arr[next] = id;
+        names = arr;
+        size = next + 1;
+        index.put(id, next);
+        return next;
+    }
+
+    /**
+     * Ritira gli id non marcati e libera quelli già ritirati dalla chiamata precedente.
+     *
+     * Dettagli:
+     * - gli id marcati mantengono il proprio intero (e tornano attivi se erano stati ritirati)
+     * - un id ritirato resta risolvibile con {@link #idOf(String)} / {@link #name(int)} fino alla chiamata
+     *   successiva: gli interi della versione appena sostituita non cambiano significato
+     * - un id liberato esce dall'indice ma {@link #name(int)} continua a restituirlo finché il suo intero
+     *   non viene riassegnato da {@link #intern(String)}: nessun lettore trova una cella vuota
+     *
+     * @param live interi usati dalla versione pubblicata
+     * @return numero di id liberati (riassegnabili)
+     */
+    public synchronized int retainOnly(BitSet live) {
+        String[] arr = names;
+        int count = size;
+        int released = 0;
+        for (int i = 0; i < count; i++) {
+            if (live.get(i) || free.get(i)) {
+                retired.clear(i);
+            } else if (retired.get(i)) {
+                retired.clear(i);
+                index.remove(arr[i], i);
+                free.set(i);
+                released++;
+            } else {
+                retired.set(i);
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Registra l'id e ne restituisce l'istanza canonica (da usare nei modelli al posto della stringa letta).
+     *
+     * @param id identificativo GTFS
+     * @return stringa canonica ({@code id} stesso se null o vuoto)
+     */
+    public String canonical(String id) {
+        int n = intern(id);
+        return (n == NO_ID) ? id : name(n);
+    }
+
+    // =========================
+    // Lookup (query / realtime)
+    // =========================
+
+    /**
+     * Risolve un id senza registrarlo (uso tipico: id provenienti dal feed realtime).
+     *
+     * @param id identificativo GTFS
+     * @return intero denso, oppure {@link #NO_ID} se l'id non è mai stato caricato
+     */
+    public int idOf(String id) {
+        if (id == null) {
+            return NO_ID;
+        }
+        Integer n = index.get(id);
+        return (n == null) ? NO_ID : n;
+    }
+
+    /**
+     * Come {@link #canonical(String)} ma senza registrare id sconosciuti.
+     *
+     * @param id identificativo GTFS
+     * @return stringa canonica se l'id è noto, altrimenti {@code id}
+     */
+    public String canonicalIfKnown(String id) {
+        int n = idOf(id);
+        return (n == NO_ID) ? id : name(n);
+    }
+
+    /**
+     * @param n intero denso
+     * @return id associato
+     * @throws IndexOutOfBoundsException se {@code n} non è stato assegnato
+     */
+    public String name(int n) {
+        int count = size;
+        if (n < 0 || n >= count) {
+            throw new IndexOutOfBoundsException(kind + " non assegnato: " + n);
+        }
+        return names[n];
+    }
+
+    /**
+     * @param n intero denso
+     * @return true se {@code n} è associato a un id risolvibile (non liberato da {@link #retainOnly(BitSet)})
+     */
+    public boolean isAssigned(int n) {
+        if (n < 0 || n >= size) {
+            return false;
+        }
+        Integer current = index.get(names[n]);
+        return current != null && current == n;
+    }
+
+    /**
+     * @return limite esclusivo degli interi validi (può includere interi liberati, vedi {@link #isAssigned(int)})
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "GtfsIdDictionary[" + kind + ", size=" + size + "]";
+    }
+}
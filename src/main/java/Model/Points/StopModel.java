@@ -11,6 +11,11 @@ import org.jxmapviewer.viewer.GeoPosition;
  *
  * Questa classe viene utilizzata sia per la modalità offline
  * sia per la visualizzazione sulla mappa.
+ *
+ * Note di progetto (percorsi caldi di mappa e ricerca):
+ * - coordinate primitive ({@code NaN} = non disponibile), senza boxing per ogni lettura
+ * - {@link GeoPosition} creata una volta e condivisa (waypoint, cluster, distanze)
+ * - la cache viene azzerata dai setter: dopo il caricamento la fermata va trattata come immutabile.
  */
 public class StopModel {
 
@@ -35,14 +40,19 @@ public class StopModel {
     private String description;
 
     /**
-     * Latitudine della fermata (in gradi decimali).
+     * Latitudine della fermata (in gradi decimali), {@code NaN} se non disponibile.
+     */
+    private double latitude = Double.NaN;
+
+    /**
+     * Longitudine della fermata (in gradi decimali), {@code NaN} se non disponibile.
      */
-    private Double latitude;
+    private double longitude = Double.NaN;
 
     /**
-     * Longitudine della fermata (in gradi decimali).
+     * Posizione geografica (cache di {@link #getGeoPosition()}).
      */
-    private Double longitude;
+    private GeoPosition position;
 
     /**
      * URL con eventuali informazioni aggiuntive.
@@ -110,20 +120,22 @@ public class StopModel {
         this.description = description;
     }
 
-    public Double getLatitude() {
+    public double getLatitude() {
         return latitude;
     }
 
-    public void setLatitude(Double latitude) {
+    public void setLatitude(double latitude) {
         this.latitude = latitude;
+        this.position = null;
     }
 
-    public Double getLongitude() {
+    public double getLongitude() {
         return longitude;
     }
 
-    public void setLongitude(Double longitude) {
+    public void setLongitude(double longitude) {
         this.longitude = longitude;
+        this.position = null;
     }
 
     public String getUrl() {
@@ -166,19 +178,26 @@ public class StopModel {
         this.parent_station = parent_station;
     }
 
+    /**
+     * @return true se latitudine e longitudine sono disponibili
+     */
+    public boolean hasPosition() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+
     /**
      * Restituisce la posizione geografica della fermata
      * come oggetto GeoPosition.
      *
+     * L'oggetto viene creato al primo accesso e poi riusato (GeoPosition è immutabile).
      * Se le coordinate non sono valide, restituisce null.
      */
     public GeoPosition getGeoPosition() {
-        try {
-            double lat = this.latitude;
-            double lon = this.longitude;
-            return new GeoPosition(lat, lon);
-        } catch (Exception e) {
-            return null;
+        GeoPosition p = position;
+        if (p == null && hasPosition()) {
+            p = new GeoPosition(latitude, longitude);
+            position = p;
         }
+        return p;
     }
 }
@@ -5,38 +5,79 @@ import Model.GTFS_RT.StopTimeUpdateInfo;
 import Model.GTFS_RT.TripUpdateInfo;
 import Model.Net.ConnectionState;
 import Model.Net.ConnectionStatusProvider;
+import Model.Parsing.Static.GtfsIdDictionary;
 import Model.Parsing.Static.RoutesModel;
-import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
 import Service.GTFS_RT.Fetcher.TripUpdates.TripUpdatesService;
+import Service.GTFS_RT.Index.ArrivalResultCache;
 import Service.GTFS_RT.Index.BestEta;
 import Service.GTFS_RT.Index.DelayEstimate;
 import Service.GTFS_RT.Index.DelayHistoryStore;
+import Service.GTFS_RT.Index.StopEta;
 import Service.GTFS_RT.Index.TripUpdatesRtIndex;
+import Service.Parsing.Static.ServiceCalendar;
 import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StopTimesDiskStore;
+import Service.Parsing.Static.StopTimesStore;
+import Service.Parsing.Static.StopTimetables;
 
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Servizio principale per la predizione degli arrivi dei mezzi pubblici.
  * Combina dati statici GTFS con dati realtime GTFS Realtime per fornire:
  * - Arrivi stimati per fermata (Stop Mode)
  * - Prossimo arrivo per una linea su una fermata (Line Mode)
+ * - Varianti batch per più fermate, calcolate con un solo contesto di richiesta
+ * - Tabellone partenze (prossimi N passaggi di una fermata su tutte le linee)
+ * - Cache LRU dei risultati Stop/Line Mode per versione del feed realtime e minuto
  * - Applicazione di ritardi stimati con confidenza
  *
  * Gestisce internamente un indice realtime {@link TripUpdatesRtIndex} e uno
- * storico dei ritardi {@link DelayHistoryStore}, aggiornandoli solo se la
- * connessione è ONLINE.
+ * storico dei ritardi {@link DelayHistoryStore}. Dopo {@link #start()} li aggiorna a ogni nuovo feed
+ * sul thread di fetch di {@link TripUpdatesService}: le query leggono solo lo snapshot già preparato.
  */
 public class ArrivalPredictionService {
 
+    /** Voci massime delle cache dei risultati (una linea lunga occupa una voce per fermata). */
+    private static final int STOP_CACHE_CAPACITY = 256;
+    private static final int LINE_CACHE_CAPACITY = 2048;
+
+    /**
+     * Soglia minima di confidenza per applicare il ritardo stimato.
+     * 0.0 = applica sempre, 0.5 = applica solo se affidabile.
+     */
+    private static final double MIN_CONFIDENCE_TO_APPLY_DELAY = 0.45;
+
+    /** Secondi in un giorno (orari GTFS oltre le 24:00 appartengono al giorno di servizio precedente). */
+    private static final int SECONDS_PER_DAY = 86_400;
+
     private final TripUpdatesService tripUpdatesService;
     private final ConnectionStatusProvider statusProvider;
-    private final StaticGtfsRepository repo;
+
+    /**
+     * Sorgente della repository statica: letta una volta per richiesta, così un hot-reload del feed
+     * viene visto alla richiesta successiva senza mescolare versioni nella stessa risposta.
+     */
+    private final Supplier<StaticGtfsRepository> repoSource;
 
     /** Indice realtime delle ETA per stop/linea/direzione */
     private final TripUpdatesRtIndex rtIndex;
@@ -47,11 +88,23 @@ public class ArrivalPredictionService {
     /** Riferimento all'ultimo batch di aggiornamenti (evita rebuild ridondanti) */
     private volatile Object lastUpdatesRef = null;
 
-    /**
-     * Soglia minima di confidenza per applicare il ritardo stimato.
-     * 0.0 = applica sempre, 0.5 = applica solo se affidabile.
-     */
-    private static final double MIN_CONFIDENCE_TO_APPLY_DELAY = 0.45;
+    /** Stadio di ingest registrato su {@link TripUpdatesService} da {@link #start()} (null se non avviato) */
+    private volatile Consumer<List<TripUpdateInfo>> ingestListener;
+
+    /** true se l'ultimo ingest è fallito: finché un rebuild non riesce le query tornano a ricostruire l'indice */
+    private volatile boolean ingestFailed = false;
+
+    /** Serializza i rebuild dell'indice realtime (i lettori non lo acquisiscono mai) */
+    private final ReentrantLock rtRebuildLock = new ReentrantLock();
+
+    /** Versione del feed realtime applicato: incrementata a ogni rebuild dell'indice */
+    private final AtomicLong rtVersion = new AtomicLong();
+
+    /** Risultati Stop Mode per fermata (versione RT, minuto, stato connessione) */
+    private final ArrivalResultCache<List<ArrivalRow>> stopRowsCache = new ArrivalResultCache<>(STOP_CACHE_CAPACITY);
+
+    /** Risultati Line Mode per fermata/linea/direzione (versione RT, minuto, stato connessione) */
+    private final ArrivalResultCache<ArrivalRow> lineRowCache = new ArrivalResultCache<>(LINE_CACHE_CAPACITY);
 
     // ========================= COSTRUTTORI =========================
 
@@ -70,6 +123,21 @@ public class ArrivalPredictionService {
         this(tripUpdatesService, statusProvider, repo, new TripUpdatesRtIndex(), new DelayHistoryStore(0.25));
     }
 
+    /**
+     * Costruttore di produzione con repository "sostituibile" (hot-reload del feed statico).
+     *
+     * @param tripUpdatesService servizio per ottenere TripUpdates realtime
+     * @param statusProvider provider dello stato della connessione
+     * @param repoSource sorgente della repository corrente
+     */
+    public ArrivalPredictionService(
+            TripUpdatesService tripUpdatesService,
+            ConnectionStatusProvider statusProvider,
+            Supplier<StaticGtfsRepository> repoSource
+    ) {
+        this(tripUpdatesService, statusProvider, repoSource, new TripUpdatesRtIndex(), new DelayHistoryStore(0.25));
+    }
+
     /**
      * Costruttore per test o dependency injection.
      *
@@ -85,14 +153,57 @@ public class ArrivalPredictionService {
             StaticGtfsRepository repo,
             TripUpdatesRtIndex rtIndex,
             DelayHistoryStore delayHistory
+    ) {
+        this(tripUpdatesService, statusProvider, constant(Objects.requireNonNull(repo, "repo null")), rtIndex, delayHistory);
+    }
+
+    /**
+     * Costruttore con repository "sostituibile" (hot-reload del feed statico).
+     *
+     * @param tripUpdatesService servizio per ottenere TripUpdates realtime
+     * @param statusProvider provider dello stato della connessione
+     * @param repoSource sorgente della repository corrente (es. {@code feeds::currentRepository})
+     * @param rtIndex indice realtime
+     * @param delayHistory storico dei ritardi
+     */
+    public ArrivalPredictionService(
+            TripUpdatesService tripUpdatesService,
+            ConnectionStatusProvider statusProvider,
+            Supplier<StaticGtfsRepository> repoSource,
+            TripUpdatesRtIndex rtIndex,
+            DelayHistoryStore delayHistory
     ) {
         this.tripUpdatesService = Objects.requireNonNull(tripUpdatesService, "tripUpdatesService null");
         this.statusProvider = Objects.requireNonNull(statusProvider, "statusProvider null");
-        this.repo = Objects.requireNonNull(repo, "repo null");
+        this.repoSource = Objects.requireNonNull(repoSource, "repoSource null");
         this.rtIndex = Objects.requireNonNull(rtIndex, "rtIndex null");
         this.delayHistory = Objects.requireNonNull(delayHistory, "delayHistory null");
     }
 
+    // ========================= CICLO DI VITA =========================
+
+    /**
+     * Collega lo stadio di ingest al {@link TripUpdatesService}: da qui in poi indice realtime e storico
+     * vengono aggiornati sul thread di fetch, prima che il nuovo feed sia visibile alle query,
+     * e le query non ricostruiscono più l'indice (salvo che l'ingest di un feed sia fallito).
+     *
+     * Idempotente; da abbinare a {@link #stop()}.
+     */
+    public synchronized void start() {
+        if (ingestListener != null) return;
+        ingestListener = this::onTripUpdates;
+        tripUpdatesService.addListener(ingestListener);
+    }
+
+    /**
+     * Scollega lo stadio di ingest (le query tornano a ricostruire l'indice quando trovano un feed nuovo).
+     */
+    public synchronized void stop() {
+        if (ingestListener == null) return;
+        tripUpdatesService.removeListener(ingestListener);
+        ingestListener = null;
+    }
+
     // ========================= STOP MODE =========================
 
     /**
@@ -103,70 +214,139 @@ public class ArrivalPredictionService {
      */
     public List<ArrivalRow> getArrivalsForStop(String stopId) {
         if (stopId == null || stopId.isBlank()) return List.of();
+        return getArrivalsForStops(List.of(stopId)).getOrDefault(stopId, List.of());
+    }
 
-        List<RoutesModel> routesAtStop = repo.getRoutesForStop(stopId);
-        if (routesAtStop == null || routesAtStop.isEmpty()) return List.of();
+    /**
+     * Restituisce gli arrivi stimati per più fermate in una sola passata.
+     *
+     * Dettagli:
+     * - indice realtime, repository, stato della connessione e orologio vengono letti una volta per tutte le fermate
+     * - linea e capolinea di ogni route sono calcolati una volta anche se la route serve più fermate
+     * - ogni lista ha lo stesso contenuto e ordinamento di {@link #getArrivalsForStop(String)}
+     * - le fermate già calcolate con la stessa versione realtime, nello stesso minuto e con lo stesso stato
+     *   della connessione vengono servite dalla cache; solo le altre vengono calcolate
+     *
+     * @param stopIds identificativi delle fermate (null/vuoti ignorati)
+     * @return fermata -> arrivi (liste read-only), nell'ordine di {@code stopIds}; le fermate senza linee hanno lista vuota
+     */
+    public Map<String, List<ArrivalRow>> getArrivalsForStops(Collection<String> stopIds) {
+        LinkedHashMap<String, List<ArrivalRow>> out = new LinkedHashMap<>();
+        if (stopIds == null || stopIds.isEmpty()) return out;
 
         maybeRebuildRtIndex();
 
-        ArrayList<ArrivalRow> rows = new ArrayList<>();
+        StaticGtfsRepository repo = repoSource.get();
+        stopRowsCache.validateFor(repo);
+
+        // chiavi lette prima del calcolo e riusate per il put: righe calcolate mentre arriva un nuovo feed
+        // (o cambia minuto) restano sotto la versione vecchia e non vengono servite come fresche
+        LinkedHashMap<String, ArrivalResultCache.Key> missing = new LinkedHashMap<>();
+        for (String stopId : stopIds) {
+            if (stopId == null || stopId.isBlank() || out.containsKey(stopId)) continue;
+            ArrivalResultCache.Key key = cacheKey(stopId, null, -1);
+            List<ArrivalRow> cached = stopRowsCache.get(key);
+            out.put(stopId, cached);
+            if (cached == null) missing.put(stopId, key);
+        }
 
-        for (RoutesModel r : routesAtStop) {
-            if (r == null) continue;
+        if (!missing.isEmpty()) {
+            Map<String, List<ArrivalRow>> computed = computeArrivalsForStops(repo, missing.keySet());
+            for (Map.Entry<String, ArrivalResultCache.Key> e : missing.entrySet()) {
+                List<ArrivalRow> rows = List.copyOf(computed.getOrDefault(e.getKey(), List.of()));
+                stopRowsCache.put(e.getValue(), rows);
+                out.put(e.getKey(), rows);
+            }
+        }
 
-            String routeId = safe(r.getRoute_id());
-            if (routeId.isEmpty()) continue;
+        return out;
+    }
 
-            String line = safe(r.getRoute_short_name());
-            if (line.isEmpty()) line = routeId;
+    /**
+     * Calcolo (senza cache) degli arrivi per più fermate.
+     */
+    private Map<String, List<ArrivalRow>> computeArrivalsForStops(StaticGtfsRepository repo, Collection<String> stopIds) {
+        LinkedHashMap<String, List<ArrivalRow>> out = new LinkedHashMap<>();
+        Request req = null;
+        HashMap<String, String[]> labelsByRoute = new HashMap<>();
+
+        for (String stopId : stopIds) {
+            if (stopId == null || stopId.isBlank() || out.containsKey(stopId)) continue;
+
+            List<RoutesModel> routesAtStop = repo.getRoutesForStop(stopId);
+            if (routesAtStop == null || routesAtStop.isEmpty()) {
+                out.put(stopId, List.of());
+                continue;
+            }
 
-            String h0 = safe(repo.pickHeadsign(routeId, 0));
-            String h1 = safe(repo.pickHeadsign(routeId, 1));
+            if (req == null) req = new Request(repo);
 
-            if (h0.isEmpty() && h1.isEmpty()) {
-                rows.add(buildRow(stopId, routeId, -1, line, ""));
-            } else if (!h0.isEmpty() && !h1.isEmpty() && !h0.equalsIgnoreCase(h1)) {
-                rows.add(buildRow(stopId, routeId, 0, line, h0));
-                rows.add(buildRow(stopId, routeId, 1, line, h1));
-            } else {
-                String hh = !h0.isEmpty() ? h0 : h1;
-                rows.add(buildRow(stopId, routeId, -1, line, hh));
-            }
-        }
+            ArrayList<ArrivalRow> rows = new ArrayList<>();
 
-        rows.sort((a, b) -> {
-            int am = (a.minutes != null) ? a.minutes : Integer.MAX_VALUE;
-            int bm = (b.minutes != null) ? b.minutes : Integer.MAX_VALUE;
-            if (am != bm) return Integer.compare(am, bm);
+            for (RoutesModel r : routesAtStop) {
+                if (r == null) continue;
 
-            LocalTime at = a.time;
-            LocalTime bt = b.time;
-            if (at != null && bt != null) {
-                int c = at.compareTo(bt);
-                if (c != 0) return c;
-            } else if (at != null) return -1;
-            else if (bt != null) return 1;
+                String routeId = safe(r.getRoute_id());
+                if (routeId.isEmpty()) continue;
 
-            int c1 = safe(a.line).compareToIgnoreCase(safe(b.line));
-            if (c1 != 0) return c1;
-            return safe(a.headsign).compareToIgnoreCase(safe(b.headsign));
-        });
+                // [line, headsign dir 0, headsign dir 1]
+                String[] labels = labelsByRoute.computeIfAbsent(routeId, id -> {
+                    String line = safe(r.getRoute_short_name());
+                    return new String[]{line.isEmpty() ? id : line,
+                            safe(repo.pickHeadsign(id, 0)), safe(repo.pickHeadsign(id, 1))};
+                });
+                String line = labels[0];
+                String h0 = labels[1];
+                String h1 = labels[2];
+
+                if (h0.isEmpty() && h1.isEmpty()) {
+                    rows.add(buildRow(req, stopId, routeId, -1, line, ""));
+                } else if (!h0.isEmpty() && !h1.isEmpty() && !h0.equalsIgnoreCase(h1)) {
+                    rows.add(buildRow(req, stopId, routeId, 0, line, h0));
+                    rows.add(buildRow(req, stopId, routeId, 1, line, h1));
+                } else {
+                    String hh = !h0.isEmpty() ? h0 : h1;
+                    rows.add(buildRow(req, stopId, routeId, -1, line, hh));
+                }
+            }
+
+            rows.sort(ROW_ORDER);
+            out.put(stopId, rows);
+        }
 
-        return rows;
+        return out;
     }
 
+    /** Ordine delle righe in Stop Mode: minuti, orario, linea, capolinea. */
+    private static final Comparator<ArrivalRow> ROW_ORDER = (a, b) -> {
+        int am = (a.minutes != null) ? a.minutes : Integer.MAX_VALUE;
+        int bm = (b.minutes != null) ? b.minutes : Integer.MAX_VALUE;
+        if (am != bm) return Integer.compare(am, bm);
+
+        LocalTime at = a.time;
+        LocalTime bt = b.time;
+        if (at != null && bt != null) {
+            int c = at.compareTo(bt);
+            if (c != 0) return c;
+        } else if (at != null) return -1;
+        else if (bt != null) return 1;
+
+        int c1 = safe(a.line).compareToIgnoreCase(safe(b.line));
+        if (c1 != 0) return c1;
+        return safe(a.headsign).compareToIgnoreCase(safe(b.headsign));
+    };
+
     /**
      * Costruisce una riga di arrivo, scegliendo tra dati realtime e dati statici con delay stimato.
      */
-    private ArrivalRow buildRow(String stopId, String routeId, int directionId, String line, String headsign) {
-        boolean online = statusProvider.getState() == ConnectionState.ONLINE;
-
-        if (online) {
-            ArrivalRow rt = tryRealtime(stopId, routeId, directionId, line, headsign);
+    private ArrivalRow buildRow(Request req, String stopId, String routeId, int directionId, String line, String headsign) {
+        if (req.online) {
+            ArrivalRow rt = tryRealtime(req, stopId, routeId, directionId, line, headsign);
             if (rt != null) return rt;
         }
 
-        return staticWithEstimatedDelay(stopId, routeId, directionId, line, headsign);
+        return staticRow(stopId, routeId, directionId, line, headsign,
+                findBestStaticArrivalSec(req, stopId, routeId, directionId));
     }
 
     // ========================= LINE MODE =========================
@@ -178,19 +358,301 @@ public class ArrivalPredictionService {
         if (stopId == null || stopId.isBlank()) return null;
         if (routeId == null || routeId.isBlank()) return null;
 
+        return getNextForStopsOnRoute(routeId, directionId, List.of(stopId)).get(0);
+    }
+
+    /**
+     * Restituisce il prossimo arrivo stimato di una linea per più fermate (es. tutte le fermate della linea).
+     *
+     * Dettagli:
+     * - indice realtime, route, stato della connessione e orologio vengono letti una volta sola
+     * - in modalità low memory i trip della linea vengono decodificati una volta per tutte le fermate
+     * - ogni elemento è uguale al risultato di {@link #getNextForStopOnRoute(String, String, int)}
+     * - le fermate già calcolate con la stessa versione realtime, nello stesso minuto e con lo stesso stato
+     *   della connessione vengono servite dalla cache; solo le altre vengono calcolate
+     *
+     * @param routeId route_id GTFS
+     * @param directionId direction_id (0/1), oppure -1 per tutte le direzioni
+     * @param stopIds fermate richieste
+     * @return risultati paralleli a {@code stopIds} (null per fermate vuote o route non valida)
+     */
+    public List<ArrivalRow> getNextForStopsOnRoute(String routeId, int directionId, List<String> stopIds) {
+        if (stopIds == null || stopIds.isEmpty()) return List.of();
+
+        ArrayList<ArrivalRow> out = new ArrayList<>(stopIds.size());
+        if (routeId == null || routeId.isBlank()) {
+            stopIds.forEach(id -> out.add(null));
+            return out;
+        }
+
         maybeRebuildRtIndex();
 
-        boolean online = statusProvider.getState() == ConnectionState.ONLINE;
-        RoutesModel route = repo.getRouteById(routeId);
+        StaticGtfsRepository repo = repoSource.get();
+        lineRowCache.validateFor(repo);
+
+        // stessa chiave per get e put (vedi getArrivalsForStops)
+        LinkedHashMap<String, ArrivalResultCache.Key> missing = new LinkedHashMap<>();
+        for (String stopId : stopIds) {
+            if (stopId == null || stopId.isBlank()) {
+                out.add(null);
+                continue;
+            }
+            ArrivalResultCache.Key key = missing.get(stopId);
+            ArrivalRow cached = null;
+            if (key == null) {
+                key = cacheKey(stopId, routeId, directionId);
+                cached = lineRowCache.get(key);
+                if (cached == null) missing.put(stopId, key);
+            }
+            out.add(cached);
+        }
+        if (missing.isEmpty()) return out;
+
+        Map<String, ArrivalRow> computed = computeNextForStopsOnRoute(repo, routeId, directionId,
+                new ArrayList<>(missing.keySet()));
+        for (int i = 0; i < stopIds.size(); i++) {
+            String stopId = stopIds.get(i);
+            ArrivalResultCache.Key key = (stopId == null) ? null : missing.get(stopId);
+            if (out.get(i) != null || key == null || !computed.containsKey(stopId)) continue;
+            ArrivalRow row = computed.get(stopId);
+            lineRowCache.put(key, row);
+            out.set(i, row);
+        }
+        return out;
+    }
+
+    /**
+     * Calcolo (senza cache) del prossimo arrivo di una linea per più fermate (non vuote).
+     *
+     * @return fermata -> prossimo arrivo
+     */
+    private Map<String, ArrivalRow> computeNextForStopsOnRoute(StaticGtfsRepository repo, String routeId, int directionId,
+                                                               List<String> stopIds) {
+        HashMap<String, ArrivalRow> out = new HashMap<>();
+
+        Request req = new Request(repo);
+        RoutesModel route = req.repo.getRouteById(routeId);
         String line = (route != null && !safe(route.getRoute_short_name()).isEmpty())
                 ? safe(route.getRoute_short_name()) : safe(routeId);
 
-        if (online) {
-            ArrivalRow rt = tryRealtime(stopId, routeId, directionId, line, "");
-            if (rt != null) return rt;
+        // modalità low memory: un'unica scansione dei trip della linea per tutte le fermate
+        Map<String, Integer> fromDisk = null;
+
+        for (String stopId : stopIds) {
+            if (out.containsKey(stopId)) continue;
+
+            if (req.online) {
+                ArrivalRow rt = tryRealtime(req, stopId, routeId, directionId, line, "");
+                if (rt != null) {
+                    out.put(stopId, rt);
+                    continue;
+                }
+            }
+
+            Integer bestSec;
+            if (req.repo.getStopTimetables() != null) {
+                bestSec = findBestStaticArrivalSec(req, stopId, routeId, directionId);
+            } else {
+                if (fromDisk == null) {
+                    fromDisk = findBestOnDisk(req, routeId, directionId, stopIds);
+                }
+                bestSec = fromDisk.get(stopId);
+            }
+            out.put(stopId, staticRow(stopId, routeId, directionId, line, "", bestSec));
         }
 
-        return staticWithEstimatedDelay(stopId, routeId, directionId, line, "");
+        return out;
+    }
+
+    // ========================= TABELLONE PARTENZE =========================
+
+    /**
+     * Tabellone partenze di una fermata: prossimi passaggi di tutte le linee, fusi in ordine di orario.
+     *
+     * Dettagli:
+     * - unisce le ETA realtime della fermata (solo se ONLINE) e gli orari statici con delay stimato
+     * - un trip con ETA realtime nella fermata non compare anche con l'orario statico
+     * - gli orari statici vengono letti con un merge sugli orari precalcolati della fermata, che si ferma
+     *   appena raggiunte {@code maxRows} righe o superata la finestra: un tabellone di 30 righe
+     *   costa come 30 passi del merge, non come una scansione della fermata
+     * - le righe statiche hanno {@code minutes == null} (come in Stop Mode), quelle realtime i minuti all'arrivo
+     * - le ETA realtime già passate rispetto alla richiesta (snapshot preparato prima) vengono scartate
+     *
+     * @param stopId identificativo della fermata
+     * @param maxRows massimo numero di righe ({@code <= 0} = nessun limite)
+     * @param windowMinutes finestra da adesso in minuti ({@code <= 0} = nessun limite)
+     * @return righe ordinate per orario di arrivo
+     */
+    public List<ArrivalRow> getDeparturesBoard(String stopId, int maxRows, int windowMinutes) {
+        if (stopId == null || stopId.isBlank()) return List.of();
+
+        maybeRebuildRtIndex();
+
+        Request req = new Request(repoSource.get());
+        int untilSec = (windowMinutes <= 0) ? Integer.MAX_VALUE : req.nowSec + windowMinutes * 60;
+        Board board = new Board(req, stopId, (maxRows <= 0) ? Integer.MAX_VALUE : maxRows, untilSec,
+                req.online ? rtIndex.etasForStop(stopId) : List.of());
+
+        StopTimetables.Shift shift = (routeIdx, dir) -> estimatedDelaySec(GtfsIdDictionary.ROUTES.name(routeIdx), dir, stopId);
+
+        StopTimetables timetables = req.repo.getStopTimetables();
+        if (timetables != null) {
+            timetables.forEachDeparture(stopId, req.nowSec, untilSec,
+                    req.runsToday()::isTripActive, req.runsYesterday()::isTripActive, shift, board::offerStatic);
+        } else {
+            for (long[] d : departuresOnDisk(req, stopId, untilSec, shift)) {
+                if (!board.offerStatic((int) d[0], (int) d[1], (int) d[2], (int) d[3])) break;
+            }
+        }
+        board.flushRealtime(Long.MAX_VALUE);
+
+        return board.rows;
+    }
+
+    /**
+     * Ritardo stimato applicato agli orari statici (stessa soglia di confidenza della riga singola).
+     */
+    private int estimatedDelaySec(String routeId, int directionId, String stopId) {
+        if (routeId == null || directionId == -1) return 0;
+        DelayEstimate est = delayHistory.estimate(routeId, directionId, stopId);
+        return (est.delaySec != null && est.confidence >= MIN_CONFIDENCE_TO_APPLY_DELAY) ? est.delaySec : 0;
+    }
+
+    /**
+     * Passaggi della fermata dagli stop_times su disco (modalità low memory): senza orari precalcolati
+     * vengono lette le righe della fermata di tutti i trip attivi, ordinate prima del merge.
+     *
+     * @return passaggi {sec, trip, route, direzione} ordinati per orario
+     */
+    private static List<long[]> departuresOnDisk(Request req, String stopId, int untilSec, StopTimetables.Shift shift) {
+        StopTimesDiskStore disk = req.repo.getStopTimesOnDisk();
+        int stopIdx = (disk == null) ? -1 : disk.stopIndex(stopId);
+        if (stopIdx < 0) return List.of();
+
+        ServiceCalendar.ServiceDay runsToday = req.runsToday();
+        ServiceCalendar.ServiceDay runsYesterday = req.runsYesterday();
+        ArrayList<long[]> out = new ArrayList<>();
+
+        for (int t : disk.tripsForStop(stopIdx)) {
+            boolean todayTrip = runsToday.isTripActive(t);
+            boolean yesterdayTrip = runsYesterday.isTripActive(t);
+            if (!todayTrip && !yesterdayTrip) continue;
+
+            TripsModel trip = req.repo.getTripById(GtfsIdDictionary.TRIPS.name(t));
+            String routeId = (trip == null) ? "" : safe(trip.getRoute_id());
+            int route = routeId.isEmpty() ? -1 : GtfsIdDictionary.ROUTES.idOf(routeId);
+            if (route < 0) continue;
+            String d = safe(trip.getDirection_id());
+            int dir = "0".equals(d) ? 0 : "1".equals(d) ? 1 : -1;
+            int delta = shift.seconds(route, dir);
+
+            StopTimesDiskStore.TripRows rows = disk.rowsAtStop(t, stopIdx);
+            for (int i = 0; i < rows.size(); i++) {
+                int arr = rows.arrivalSec(i);
+                if (arr < 0) continue;
+                if (todayTrip && arr >= req.nowSec && arr + delta <= untilSec) {
+                    out.add(new long[]{arr + delta, t, route, dir});
+                }
+                if (yesterdayTrip && arr - SECONDS_PER_DAY >= req.nowSec && arr - SECONDS_PER_DAY + delta <= untilSec) {
+                    out.add(new long[]{arr - SECONDS_PER_DAY + delta, t, route, dir});
+                }
+            }
+        }
+
+        out.sort(Comparator.comparingLong(d -> d[0]));
+        return out;
+    }
+
+    /**
+     * Accumulatore del tabellone: fonde lo stream statico (in ordine) con le ETA realtime (già ordinate),
+     * fermandosi a {@code limit} righe.
+     */
+    private final class Board {
+        final ArrayList<ArrivalRow> rows = new ArrayList<>();
+
+        private final Request req;
+        private final String stopId;
+        private final int limit;
+        private final int untilSec;
+        private final List<StopEta> realtime;
+        private final Set<String> realtimeTrips = new HashSet<>();
+        private final long midnightEpoch;
+        private int rtCursor = 0;
+
+        /** routeId -> linea mostrata */
+        private final Map<String, String> lineByRoute = new HashMap<>();
+
+        Board(Request req, String stopId, int limit, int untilSec, List<StopEta> realtime) {
+            this.req = req;
+            this.stopId = stopId;
+            this.limit = limit;
+            this.untilSec = untilSec;
+            this.midnightEpoch = req.today.atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+
+            // lo snapshot può essere più vecchio della richiesta: le ETA già passate non entrano nel tabellone,
+            // ma il trip resta "coperto" dal realtime (il passaggio statico non ricompare)
+            ArrayList<StopEta> upcoming = new ArrayList<>(realtime.size());
+            for (StopEta se : realtime) {
+                if (se.eta.tripId != null) realtimeTrips.add(se.eta.tripId);
+                if (se.eta.etaEpoch != null && se.eta.etaEpoch >= req.nowEpoch) upcoming.add(se);
+            }
+            this.realtime = upcoming;
+        }
+
+        /**
+         * Aggiunge un passaggio statico (dopo le ETA realtime che lo precedono).
+         *
+         * @return false quando il tabellone è pieno
+         */
+        boolean offerStatic(int sec, int tripIdx, int routeIdx, int directionId) {
+            flushRealtime(sec);
+            if (rows.size() >= limit) return false;
+
+            String tripId = GtfsIdDictionary.TRIPS.name(tripIdx);
+            if (realtimeTrips.contains(tripId)) return true;
+
+            String routeId = GtfsIdDictionary.ROUTES.name(routeIdx);
+            LocalTime time = LocalTime.ofSecondOfDay(Math.floorMod(sec, SECONDS_PER_DAY));
+            rows.add(new ArrivalRow(tripId, routeId, directionId, line(routeId), headsign(tripId, routeId, directionId),
+                    null, time, false));
+            return rows.size() < limit;
+        }
+
+        /**
+         * Aggiunge le ETA realtime con orario (secondi da mezzanotte di oggi) fino a {@code uptoSec}.
+         */
+        void flushRealtime(long uptoSec) {
+            while (rtCursor < realtime.size() && rows.size() < limit) {
+                StopEta se = realtime.get(rtCursor);
+                long sec = se.eta.etaEpoch - midnightEpoch;
+                if (sec > untilSec) {
+                    rtCursor = realtime.size();
+                    return;
+                }
+                if (sec > uptoSec) return;
+                rtCursor++;
+
+                int minutes = (int) ((se.eta.etaEpoch - req.nowEpoch) / 60);
+                LocalTime time = Instant.ofEpochSecond(se.eta.etaEpoch).atZone(ZoneId.systemDefault()).toLocalTime();
+                rows.add(new ArrivalRow(se.eta.tripId, se.routeId, se.directionId, line(se.routeId),
+                        headsign(se.eta.tripId, se.routeId, se.directionId), minutes, time, true));
+            }
+        }
+
+        private String line(String routeId) {
+            return lineByRoute.computeIfAbsent(routeId, id -> {
+                RoutesModel route = req.repo.getRouteById(id);
+                String shortName = (route == null) ? "" : safe(route.getRoute_short_name());
+                return shortName.isEmpty() ? id : shortName;
+            });
+        }
+
+        private String headsign(String tripId, String routeId, int directionId) {
+            TripsModel trip = (tripId == null) ? null : req.repo.getTripById(tripId);
+            String h = (trip == null) ? "" : safe(trip.getTrip_headsign());
+            if (h.isEmpty() && directionId != -1) h = safe(req.repo.pickHeadsign(routeId, directionId));
+            return h;
+        }
     }
 
     // ========================= REALTIME =========================
@@ -198,8 +660,8 @@ public class ArrivalPredictionService {
     /**
      * Tenta di calcolare l'arrivo in tempo reale per stop/linea/direzione.
      */
-    private ArrivalRow tryRealtime(String stopId, String routeId, int directionId, String line, String headsign) {
-        long now = Instant.now().getEpochSecond();
+    private ArrivalRow tryRealtime(Request req, String stopId, String routeId, int directionId, String line, String headsign) {
+        long now = req.nowEpoch;
 
         if (directionId == -1) {
             BestEta b0 = rtIndex.findBestEta(routeId, 0, stopId);
@@ -234,20 +696,12 @@ public class ArrivalPredictionService {
     // ========================= STATIC + DELAY STIMATO =========================
 
     /**
-     * Restituisce l'arrivo stimato usando dati statici GTFS con delay stimato.
+     * Costruisce la riga statica a partire dal miglior orario trovato, applicando il delay stimato.
      */
-    private ArrivalRow staticWithEstimatedDelay(String stopId, String routeId, int directionId, String line, String headsign) {
-        int nowSec = LocalTime.now().toSecondOfDay();
-
-        Integer bestSec = findBestStaticArrivalSec(stopId, routeId, directionId, nowSec);
+    private ArrivalRow staticRow(String stopId, String routeId, int directionId, String line, String headsign, Integer bestSec) {
         if (bestSec == null) return new ArrivalRow(null, routeId, directionId, line, headsign, null, null, false);
 
-        if (directionId != -1) {
-            DelayEstimate est = delayHistory.estimate(routeId, directionId, stopId);
-            if (est.delaySec != null && est.confidence >= MIN_CONFIDENCE_TO_APPLY_DELAY) {
-                bestSec += est.delaySec;
-            }
-        }
+        bestSec += estimatedDelaySec(routeId, directionId, stopId);
 
         LocalTime bestTime = LocalTime.ofSecondOfDay(Math.floorMod(bestSec, 86400));
         return new ArrivalRow(null, routeId, directionId, line, headsign, null, bestTime, false);
@@ -255,47 +709,211 @@ public class ArrivalPredictionService {
 
     /**
      * Cerca il miglior orario statico di arrivo dopo ora corrente.
+     * Usa gli orari precalcolati per (fermata, linea, direzione): ricerca binaria invece della
+     * scansione di tutti i trip della linea.
+     *
+     * Considera solo i trip che circolano (calendario GTFS):
+     * - quelli del giorno di servizio di oggi, con orario successivo a {@code nowSec}
+     * - quelli del giorno di servizio di ieri con orario oltre le 24:00 (corse notturne ancora in corso)
      */
-    private Integer findBestStaticArrivalSec(String stopId, String routeId, int directionId, int nowSec) {
+    private static Integer findBestStaticArrivalSec(Request req, String stopId, String routeId, int directionId) {
+        StopTimetables timetables = req.repo.getStopTimetables();
+        if (timetables != null) {
+            int best = timetables.nextArrival(stopId, routeId, directionId, req.nowSec,
+                    req.runsToday()::isTripActive, req.runsYesterday()::isTripActive);
+            return (best == StopTimesStore.NO_TIME) ? null : best;
+        }
+
+        // Modalità low memory: niente orari precalcolati, si decodificano i trip della linea.
+        return findBestOnDisk(req, routeId, directionId, List.of(stopId)).get(stopId);
+    }
+
+    /**
+     * Ricerca del prossimo passaggio sugli stop_times su disco (modalità low memory), per più fermate della linea:
+     * il calendario viene controllato prima di decodificare un trip, così si leggono dal file solo i trip attivi,
+     * e ogni trip viene decodificato una volta sola per tutte le fermate.
+     *
+     * @return fermata -> miglior orario (solo le fermate con almeno un passaggio)
+     */
+    private static Map<String, Integer> findBestOnDisk(Request req, String routeId, int directionId, List<String> stopIds) {
+        StaticGtfsRepository repo = req.repo;
         List<String> tripIds = (directionId == -1)
                 ? repo.getTripIdsForRoute(routeId)
                 : repo.getTripIdsForRouteDirection(routeId, directionId);
 
-        if (tripIds == null || tripIds.isEmpty()) return null;
+        if (tripIds == null || tripIds.isEmpty()) return Map.of();
 
-        Integer bestSec = null;
-
-        for (String tripId : tripIds) {
-            List<StopTimesModel> sts = repo.getStopTimesForTrip(tripId);
-            if (sts == null || sts.isEmpty()) continue;
+        StopTimesDiskStore disk = repo.getStopTimesOnDisk();
 
-            for (StopTimesModel st : sts) {
-                if (st == null) continue;
-                if (!stopId.equals(st.getStop_id())) continue;
+        // id globale della fermata -> miglior orario
+        HashMap<Integer, Integer> bestByStop = new HashMap<>();
+        for (String stopId : stopIds) {
+            int stopIdx = (stopId == null) ? -1 : disk.stopIndex(stopId);
+            if (stopIdx >= 0) bestByStop.put(stopIdx, Integer.MAX_VALUE);
+        }
+        if (bestByStop.isEmpty()) return Map.of();
 
-                int arrSec = parseGtfsSeconds(st.getArrival_time());
-                if (arrSec < nowSec) continue;
+        ServiceCalendar.ServiceDay runsToday = req.runsToday();
+        ServiceCalendar.ServiceDay runsYesterday = req.runsYesterday();
 
-                if (bestSec == null || arrSec < bestSec) bestSec = arrSec;
+        for (String tripId : tripIds) {
+            int t = disk.tripIndex(tripId);
+            if (t < 0) continue;
+
+            boolean todayTrip = runsToday.isTripActive(t);
+            boolean yesterdayTrip = runsYesterday.isTripActive(t);
+            if (!todayTrip && !yesterdayTrip) continue;
+
+            StopTimesDiskStore.TripRows rows = disk.trip(t);
+            for (int i = 0; i < rows.size(); i++) {
+                Integer bestSec = bestByStop.get(rows.stopRef(i));
+                if (bestSec == null) continue;
+                bestByStop.put(rows.stopRef(i), better(bestSec, rows.arrivalSec(i), todayTrip, yesterdayTrip, req.nowSec));
             }
         }
 
+        HashMap<String, Integer> out = new HashMap<>();
+        for (String stopId : stopIds) {
+            Integer bestSec = (stopId == null) ? null : bestByStop.get(disk.stopIndex(stopId));
+            if (bestSec != null && bestSec != Integer.MAX_VALUE) out.put(stopId, bestSec);
+        }
+        return out;
+    }
+
+    /**
+     * Aggiorna il miglior orario con un passaggio in fermata.
+     * Una corsa di ieri oltre la mezzanotte viene riportata sull'orologio di oggi.
+     */
+    private static int better(int bestSec, int arrSec, boolean todayTrip, boolean yesterdayTrip, int nowSec) {
+        if (todayTrip && arrSec >= nowSec && arrSec < bestSec) bestSec = arrSec;
+
+        int fromYesterday = arrSec - SECONDS_PER_DAY;
+        if (yesterdayTrip && fromYesterday >= nowSec && fromYesterday < bestSec) bestSec = fromYesterday;
         return bestSec;
     }
 
+    // ========================= CONTESTO RICHIESTA =========================
+
+    /**
+     * Stato letto una volta per richiesta (singola o batch): stessa repository, stesso stato della connessione
+     * e stesso istante per tutte le righe della risposta. I giorni di servizio vengono calcolati solo se serve
+     * la parte statica.
+     */
+    private final class Request {
+        final StaticGtfsRepository repo;
+        final boolean online;
+        final long nowEpoch;
+        final LocalDate today;
+        final int nowSec;
+
+        private ServiceCalendar.ServiceDay runsToday;
+        private ServiceCalendar.ServiceDay runsYesterday;
+
+        Request(StaticGtfsRepository repo) {
+            this.repo = repo;
+            this.online = statusProvider.getState() == ConnectionState.ONLINE;
+            this.nowEpoch = Instant.now().getEpochSecond();
+            LocalDateTime now = LocalDateTime.now();
+            this.today = now.toLocalDate();
+            this.nowSec = now.toLocalTime().toSecondOfDay();
+        }
+
+        ServiceCalendar.ServiceDay runsToday() {
+            if (runsToday == null) runsToday = repo.serviceDay(today);
+            return runsToday;
+        }
+
+        ServiceCalendar.ServiceDay runsYesterday() {
+            if (runsYesterday == null) runsYesterday = repo.serviceDay(today.minusDays(1));
+            return runsYesterday;
+        }
+    }
+
+    // ========================= CACHE RISULTATI =========================
+
+    /**
+     * Chiave di cache: la risposta cambia solo con un nuovo feed realtime, al cambio di minuto
+     * (minuti all'arrivo e orari statici già passati) o al cambio di stato della connessione.
+     */
+    private ArrivalResultCache.Key cacheKey(String stopId, String routeId, int directionId) {
+        boolean online = statusProvider.getState() == ConnectionState.ONLINE;
+        long minute = Instant.now().getEpochSecond() / 60;
+        return new ArrivalResultCache.Key(stopId, routeId, directionId, rtVersion.get(), minute, online);
+    }
+
+    /** @return richieste (fermata o fermata/linea) servite dalla cache dei risultati */
+    public long getCacheHits() {
+        return stopRowsCache.hits() + lineRowCache.hits();
+    }
+
+    /** @return richieste (fermata o fermata/linea) calcolate */
+    public long getCacheMisses() {
+        return stopRowsCache.misses() + lineRowCache.misses();
+    }
+
     // ========================= RT INDEX REBUILD + HISTORY =========================
 
+    private static Supplier<StaticGtfsRepository> constant(StaticGtfsRepository repo) {
+        return () -> repo;
+    }
+
     /**
-     * Aggiorna l'indice realtime e lo storico dei ritardi se lo stato è ONLINE.
+     * Stadio di ingest: invocato da {@link TripUpdatesService} sul thread di fetch a ogni nuovo feed.
+     * Prepara indice realtime e storico dei ritardi prima che arrivi una query.
+     *
+     * @param updates nuovo feed
+     */
+    private void onTripUpdates(List<TripUpdateInfo> updates) {
+        rtRebuildLock.lock();
+        boolean ok = false;
+        try {
+            if (updates != lastUpdatesRef) {
+                rebuildRtIndex(updates);
+                lastUpdatesRef = updates;
+            }
+            ok = true;
+        } finally {
+            // se il rebuild fallisce lastUpdatesRef resta indietro: la prossima query riprova
+            ingestFailed = !ok;
+            rtRebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Verifica (sul percorso delle query) che l'indice realtime corrisponda all'ultimo feed, se lo stato è ONLINE.
+     *
+     * Dettagli:
+     * - con lo stadio di ingest avviato ({@link #start()}) il feed viene indicizzato prima di essere pubblicato:
+     *   qui non si ricostruisce (nessun rebuild sul thread della UI), salvo che l'ultimo ingest sia fallito
+     * - senza ingest (servizio non avviato, o sorgenti che non passano dal fetch come i servizi sostituiti
+     *   nei test) il rebuild avviene qui, alla prima query che trova un feed nuovo
+     *
+     * Concorrenza: un solo rebuild alla volta. Chi trova un rebuild già in corso non attende e
+     * continua a leggere lo snapshot pubblicato dell'indice (il nuovo viene pubblicato con uno scambio atomico).
      */
     private void maybeRebuildRtIndex() {
+        if (ingestListener != null && !ingestFailed) return;
         if (statusProvider.getState() != ConnectionState.ONLINE) return;
 
         List<TripUpdateInfo> updates = tripUpdatesService.getTripUpdates();
         Object ref = updates;
         if (ref == lastUpdatesRef) return;
-        lastUpdatesRef = ref;
 
+        if (!rtRebuildLock.tryLock()) return;
+        try {
+            if (ref == lastUpdatesRef) return;
+            rebuildRtIndex(updates);
+            lastUpdatesRef = ref;
+            ingestFailed = false;
+        } finally {
+            rtRebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Ricostruisce l'indice realtime e registra i ritardi osservati nello storico.
+     */
+    private void rebuildRtIndex(List<TripUpdateInfo> updates) {
         long now = Instant.now().getEpochSecond();
         rtIndex.rebuild(updates, now);
 
@@ -332,6 +950,8 @@ public class ArrivalPredictionService {
                 }
             }
         }
+
+        rtVersion.incrementAndGet();
     }
 
     // ========================= UTILS =========================
@@ -339,22 +959,4 @@ public class ArrivalPredictionService {
     private static String safe(String s) {
         return (s == null) ? "" : s.trim();
     }
-
-    private int parseGtfsSeconds(String hhmmss) {
-        if (hhmmss == null) return -1;
-        try {
-            String[] p = hhmmss.split(":");
-            int h = Integer.parseInt(p[0]);
-            int m = Integer.parseInt(p[1]);
-            int s = Integer.parseInt(p[2]);
-
-            if (h < 0 || m < 0 || s < 0) return -1;
-            if (m >= 60 || s >= 60) return -1;
-            if (h >= 48) return -1;
-
-            return h * 3600 + m * 60 + s;
-        } catch (Exception e) {
-            return -1;
-        }
-    }
-}
\ No newline at end of file
+}
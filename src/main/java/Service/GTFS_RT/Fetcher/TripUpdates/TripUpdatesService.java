@@ -7,6 +7,8 @@ import Service.GTFS_RT.Client.HttpGtfsRtFeedClient;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Servizio per la gestione dei Trip Updates GTFS-Realtime.
@@ -15,6 +17,8 @@ import java.util.List;
  * - fetch periodico o manuale dei trip update
  * - gestione dello stato della connessione (online/offline)
  * - memorizzazione dell'ultima lista di trip update in memoria
+ * - notifica dei listener a ogni nuovo feed (sul thread di fetch), per preparare indici e storici
+ *   fuori dal percorso delle query
  *
  * La classe supporta due modalità:
  * 1) Produzione: creata con URL del feed GTFS-RT, gestisce fetch automatico tramite ConnectionManager
@@ -33,6 +37,9 @@ public class TripUpdatesService {
     /** Ultima lista di TripUpdateInfo disponibile (volatile per accesso thread-safe). */
     private volatile List<TripUpdateInfo> lastTripUpdates = Collections.emptyList();
 
+    /** Listener invocati a ogni nuovo feed ricevuto, prima della sua pubblicazione. */
+    private final List<Consumer<List<TripUpdateInfo>>> listeners = new CopyOnWriteArrayList<>();
+
     /**
      * Costruttore di produzione: crea un servizio TripUpdates collegato a un feed GTFS-RT.
      *
@@ -79,14 +86,43 @@ public class TripUpdatesService {
      */
     public List<TripUpdateInfo> getTripUpdates() { return lastTripUpdates; }
 
+    /**
+     * Registra un listener invocato a ogni nuovo feed, sul thread che ha eseguito il fetch.
+     * Il listener viene chiamato prima che il feed sia visibile da {@link #getTripUpdates()}:
+     * chi legge il nuovo feed trova già pronti gli indici preparati dai listener.
+     *
+     * @param listener callback (riceve la nuova lista, la stessa restituita da {@link #getTripUpdates()})
+     */
+    public void addListener(Consumer<List<TripUpdateInfo>> listener) {
+        if (listener != null) listeners.add(listener);
+    }
+
+    /**
+     * @param listener callback registrata con {@link #addListener(Consumer)}
+     */
+    public void removeListener(Consumer<List<TripUpdateInfo>> listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Aggiorna la lista dei trip update una sola volta.
      *
-     * Esegue il fetch tramite il fetcher e aggiorna lastTripUpdates.
+     * Esegue il fetch tramite il fetcher, notifica i listener e poi pubblica la lista in lastTripUpdates.
+     * Un listener che fallisce viene solo segnalato: il feed viene pubblicato comunque.
      *
      * @throws Exception in caso di errori durante il fetch
      */
     public void refreshOnce() throws Exception {
-        lastTripUpdates = fetcher.fetchTripUpdates();
+        List<TripUpdateInfo> updates = fetcher.fetchTripUpdates();
+
+        for (Consumer<List<TripUpdateInfo>> l : listeners) {
+            try {
+                l.accept(updates);
+            } catch (RuntimeException e) {
+                System.err.println("[TripUpdatesService] listener fallito: " + e.getMessage());
+            }
+        }
+
+        lastTripUpdates = updates;
     }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package Service.GTFS_RT.Index;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache LRU dei risultati di predizione arrivi (righe per fermata o per fermata/linea/direzione).
+ *
+ * Responsabilità:
+ * - evitare di ricalcolare la stessa risposta finché non cambia nulla che la influenza:
+ *   versione del feed realtime, minuto corrente, stato della connessione e repository statica
+ * - limitare la memoria con eviction LRU e tenere contatori di hit/miss
+ *
+ * Contesto:
+ * - usata da {@code ArrivalPredictionService} davanti a Stop Mode e Line Mode: i refresh periodici dei pannelli
+ *   e la riapertura di una fermata vengono serviti dalla memoria.
+ *
+ * Note di progetto:
+ * - la versione realtime e il minuto sono parte della chiave: un nuovo feed o un nuovo minuto rendono
+ *   irraggiungibili le voci vecchie, che escono per LRU senza invalidazione esplicita.
+ * - un cambio di repository (hot-reload del feed statico) svuota la cache ({@link #validateFor(Object)}).
+ * - accessi sincronizzati: il calcolo avviene fuori dal lock (due miss concorrenti possono calcolare due volte).
+ *
+ * @param <V> tipo del risultato (immutabile)
+ */
+public final class ArrivalResultCache<V> {
+
+    /**
+     * Chiave di un risultato.
+     *
+     * @param stopId fermata
+     * @param routeId linea (null per Stop Mode)
+     * @param directionId direzione (-1 se non applicabile)
+     * @param rtVersion versione del feed realtime applicato
+     * @param minute minuto (epoch / 60) in cui il risultato è stato calcolato
+     * @param online stato della connessione al calcolo
+     */
+    public record Key(String stopId, String routeId, int directionId, long rtVersion, long minute, boolean online) {}
+
+    private final LinkedHashMap<Key, V> entries;
+
+    /** Sorgente (repository) per cui le voci sono valide: confronto per identità. */
+    private Object owner;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity numero massimo di voci (minimo 1)
+     */
+    public ArrivalResultCache(int capacity) {
+        int max = Math.max(1, capacity);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > max;
+            }
+        };
+    }
+
+    /**
+     * Svuota la cache se le voci sono state calcolate per un'altra sorgente.
+     *
+     * @param source sorgente corrente (es. repository statica)
+     */
+    public synchronized void validateFor(Object source) {
+        if (owner != source) {
+            entries.clear();
+            owner = source;
+        }
+    }
+
+    /**
+     * @param key chiave
+     * @return risultato in cache, oppure null (conteggiato come miss)
+     */
+    public synchronized V get(Key key) {
+        V v = entries.get(key);
+        if (v == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return v;
+    }
+
+    /**
+     * @param key chiave
+     * @param value risultato (null ignorato)
+     */
+    public synchronized void put(Key key, V value) {
+        if (value != null) {
+            entries.put(key, value);
+        }
+    }
+
+    /** Svuota la cache (i contatori restano). */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** @return voci presenti */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return richieste servite dalla cache */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** @return richieste che hanno richiesto il calcolo */
+    public long misses() {
+        return misses.get();
+    }
+}
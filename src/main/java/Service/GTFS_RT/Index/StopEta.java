@@ -0,0 +1,29 @@
+package Service.GTFS_RT.Index;
+
+/**
+ * Passaggio realtime di una corsa in una fermata, con linea e direzione.
+ * Usato dal tabellone delle partenze, che elenca tutti i passaggi della fermata
+ * (non solo il migliore per linea come {@link BestEta} nell'indice per route).
+ */
+public class StopEta {
+
+    /** Identificativo della linea */
+    public final String routeId;
+
+    /** Direzione (0/1), -1 se non indicata nel feed */
+    public final int directionId;
+
+    /** Stima della corsa (tripId, ETA, ritardo, fonte) */
+    public final BestEta eta;
+
+    /**
+     * @param routeId identificativo della linea
+     * @param directionId direzione (0/1), -1 se non indicata
+     * @param eta stima della corsa (con ETA non null)
+     */
+    public StopEta(String routeId, int directionId, BestEta eta) {
+        this.routeId = routeId;
+        this.directionId = directionId;
+        this.eta = eta;
+    }
+}
@@ -3,6 +3,9 @@ package Service.GTFS_RT.Index;
 import Model.GTFS_RT.StopTimeUpdateInfo;
 import Model.GTFS_RT.TripUpdateInfo;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,15 +15,31 @@ import java.util.Map;
  * Mantiene per ogni linea (route) e direzione la migliore stima ETA
  * (tempo stimato di arrivo) per ciascuna fermata, basata sui dati GTFS Realtime.
  * Supporta aggiornamento completo (rebuild) e ricerca rapida della migliore ETA.
+ * Tiene anche, per ogni fermata, tutti i passaggi con ETA ordinati per orario (tabellone partenze).
+ *
+ * Concorrenza: ogni rebuild costruisce un nuovo snapshot immutabile "a parte" e lo pubblica con
+ * un'unica scrittura volatile. I lettori non usano lock e vedono sempre uno snapshot completo
+ * (il precedente o il nuovo), mai uno parziale o svuotato durante la ricostruzione.
  */
 public final class TripUpdatesRtIndex {
 
-    /** Mappa interna: routeId -> directionId -> stopId -> BestEta (min ETA) */
-    private final Map<String, Map<Integer, Map<String, BestEta>>> idx = new HashMap<>();
+    /**
+     * Contenuto immutabile dell'indice.
+     *
+     * @param idx routeId -> directionId -> stopId -> BestEta (min ETA)
+     * @param byStop stopId -> passaggi con ETA, ordinati per ETA crescente
+     */
+    private record Snapshot(Map<String, Map<Integer, Map<String, BestEta>>> idx,
+                            Map<String, List<StopEta>> byStop) {}
+
+    private static final Snapshot EMPTY = new Snapshot(Map.of(), Map.of());
+
+    /** Snapshot pubblicato (sostituito per intero a ogni rebuild) */
+    private volatile Snapshot current = EMPTY;
 
     /** Pulisce tutte le informazioni presenti nell'indice */
     public void clear() {
-        idx.clear();
+        current = EMPTY;
     }
 
     /**
@@ -31,8 +50,14 @@ public final class TripUpdatesRtIndex {
      * @param nowEpoch timestamp corrente in secondi Unix
      */
     public void rebuild(List<TripUpdateInfo> updates, long nowEpoch) {
-        idx.clear();
-        if (updates == null || updates.isEmpty()) return;
+        if (updates == null || updates.isEmpty()) {
+            current = EMPTY;
+            return;
+        }
+
+        // costruzione "a parte": lo snapshot pubblicato resta leggibile fino allo scambio
+        Map<String, Map<Integer, Map<String, BestEta>>> idx = new HashMap<>();
+        Map<String, List<StopEta>> byStop = new HashMap<>();
 
         for (TripUpdateInfo tu : updates) {
             if (tu == null) continue;
@@ -91,8 +116,43 @@ public final class TripUpdatesRtIndex {
                 idx.computeIfAbsent(routeId, k -> new HashMap<>())
                         .computeIfAbsent(dir, k -> new HashMap<>())
                         .merge(stopId, candidate, TripUpdatesRtIndex::pickBetter);
+
+                if (eta != null) {
+                    byStop.computeIfAbsent(stopId, k -> new ArrayList<>()).add(new StopEta(routeId, dir, candidate));
+                }
             }
         }
+
+        Comparator<StopEta> byEta = Comparator.comparingLong(se -> se.eta.etaEpoch);
+        Map<String, List<StopEta>> frozenByStop = new HashMap<>(byStop.size() * 2);
+        for (Map.Entry<String, List<StopEta>> e : byStop.entrySet()) {
+            e.getValue().sort(byEta);
+            frozenByStop.put(e.getKey(), List.copyOf(e.getValue()));
+        }
+
+        Map<String, Map<Integer, Map<String, BestEta>>> frozenIdx = new HashMap<>(idx.size() * 2);
+        for (Map.Entry<String, Map<Integer, Map<String, BestEta>>> byRoute : idx.entrySet()) {
+            Map<Integer, Map<String, BestEta>> byDir = new HashMap<>(byRoute.getValue().size() * 2);
+            for (Map.Entry<Integer, Map<String, BestEta>> d : byRoute.getValue().entrySet()) {
+                byDir.put(d.getKey(), Collections.unmodifiableMap(d.getValue()));
+            }
+            frozenIdx.put(byRoute.getKey(), Collections.unmodifiableMap(byDir));
+        }
+
+        // pubblicazione: unica scrittura volatile
+        current = new Snapshot(Collections.unmodifiableMap(frozenIdx), Collections.unmodifiableMap(frozenByStop));
+    }
+
+    /**
+     * Restituisce tutti i passaggi realtime (con ETA) di una fermata, su tutte le linee.
+     *
+     * @param stopId identificativo della fermata
+     * @return passaggi ordinati per ETA crescente (lista read-only), vuota se non disponibili
+     */
+    public List<StopEta> etasForStop(String stopId) {
+        if (stopId == null) return List.of();
+        List<StopEta> l = current.byStop().get(stopId.trim());
+        return (l == null) ? List.of() : l;
     }
 
     /**
@@ -108,7 +168,7 @@ public final class TripUpdatesRtIndex {
         String rid = routeId.trim();
         String sid = stopId.trim();
 
-        Map<Integer, Map<String, BestEta>> byDir = idx.get(rid);
+        Map<Integer, Map<String, BestEta>> byDir = current.idx().get(rid);
         if (byDir == null) return null;
 
         Map<String, BestEta> byStop = byDir.get(directionId);
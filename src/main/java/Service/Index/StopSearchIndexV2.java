@@ -3,6 +3,19 @@ package Service.Index;
 import Model.Points.StopModel;
 import Service.Util.TextNormalize;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -15,47 +28,60 @@ import java.util.stream.Collectors;
  * - ricerca per nome su due livelli:
  *   1) ricerca indicizzata (token + prefissi) con filtro {@code contains}
  *   2) fallback fuzzy (edit-distance) su un insieme ristretto di candidati
+ * - salvare l'indice finito su file e rileggerlo (memory-mapping) senza ricostruirlo
  *
  * Contesto:
  * - usata nella modalità FERMATA per l'autocomplete e per ricerche "tolleranti" agli errori.
  *
  * Note di progetto:
  * - per performance, il fuzzy NON scansiona tutte le fermate: genera candidati dai bucket indicizzati.
- * - tutte le stringhe vengono normalizzate tramite {@link TextNormalize#norm(String)}.
+ * - tutte le stringhe vengono normalizzate tramite {@link TextNormalize#norm(String)}; nome e codice
+ *   normalizzati delle fermate sono calcolati una volta e tenuti nell'indice (in costruzione, o letti dal file).
+ * - i token sono un dizionario ordinato ({@code String[]}, ricerca binaria) con posting in formato CSR:
+ *   ogni posting è la posizione della fermata nella lista di input, in ordine crescente e senza duplicati.
+ * - i prefissi non hanno posting proprie: un prefisso è l'intervallo di token che lo condividono nel dizionario
+ *   ordinato (unione delle loro posting, come bitmap se i token sono più di uno).
+ * - l'intersezione scorre la posting più corta e avanza le altre con ricerca galoppante (o test su bitmap),
+ *   filtrando subito sul nome e fermandosi appena raggiunto {@code limit}.
+ * - il file ({@link #write(Path, String)}) contiene nomi/codici normalizzati, dizionario dei token e posting;
+ *   è legato alla chiave di contenuto di stops.txt e agli id delle fermate, altrimenti la lettura restituisce null.
  * - l'indice viene costruito una volta e poi usato in sola lettura.
  */
 public final class StopSearchIndexV2 {
 
-    /** id fermata (trim) -> stop. */
-    private final Map<String, StopModel> byId = new HashMap<>();
+    /** Versione del formato del file: va incrementata a ogni modifica del layout. */
+    public static final int FORMAT_VERSION = 2;
 
-    /** codice normalizzato -> stop (primo stop inserito con quel codice). */
-    private final Map<String, StopModel> byCodeExact = new HashMap<>();
+    private static final byte[] MAGIC = "DAMOSESI".getBytes(StandardCharsets.US_ASCII);
 
-    /**
-     * Prefisso sul codice: TreeMap permette range-search tramite subMap.
-     * Chiave: codice normalizzato.
-     * Valore: lista di stop associate (gestisce eventuali duplicati).
-     */
-    private final NavigableMap<String, List<StopModel>> byCodeSorted = new TreeMap<>();
+    private static final String FILE_PREFIX = "stop-index-";
+    private static final String FILE_SUFFIX = ".idx";
+
+    /** Fermate (non null) nell'ordine della lista di input: le posting sono posizioni in questo array. */
+    private final StopModel[] stops;
+
+    /** Nome / codice normalizzati per posizione. */
+    private final String[] normNames;
+    private final String[] normCodes;
+
+    /** id fermata (trim) -> stop. */
+    private final Map<String, StopModel> byId;
 
     /**
-     * Prefisso di token (lunghezza >= 3) -> fermate.
-     * Esempio: "prenest" può agganciare token "prenestina".
+     * Prefisso sul codice: posizioni con codice non vuoto ordinate per (codice, posizione),
+     * con i codici paralleli per la ricerca binaria.
      */
-    private final Map<String, List<StopModel>> namePrefixToStops = new HashMap<>();
+    private final int[] codeOrder;
+    private final String[] codeKeys;
 
     /**
      * Token (lunghezza >= 2, esclusi stopword) -> fermate.
      * Serve per creare un insieme candidati ridotto tramite intersezione.
      */
-    private final Map<String, List<StopModel>> nameTokenToStops = new HashMap<>();
+    private final String[] tokens;
+    private final int[] tokenOffsets;
+    private final int[] tokenPostings;
 
-    /**
-     * Cache del nome normalizzato per stop.
-     * Usiamo IdentityHashMap per non dipendere da equals/hashCode di StopModel.
-     */
-    private final Map<StopModel, String> normNameCache = new IdentityHashMap<>();
 
     // ---- tuning fuzzy ----
 
@@ -65,81 +91,300 @@ public final class StopSearchIndexV2 {
     /** Cap massimo della distanza accettata. */
     private static final int FUZZY_MAX_DISTANCE_CAP = 5;
 
-    /** Lunghezza minima del token per indicizzare i prefissi. */
-    private static final int PREFIX_MIN_FOR_PREFIX_INDEX = 3;
-
-    /** Lunghezza massima del prefisso indicizzato per token. */
-    private static final int PREFIX_MAX = 10;
+    /**
+     * Lunghezza minima di un token della query per cercarlo come prefisso.
+     * Esempio: "prenest" può agganciare token "prenestina".
+     */
+    private static final int PREFIX_MIN = 3;
 
     /**
      * Costruisce l'indice a partire dalla lista di fermate.
      *
      * Dettagli:
-     * - indicizza id, codice (match esatto + struttura ordinata) e nome (token + prefissi)
+     * - indicizza id, codice (match esatto + struttura ordinata) e nome (token)
      * - ignora stop null
      *
      * @param stops elenco delle fermate caricate dal dataset statico
      */
     public StopSearchIndexV2(List<StopModel> stops) {
-        for (StopModel s : stops) {
-            if (s == null) {
-                continue;
-            }
+        this(build(stops));
+    }
+
+    private StopSearchIndexV2(Parts p) {
+        this.stops = p.stops;
+        this.normNames = p.normNames;
+        this.normCodes = p.normCodes;
+        this.tokens = p.tokens;
+        this.tokenOffsets = p.tokenOffsets;
+        this.tokenPostings = p.tokenPostings;
 
-            // ----- id -----
+        // ----- id -----
+        this.byId = new HashMap<>(stops.length * 2);
+        for (StopModel s : stops) {
             String id = safe(s.getId());
             if (!id.isEmpty()) {
                 byId.put(id, s);
             }
+        }
 
-            // ----- codice: exact + sorted -----
-            String code = safe(s.getCode());
-            if (!code.isEmpty()) {
-                String codeNorm = TextNormalize.norm(code);
-                if (!codeNorm.isEmpty()) {
-                    byCodeExact.putIfAbsent(codeNorm, s);
-                    byCodeSorted.computeIfAbsent(codeNorm, k -> new ArrayList<>()).add(s);
-                }
+        // ----- codice: ordinamento stabile per (codice, posizione) -----
+        Integer[] order = new Integer[stops.length];
+        int n = 0;
+        for (int pos = 0; pos < stops.length; pos++) {
+            if (!normCodes[pos].isEmpty()) {
+                order[n++] = pos;
             }
+        }
+        Arrays.sort(order, 0, n, Comparator.comparing((Integer pos) -> normCodes[pos]));
+        this.codeOrder = new int[n];
+        this.codeKeys = new String[n];
+        for (int i = 0; i < n; i++) {
+            codeOrder[i] = order[i];
+            codeKeys[i] = normCodes[order[i]];
+        }
+    }
 
-            // ----- nome: token + prefissi -----
-            String name = safe(s.getName());
-            if (!name.isEmpty()) {
-                String nameNorm = TextNormalize.norm(name);
-                if (!nameNorm.isEmpty()) {
-                    normNameCache.put(s, nameNorm);
+    /** Contenuto "grezzo" dell'indice: lo producono sia la costruzione sia la lettura da file. */
+    private record Parts(StopModel[] stops, String[] normNames, String[] normCodes,
+                         String[] tokens, int[] tokenOffsets, int[] tokenPostings) {}
 
-                    for (String token : tokenize(nameNorm)) {
-                        nameTokenToStops.computeIfAbsent(token, k -> new ArrayList<>()).add(s);
-                        indexTokenPrefixes(token, s);
-                    }
-                }
+    private static Parts build(List<StopModel> input) {
+        List<StopModel> list = new ArrayList<>(input.size());
+        for (StopModel s : input) {
+            if (s != null) {
+                list.add(s);
             }
         }
+        StopModel[] stops = list.toArray(new StopModel[0]);
+        String[] names = new String[stops.length];
+        String[] codes = new String[stops.length];
+
+        PostingsBuilder tokenPosting = new PostingsBuilder();
+        for (int pos = 0; pos < stops.length; pos++) {
+            names[pos] = TextNormalize.norm(stops[pos].getName());
+            codes[pos] = TextNormalize.norm(stops[pos].getCode());
+            if (names[pos].isEmpty()) {
+                continue;
+            }
+            for (String token : tokenize(names[pos])) {
+                tokenPosting.add(token, pos);
+            }
+        }
+        return new Parts(stops, names, codes,
+                tokenPosting.terms(), tokenPosting.offsets(), tokenPosting.postings());
+    }
+
+    // =========================
+    // Persistenza
+    // =========================
+
+    /**
+     * Restituisce l'indice salvato in {@code dir} per la chiave indicata, oppure lo costruisce e lo salva.
+     *
+     * Dettagli:
+     * - la lettura mappa il file e ricrea solo array e mappe id/codice: nessuna normalizzazione né tokenizzazione
+     * - se il file manca o non corrisponde (chiave, versione, fermate) l'indice viene ricostruito e riscritto;
+     *   un errore di scrittura viene solo segnalato (l'indice in memoria resta valido)
+     *
+     * @param stops fermate del feed (stesso ordine usato in scrittura)
+     * @param key chiave di contenuto di stops.txt (null = nessuna persistenza)
+     * @param dir cartella dei file indice (null = nessuna persistenza)
+     * @return indice pronto all'uso
+     */
+    public static StopSearchIndexV2 loadOrBuild(List<StopModel> stops, String key, Path dir) {
+        if (key == null || dir == null) {
+            return new StopSearchIndexV2(stops);
+        }
+        Path file = dir.resolve(FILE_PREFIX + key + FILE_SUFFIX);
+        StopSearchIndexV2 cached = read(file, key, stops);
+        if (cached != null) {
+            return cached;
+        }
+        StopSearchIndexV2 built = new StopSearchIndexV2(stops);
+        try {
+            built.write(file, key);
+        } catch (IOException e) {
+            System.err.println("[StopSearchIndexV2] scrittura indice fallita: " + e.getMessage());
+        }
+        return built;
     }
 
     /**
-     * Indicizza i prefissi di un token per supportare ricerche parziali mentre l'utente digita.
+     * Legge un indice salvato con {@link #write(Path, String)}.
      *
-     * @param token token già normalizzato
-     * @param s fermata associata al token
+     * @param file file indice
+     * @param key chiave di contenuto attesa
+     * @param stops fermate a cui si riferiscono le posting (stessa lista usata in scrittura)
+     * @return indice, oppure null se il file è assente, di un'altra versione/chiave o non coerente con {@code stops}
      */
-    private void indexTokenPrefixes(String token, StopModel s) {
-        if (token == null) {
-            return;
+    public static StopSearchIndexV2 read(Path file, String key, List<StopModel> stops) {
+        if (file == null || key == null || stops == null || !Files.isRegularFile(file)) {
+            return null;
         }
-        int len = token.length();
-        if (len < PREFIX_MIN_FOR_PREFIX_INDEX) {
-            return;
+        StopModel[] arr = stops.stream().filter(Objects::nonNull).toArray(StopModel[]::new);
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            byte[] magic = new byte[MAGIC.length];
+            buf.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || buf.getInt() != FORMAT_VERSION || !key.equals(readString(buf))) {
+                return null;
+            }
+            if (buf.getInt() != arr.length || buf.getInt() != idsHash(arr)) {
+                return null;
+            }
+
+            String[] names = readStrings(buf);
+            String[] codes = readStrings(buf);
+            String[] tokens = readStrings(buf);
+            int[] tokenOffsets = readInts(buf);
+            int[] tokenPostings = readInts(buf);
+            if (names.length != arr.length || codes.length != arr.length || tokenOffsets.length != tokens.length + 1
+                    || !validPostings(tokenOffsets, tokenPostings, arr.length)) {
+                return null;
+            }
+            return new StopSearchIndexV2(new Parts(arr, names, codes, tokens, tokenOffsets, tokenPostings));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[StopSearchIndexV2] indice su file non leggibile, ricostruzione: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Scrive l'indice su file (temporaneo + move atomico) ed elimina gli indici di altre chiavi nella stessa cartella.
+     *
+     * @param file file di destinazione
+     * @param key chiave di contenuto di stops.txt
+     * @throws IOException in caso di errori di scrittura
+     */
+    public void write(Path file, String key) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, FILE_PREFIX, ".tmp");
+
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+                out.write(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, key);
+                out.writeInt(stops.length);
+                out.writeInt(idsHash(stops));
+                writeStrings(out, normNames);
+                writeStrings(out, normCodes);
+                writeStrings(out, tokens);
+                writeInts(out, tokenOffsets);
+                writeInts(out, tokenPostings);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, FILE_PREFIX + "*")) {
+            for (Path f : files) {
+                if (!f.getFileName().equals(file.getFileName())) {
+                    Files.deleteIfExists(f);
+                }
+            }
+        }
+    }
+
+    /** Impronta degli id (in ordine): lega il file alla lista di fermate con cui è stato scritto. */
+    private static int idsHash(StopModel[] stops) {
+        int h = 1;
+        for (StopModel s : stops) {
+            h = 31 * h + safe(s.getId()).hashCode();
+        }
+        return h;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String v : values) {
+            writeString(out, v);
         }
+    }
 
-        int max = Math.min(PREFIX_MAX, len);
-        for (int i = PREFIX_MIN_FOR_PREFIX_INDEX; i <= max; i++) {
-            String prefix = token.substring(0, i);
-            namePrefixToStops.computeIfAbsent(prefix, k -> new ArrayList<>()).add(s);
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int v : values) {
+            out.writeInt(v);
+        }
+    }
+
+    /**
+     * Verifica le posting lette da file prima di usarle nelle query: offset crescenti da 0 a
+     * {@code postings.length}, posizioni valide in {@code stops} e crescenti dentro ogni token
+     * (l'intersezione per galloping le richiede ordinate).
+     */
+    private static boolean validPostings(int[] offsets, int[] postings, int stops) {
+        if (offsets[0] != 0 || offsets[offsets.length - 1] != postings.length) {
+            return false;
+        }
+        for (int t = 0; t + 1 < offsets.length; t++) {
+            int from = offsets[t];
+            int to = offsets[t + 1];
+            if (from > to) {
+                return false;
+            }
+            for (int i = from; i < to; i++) {
+                int pos = postings[i];
+                if (pos < 0 || pos >= stops || (i > from && pos <= postings[i - 1])) {
+                    return false;
+                }
+            }
         }
+        return true;
     }
 
+    /**
+     * Legge un prefisso di lunghezza controllandolo sui byte rimasti: un file corrotto non deve
+     * allocare array negativi o enormi.
+     */
+    private static int readLength(ByteBuffer buf, int minBytesPerItem) {
+        int n = buf.getInt();
+        if (n < 0 || (long) n * minBytesPerItem > buf.remaining()) {
+            throw new IllegalArgumentException("lunghezza non valida: " + n);
+        }
+        return n;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] b = new byte[readLength(buf, 1)];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static String[] readStrings(ByteBuffer buf) {
+        String[] out = new String[readLength(buf, Integer.BYTES)];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = readString(buf);
+        }
+        return out;
+    }
+
+    private static int[] readInts(ByteBuffer buf) {
+        int[] out = new int[readLength(buf, Integer.BYTES)];
+        buf.asIntBuffer().get(out);
+        buf.position(buf.position() + out.length * Integer.BYTES);
+        return out;
+    }
+
+    // =========================
+    // Query
+    // =========================
+
     /**
      * Recupera una fermata tramite id.
      *
@@ -167,7 +412,8 @@ public final class StopSearchIndexV2 {
         if (key.isEmpty()) {
             return null;
         }
-        return byCodeExact.get(key);
+        int i = lowerBound(codeKeys, key);
+        return (i < codeKeys.length && codeKeys[i].equals(key)) ? stops[codeOrder[i]] : null;
     }
 
     /**
@@ -189,16 +435,11 @@ public final class StopSearchIndexV2 {
             return List.of();
         }
 
-        String hi = p + Character.MAX_VALUE;
-        Collection<List<StopModel>> buckets = byCodeSorted.subMap(p, true, hi, true).values();
-
         ArrayList<StopModel> out = new ArrayList<>();
-        for (List<StopModel> bucket : buckets) {
-            for (StopModel s : bucket) {
-                out.add(s);
-                if (out.size() >= limit) {
-                    return out;
-                }
+        for (int i = lowerBound(codeKeys, p); i < codeKeys.length && codeKeys[i].startsWith(p); i++) {
+            out.add(stops[codeOrder[i]]);
+            if (out.size() >= limit) {
+                return out;
             }
         }
         return out;
@@ -251,24 +492,25 @@ public final class StopSearchIndexV2 {
      *
      * Dettagli:
      * - raccoglie bucket dei token (o dei prefissi se il token non esiste)
-     * - interseca i bucket partendo dal più piccolo
-     * - applica filtro {@code contains} sul nome normalizzato
+     * - interseca i bucket partendo dal più piccolo (posting ordinate: ricerca galoppante)
+     * - applica filtro {@code contains} sul nome normalizzato durante l'intersezione,
+     *   fermandosi a {@code limit} risultati
      *
      * @param q query normalizzata
-     * @param tokens token normalizzati della query
+     * @param queryTokens token normalizzati della query
      * @param limit massimo numero di risultati
      * @return lista risultati indicizzati, oppure lista vuota
      */
-    private List<StopModel> indexedSearch(String q, List<String> tokens, int limit) {
-        List<List<StopModel>> lists = new ArrayList<>();
+    private List<StopModel> indexedSearch(String q, List<String> queryTokens, int limit) {
+        List<Bucket> lists = new ArrayList<>();
 
-        for (String t : tokens) {
-            List<StopModel> l = nameTokenToStops.get(t);
-            if (l == null && t.length() >= PREFIX_MIN_FOR_PREFIX_INDEX) {
-                l = namePrefixToStops.get(t);
+        for (String t : queryTokens) {
+            Bucket b = tokenBucket(t);
+            if (b == null && t.length() >= PREFIX_MIN) {
+                b = prefixBucket(t);
             }
-            if (l != null) {
-                lists.add(l);
+            if (b != null) {
+                lists.add(b);
             }
         }
 
@@ -277,35 +519,49 @@ public final class StopSearchIndexV2 {
         }
 
         // Intersezione: parto dal token più raro per ridurre i candidati.
-        lists.sort(Comparator.comparingInt(List::size));
-        Set<StopModel> candidate = new LinkedHashSet<>(lists.get(0));
-        for (int i = 1; i < lists.size(); i++) {
-            candidate.retainAll(lists.get(i));
-            if (candidate.isEmpty()) {
-                return List.of();
-            }
-        }
-
+        lists.sort(Comparator.comparingInt(Bucket::size));
         ArrayList<StopModel> out = new ArrayList<>();
-        for (StopModel s : candidate) {
-            String nameNorm = normNameCache.getOrDefault(s, TextNormalize.norm(s.getName()));
-            if (nameNorm.contains(q)) {
-                out.add(s);
+        Bucket first = lists.get(0);
+        int[] cursor = new int[lists.size()];
+        for (int k = 1; k < lists.size(); k++) {
+            cursor[k] = lists.get(k).from();
+        }
+
+        candidates:
+        for (int c = first.start(); first.has(c); c = first.advance(c)) {
+            int pos = first.at(c);
+            for (int k = 1; k < lists.size(); k++) {
+                Bucket b = lists.get(k);
+                if (b.bits() != null) {
+                    if (!b.bits().get(pos)) {
+                        continue candidates;
+                    }
+                    continue;
+                }
+                cursor[k] = gallop(b.postings(), cursor[k], b.to(), pos);
+                if (cursor[k] == b.to()) {
+                    break candidates;
+                }
+                if (b.postings()[cursor[k]] != pos) {
+                    continue candidates;
+                }
+            }
+            if (normNames[pos].contains(q)) {
+                out.add(stops[pos]);
                 if (out.size() >= limit) {
-                    break;
+                    return out;
                 }
             }
         }
 
         // Fallback meno rigido: se l'intersezione è troppo restrittiva,
         // proviamo almeno con il bucket del primo token.
-        if (out.isEmpty()) {
-            String t0 = tokens.get(0);
-            List<StopModel> broader = nameTokenToStops.getOrDefault(t0, List.of());
-            for (StopModel s : broader) {
-                String nameNorm = normNameCache.getOrDefault(s, TextNormalize.norm(s.getName()));
-                if (nameNorm.contains(q)) {
-                    out.add(s);
+        Bucket broader = out.isEmpty() ? tokenBucket(queryTokens.get(0)) : null;
+        if (broader != null) {
+            for (int c = broader.start(); broader.has(c); c = broader.advance(c)) {
+                int pos = broader.at(c);
+                if (normNames[pos].contains(q)) {
+                    out.add(stops[pos]);
                     if (out.size() >= limit) {
                         break;
                     }
@@ -322,42 +578,26 @@ public final class StopSearchIndexV2 {
      * - non scansiona tutte le fermate, per restare veloce
      *
      * @param q query normalizzata
-     * @param tokens token normalizzati della query
+     * @param queryTokens token normalizzati della query
      * @param limit massimo numero di risultati
      * @return risultati fuzzy, oppure lista vuota
      */
-    private List<StopModel> fuzzyFallback(String q, List<String> tokens, int limit) {
-        // 1) candidati: unione di bucket "ragionevoli"
-        LinkedHashSet<StopModel> candidate = new LinkedHashSet<>();
+    private List<StopModel> fuzzyFallback(String q, List<String> queryTokens, int limit) {
+        // 1) candidati: unione di bucket "ragionevoli" (ordine di inserimento, senza duplicati)
+        LinkedHashSet<Integer> candidate = new LinkedHashSet<>();
 
         // a) bucket per primo token (exact)
-        String t0 = tokens.get(0);
-        List<StopModel> base = nameTokenToStops.get(t0);
-        if (base != null) {
-            candidate.addAll(base);
-        }
+        String t0 = queryTokens.get(0);
+        addAll(candidate, tokenBucket(t0), Integer.MAX_VALUE);
 
         // b) aggiungo prefisso di 3 caratteri del primo token (se possibile)
-        String t0prefix3 = (t0.length() >= 3) ? t0.substring(0, 3) : null;
-        if (t0prefix3 != null) {
-            List<StopModel> pref = namePrefixToStops.get(t0prefix3);
-            if (pref != null) {
-                candidate.addAll(pref);
-            }
+        if (t0.length() >= 3) {
+            addAll(candidate, prefixBucket(t0.substring(0, 3)), Integer.MAX_VALUE);
         }
 
         // c) aggiungo bucket degli altri token, ma senza esplodere
-        for (int i = 1; i < tokens.size() && candidate.size() < FUZZY_MAX_CANDIDATES; i++) {
-            String t = tokens.get(i);
-            List<StopModel> l = nameTokenToStops.get(t);
-            if (l != null) {
-                for (StopModel s : l) {
-                    candidate.add(s);
-                    if (candidate.size() >= FUZZY_MAX_CANDIDATES) {
-                        break;
-                    }
-                }
-            }
+        for (int i = 1; i < queryTokens.size() && candidate.size() < FUZZY_MAX_CANDIDATES; i++) {
+            addAll(candidate, tokenBucket(queryTokens.get(i)), FUZZY_MAX_CANDIDATES);
         }
 
         if (candidate.isEmpty()) {
@@ -368,12 +608,12 @@ public final class StopSearchIndexV2 {
         int maxDist = computeMaxDistance(q);
 
         ArrayList<ScoredStop> scored = new ArrayList<>();
-        for (StopModel s : candidate) {
-            String nameNorm = normNameCache.getOrDefault(s, TextNormalize.norm(s.getName()));
+        for (int pos : candidate) {
+            String nameNorm = normNames[pos];
 
             // Shortcut: contains = match fortissimo (distanza 0).
             if (nameNorm.contains(q)) {
-                scored.add(new ScoredStop(s, 0));
+                scored.add(new ScoredStop(pos, 0));
                 continue;
             }
 
@@ -390,7 +630,7 @@ public final class StopSearchIndexV2 {
             }
 
             if (best <= maxDist) {
-                scored.add(new ScoredStop(s, best));
+                scored.add(new ScoredStop(pos, best));
             }
         }
 
@@ -401,11 +641,11 @@ public final class StopSearchIndexV2 {
         // 3) ordina per distanza, poi stabilizza per nome (risultati consistenti)
         scored.sort(Comparator
                 .comparingInt((ScoredStop ss) -> ss.distance)
-                .thenComparing(ss -> normNameCache.getOrDefault(ss.stop, "")));
+                .thenComparing(ss -> normNames[ss.pos]));
 
         ArrayList<StopModel> out = new ArrayList<>();
         for (ScoredStop ss : scored) {
-            out.add(ss.stop);
+            out.add(stops[ss.pos]);
             if (out.size() >= limit) {
                 break;
             }
@@ -413,6 +653,88 @@ public final class StopSearchIndexV2 {
         return out;
     }
 
+    private static void addAll(Set<Integer> out, Bucket b, int cap) {
+        if (b == null) {
+            return;
+        }
+        for (int c = b.start(); b.has(c) && out.size() < cap; c = b.advance(c)) {
+            out.add(b.at(c));
+        }
+    }
+
+    private Bucket tokenBucket(String token) {
+        int i = Arrays.binarySearch(tokens, token);
+        return (i < 0) ? null : tokenRange(i);
+    }
+
+    private Bucket tokenRange(int i) {
+        return new Bucket(tokenPostings, tokenOffsets[i], tokenOffsets[i + 1], null, tokenOffsets[i + 1] - tokenOffsets[i]);
+    }
+
+    /**
+     * Fermate con almeno un token che inizia per {@code prefix}: i token con lo stesso prefisso sono contigui
+     * nel dizionario ordinato, quindi basta unire le posting dell'intervallo.
+     *
+     * @param prefix prefisso normalizzato
+     * @return bucket (range se un solo token, bitmap se più token), oppure null se nessun token corrisponde
+     */
+    private Bucket prefixBucket(String prefix) {
+        int from = lowerBound(tokens, prefix);
+        int to = from;
+        while (to < tokens.length && tokens[to].startsWith(prefix)) {
+            to++;
+        }
+        if (to == from) {
+            return null;
+        }
+        if (to - from == 1) {
+            return tokenRange(from);
+        }
+        BitSet bits = new BitSet(stops.length);
+        for (int i = tokenOffsets[from]; i < tokenOffsets[to]; i++) {
+            bits.set(tokenPostings[i]);
+        }
+        return new Bucket(null, 0, 0, bits, bits.cardinality());
+    }
+
+    /**
+     * Ricerca galoppante: primo indice in [from, to) con valore {@code >= key} (to se nessuno).
+     * Il passo raddoppia finché supera {@code key}, poi ricerca binaria nell'ultimo intervallo:
+     * costo logaritmico nella distanza percorsa, non nella lunghezza della posting.
+     */
+    private static int gallop(int[] a, int from, int to, int key) {
+        int lo = from;
+        int step = 1;
+        int hi = from;
+        while (hi < to && a[hi] < key) {
+            lo = hi + 1;
+            hi = from + step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, to);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return primo indice con chiave {@code >= key} (length se nessuno) */
+    private static int lowerBound(String[] sorted, String key) {
+        int i = Arrays.binarySearch(sorted, key);
+        if (i < 0) {
+            return -i - 1;
+        }
+        while (i > 0 && sorted[i - 1].equals(key)) {
+            i--;
+        }
+        return i;
+    }
+
     /**
      * Calcola una soglia di distanza massima basata sulla lunghezza della query.
      *
@@ -532,10 +854,92 @@ public final class StopSearchIndexV2 {
     }
 
     /**
-     * Coppia (fermata, distanza) usata per ordinare i risultati del fuzzy.
+     * Coppia (posizione fermata, distanza) usata per ordinare i risultati del fuzzy.
      *
-     * @param stop fermata candidata
+     * @param pos posizione della fermata candidata
      * @param distance distanza calcolata (0 = match perfetto)
      */
-    private record ScoredStop(StopModel stop, int distance) {}
+    private record ScoredStop(int pos, int distance) {}
+
+    /**
+     * Posizioni fermata (crescenti) di un token o di un prefisso:
+     * intervallo di una posting ({@code bits == null}) oppure bitmap (unione di più token).
+     *
+     * Scansione con cursore: indice nella posting per i range (passo O(1), nessuna ricerca),
+     * posizione stessa per le bitmap. La ricerca galoppante serve solo per avanzare le altre liste
+     * dell'intersezione.
+     *
+     * @param postings array di posting (range)
+     * @param from inizio (incluso)
+     * @param to fine (escluso)
+     * @param bits bitmap delle posizioni, oppure null
+     * @param size numero di posizioni
+     */
+    private record Bucket(int[] postings, int from, int to, BitSet bits, int size) {
+
+        /** @return cursore sulla prima posizione */
+        int start() {
+            return (bits != null) ? bits.nextSetBit(0) : from;
+        }
+
+        /** @return true se il cursore punta a una posizione del bucket */
+        boolean has(int c) {
+            return (bits != null) ? c >= 0 : c < to;
+        }
+
+        /** @return posizione fermata del cursore */
+        int at(int c) {
+            return (bits != null) ? c : postings[c];
+        }
+
+        /** @return cursore sulla posizione successiva */
+        int advance(int c) {
+            return (bits != null) ? bits.nextSetBit(c + 1) : c + 1;
+        }
+    }
+
+    // =========================
+    // Costruzione delle posting
+    // =========================
+
+    /** Accumulatore termine -> posizioni (ordinate e distinte) usato solo in costruzione. */
+    private static final class PostingsBuilder {
+        private final TreeMap<String, List<Integer>> byTerm = new TreeMap<>();
+
+        void add(String term, int pos) {
+            List<Integer> l = byTerm.computeIfAbsent(term, k -> new ArrayList<>());
+            if (l.isEmpty() || l.get(l.size() - 1) != pos) {
+                l.add(pos);
+            }
+        }
+
+        String[] terms() {
+            return byTerm.keySet().toArray(new String[0]);
+        }
+
+        int[] offsets() {
+            int[] out = new int[byTerm.size() + 1];
+            int i = 0;
+            for (List<Integer> l : byTerm.values()) {
+                out[i + 1] = out[i] + l.size();
+                i++;
+            }
+            return out;
+        }
+
+        int[] postings() {
+            int n = 0;
+            for (List<Integer> l : byTerm.values()) {
+                n += l.size();
+            }
+            int[] out = new int[n];
+            int i = 0;
+            for (List<Integer> l : byTerm.values()) {
+                for (int pos : l) {
+                    out[i++] = pos;
+                }
+            }
+            return out;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+package Service.Parsing;
+
+import Model.Parsing.Static.CalendarDateModel;
+import Model.Parsing.Static.CalendarModel;
+import Service.Parsing.Csv.GtfsArchive;
+import Service.Parsing.Csv.GtfsCsvReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service di lettura del calendario GTFS (calendar.txt e calendar_dates.txt).
+ *
+ * Responsabilità:
+ * - leggere {@code calendar.txt} e convertire le righe in {@link CalendarModel}
+ * - leggere {@code calendar_dates.txt} e convertire le righe in {@link CalendarDateModel}
+ *
+ * Contesto:
+ * - i dati servono a {@code ServiceCalendar} per sapere quali service_id (e quindi quali trips)
+ *   sono attivi in un giorno di servizio.
+ *
+ * Note di progetto:
+ * - nessuna cache: i file sono piccoli e vengono letti una volta per versione del feed dal Builder.
+ * - entrambi i file sono opzionali nel GTFS (basta uno dei due): un file assente restituisce una lista
+ *   vuota senza log di errore.
+ * - in caso di errori di lettura/parsing ritorna una lista vuota (fallback verso chiamanti/UI).
+ */
+public class CalendarService {
+
+    /**
+     * Classe di soli metodi statici: costruttore privato per evitare istanze.
+     */
+    private CalendarService() {
+    }
+
+    /**
+     * Parsing diretto di calendar.txt.
+     *
+     * Assunzioni:
+     * - il file contiene l'header: le colonne sono individuate per nome
+     * - obbligatoria: service_id (le altre, se assenti, restano stringhe vuote)
+     *
+     * @param filePath path del file calendar.txt (file su disco o path logico di un archivio)
+     * @return lista di {@link CalendarModel} (vuota se il file non esiste o in caso di errore)
+     */
+    public static List<CalendarModel> readCalendarFromCSV(String filePath) {
+        List<CalendarModel> out = new ArrayList<>();
+        if (!GtfsArchive.exists(filePath)) {
+            return out;
+        }
+
+        try {
+            GtfsCsvReader.read(filePath, header -> {
+                int cService = header.require("service_id");
+                int cMon = header.column("monday");
+                int cTue = header.column("tuesday");
+                int cWed = header.column("wednesday");
+                int cThu = header.column("thursday");
+                int cFri = header.column("friday");
+                int cSat = header.column("saturday");
+                int cSun = header.column("sunday");
+                int cStart = header.column("start_date");
+                int cEnd = header.column("end_date");
+
+                return row -> {
+                    CalendarModel c = new CalendarModel();
+                    c.setService_id(row.string(cService));
+                    c.setMonday(row.string(cMon));
+                    c.setTuesday(row.string(cTue));
+                    c.setWednesday(row.string(cWed));
+                    c.setThursday(row.string(cThu));
+                    c.setFriday(row.string(cFri));
+                    c.setSaturday(row.string(cSat));
+                    c.setSunday(row.string(cSun));
+                    c.setStart_date(row.string(cStart));
+                    c.setEnd_date(row.string(cEnd));
+                    out.add(c);
+                };
+            });
+        } catch (IOException e) {
+            System.err.println("Errore nella lettura/CSV calendar: " + e.getMessage());
+        }
+        return out;
+    }
+
+    /**
+     * Parsing diretto di calendar_dates.txt.
+     *
+     * Assunzioni:
+     * - il file contiene l'header: le colonne sono individuate per nome
+     * - obbligatorie: service_id, date, exception_type
+     *
+     * @param filePath path del file calendar_dates.txt (file su disco o path logico di un archivio)
+     * @return lista di {@link CalendarDateModel} (vuota se il file non esiste o in caso di errore)
+     */
+    public static List<CalendarDateModel> readCalendarDatesFromCSV(String filePath) {
+        List<CalendarDateModel> out = new ArrayList<>();
+        if (!GtfsArchive.exists(filePath)) {
+            return out;
+        }
+
+        try {
+            GtfsCsvReader.read(filePath, header -> {
+                int cService = header.require("service_id");
+                int cDate = header.require("date");
+                int cType = header.require("exception_type");
+
+                return row -> {
+                    CalendarDateModel d = new CalendarDateModel();
+                    d.setService_id(row.string(cService));
+                    d.setDate(row.string(cDate));
+                    d.setException_type(row.string(cType));
+                    out.add(d);
+                };
+            });
+        } catch (IOException e) {
+            System.err.println("Errore nella lettura/CSV calendar_dates: " + e.getMessage());
+        }
+        return out;
+    }
+}
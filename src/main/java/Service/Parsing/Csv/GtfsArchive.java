@@ -0,0 +1,503 @@
+package Service.Parsing.Csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Feed GTFS static distribuito come archivio zip, letto direttamente senza estrazione su disco.
+ *
+ * Responsabilità:
+ * - tenere l'archivio in un unico buffer: mappato se è un file, in heap se è una risorsa del classpath
+ * - leggere la central directory dello zip e decomprimere su richiesta un singolo file (accesso casuale)
+ * - esporre per ogni file un "path logico" ({@code zip:<archivio>@<chiave>!/<entry>}) che
+ *   {@link GtfsCsvReader} risolve in modo trasparente: i Service di parsing continuano a lavorare per path
+ *
+ * Contesto:
+ * - sostituisce l'estrazione delle risorse in una cartella temporanea (AppController);
+ *   aggiornare il feed significa sostituire lo zip.
+ * - usato da {@code StaticGtfsRepositoryBuilder#withGtfsArchive}: stops/routes/trips vengono decompressi e
+ *   parsati sul pool comune mentre il thread chiamante decomprime e parsa stop_times.
+ *
+ * Note di progetto:
+ * - il path logico contiene la chiave di contenuto dell'archivio: un nuovo zip nello stesso percorso
+ *   produce path diversi e quindi non riusa le cache "per path" dei Service.
+ * - ogni entry viene decompressa in un buffer dedicato solo durante il parsing (nessuna cache qui:
+ *   la cache resta quella dei Service).
+ * - i nomi dei file sono riconosciuti ignorando cartelle ed estensione ({@code stops.txt}, {@code gtfs/stops.csv}).
+ * - supportati i metodi STORED e DEFLATED; zip64 non è supportato (feed oltre 4 GB).
+ * - un archivio montato resta raggiungibile (con il suo buffer) finché non viene smontato: chi pubblica
+ *   le versioni del feed ({@code StaticGtfsFeed.publish}) smonta quello della versione sostituita.
+ */
+public final class GtfsArchive {
+
+    private static final String PATH_PREFIX = "zip:";
+    private static final String PATH_SEPARATOR = "!/";
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIZE = 30;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    /** Archivi montati: id (nome@chiave) -> archivio. Rimossi con {@link #unmount()} quando il feed viene sostituito. */
+    private static final Map<String, GtfsArchive> mounted = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final ByteBuffer zip;
+    private final String key;
+
+    /** Entry per nome completo (come nello zip). */
+    private final Map<String, Entry> entriesByName;
+
+    /** Entry per file GTFS (nome base senza cartelle/estensione, lowercase). */
+    private final Map<String, Entry> entriesByFile;
+
+    /**
+     * Entry della central directory.
+     *
+     * @param name nome completo nello zip
+     * @param method metodo di compressione
+     * @param compressedSize byte compressi
+     * @param size byte decompressi
+     * @param localHeaderOffset offset dell'header locale
+     */
+    private record Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+    }
+
+    private GtfsArchive(String name, ByteBuffer zip) throws IOException {
+        this.name = name;
+        this.zip = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.entriesByName = readCentralDirectory(this.zip);
+        this.entriesByFile = new LinkedHashMap<>();
+        for (Entry e : entriesByName.values()) {
+            entriesByFile.putIfAbsent(fileKey(e.name()), e);
+        }
+        this.key = contentKey(this.zip);
+    }
+
+    // =========================
+    // Apertura
+    // =========================
+
+    /**
+     * Apre uno zip su disco mappandolo in memoria.
+     *
+     * @param zipPath path dell'archivio
+     * @return archivio aperto (non ancora montato)
+     * @throws IOException se il file non è leggibile o non è uno zip valido
+     */
+    public static GtfsArchive open(Path zipPath) throws IOException {
+        try (FileChannel ch = FileChannel.open(zipPath, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("archivio troppo grande per il mapping: " + zipPath);
+            }
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new GtfsArchive(zipPath.toAbsolutePath().normalize().toString(), buf);
+        }
+    }
+
+    /**
+     * Carica uno zip dal classpath (es. incluso nel JAR) leggendone i byte compressi in un'unica passata.
+     *
+     * @param resourcePath path della risorsa (es. {@code /rome_static_gtfs.zip})
+     * @return archivio aperto (non ancora montato)
+     * @throws IOException se la risorsa non esiste o non è uno zip valido
+     */
+    public static GtfsArchive fromResource(String resourcePath) throws IOException {
+        if (resourcePath == null || resourcePath.isBlank()) {
+            throw new IOException("resourcePath vuoto");
+        }
+        try (InputStream in = GtfsArchive.class.getResourceAsStream(resourcePath)) {
+            if (in == null) {
+                throw new IOException("Risorsa non trovata nel classpath: " + resourcePath);
+            }
+            return new GtfsArchive("classpath:" + resourcePath, ByteBuffer.wrap(in.readAllBytes()));
+        }
+    }
+
+    /**
+     * Registra l'archivio, rendendo risolvibili i suoi path logici.
+     *
+     * @return questo archivio (fluent)
+     */
+    public GtfsArchive mount() {
+        mounted.put(id(), this);
+        return this;
+    }
+
+    /**
+     * Rimuove la registrazione dell'archivio: i suoi path logici non sono più risolvibili e il buffer
+     * può essere raccolto. Le letture già avviate non vengono interrotte.
+     */
+    public void unmount() {
+        mounted.remove(id(), this);
+    }
+
+    /**
+     * Smonta l'archivio a cui appartiene un path logico.
+     *
+     * @param path path logico (i path su disco vengono ignorati)
+     * @return true se un archivio è stato smontato
+     */
+    public static boolean unmount(String path) {
+        String archiveId = archiveOf(path);
+        return archiveId != null && mounted.remove(archiveId) != null;
+    }
+
+    /**
+     * @param path path logico
+     * @return true se l'archivio del path è montato (false per i path su disco)
+     */
+    public static boolean isMounted(String path) {
+        String archiveId = archiveOf(path);
+        return archiveId != null && mounted.containsKey(archiveId);
+    }
+
+    // =========================
+    // Accesso
+    // =========================
+
+    /**
+     * @return nome dell'archivio (path assoluto o risorsa classpath)
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Chiave di contenuto dell'archivio (CRC32C dei byte compressi + dimensione).
+     * Ha lo stesso formato delle chiavi degli snapshot.
+     *
+     * @return chiave esadecimale
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * @param file nome del file GTFS senza estensione (es. {@code "stop_times"}) oppure nome completo dell'entry
+     * @return true se l'archivio contiene il file
+     */
+    public boolean contains(String file) {
+        return find(file) != null;
+    }
+
+    /**
+     * Path logico di un file dell'archivio, da passare ai Service di parsing.
+     * Se il file non è presente si ottiene comunque un path: la sua lettura fallirà come per un file mancante.
+     *
+     * @param file nome del file GTFS senza estensione (es. {@code "stops"}) oppure nome completo dell'entry
+     *             (es. {@code "rome_static_gtfs/stops.csv"})
+     * @return path logico del file
+     */
+    public String path(String file) {
+        Entry e = find(file);
+        String entryName = (e != null) ? e.name() : file + ".txt";
+        return PATH_PREFIX + id() + PATH_SEPARATOR + entryName;
+    }
+
+    /**
+     * Decomprime un file dell'archivio.
+     *
+     * @param file nome del file GTFS senza estensione oppure nome completo dell'entry
+     * @return contenuto del file (buffer in sola lettura, posizionato all'inizio)
+     * @throws IOException se il file manca o l'entry è corrotta
+     */
+    public ByteBuffer read(String file) throws IOException {
+        Entry e = find(file);
+        if (e == null) {
+            throw new IOException("file mancante nell'archivio " + name + ": " + file);
+        }
+        return inflate(e);
+    }
+
+    // =========================
+    // Path logici
+    // =========================
+
+    /**
+     * @param path path (file su disco o path logico)
+     * @return true se il path punta a un file dentro un archivio
+     */
+    public static boolean isArchivePath(String path) {
+        return path != null && path.startsWith(PATH_PREFIX) && path.contains(PATH_SEPARATOR);
+    }
+
+    /**
+     * Identificativo dell'archivio (nome@chiave) a cui appartiene un path logico.
+     *
+     * @param path path da esaminare
+     * @return id dell'archivio, oppure null se {@code path} non è un path logico
+     */
+    public static String archiveOf(String path) {
+        if (!isArchivePath(path)) {
+            return null;
+        }
+        return path.substring(PATH_PREFIX.length(), path.lastIndexOf(PATH_SEPARATOR));
+    }
+
+    /**
+     * Chiave di contenuto dell'archivio a cui appartiene un path logico (è parte del path stesso).
+     *
+     * @param path path da esaminare
+     * @return chiave dell'archivio, oppure null se {@code path} non è un path logico
+     */
+    public static String keyOf(String path) {
+        if (!isArchivePath(path)) {
+            return null;
+        }
+        String archiveId = path.substring(PATH_PREFIX.length(), path.lastIndexOf(PATH_SEPARATOR));
+        int at = archiveId.lastIndexOf('@');
+        return (at < 0) ? null : archiveId.substring(at + 1);
+    }
+
+    /**
+     * Risolve un path logico nel contenuto decompresso del file.
+     *
+     * @param path path da risolvere
+     * @return contenuto del file, oppure null se {@code path} non è un path logico (file su disco)
+     * @throws IOException se l'archivio non è montato o il file non esiste nell'archivio
+     */
+    public static ByteBuffer resolve(String path) throws IOException {
+        if (!isArchivePath(path)) {
+            return null;
+        }
+        int sep = path.lastIndexOf(PATH_SEPARATOR);
+        String archiveId = path.substring(PATH_PREFIX.length(), sep);
+        String entryName = path.substring(sep + PATH_SEPARATOR.length());
+
+        GtfsArchive archive = mounted.get(archiveId);
+        if (archive == null) {
+            throw new IOException("archivio GTFS non montato: " + archiveId);
+        }
+        Entry e = archive.entriesByName.get(entryName);
+        if (e == null) {
+            throw new IOException("file mancante nell'archivio " + archive.name + ": " + entryName);
+        }
+        return archive.inflate(e);
+    }
+
+    /**
+     * Verifica se un file del feed esiste (file su disco oppure entry di un archivio montato).
+     * Utile per i file opzionali del GTFS (es. calendar.txt / calendar_dates.txt).
+     *
+     * @param path path da verificare (su disco o logico)
+     * @return true se il file è leggibile
+     */
+    public static boolean exists(String path) {
+        if (path == null || path.isBlank()) {
+            return false;
+        }
+        if (!isArchivePath(path)) {
+            return Files.isRegularFile(Path.of(path));
+        }
+        int sep = path.lastIndexOf(PATH_SEPARATOR);
+        GtfsArchive archive = mounted.get(path.substring(PATH_PREFIX.length(), sep));
+        return archive != null && archive.entriesByName.containsKey(path.substring(sep + PATH_SEPARATOR.length()));
+    }
+
+    /**
+     * Path di un altro file dello stesso feed (stessa cartella o stesso archivio).
+     *
+     * Esempio: da {@code .../stops.csv} si ottiene {@code .../shapes.csv}.
+     *
+     * @param path path di un file del feed (su disco o logico)
+     * @param file nome del file GTFS senza estensione
+     * @return path del file richiesto (può non esistere), null se {@code path} è vuoto
+     */
+    public static String sibling(String path, String file) {
+        if (path == null || path.isBlank()) {
+            return null;
+        }
+        if (isArchivePath(path)) {
+            int sep = path.lastIndexOf(PATH_SEPARATOR);
+            String entryName = path.substring(sep + PATH_SEPARATOR.length());
+            String sameDir = entryName.substring(0, entryName.lastIndexOf('/') + 1) + file + extension(entryName);
+
+            GtfsArchive archive = mounted.get(path.substring(PATH_PREFIX.length(), sep));
+            if (archive != null && !archive.entriesByName.containsKey(sameDir)) {
+                return archive.path(file);
+            }
+            return path.substring(0, sep + PATH_SEPARATOR.length()) + sameDir;
+        }
+        Path p = Path.of(path);
+        return p.resolveSibling(file + extension(p.getFileName().toString())).toString();
+    }
+
+    // =========================
+    // Zip
+    // =========================
+
+    private String id() {
+        return name + "@" + key;
+    }
+
+    /**
+     * Cerca un'entry per nome completo oppure per nome GTFS (senza cartelle/estensione).
+     */
+    private Entry find(String file) {
+        if (file == null) {
+            return null;
+        }
+        Entry exact = entriesByName.get(file);
+        return (exact != null) ? exact : entriesByFile.get(file.toLowerCase(Locale.ROOT));
+    }
+
+    private static String extension(String fileName) {
+        int slash = fileName.lastIndexOf('/');
+        int dot = fileName.lastIndexOf('.');
+        return (dot > slash) ? fileName.substring(dot) : "";
+    }
+
+    /**
+     * Nome "GTFS" di un'entry: senza cartelle, senza estensione, lowercase.
+     */
+    private static String fileKey(String entryName) {
+        String base = entryName.substring(entryName.lastIndexOf('/') + 1);
+        int dot = base.lastIndexOf('.');
+        if (dot > 0) {
+            base = base.substring(0, dot);
+        }
+        return base.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Legge la central directory (a partire dal record di fine archivio).
+     * Le cartelle e le entry di metadati macOS vengono ignorate.
+     */
+    private static Map<String, Entry> readCentralDirectory(ByteBuffer zip) throws IOException {
+        int eocd = findEndOfCentralDirectory(zip);
+        if (eocd < 0) {
+            throw new IOException("archivio zip non valido (fine central directory non trovata)");
+        }
+
+        int count = Short.toUnsignedInt(zip.getShort(eocd + 10));
+        long cenOffset = Integer.toUnsignedLong(zip.getInt(eocd + 16));
+        if (count == 0xFFFF || cenOffset == 0xFFFFFFFFL) {
+            throw new IOException("archivio zip64 non supportato");
+        }
+
+        Map<String, Entry> out = new LinkedHashMap<>();
+        int pos = (int) cenOffset;
+        for (int i = 0; i < count; i++) {
+            if (pos + CEN_SIZE > zip.limit() || zip.getInt(pos) != CEN_SIGNATURE) {
+                throw new IOException("central directory corrotta");
+            }
+            int method = Short.toUnsignedInt(zip.getShort(pos + 10));
+            long compressedSize = Integer.toUnsignedLong(zip.getInt(pos + 20));
+            long size = Integer.toUnsignedLong(zip.getInt(pos + 24));
+            int nameLen = Short.toUnsignedInt(zip.getShort(pos + 28));
+            int extraLen = Short.toUnsignedInt(zip.getShort(pos + 30));
+            int commentLen = Short.toUnsignedInt(zip.getShort(pos + 32));
+            long localOffset = Integer.toUnsignedLong(zip.getInt(pos + 42));
+
+            byte[] nameBytes = new byte[nameLen];
+            zip.get(pos + CEN_SIZE, nameBytes);
+            String entryName = new String(nameBytes, StandardCharsets.UTF_8);
+
+            if (!entryName.endsWith("/") && !entryName.startsWith("__MACOSX/")) {
+                out.put(entryName, new Entry(entryName, method, compressedSize, size, localOffset));
+            }
+            pos += CEN_SIZE + nameLen + extraLen + commentLen;
+        }
+        return out;
+    }
+
+    /**
+     * Cerca il record di fine archivio partendo dal fondo (può essere seguito da un commento fino a 64 KB).
+     *
+     * @return offset del record, oppure -1
+     */
+    private static int findEndOfCentralDirectory(ByteBuffer zip) {
+        int last = zip.limit() - EOCD_SIZE;
+        int stop = Math.max(0, last - 0xFFFF);
+        for (int pos = last; pos >= stop; pos--) {
+            if (zip.getInt(pos) == EOCD_SIGNATURE) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decomprime un'entry in un buffer dedicato (STORED: vista sui byte dell'archivio, senza copia).
+     */
+    private ByteBuffer inflate(Entry e) throws IOException {
+        if (e.size() > Integer.MAX_VALUE - 8) {
+            throw new IOException("file troppo grande nell'archivio: " + e.name());
+        }
+
+        int loc = (int) e.localHeaderOffset();
+        if (loc + LOC_SIZE > zip.limit() || zip.getInt(loc) != LOC_SIGNATURE) {
+            throw new IOException("header locale corrotto: " + e.name());
+        }
+        int nameLen = Short.toUnsignedInt(zip.getShort(loc + 26));
+        int extraLen = Short.toUnsignedInt(zip.getShort(loc + 28));
+        long dataStart = (long) loc + LOC_SIZE + nameLen + extraLen;
+        if (dataStart + e.compressedSize() > zip.limit()) {
+            throw new IOException("entry troncata: " + e.name());
+        }
+
+        ByteBuffer data = zip.duplicate().order(ByteOrder.BIG_ENDIAN)
+                .position((int) dataStart)
+                .limit((int) (dataStart + e.compressedSize()))
+                .slice();
+
+        if (e.method() == METHOD_STORED) {
+            return data.asReadOnlyBuffer();
+        }
+        if (e.method() != METHOD_DEFLATED) {
+            throw new IOException("metodo di compressione non supportato (" + e.method() + "): " + e.name());
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) e.size());
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            while (!inflater.finished() && out.hasRemaining()) {
+                if (inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("entry corrotta: " + e.name() + " (" + ex.getMessage() + ")", ex);
+        } finally {
+            inflater.end();
+        }
+
+        if (out.hasRemaining()) {
+            throw new IOException("entry troncata: " + e.name());
+        }
+        return out.flip();
+    }
+
+    /**
+     * Chiave di contenuto dei byte compressi: CRC32C + dimensione (stesso formato degli snapshot).
+     */
+    private static String contentKey(ByteBuffer zip) {
+        CRC32C crc = new CRC32C();
+        crc.update(zip.duplicate().position(0));
+        long size = zip.limit();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, size));
+        return String.format("%08x%012x", crc.getValue(), size & 0xFFFFFFFFFFFFL);
+    }
+}
@@ -0,0 +1,988 @@
+package Service.Parsing.Csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parser CSV "zero-copy" per i file GTFS static.
+ *
+ * Responsabilità:
+ * - mappare il file in memoria ({@link FileChannel#map}) e scansionare direttamente i byte
+ * - individuare le colonne tramite il nome nell'header (l'ordine delle colonne nel feed non conta)
+ * - esporre ogni riga come "cursore" riutilizzato ({@link Row}) con getter tipizzati
+ *   (int, orari GTFS in secondi, double) che leggono i byte senza creare String intermedie
+ *
+ * Contesto:
+ * - sostituisce OpenCSV nei Service di parsing (stops, routes, trips, stop_times, shapes).
+ * - il chiamante riceve l'header, risolve una volta gli indici di colonna e restituisce un {@link RowSink}
+ *   che riempie direttamente le proprie strutture (modelli o store colonnari).
+ *
+ * Note di progetto:
+ * - nessun {@code String[]} per riga: la riga memorizza solo gli offset (inizio/fine) dei campi.
+ * - gestisce BOM UTF-8, campi tra virgolette (anche con {@code ""} e a capo interni), fine riga LF e CRLF.
+ * - i valori restituiti come stringa sono già trim()mati (come faceva {@code safe(...)} nei vecchi parser).
+ * - le righe vuote vengono saltate.
+ * - per file grandi (stop_times) {@link #readChunks} divide il buffer su confini di riga e parsa i chunk in parallelo.
+ * - i path logici di un {@link GtfsArchive} (feed zip) sono letti dal contenuto decompresso in memoria.
+ */
+public final class GtfsCsvReader {
+
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    /**
+     * Classe di soli metodi statici: costruttore privato.
+     */
+    private GtfsCsvReader() {
+    }
+
+    // =========================
+    // API
+    // =========================
+
+    /**
+     * Ricevitore delle righe di un file CSV.
+     * L'istanza di {@link Row} passata è riutilizzata: non va conservata dopo la chiamata.
+     */
+    @FunctionalInterface
+    public interface RowSink {
+
+        /**
+         * @param row riga corrente (cursore riutilizzato)
+         */
+        void onRow(Row row);
+    }
+
+    /**
+     * Factory del sink: riceve l'header e risolve gli indici delle colonne necessarie.
+     */
+    @FunctionalInterface
+    public interface SinkFactory {
+
+        /**
+         * @param header header del file
+         * @return sink che riceverà tutte le righe dati
+         * @throws IOException se mancano colonne obbligatorie
+         */
+        RowSink open(Header header) throws IOException;
+    }
+
+    /**
+     * Legge un file CSV mappandolo in memoria.
+     * Accetta anche i path logici di un {@link GtfsArchive} montato (il file viene decompresso in memoria).
+     *
+     * @param filePath path del file
+     * @param factory factory del sink (riceve l'header)
+     * @return numero di righe dati passate al sink
+     * @throws IOException in caso di errori di I/O o colonne obbligatorie mancanti
+     */
+    public static int read(String filePath, SinkFactory factory) throws IOException {
+        if (filePath == null || filePath.isBlank()) {
+            throw new IOException("path CSV vuoto");
+        }
+        ByteBuffer entry = GtfsArchive.resolve(filePath);
+        if (entry != null) {
+            return read(entry, factory);
+        }
+        return read(Path.of(filePath), factory);
+    }
+
+    /**
+     * Legge un file CSV mappandolo in memoria.
+     *
+     * @param path path del file
+     * @param factory factory del sink (riceve l'header)
+     * @return numero di righe dati passate al sink
+     * @throws IOException in caso di errori di I/O o colonne obbligatorie mancanti
+     */
+    public static int read(Path path, SinkFactory factory) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file troppo grande per il mapping: " + path);
+            }
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return read(buf, factory);
+        }
+    }
+
+    /**
+     * Legge un CSV già presente in un buffer (mappato o in heap), dalla posizione al limite.
+     *
+     * @param buf buffer con il contenuto del file
+     * @param factory factory del sink (riceve l'header)
+     * @return numero di righe dati passate al sink
+     * @throws IOException se mancano colonne obbligatorie
+     */
+    public static int read(ByteBuffer buf, SinkFactory factory) throws IOException {
+        Row row = new Row(buf);
+        int pos = readHeader(buf, row);
+        if (pos < 0) {
+            return 0; // file vuoto
+        }
+
+        RowSink sink = factory.open(new Header(row));
+        if (sink == null) {
+            return 0;
+        }
+        return scanRows(row, pos, buf.limit(), sink);
+    }
+
+    /**
+     * Legge solo l'header di un CSV già presente in un buffer.
+     *
+     * @param buf buffer con il contenuto del file
+     * @return header, oppure null se il file è vuoto
+     */
+    public static Header header(ByteBuffer buf) {
+        Row row = new Row(buf);
+        return (readHeader(buf, row) < 0) ? null : new Header(row);
+    }
+
+    /**
+     * Scansiona le righe dati in un intervallo di byte [from, to) di un buffer, senza header.
+     *
+     * Uso tipico:
+     * - accesso casuale a un file già indicizzato: gli offset arrivano da {@link Row#lineStart()} /
+     *   {@link Row#lineEnd()} di una lettura precedente e le colonne da {@link #header(ByteBuffer)}.
+     * - il buffer viene letto solo con accessi assoluti: più thread possono leggere intervalli
+     *   diversi dello stesso buffer.
+     *
+     * @param buf buffer con il contenuto del file
+     * @param from offset di inizio (inizio di una riga)
+     * @param to offset di fine (escluso; fine di una riga)
+     * @param sink ricevitore delle righe
+     * @return numero di righe passate al sink
+     */
+    public static int readRange(ByteBuffer buf, int from, int to, RowSink sink) {
+        return scanRows(new Row(buf), from, to, sink);
+    }
+
+    // =========================
+    // Lettura parallela a chunk
+    // =========================
+
+    /**
+     * Factory per la lettura a chunk: ogni chunk ha il proprio accumulatore e il proprio sink.
+     *
+     * @param <T> tipo dell'accumulatore di un chunk (es. un builder)
+     */
+    public interface ChunkSinkFactory<T> {
+
+        /**
+         * @return nuovo accumulatore vuoto per un chunk
+         */
+        T newChunk();
+
+        /**
+         * @param header header del file
+         * @param chunk accumulatore del chunk
+         * @return sink che riempie {@code chunk}
+         * @throws IOException se mancano colonne obbligatorie
+         */
+        RowSink open(Header header, T chunk) throws IOException;
+    }
+
+    /**
+     * Legge un file CSV dividendolo in chunk su confini di riga e parsando i chunk in parallelo.
+     *
+     * Dettagli:
+     * - i confini vengono scelti su un fine riga che non sia dentro un campo tra virgolette
+     * - ogni chunk viene parsato su {@code pool} con un proprio {@link Row} e un proprio accumulatore
+     * - i risultati sono restituiti nell'ordine del file (il merge è a carico del chiamante)
+     *
+     * @param path path del file
+     * @param pool pool su cui eseguire i chunk
+     * @param factory factory degli accumulatori/sink
+     * @param <T> tipo dell'accumulatore di un chunk
+     * @return accumulatori in ordine di file (vuota se il file non ha header)
+     * @throws IOException in caso di errori di I/O o colonne obbligatorie mancanti
+     */
+    public static <T> List<T> readChunks(Path path, ForkJoinPool pool, ChunkSinkFactory<T> factory)
+            throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file troppo grande per il mapping: " + path);
+            }
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return readChunks(buf, pool, factory);
+        }
+    }
+
+    /**
+     * Variante di {@link #readChunks(Path, ForkJoinPool, ChunkSinkFactory)} che accetta anche
+     * i path logici di un {@link GtfsArchive} montato.
+     *
+     * @param filePath path del file
+     * @param pool pool su cui eseguire i chunk
+     * @param factory factory degli accumulatori/sink
+     * @param <T> tipo dell'accumulatore di un chunk
+     * @return accumulatori in ordine di file (vuota se il file non ha header)
+     * @throws IOException in caso di errori di I/O o colonne obbligatorie mancanti
+     */
+    public static <T> List<T> readChunks(String filePath, ForkJoinPool pool, ChunkSinkFactory<T> factory)
+            throws IOException {
+        if (filePath == null || filePath.isBlank()) {
+            throw new IOException("path CSV vuoto");
+        }
+        ByteBuffer entry = GtfsArchive.resolve(filePath);
+        if (entry != null) {
+            return readChunks(entry, pool, factory);
+        }
+        return readChunks(Path.of(filePath), pool, factory);
+    }
+
+    /**
+     * Variante di {@link #readChunks(Path, ForkJoinPool, ChunkSinkFactory)} su un buffer già disponibile.
+     *
+     * @param buf buffer con il contenuto del file
+     * @param pool pool su cui eseguire i chunk
+     * @param factory factory degli accumulatori/sink
+     * @param <T> tipo dell'accumulatore di un chunk
+     * @return accumulatori in ordine di file (vuota se il file non ha header)
+     * @throws IOException se mancano colonne obbligatorie
+     */
+    public static <T> List<T> readChunks(ByteBuffer buf, ForkJoinPool pool, ChunkSinkFactory<T> factory)
+            throws IOException {
+        Row headerRow = new Row(buf);
+        int from = readHeader(buf, headerRow);
+        if (from < 0) {
+            return List.of();
+        }
+        Header header = new Header(headerRow);
+        int to = buf.limit();
+
+        int chunkCount = (int) Math.min(
+                (long) pool.getParallelism() * CHUNKS_PER_WORKER,
+                Math.max(1, (to - from) / MIN_CHUNK_BYTES)
+        );
+        int[] bounds = splitOnLines(buf, from, to, Math.max(1, chunkCount));
+
+        // Apertura dei sink sul thread chiamante: eventuali colonne mancanti emergono come IOException qui.
+        int n = bounds.length - 1;
+        List<T> chunks = new ArrayList<>(n);
+        List<RowSink> sinks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            T chunk = factory.newChunk();
+            chunks.add(chunk);
+            sinks.add(factory.open(header, chunk));
+        }
+
+        if (n == 1) {
+            scanRows(new Row(buf), bounds[0], bounds[1], sinks.get(0));
+            return chunks;
+        }
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int start = bounds[i];
+            int end = bounds[i + 1];
+            RowSink sink = sinks.get(i);
+            tasks.add(pool.submit(() -> scanRows(new Row(buf), start, end, sink)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return chunks;
+    }
+
+    /** Chunk per worker: qualche chunk in più dei core bilancia righe di lunghezza diversa. */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /** Sotto questa dimensione non conviene dividere ulteriormente. */
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+
+    /** Dimensione della finestra di lettura di ciascun {@link Row}. */
+    private static final int WINDOW_BYTES = 32 * 1024;
+
+    // =========================
+    // Scansione
+    // =========================
+
+    /**
+     * Salta BOM e righe vuote iniziali e scansiona l'header in {@code row}.
+     *
+     * @return posizione della prima riga dati, oppure -1 se il file non ha header
+     */
+    private static int readHeader(ByteBuffer buf, Row row) {
+        int pos = buf.position();
+        int limit = buf.limit();
+
+        // BOM UTF-8 (EF BB BF)
+        if (limit - pos >= 3
+                && buf.get(pos) == (byte) 0xEF
+                && buf.get(pos + 1) == (byte) 0xBB
+                && buf.get(pos + 2) == (byte) 0xBF) {
+            pos += 3;
+        }
+
+        while (pos < limit) {
+            pos = row.scanLine(pos, limit);
+            if (!row.isBlankLine()) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scansiona le righe dati nell'intervallo [from, to) passando ogni riga non vuota al sink.
+     *
+     * @return numero di righe passate al sink
+     */
+    private static int scanRows(Row row, int from, int to, RowSink sink) {
+        int pos = from;
+        int count = 0;
+        while (pos < to) {
+            pos = row.scanLine(pos, to);
+            if (row.isBlankLine()) {
+                continue;
+            }
+            sink.onRow(row);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Calcola i confini dei chunk: circa {@code parts} intervalli di pari dimensione,
+     * ciascuno terminato da un LF che non cade dentro un campo tra virgolette.
+     *
+     * Nota:
+     * - la parità delle virgolette richiede una passata sequenziale, fatta a blocchi (copia bulk)
+     *   perché è molto più economica del parsing vero e proprio.
+     *
+     * @return array di confini (primo = from, ultimo = to)
+     */
+    private static int[] splitOnLines(ByteBuffer buf, int from, int to, int parts) {
+        if (parts <= 1) {
+            return new int[]{from, to};
+        }
+
+        int[] bounds = new int[parts + 1];
+        int count = 0;
+        bounds[count++] = from;
+
+        long span = (long) to - from;
+        int nextTarget = (int) (from + span / parts);
+
+        byte[] block = new byte[64 * 1024];
+        boolean inQuotes = false;
+        int p = from;
+        while (p < to && count < parts) {
+            int len = Math.min(block.length, to - p);
+            buf.get(p, block, 0, len);
+            for (int i = 0; i < len; i++) {
+                byte b = block[i];
+                if (b == QUOTE) {
+                    inQuotes = !inQuotes;
+                } else if (b == LF && !inQuotes && p + i >= nextTarget) {
+                    int boundary = p + i + 1;
+                    if (boundary < to) {
+                        bounds[count++] = boundary;
+                    }
+                    if (count >= parts) {
+                        break;
+                    }
+                    nextTarget = (int) (from + span * count / parts);
+                }
+            }
+            p += len;
+        }
+
+        bounds[count++] = to;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    // =========================
+    // Header
+    // =========================
+
+    /**
+     * Header del file: nome colonna (lowercase, trim) -> indice.
+     */
+    public static final class Header {
+
+        private final Map<String, Integer> indexByName = new HashMap<>();
+        private final String[] names;
+
+        private Header(Row row) {
+            names = new String[row.fieldCount];
+            for (int i = 0; i < row.fieldCount; i++) {
+                String name = row.string(i).toLowerCase(Locale.ROOT);
+                names[i] = name;
+                indexByName.putIfAbsent(name, i);
+            }
+        }
+
+        /**
+         * @param name nome colonna GTFS (es. "stop_id")
+         * @return indice della colonna, oppure -1 se assente
+         */
+        public int column(String name) {
+            if (name == null) {
+                return -1;
+            }
+            Integer idx = indexByName.get(name.trim().toLowerCase(Locale.ROOT));
+            return (idx == null) ? -1 : idx;
+        }
+
+        /**
+         * @param name nome colonna GTFS obbligatoria
+         * @return indice della colonna
+         * @throws IOException se la colonna non è presente
+         */
+        public int require(String name) throws IOException {
+            int idx = column(name);
+            if (idx < 0) {
+                throw new IOException("colonna obbligatoria mancante: " + name);
+            }
+            return idx;
+        }
+
+        /** @return nomi delle colonne nell'ordine del file */
+        public String[] names() {
+            return names.clone();
+        }
+    }
+
+    // =========================
+    // Row (cursore)
+    // =========================
+
+    /**
+     * Cursore sulla riga corrente: contiene solo gli offset dei campi nel buffer.
+     *
+     * Note:
+     * - i getter accettano indici negativi o oltre il numero di campi (colonna assente/riga corta)
+     *   e in quel caso restituiscono il valore di default.
+     * - {@link #string(int)} riusa la stessa istanza String se il campo è identico a quello
+     *   della riga precedente (tipico per trip_id/shape_id ripetuti su righe consecutive).
+     */
+    public static final class Row {
+
+        private final ByteBuffer buf;
+
+        private int fieldCount;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private boolean[] escaped = new boolean[16];
+        private boolean[] quoted = new boolean[16];
+
+        private byte[] scratch = new byte[256];
+
+        /** Intervallo (nell'array restituito da {@link #view(int)}) dell'ultimo campo letto. */
+        private int viewFrom;
+        private int viewTo;
+
+        /** Intervallo di byte della riga corrente: [lineStart, lineEnd), terminatore incluso. */
+        private int lineStart;
+        private int lineEnd;
+
+        /**
+         * Finestra di byte copiati in blocco dal buffer a partire da {@link #lineStart}:
+         * scansione e getter leggono da array invece di chiamare {@code get(int)} byte per byte.
+         */
+        private final byte[] window = new byte[WINDOW_BYTES];
+        private int windowStart;
+        private int windowLen;
+
+        /** Cache per colonna dell'ultimo valore decodificato (bytes riusati + lunghezza + String). */
+        private byte[][] lastBytes = new byte[16][];
+        private int[] lastLength = new int[16];
+        private String[] lastString = new String[16];
+
+        private Row(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        /** @return numero di campi della riga corrente */
+        public int fieldCount() {
+            return fieldCount;
+        }
+
+        /** @return offset (nel buffer) del primo byte della riga corrente */
+        public int lineStart() {
+            return lineStart;
+        }
+
+        /** @return offset (nel buffer) del primo byte dopo la riga corrente (terminatore incluso) */
+        public int lineEnd() {
+            return lineEnd;
+        }
+
+        /**
+         * @param col indice colonna
+         * @return true se il campo è assente o contiene solo spazi
+         */
+        public boolean isBlank(int col) {
+            if (col < 0 || col >= fieldCount) {
+                return true;
+            }
+            view(col);
+            return viewFrom >= viewTo;
+        }
+
+        /**
+         * Valore testuale del campo (trim, virgolette rimosse, {@code ""} -> {@code "}).
+         *
+         * @param col indice colonna
+         * @return stringa (vuota se campo assente)
+         */
+        public String string(int col) {
+            if (col < 0 || col >= fieldCount) {
+                return "";
+            }
+            byte[] src = view(col);
+            int off = viewFrom;
+            int len = viewTo - off;
+            if (len <= 0) {
+                return "";
+            }
+            if (escaped[col]) {
+                // la finestra non va modificata: unescape su scratch
+                byte[] tmp = scratch(len);
+                System.arraycopy(src, off, tmp, 0, len);
+                src = tmp;
+                off = 0;
+                len = unescape(tmp, len);
+            }
+
+            byte[] prev = lastBytes[col];
+            if (prev != null && lastLength[col] == len && Arrays.equals(prev, 0, len, src, off, off + len)) {
+                return lastString[col];
+            }
+            String out = new String(src, off, len, StandardCharsets.UTF_8);
+            if (prev == null || prev.length < len) {
+                prev = new byte[Math.max(len, 32)];
+                lastBytes[col] = prev;
+            }
+            System.arraycopy(src, off, prev, 0, len);
+            lastLength[col] = len;
+            lastString[col] = out;
+            return out;
+        }
+
+        /**
+         * Parsing intero direttamente dai byte.
+         *
+         * @param col indice colonna
+         * @param def valore di default (campo assente, vuoto o non numerico)
+         * @return valore intero
+         */
+        public int intValue(int col, int def) {
+            if (col < 0 || col >= fieldCount) {
+                return def;
+            }
+            byte[] a = view(col);
+            int s = viewFrom;
+            int e = viewTo;
+            if (s >= e) {
+                return def;
+            }
+
+            boolean neg = false;
+            byte first = a[s];
+            if (first == '-' || first == '+') {
+                neg = (first == '-');
+                s++;
+                if (s >= e) {
+                    return def;
+                }
+            }
+
+            long v = 0;
+            for (int i = s; i < e; i++) {
+                byte b = a[i];
+                if (b < '0' || b > '9') {
+                    return def;
+                }
+                v = v * 10 + (b - '0');
+                if (v > Integer.MAX_VALUE) {
+                    return def;
+                }
+            }
+            return (int) (neg ? -v : v);
+        }
+
+        /**
+         * Parsing di un orario GTFS "H:MM:SS" direttamente dai byte.
+         *
+         * Regole (coerenti con {@code StopTimesStore.parseGtfsSeconds}):
+         * - ore fino a 47, minuti e secondi in [0, 59]
+         *
+         * @param col indice colonna
+         * @return secondi dall'inizio del giorno di servizio, oppure -1 se assente/non valido
+         */
+        public int gtfsSeconds(int col) {
+            if (col < 0 || col >= fieldCount) {
+                return -1;
+            }
+            byte[] a = view(col);
+            int s = viewFrom;
+            int e = viewTo;
+
+            int h = 0;
+            int m = 0;
+            int part = 0;
+            int digits = 0;
+            int v = 0;
+            for (int i = s; i < e; i++) {
+                byte b = a[i];
+                if (b == ':') {
+                    if (digits == 0 || part == 2) {
+                        return -1;
+                    }
+                    if (part++ == 0) {
+                        h = v;
+                    } else {
+                        m = v;
+                    }
+                    v = 0;
+                    digits = 0;
+                } else if (b >= '0' && b <= '9') {
+                    v = v * 10 + (b - '0');
+                    if (++digits > 6) {
+                        return -1;
+                    }
+                } else {
+                    return -1;
+                }
+            }
+            if (part != 2 || digits == 0) {
+                return -1;
+            }
+
+            int sec = v;
+            if (m >= 60 || sec >= 60 || h >= 48) {
+                return -1;
+            }
+            return h * 3600 + m * 60 + sec;
+        }
+
+        /**
+         * Parsing decimale direttamente dai byte.
+         *
+         * Dettagli:
+         * - fast path per il formato tipico dei feed ("41.902783", "-12.5"): mantissa intera / potenza di 10,
+         *   esatto per mantisse fino a 15 cifre
+         * - fallback su {@link Double#parseDouble(String)} per esponenti o numeri lunghi
+         *
+         * @param col indice colonna
+         * @param def valore di default (campo assente, vuoto o non numerico)
+         * @return valore double
+         */
+        public double doubleValue(int col, double def) {
+            if (col < 0 || col >= fieldCount) {
+                return def;
+            }
+            byte[] a = view(col);
+            int i = viewFrom;
+            int e = viewTo;
+            if (i >= e) {
+                return def;
+            }
+
+            boolean neg = false;
+            byte first = a[i];
+            if (first == '-' || first == '+') {
+                neg = (first == '-');
+                i++;
+            }
+
+            long mantissa = 0;
+            int digits = 0;
+            int fraction = -1;
+            boolean anyDigit = false;
+            for (; i < e; i++) {
+                byte b = a[i];
+                if (b >= '0' && b <= '9') {
+                    anyDigit = true;
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0 || digits > 0) {
+                        digits++;
+                    }
+                    if (fraction >= 0) {
+                        fraction++;
+                    }
+                } else if (b == '.' && fraction < 0) {
+                    fraction = 0;
+                } else {
+                    return slowDouble(col, def);
+                }
+                if (digits > 15) {
+                    return slowDouble(col, def);
+                }
+            }
+
+            if (!anyDigit) {
+                return def; // "-", "+", "." (come Double.parseDouble: non numerico)
+            }
+            double v = mantissa;
+            if (fraction >= POW10.length) {
+                // zeri iniziali non contano come cifre: la scala può superare la tabella
+                return slowDouble(col, def);
+            }
+            if (fraction > 0) {
+                v = v / POW10[fraction];
+            }
+            return neg ? -v : v;
+        }
+
+        /**
+         * @param col indice colonna
+         * @param def valore di default
+         * @return valore float (vedi {@link #doubleValue(int, double)})
+         */
+        public float floatValue(int col, float def) {
+            double d = doubleValue(col, Double.NaN);
+            return Double.isNaN(d) ? def : (float) d;
+        }
+
+        // ---- scanning ----
+
+        /**
+         * Scansiona una riga a partire da {@code pos}.
+         *
+         * @return posizione di inizio della riga successiva
+         */
+        private int scanLine(int pos, int limit) {
+            int n = 0;
+            int p = pos;
+            lineStart = pos;
+
+            while (true) {
+                ensureFieldCapacity(n + 1);
+
+                boolean q = false;
+                boolean esc = false;
+                int start;
+                int end;
+
+                if (p < limit && at(p) == QUOTE) {
+                    q = true;
+                    p++;
+                    start = p;
+                    while (p < limit) {
+                        byte b = at(p);
+                        if (b == QUOTE) {
+                            if (p + 1 < limit && at(p + 1) == QUOTE) {
+                                esc = true;
+                                p += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        p++;
+                    }
+                    end = p;
+                    if (p < limit) {
+                        p++; // virgoletta di chiusura
+                    }
+                    // eventuale "sporcizia" dopo la virgoletta di chiusura viene ignorata
+                    while (p < limit) {
+                        byte b = at(p);
+                        if (b == COMMA || b == LF || b == CR) {
+                            break;
+                        }
+                        p++;
+                    }
+                } else {
+                    start = p;
+                    p = skipUnquoted(p, limit);
+                    end = p;
+                }
+
+                starts[n] = start;
+                ends[n] = end;
+                quoted[n] = q;
+                escaped[n] = esc;
+                n++;
+
+                if (p >= limit) {
+                    break;
+                }
+                byte b = at(p);
+                p++;
+                if (b == COMMA) {
+                    continue;
+                }
+                if (b == CR && p < limit && at(p) == LF) {
+                    p++;
+                }
+                break;
+            }
+
+            fieldCount = n;
+            lineEnd = p;
+            return p;
+        }
+
+        /**
+         * Avanza fino al separatore di un campo senza virgolette (caso dominante):
+         * ciclo diretto sull'array della finestra, ricaricata solo quando si arriva al bordo.
+         *
+         * @return posizione del separatore (o {@code limit})
+         */
+        private int skipUnquoted(int p, int limit) {
+            while (p < limit) {
+                byte[] w = window;
+                int base = windowStart;
+                int stop = (p >= base) ? Math.min(limit, base + windowLen) : p;
+                while (p < stop) {
+                    byte b = w[p - base];
+                    // un solo confronto per cifre/lettere: i separatori sono tutti <= ','
+                    if (b <= COMMA && (b == COMMA || b == LF || b == CR)) {
+                        return p;
+                    }
+                    p++;
+                }
+                if (p >= limit) {
+                    break;
+                }
+                byte b = at(p); // fuori finestra: ricarica (o lettura diretta per righe molto lunghe)
+                if (b == COMMA || b == LF || b == CR) {
+                    return p;
+                }
+                p++;
+            }
+            return p;
+        }
+
+        private boolean isBlankLine() {
+            return fieldCount == 1 && !quoted[0] && isBlank(0);
+        }
+
+        private void ensureFieldCapacity(int min) {
+            if (min <= starts.length) {
+                return;
+            }
+            int cap = Math.max(min, starts.length * 2);
+            starts = Arrays.copyOf(starts, cap);
+            ends = Arrays.copyOf(ends, cap);
+            escaped = Arrays.copyOf(escaped, cap);
+            quoted = Arrays.copyOf(quoted, cap);
+            lastBytes = Arrays.copyOf(lastBytes, cap);
+            lastLength = Arrays.copyOf(lastLength, cap);
+            lastString = Arrays.copyOf(lastString, cap);
+        }
+
+        /**
+         * Byte del campo {@code col} senza spazi iniziali/finali: la finestra se contiene il campo
+         * (caso tipico), altrimenti una copia in scratch. L'intervallo è in [{@link #viewFrom}, {@link #viewTo}).
+         */
+        private byte[] view(int col) {
+            int s = starts[col];
+            int len = ends[col] - s;
+            byte[] a;
+            int from = s - windowStart;
+            if (from >= 0 && from + len <= windowLen) {
+                a = window;
+            } else {
+                a = scratch(len);
+                buf.get(s, a, 0, len);
+                from = 0;
+            }
+            int to = from + len;
+            while (from < to && isSpace(a[from])) {
+                from++;
+            }
+            while (to > from && isSpace(a[to - 1])) {
+                to--;
+            }
+            viewFrom = from;
+            viewTo = to;
+            return a;
+        }
+
+        /** Byte all'offset {@code p} del buffer, letto dalla finestra quando possibile. */
+        private byte at(int p) {
+            int i = p - windowStart;
+            if (i >= 0 && i < windowLen) {
+                return window[i];
+            }
+            return refill(p);
+        }
+
+        /**
+         * Ricarica la finestra da {@code lineStart} (o da {@code p} se precedente).
+         * Righe più lunghe della finestra ricadono sulla lettura diretta dal buffer.
+         */
+        private byte refill(int p) {
+            int from = Math.min(p, lineStart);
+            int len = Math.min(window.length, buf.limit() - from);
+            if (p - from >= len) {
+                return buf.get(p);
+            }
+            buf.get(from, window, 0, len);
+            windowStart = from;
+            windowLen = len;
+            return window[p - from];
+        }
+
+        private byte[] scratch(int len) {
+            if (scratch.length < len) {
+                scratch = new byte[Math.max(len, scratch.length * 2)];
+            }
+            return scratch;
+        }
+
+        private double slowDouble(int col, double def) {
+            try {
+                return Double.parseDouble(string(col));
+            } catch (NumberFormatException ex) {
+                return def;
+            }
+        }
+    }
+
+    // =========================
+    // Utility interne
+    // =========================
+
+    /** Potenze di 10 esattamente rappresentabili in double (fino a 10^22). */
+    private static final double[] POW10 = new double[23];
+
+    static {
+        double p = 1;
+        for (int i = 0; i < POW10.length; i++) {
+            POW10[i] = p;
+            p *= 10;
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Sostituisce le coppie {@code ""} con {@code "} in-place.
+     *
+     * @return nuova lunghezza
+     */
+    private static int unescape(byte[] bytes, int len) {
+        int w = 0;
+        for (int r = 0; r < len; r++) {
+            bytes[w++] = bytes[r];
+            if (bytes[r] == QUOTE && r + 1 < len && bytes[r + 1] == QUOTE) {
+                r++;
+            }
+        }
+        return w;
+    }
+}
@@ -1,50 +1,45 @@
 package Service.Parsing;
 
 import Model.Map.RouteDirectionOption;
-import Model.Parsing.Static.RoutesModel;
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
+import Service.Parsing.Static.RouteDirectionTable;
+import Service.Parsing.Static.StaticGtfsFeed;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service che ricava le direzioni (direction_id) e i capolinea (trip_headsign) di una linea
- * leggendo il file GTFS static {@code trips.csv}.
+ * dalla {@link RouteDirectionTable} del GTFS static.
  *
  * Responsabilità:
  * - dato un {@code route_id}, costruire un set di opzioni "direzione + headsign" utilizzabili dalla UI
- * - mantenere una cache in memoria: {@code route_id -> (direction_id -> headsign)}
+ * - risolvere la tabella giusta per i path richiesti (feed pubblicato o cache locale)
  *
  * Contesto:
  * - usato soprattutto in modalità FERMATA (STOP-mode) per mostrare subito "64 → Laurentina" ecc.
- * - non usa repository: legge direttamente da CSV (scelta semplice per il progetto; cache riduce il costo).
+ * - se il path dei trips appartiene allo {@link StaticGtfsFeed} pubblicato usa la tabella della sua repository,
+ *   calcolata al caricamento: ogni query è un lookup su mappa, senza scansioni dei trips.
  *
  * Note di progetto:
- * - la cache è statica e condivisa: se si cambiano file o dataset a runtime va chiamato {@link #clearCache()}.
- * - in caso di errori di I/O ritorna strutture vuote (fallback gestito dal chiamante).
+ * - senza feed la tabella viene costruita una volta per coppia di path (routes + trips, letti tramite
+ *   {@link RoutesService} / {@link TripsService}); se si cambiano file a runtime va chiamato {@link #clearCache()}.
+ * - in caso di errori di I/O ritorna strutture vuote (fallback gestito dal chiamante, vedi TripsService).
  *
  * Creatore: Simone Bonuso
  */
 public class RouteDirectionService {
 
     /**
-     * Cache minimale:
-     * route_id -> (direction_id -> headsign).
-     *
-     * Nota: non è sincronizzata; nel progetto viene usata tipicamente da UI thread / flusso controllato.
+     * Tabelle costruite senza feed pubblicato: "routesPath|tripsPath" -> tabella.
      */
-    private static final Map<String, Map<Integer, String>> directionsCache = new HashMap<>();
+    private static final Map<String, RouteDirectionTable> tablesByPaths = new ConcurrentHashMap<>();
 
     /**
      * Restituisce le opzioni di direzione per una route specifica.
      *
      * Dettagli:
-     * - ricava {@code short_name} e {@code route_type} da {@code routes.csv} (se presenti)
-     * - ricava {@code direction_id -> headsign} da {@code trips.csv} tramite {@link #getDirectionsMapForRouteId(String, String)}
+     * - {@code short_name} e {@code route_type} vengono da {@code routes.csv} (se la route è presente)
+     * - {@code direction_id -> headsign} dalla tabella delle direzioni
      *
      * @param routeId route_id GTFS
      * @param routesCsvPath path del file routes.csv (o routes.txt in formato CSV)
@@ -60,35 +55,18 @@ public class RouteDirectionService {
             return List.of();
         }
 
-        RoutesModel route = RoutesService.getAllRoutes(routesCsvPath).stream()
-                .filter(r -> routeId.equals(r.getRoute_id()))
-                .findFirst()
-                .orElse(null);
-
-        String shortName = (route != null && route.getRoute_short_name() != null)
-                ? route.getRoute_short_name()
-                : routeId;
-
-        int routeType = (route != null)
-                ? RoutesService.parseRouteType(route.getRoute_type())
-                : -1;
-
-        Map<Integer, String> dirMap = getDirectionsMapForRouteId(routeId, tripsCsvPath);
-
-        List<RouteDirectionOption> out = new ArrayList<>();
-        for (Map.Entry<Integer, String> e : dirMap.entrySet()) {
-            int dirId = e.getKey();
-            String headsign = e.getValue();
-            out.add(new RouteDirectionOption(routeId, shortName, dirId, headsign, routeType));
+        RouteDirectionTable.Route route = table(routesCsvPath, tripsCsvPath).route(routeId);
+        if (route == null) {
+            return List.of();
         }
-        return out;
+        return toOptions(route);
     }
 
     /**
      * Ricerca "like" per route_short_name e restituisce le direzioni per tutte le route compatibili.
      *
      * Nota:
-     * - utile per suggerimenti / ricerca testuale, ma non è pensata come query super-ottimizzata.
+     * - scorre le sole righe della tabella (una per route), senza rileggere i trips per ogni route trovata.
      *
      * @param query testo inserito dall'utente
      * @param routesCsvPath path del file routes.csv
@@ -108,88 +86,78 @@ public class RouteDirectionService {
             return List.of();
         }
 
-        List<RoutesModel> matchingRoutes = RoutesService.getAllRoutes(routesCsvPath).stream()
-                .filter(r -> r.getRoute_short_name() != null
-                        && r.getRoute_short_name().trim().toLowerCase(Locale.ROOT).contains(q))
-                .toList();
-
         List<RouteDirectionOption> result = new ArrayList<>();
-        for (RoutesModel route : matchingRoutes) {
-            String routeId = route.getRoute_id();
-            String shortName = route.getRoute_short_name();
-            int routeType = RoutesService.parseRouteType(route.getRoute_type());
-
-            Map<Integer, String> dirMap = getDirectionsMapForRouteId(routeId, tripsCsvPath);
-            for (Map.Entry<Integer, String> e : dirMap.entrySet()) {
-                result.add(new RouteDirectionOption(routeId, shortName, e.getKey(), e.getValue(), routeType));
+        for (RouteDirectionTable.Route route : table(routesCsvPath, tripsCsvPath).routes()) {
+            String shortName = route.shortName();
+            if (shortName != null && shortName.trim().toLowerCase(Locale.ROOT).contains(q)) {
+                result.addAll(toOptions(route));
             }
         }
         return result;
     }
 
     /**
-     * Restituisce la mappa {@code direction_id -> headsign} per una route, usando cache + parsing di trips.csv.
+     * Restituisce la mappa {@code direction_id -> headsign} per una route.
      *
-     * Strategia di estrazione:
-     * - per ogni direction_id prende il primo headsign non vuoto trovato
-     * - se per una direction trova solo headsign vuoti, mantiene una stringa vuota (fallback)
+     * Strategia di estrazione (calcolata una volta nella tabella):
+     * - per ogni direction_id il primo headsign non vuoto trovato
+     * - se per una direction ci sono solo headsign vuoti, una stringa vuota (fallback)
      *
      * @param routeId route_id GTFS
+     * @param routesCsvPath path del file routes.csv
      * @param tripsCsvPath path del file trips.csv
      * @return mappa direction_id -> headsign (mai null)
      */
-    static Map<Integer, String> getDirectionsMapForRouteId(String routeId, String tripsCsvPath) {
-        Map<Integer, String> cached = directionsCache.get(routeId);
-        if (cached != null) {
-            return cached;
+    static Map<Integer, String> getDirectionsMapForRouteId(String routeId, String routesCsvPath, String tripsCsvPath) {
+        RouteDirectionTable.Route route = table(routesCsvPath, tripsCsvPath).route(routeId);
+        if (route == null) {
+            return Map.of();
         }
 
         Map<Integer, String> dirToHeadsign = new LinkedHashMap<>();
+        for (RouteDirectionTable.Direction d : route.directions()) {
+            dirToHeadsign.put(d.directionId(), d.headsign());
+        }
+        return dirToHeadsign;
+    }
 
-        try (CSVReader reader = new CSVReader(
-                new InputStreamReader(new FileInputStream(tripsCsvPath), StandardCharsets.UTF_8))) {
-
-            reader.readNext(); // header
-            String[] next;
-
-            while ((next = reader.readNext()) != null) {
-                // Layout atteso (GTFS standard): route_id, service_id, trip_id, trip_headsign, ...
-                // Qui usiamo: route_id = [0], trip_headsign = [3], direction_id = [5]
-                if (next.length < 6) {
-                    continue;
-                }
-
-                String csvRouteId = next[0] != null ? next[0].trim() : "";
-                if (!csvRouteId.equals(routeId)) {
-                    continue;
-                }
-
-                String headsign = next[3] != null ? next[3].trim() : "";
-                String dirStr = next[5] != null ? next[5].trim() : "";
-
-                int dirId;
-                try {
-                    dirId = Integer.parseInt(dirStr);
-                } catch (NumberFormatException ex) {
-                    continue;
-                }
-
-                // Per ogni direzione scegliamo un headsign "rappresentativo":
-                // primo non vuoto; se arriva solo vuoto manteniamo vuoto.
-                if (!dirToHeadsign.containsKey(dirId) && !headsign.isEmpty()) {
-                    dirToHeadsign.put(dirId, headsign);
-                } else if (!dirToHeadsign.containsKey(dirId)) {
-                    dirToHeadsign.put(dirId, "");
-                }
-            }
+    /**
+     * Opzioni UI di una riga della tabella (una per direzione, con l'headsign rappresentativo).
+     *
+     * @param route riga della tabella
+     * @return lista di opzioni
+     */
+    private static List<RouteDirectionOption> toOptions(RouteDirectionTable.Route route) {
+        String shortName = (route.shortName() != null) ? route.shortName() : route.routeId();
 
-        } catch (IOException | CsvValidationException e) {
-            // Scelta progetto: non propaghiamo eccezioni verso la UI; ritorniamo output vuoto.
-            System.err.println("Errore lettura trips.csv: " + e.getMessage());
+        List<RouteDirectionOption> out = new ArrayList<>(route.directions().size());
+        for (RouteDirectionTable.Direction d : route.directions()) {
+            out.add(new RouteDirectionOption(route.routeId(), shortName, d.directionId(), d.headsign(),
+                    route.routeType()));
         }
+        return out;
+    }
 
-        directionsCache.put(routeId, dirToHeadsign);
-        return dirToHeadsign;
+    /**
+     * Tabella delle direzioni per i path richiesti: quella del feed pubblicato se serve il path dei trips,
+     * altrimenti una tabella locale costruita una sola volta.
+     *
+     * @param routesCsvPath path del file routes.csv
+     * @param tripsCsvPath path del file trips.csv
+     * @return tabella (mai null)
+     */
+    private static RouteDirectionTable table(String routesCsvPath, String tripsCsvPath) {
+        StaticGtfsFeed feed = StaticGtfsFeed.serving(StaticGtfsFeed.Source.TRIPS, tripsCsvPath);
+        if (feed != null) {
+            return feed.repository().getRouteDirections();
+        }
+        if (tripsCsvPath == null) {
+            return RouteDirectionTable.empty();
+        }
+        return tablesByPaths.computeIfAbsent(routesCsvPath + "|" + tripsCsvPath,
+                k -> RouteDirectionTable.build(
+                        (routesCsvPath == null) ? List.of() : RoutesService.getAllRoutes(routesCsvPath),
+                        TripsService.getAllTrips(tripsCsvPath)));
     }
 
     /**
@@ -197,6 +165,6 @@ public class RouteDirectionService {
      * Utile in test o se si ricarica un dataset diverso nello stesso processo.
      */
     public static void clearCache() {
-        directionsCache.clear();
+        tablesByPaths.clear();
     }
-}
\ No newline at end of file
+}
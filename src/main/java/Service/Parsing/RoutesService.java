@@ -1,13 +1,11 @@
 package Service.Parsing;
 
+import Model.Parsing.Static.GtfsIdDictionary;
 import Model.Parsing.Static.RoutesModel;
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
+import Service.Parsing.Csv.GtfsCsvReader;
+import Service.Parsing.Static.StaticGtfsFeed;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +51,10 @@ public class RoutesService {
             return List.of();
         }
 
+        StaticGtfsFeed feed = StaticGtfsFeed.serving(StaticGtfsFeed.Source.ROUTES, filePath);
+        if (feed != null) {
+            return feed.routes();
+        }
         // computeIfAbsent è thread-safe su ConcurrentHashMap
         return cachedRoutesByPath.computeIfAbsent(filePath, RoutesService::readFromCSV);
     }
@@ -81,54 +83,47 @@ public class RoutesService {
      * Parsing diretto dal CSV (senza cache).
      *
      * Assunzioni:
-     * - il file contiene l'header e poi righe con almeno 8 colonne (secondo il layout usato nel progetto).
+     * - il file contiene l'header: le colonne sono individuate per nome
+     * - obbligatoria: route_id (le altre, se assenti, restano stringhe vuote)
      *
      * @param filePath path del file routes.csv
      * @return lista di {@link RoutesModel} letti dal file (mai null)
      */
-    private static List<RoutesModel> readFromCSV(String filePath) {
+    public static List<RoutesModel> readFromCSV(String filePath) {
         List<RoutesModel> routesList = new ArrayList<>();
 
-        try (CSVReader reader = new CSVReader(
-                new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8)
-        )) {
-            String[] nextLine;
-            reader.readNext(); // header
-
-            while ((nextLine = reader.readNext()) != null) {
-                if (nextLine.length < 8) {
-                    continue; // riga malformata
-                }
-
-                RoutesModel route = new RoutesModel();
-                route.setRoute_id(safe(nextLine[0]));
-                route.setAgency_id(safe(nextLine[1]));
-                route.setRoute_short_name(safe(nextLine[2]));
-                route.setRoute_long_name(safe(nextLine[3]));
-                route.setRoute_type(safe(nextLine[4]));
-                route.setRoute_url(safe(nextLine[5]));
-                route.setRoute_color(safe(nextLine[6]));
-                route.setRoute_text_color(safe(nextLine[7]));
-
-                routesList.add(route);
-            }
-        } catch (IOException | CsvValidationException e) {
+        try {
+            GtfsCsvReader.read(filePath, header -> {
+                int cRoute = header.require("route_id");
+                int cAgency = header.column("agency_id");
+                int cShort = header.column("route_short_name");
+                int cLong = header.column("route_long_name");
+                int cType = header.column("route_type");
+                int cUrl = header.column("route_url");
+                int cColor = header.column("route_color");
+                int cTextColor = header.column("route_text_color");
+
+                return row -> {
+                    RoutesModel route = new RoutesModel();
+                    route.setRoute_id(GtfsIdDictionary.ROUTES.canonical(row.string(cRoute)));
+                    route.setAgency_id(row.string(cAgency));
+                    route.setRoute_short_name(row.string(cShort));
+                    route.setRoute_long_name(row.string(cLong));
+                    route.setRoute_type(row.string(cType));
+                    route.setRoute_url(row.string(cUrl));
+                    route.setRoute_color(row.string(cColor));
+                    route.setRoute_text_color(row.string(cTextColor));
+
+                    routesList.add(route);
+                };
+            });
+        } catch (IOException e) {
             System.err.println("Errore nella lettura/CSV routes: " + e.getMessage());
         }
 
         return routesList;
     }
 
-    /**
-     * Trim "sicuro": evita null.
-     *
-     * @param s stringa in input
-     * @return stringa trim()mata oppure vuota se null
-     */
-    private static String safe(String s) {
-        return (s == null) ? "" : s.trim();
-    }
-
     // =========================
     // Filtri (route_type)
     // =========================
@@ -3,6 +3,8 @@ package Service.Parsing;
 import Model.Parsing.Static.RoutesModel;
 import Model.Parsing.Static.ShapesModel;
 import Model.Parsing.Static.TripsModel;
+import Service.Parsing.Static.ShapeGeometryStore;
+import Service.Parsing.Static.StaticGtfsFeed;
 
 import java.awt.Color;
 import java.util.HashMap;
@@ -19,8 +21,9 @@ import java.util.Map;
  * - supporta anche logica grafica (es. distinguere linee circolari)
  *
  * Note di progetto:
- * - mantiene una cache statica shape_id -> Color
- * - la cache non è per-path: se si cambia dataset a runtime andrebbe ricostruita manualmente
+ * - con uno {@link StaticGtfsFeed} pubblicato la mappa shape_id -> Color è un dato derivato del feed
+ *   (ricostruita automaticamente a ogni nuova versione)
+ * - altrimenti mantiene una cache statica non per-path: se si cambia dataset a runtime andrebbe ricostruita manualmente
  */
 public class ShapeColorService {
 
@@ -38,12 +41,26 @@ public class ShapeColorService {
      * @return mappa shape_id -> colore associato al tipo di mezzo
      */
     public static Map<String, Color> getShapeColors(String routesPath, String tripsPath) {
+        StaticGtfsFeed feed = StaticGtfsFeed.serving(StaticGtfsFeed.Source.ROUTES, routesPath);
+        if (feed != null && feed.serves(StaticGtfsFeed.Source.TRIPS, tripsPath)) {
+            return getShapeColors(feed);
+        }
         if (shapeColors == null) {
-            buildShapeColors(routesPath, tripsPath);
+            shapeColors = buildShapeColors(RoutesService.getAllRoutes(routesPath), TripsService.getAllTrips(tripsPath));
         }
         return shapeColors;
     }
 
+    /**
+     * Restituisce la mappa shape_id -> Color della versione del feed indicata (calcolata una volta per versione).
+     *
+     * @param feed versione del feed GTFS static
+     * @return mappa shape_id -> colore associato al tipo di mezzo
+     */
+    public static Map<String, Color> getShapeColors(StaticGtfsFeed feed) {
+        return feed.derived("shapeColors", () -> buildShapeColors(feed.routes(), feed.trips()));
+    }
+
     /**
      * Costruisce la mappa shape_id -> Color.
      *
@@ -51,14 +68,12 @@ public class ShapeColorService {
      * - crea prima una mappa route_id -> route_type
      * - poi per ogni trip associa shape_id al colore derivato dal route_type
      *
-     * @param routesPath path del file routes.csv
-     * @param tripsPath path del file trips.csv
+     * @param routes routes del feed
+     * @param trips trips del feed
+     * @return mappa shape_id -> colore
      */
-    private static void buildShapeColors(String routesPath, String tripsPath) {
-        shapeColors = new HashMap<>();
-
-        List<RoutesModel> routes = RoutesService.getAllRoutes(routesPath);
-        List<TripsModel> trips = TripsService.getAllTrips(tripsPath);
+    private static Map<String, Color> buildShapeColors(List<RoutesModel> routes, List<TripsModel> trips) {
+        Map<String, Color> shapeColors = new HashMap<>();
 
         // route_id -> route_type
         Map<String, Integer> routeToType = new HashMap<>();
@@ -79,6 +94,7 @@ public class ShapeColorService {
                 }
             }
         }
+        return shapeColors;
     }
 
     /**
@@ -119,15 +135,25 @@ public class ShapeColorService {
         ShapesModel firstPoint = shapePoints.get(0);
         ShapesModel lastPoint = shapePoints.get(shapePoints.size() - 1);
 
-        double lat1 = Double.parseDouble(firstPoint.getShape_pt_lat());
-        double lon1 = Double.parseDouble(firstPoint.getShape_pt_lon());
-        double lat2 = Double.parseDouble(lastPoint.getShape_pt_lat());
-        double lon2 = Double.parseDouble(lastPoint.getShape_pt_lon());
-
-        double distanceKm = haversineDistanceKm(lat1, lon1, lat2, lon2);
+        return isCircular(
+                Double.parseDouble(firstPoint.getShape_pt_lat()),
+                Double.parseDouble(firstPoint.getShape_pt_lon()),
+                Double.parseDouble(lastPoint.getShape_pt_lat()),
+                Double.parseDouble(lastPoint.getShape_pt_lon()));
+    }
 
+    /**
+     * Criterio "circolare" sugli estremi già parsati (usato al caricamento da {@link ShapeGeometryStore}).
+     *
+     * @param lat1 latitudine primo punto
+     * @param lon1 longitudine primo punto
+     * @param lat2 latitudine ultimo punto
+     * @param lon2 longitudine ultimo punto
+     * @return true se gli estremi distano meno di 30 metri
+     */
+    public static boolean isCircular(double lat1, double lon1, double lat2, double lon2) {
         // 30 metri = 0.03 km
-        return distanceKm < 0.03;
+        return haversineDistanceKm(lat1, lon1, lat2, lon2) < 0.03;
     }
 
     /**
@@ -1,13 +1,11 @@
 package Service.Parsing;
 
 import Model.Parsing.Static.ShapesModel;
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
+import Service.Parsing.Csv.GtfsCsvReader;
+import Service.Parsing.Static.ShapeGeometryStore;
+import Service.Parsing.Static.StaticGtfsFeed;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,13 +14,16 @@ import java.util.List;
  *
  * Responsabilità:
  * - leggere i punti delle shape dal CSV e convertirli in {@link ShapesModel}
+ * - costruire la geometria primitiva per la mappa ({@link ShapeGeometryStore}: array ordinati per shape_id)
  * - mantenere una cache in memoria per evitare letture ripetute del file
  *
  * Contesto:
  * - usato nella parte mappa per disegnare i percorsi (polilinee) associati alle linee.
  *
  * Note di progetto:
- * - la cache è globale (non per-path): se si cambia dataset o file, chiamare {@link #reloadShapes(String)}.
+ * - se il path appartiene allo {@link StaticGtfsFeed} pubblicato, le shape sono un dato derivato del feed
+ *   (lette una volta per versione e scartate con essa dall'hot-reload).
+ * - altrimenti la cache è globale (non per-path): se si cambia dataset o file, chiamare {@link #reloadShapes(String)}.
  * - in caso di errori di lettura/parsing ritorna una lista vuota (fallback verso chiamanti/UI).
  *
  * Creatore: Alessandro Angeli
@@ -42,12 +43,45 @@ public class ShapesService {
      * @return lista di punti shape (vuota in caso di errori)
      */
     public static List<ShapesModel> getAllShapes(String filePath) {
+        StaticGtfsFeed feed = StaticGtfsFeed.serving(StaticGtfsFeed.Source.SHAPES, filePath);
+        if (feed != null) {
+            return feed.derived("shapes", () -> readFromCSV(filePath));
+        }
         if (cachedShapes == null) {
             cachedShapes = readFromCSV(filePath);
         }
         return cachedShapes;
     }
 
+    /**
+     * Restituisce la geometria primitiva delle shape della versione del feed indicata
+     * (letta una sola volta per versione, punti già ordinati per sequence).
+     *
+     * @param feed versione del feed GTFS static
+     * @return store shape_id -> polilinea (vuoto se il feed non comprende shapes o in caso di errori)
+     */
+    public static ShapeGeometryStore getShapeStore(StaticGtfsFeed feed) {
+        return feed.derived("shapeGeometry", () -> readStore(feed.path(StaticGtfsFeed.Source.SHAPES)));
+    }
+
+    /**
+     * Legge shapes.csv nello store primitivo.
+     *
+     * @param filePath path del file shapes.csv (null = nessun file)
+     * @return store (vuoto in caso di errori)
+     */
+    public static ShapeGeometryStore readStore(String filePath) {
+        if (filePath == null) {
+            return ShapeGeometryStore.empty();
+        }
+        try {
+            return ShapeGeometryStore.read(filePath);
+        } catch (IOException e) {
+            System.err.println("Errore nella lettura/CSV shapes: " + e.getMessage());
+            return ShapeGeometryStore.empty();
+        }
+    }
+
     /**
      * Forza il ricaricamento della cache dal file specificato.
      *
@@ -61,8 +95,8 @@ public class ShapesService {
      * Legge il CSV e costruisce la lista di {@link ShapesModel}.
      *
      * Assunzioni:
-     * - presenza dell'header in prima riga
-     * - layout minimo di 5 colonne: shape_id, lat, lon, sequence, dist_traveled
+     * - presenza dell'header in prima riga: le colonne sono individuate per nome
+     * - obbligatorie: shape_id, shape_pt_lat, shape_pt_lon, shape_pt_sequence
      *
      * @param filePath path del file shapes.csv
      * @return lista di punti shape (mai null)
@@ -70,40 +104,29 @@ public class ShapesService {
     private static List<ShapesModel> readFromCSV(String filePath) {
         List<ShapesModel> shapesList = new ArrayList<>();
 
-        try (CSVReader reader = new CSVReader(
-                new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8)
-        )) {
-            String[] nextLine;
-            reader.readNext(); // header
-
-            while ((nextLine = reader.readNext()) != null) {
-                if (nextLine.length < 5) {
-                    continue; // riga malformata
-                }
+        try {
+            GtfsCsvReader.read(filePath, header -> {
+                int cShape = header.require("shape_id");
+                int cLat = header.require("shape_pt_lat");
+                int cLon = header.require("shape_pt_lon");
+                int cSeq = header.require("shape_pt_sequence");
+                int cDist = header.column("shape_dist_traveled");
 
-                ShapesModel shape = new ShapesModel();
-                shape.setShape_id(safe(nextLine[0]));
-                shape.setShape_pt_lat(safe(nextLine[1]));
-                shape.setShape_pt_lon(safe(nextLine[2]));
-                shape.setShape_pt_sequence(safe(nextLine[3]));
-                shape.setShape_dist_traveled(safe(nextLine[4]));
+                return row -> {
+                    ShapesModel shape = new ShapesModel();
+                    shape.setShape_id(row.string(cShape));
+                    shape.setShape_pt_lat(row.string(cLat));
+                    shape.setShape_pt_lon(row.string(cLon));
+                    shape.setShape_pt_sequence(row.string(cSeq));
+                    shape.setShape_dist_traveled(row.string(cDist));
 
-                shapesList.add(shape);
-            }
-        } catch (IOException | CsvValidationException e) {
+                    shapesList.add(shape);
+                };
+            });
+        } catch (IOException e) {
             System.err.println("Errore nella lettura/CSV shapes: " + e.getMessage());
         }
 
         return shapesList;
     }
-
-    /**
-     * Trim "sicuro": evita null.
-     *
-     * @param s stringa in input
-     * @return stringa trim()mata oppure vuota se null
-     */
-    private static String safe(String s) {
-        return (s == null) ? "" : s.trim();
-    }
-}
\ No newline at end of file
+}
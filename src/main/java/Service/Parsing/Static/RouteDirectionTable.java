@@ -0,0 +1,278 @@
+package Service.Parsing.Static;
+
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.TripsModel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tabella precalcolata route -> direzione -> capolinea del GTFS static.
+ *
+ * Responsabilità:
+ * - scorrere i trips una sola volta al caricamento e raggruppare per route e direction_id
+ * - scegliere per ogni direzione un headsign rappresentativo (primo non vuoto) e tenere tutti gli headsign distinti
+ * - contare i trip per direzione e conservare short_name / route_type della route
+ *
+ * Contesto:
+ * - costruita da {@link StaticGtfsRepository} insieme agli altri indici: le query sulle direzioni di una linea
+ *   ({@code RouteDirectionService}) diventano lookup su mappa invece di scansioni di trips.csv.
+ * - condivisa con {@code LineSearchIndex}, che genera le opzioni di ricerca dalle stesse righe.
+ *
+ * Note di progetto:
+ * - i trip con direction_id assente o non numerico non creano direzioni (come prima nei due consumer).
+ * - una route presente nei trips ma non in routes.txt ha short_name null e route_type -1.
+ * - immutabile dopo la costruzione (thread-safe in lettura).
+ */
+public final class RouteDirectionTable {
+
+    private static final RouteDirectionTable EMPTY = new RouteDirectionTable(Map.of());
+
+    /** route_id -> riga della route (ordine: routes.txt, poi route viste solo nei trips). */
+    private final Map<String, Route> byRouteId;
+
+    private RouteDirectionTable(Map<String, Route> byRouteId) {
+        this.byRouteId = byRouteId;
+    }
+
+    /**
+     * @return tabella senza route (nessun dato caricato)
+     */
+    public static RouteDirectionTable empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Costruisce la tabella con una sola passata sulle routes e una sui trips.
+     *
+     * @param routes routes del feed (null = nessuna)
+     * @param trips trips del feed (null = nessuno)
+     * @return tabella immutabile
+     */
+    public static RouteDirectionTable build(List<RoutesModel> routes, List<TripsModel> trips) {
+        Map<String, RouteBuilder> builders = new LinkedHashMap<>();
+
+        if (routes != null) {
+            for (RoutesModel r : routes) {
+                String routeId = (r == null) ? "" : safe(r.getRoute_id());
+                if (routeId.isEmpty()) {
+                    continue;
+                }
+                builders.putIfAbsent(routeId,
+                        new RouteBuilder(routeId, r.getRoute_short_name(), parseIntSafe(r.getRoute_type(), -1)));
+            }
+        }
+
+        if (trips != null) {
+            for (TripsModel t : trips) {
+                String routeId = (t == null) ? "" : safe(t.getRoute_id());
+                if (routeId.isEmpty()) {
+                    continue;
+                }
+                RouteBuilder rb = builders.computeIfAbsent(routeId, id -> new RouteBuilder(id, null, -1));
+
+                int dir = parseIntSafe(t.getDirection_id(), -1);
+                if (dir < 0) {
+                    continue;
+                }
+                rb.add(dir, safe(t.getTrip_headsign()));
+            }
+        }
+
+        if (builders.isEmpty()) {
+            return EMPTY;
+        }
+
+        Map<String, Route> out = new LinkedHashMap<>(builders.size() * 2);
+        for (RouteBuilder rb : builders.values()) {
+            out.put(rb.routeId, rb.build());
+        }
+        return new RouteDirectionTable(Collections.unmodifiableMap(out));
+    }
+
+    // =========================
+    // Query
+    // =========================
+
+    /**
+     * @param routeId route_id GTFS
+     * @return riga della route, oppure null se sconosciuta
+     */
+    public Route route(String routeId) {
+        if (routeId == null) {
+            return null;
+        }
+        return byRouteId.get(routeId.trim());
+    }
+
+    /**
+     * @return tutte le route (ordine di routes.txt)
+     */
+    public Collection<Route> routes() {
+        return byRouteId.values();
+    }
+
+    /**
+     * @return numero di route in tabella
+     */
+    public int size() {
+        return byRouteId.size();
+    }
+
+    // =========================
+    // Righe
+    // =========================
+
+    /**
+     * Riga di una route: dati anagrafici e direzioni nell'ordine in cui compaiono nei trips.
+     */
+    public static final class Route {
+        private final String routeId;
+        private final String shortName;
+        private final int routeType;
+        private final List<Direction> directions;
+
+        private Route(String routeId, String shortName, int routeType, List<Direction> directions) {
+            this.routeId = routeId;
+            this.shortName = shortName;
+            this.routeType = routeType;
+            this.directions = directions;
+        }
+
+        /** @return route_id GTFS */
+        public String routeId() {
+            return routeId;
+        }
+
+        /** @return route_short_name, oppure null se la route non è in routes.txt */
+        public String shortName() {
+            return shortName;
+        }
+
+        /** @return route_type GTFS, oppure -1 se mancante o non parsabile */
+        public int routeType() {
+            return routeType;
+        }
+
+        /** @return direzioni della route (vuota se nessun trip ha direction_id valido) */
+        public List<Direction> directions() {
+            return directions;
+        }
+
+        /**
+         * @param directionId direction_id
+         * @return direzione, oppure null se la route non la percorre
+         */
+        public Direction direction(int directionId) {
+            for (Direction d : directions) {
+                if (d.directionId == directionId) {
+                    return d;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Direzione di una route con capolinea e numero di trip.
+     */
+    public static final class Direction {
+        private final int directionId;
+        private final String headsign;
+        private final List<String> headsigns;
+        private final int tripCount;
+
+        private Direction(int directionId, String headsign, List<String> headsigns, int tripCount) {
+            this.directionId = directionId;
+            this.headsign = headsign;
+            this.headsigns = headsigns;
+            this.tripCount = tripCount;
+        }
+
+        /** @return direction_id GTFS (0 o 1 nei dataset usati) */
+        public int directionId() {
+            return directionId;
+        }
+
+        /** @return headsign rappresentativo: primo non vuoto, altrimenti stringa vuota */
+        public String headsign() {
+            return headsign;
+        }
+
+        /** @return headsign distinti nell'ordine dei trips (può contenere la stringa vuota) */
+        public List<String> headsigns() {
+            return headsigns;
+        }
+
+        /** @return numero di trip della route in questa direzione */
+        public int tripCount() {
+            return tripCount;
+        }
+    }
+
+    // =========================
+    // Costruzione
+    // =========================
+
+    private static final class RouteBuilder {
+        final String routeId;
+        final String shortName;
+        final int routeType;
+        final Map<Integer, DirectionBuilder> directions = new LinkedHashMap<>(4);
+
+        RouteBuilder(String routeId, String shortName, int routeType) {
+            this.routeId = routeId;
+            this.shortName = shortName;
+            this.routeType = routeType;
+        }
+
+        void add(int dir, String headsign) {
+            DirectionBuilder db = directions.computeIfAbsent(dir, DirectionBuilder::new);
+            db.tripCount++;
+            db.headsigns.add(headsign);
+            if (db.headsign.isEmpty()) {
+                db.headsign = headsign;
+            }
+        }
+
+        Route build() {
+            List<Direction> dirs = new ArrayList<>(directions.size());
+            for (DirectionBuilder db : directions.values()) {
+                dirs.add(new Direction(db.directionId, db.headsign, List.copyOf(db.headsigns), db.tripCount));
+            }
+            return new Route(routeId, shortName, routeType, List.copyOf(dirs));
+        }
+    }
+
+    private static final class DirectionBuilder {
+        final int directionId;
+        final Set<String> headsigns = new LinkedHashSet<>(4);
+        String headsign = "";
+        int tripCount;
+
+        DirectionBuilder(int directionId) {
+            this.directionId = directionId;
+        }
+    }
+
+    private static String safe(String s) {
+        return (s == null) ? "" : s.trim();
+    }
+
+    private static int parseIntSafe(String s, int def) {
+        if (s == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
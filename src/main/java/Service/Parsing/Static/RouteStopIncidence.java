@@ -0,0 +1,250 @@
+package Service.Parsing.Static;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.TripsModel;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Matrice di incidenza sparsa linea ↔ fermata del GTFS static.
+ *
+ * Responsabilità:
+ * - precalcolare una volta il join stop_times -> trips -> routes (coppie distinte route/stop)
+ * - rispondere a "fermate della linea" e "linee della fermata" senza ripetere il join
+ *
+ * Contesto:
+ * - costruita dalla {@link StaticGtfsRepository} durante il caricamento; usata anche dai servizi per path
+ *   ({@code StopService.findStopsByRoutes}, {@code StopTimesService.findStopIdsByRoutesGtfsJoin}).
+ *
+ * Note di progetto:
+ * - righe e colonne sono gli id globali del {@link GtfsIdDictionary} (ROUTES / STOPS): nessuna stringa in memoria.
+ * - entrambe le direzioni sono in formato CSR (offsets + posting ordinate), quindi una query è una copia di intervallo.
+ * - le coppie sono deduplicate durante la costruzione (marcatura per route/fermata, senza lista di coppie
+ *   grande quanto gli stop_times): una linea con 500 trip sulla stessa fermata occupa un solo int per lato.
+ * - immutabile dopo la costruzione (thread-safe in lettura).
+ */
+public final class RouteStopIncidence {
+
+    private static final int[] EMPTY = new int[0];
+
+    /** route -> [routeOffsets[r], routeOffsets[r+1]) in {@link #routeStops} (stop ordinati). */
+    private final int[] routeOffsets;
+    private final int[] routeStops;
+
+    /** stop -> [stopOffsets[s], stopOffsets[s+1]) in {@link #stopRoutes} (route ordinate). */
+    private final int[] stopOffsets;
+    private final int[] stopRoutes;
+
+    private RouteStopIncidence(int[] routeOffsets, int[] routeStops, int[] stopOffsets, int[] stopRoutes) {
+        this.routeOffsets = routeOffsets;
+        this.routeStops = routeStops;
+        this.stopOffsets = stopOffsets;
+        this.stopRoutes = stopRoutes;
+    }
+
+    /**
+     * Costruisce la matrice dallo store colonnare.
+     *
+     * @param store stop_times in formato colonnare
+     * @param tripOf lookup id globale del trip -> TripsModel (null se sconosciuto)
+     * @return matrice immutabile
+     */
+    public static RouteStopIncidence build(StopTimesStore store, IntFunction<TripsModel> tripOf) {
+        int[] routeOfTrip = routesOfTrips(store.tripIdLimit(), store::hasTrip, tripOf);
+        int routeLimit = GtfsIdDictionary.ROUTES.size();
+        int stopLimit = GtfsIdDictionary.STOPS.size();
+
+        // trip raggruppati per route (counting sort)
+        int[] tripOffsets = new int[routeLimit + 1];
+        for (int route : routeOfTrip) {
+            if (route >= 0) {
+                tripOffsets[route + 1]++;
+            }
+        }
+        for (int r = 0; r < routeLimit; r++) {
+            tripOffsets[r + 1] += tripOffsets[r];
+        }
+        int[] cursor = Arrays.copyOf(tripOffsets, routeLimit);
+        int[] tripsByRoute = new int[tripOffsets[routeLimit]];
+        for (int t = 0; t < routeOfTrip.length; t++) {
+            if (routeOfTrip[t] >= 0) {
+                tripsByRoute[cursor[routeOfTrip[t]]++] = t;
+            }
+        }
+
+        // per ogni route: fermate distinte (marcate con la route corrente), poi ordinate
+        int[] mark = new int[stopLimit];
+        Arrays.fill(mark, -1);
+        int[] ro = new int[routeLimit + 1];
+        int[] rs = new int[Math.max(16, stopLimit)];
+        int n = 0;
+        for (int r = 0; r < routeLimit; r++) {
+            for (int i = tripOffsets[r]; i < tripOffsets[r + 1]; i++) {
+                int t = tripsByRoute[i];
+                for (int row = store.tripStart(t); row < store.tripEnd(t); row++) {
+                    int stop = store.stopRef(row);
+                    if (mark[stop] != r) {
+                        mark[stop] = r;
+                        if (n == rs.length) {
+                            rs = Arrays.copyOf(rs, n * 2);
+                        }
+                        rs[n++] = stop;
+                    }
+                }
+            }
+            Arrays.sort(rs, ro[r], n);
+            ro[r + 1] = n;
+        }
+        int[] routeStops = Arrays.copyOf(rs, n);
+        int[] so = new int[stopLimit + 1];
+        int[] sr = transpose(ro, routeStops, so);
+        return new RouteStopIncidence(ro, routeStops, so, sr);
+    }
+
+    /**
+     * Costruisce la matrice dalle posting list stop -> trip degli stop_times su disco
+     * (nessuna riga decodificata).
+     *
+     * @param disk stop_times su disco
+     * @param tripOf lookup id globale del trip -> TripsModel (null se sconosciuto)
+     * @return matrice immutabile
+     */
+    public static RouteStopIncidence build(StopTimesDiskStore disk, IntFunction<TripsModel> tripOf) {
+        int[] routeOfTrip = routesOfTrips(GtfsIdDictionary.TRIPS.size(), disk::hasTrip, tripOf);
+        int routeLimit = GtfsIdDictionary.ROUTES.size();
+        int stopLimit = GtfsIdDictionary.STOPS.size();
+
+        // per ogni fermata: route distinte (marcate con la fermata corrente), poi ordinate
+        int[] mark = new int[routeLimit];
+        Arrays.fill(mark, -1);
+        int[] so = new int[stopLimit + 1];
+        int[] sr = new int[Math.max(16, stopLimit)];
+        int n = 0;
+        for (int s = 0; s < stopLimit; s++) {
+            for (int t : disk.tripsForStop(s)) {
+                int route = (t < routeOfTrip.length) ? routeOfTrip[t] : -1;
+                if (route >= 0 && mark[route] != s) {
+                    mark[route] = s;
+                    if (n == sr.length) {
+                        sr = Arrays.copyOf(sr, n * 2);
+                    }
+                    sr[n++] = route;
+                }
+            }
+            Arrays.sort(sr, so[s], n);
+            so[s + 1] = n;
+        }
+        int[] stopRoutes = Arrays.copyOf(sr, n);
+        int[] ro = new int[routeLimit + 1];
+        int[] rs = transpose(so, stopRoutes, ro);
+        return new RouteStopIncidence(ro, rs, so, stopRoutes);
+    }
+
+    // =========================
+    // Query
+    // =========================
+
+    /**
+     * @param routeIdx id globale della route ({@link GtfsIdDictionary#ROUTES})
+     * @return fermate (id globali, ordinate) servite dalla route; vuoto se sconosciuta
+     */
+    public int[] stopsOfRoute(int routeIdx) {
+        if (routeIdx < 0 || routeIdx + 1 >= routeOffsets.length) {
+            return EMPTY;
+        }
+        return Arrays.copyOfRange(routeStops, routeOffsets[routeIdx], routeOffsets[routeIdx + 1]);
+    }
+
+    /**
+     * @param stopIdx id globale della fermata ({@link GtfsIdDictionary#STOPS})
+     * @return route (id globali, ordinate) che servono la fermata; vuoto se sconosciuta
+     */
+    public int[] routesAtStop(int stopIdx) {
+        if (stopIdx < 0 || stopIdx + 1 >= stopOffsets.length) {
+            return EMPTY;
+        }
+        return Arrays.copyOfRange(stopRoutes, stopOffsets[stopIdx], stopOffsets[stopIdx + 1]);
+    }
+
+    /**
+     * Unione delle fermate di più route.
+     *
+     * @param routeIds route_id GTFS (null/vuoti/sconosciuti ignorati)
+     * @return insieme di fermate come bitset sugli id globali
+     */
+    public BitSet stopsOfRoutes(Iterable<String> routeIds) {
+        BitSet out = new BitSet();
+        if (routeIds == null) {
+            return out;
+        }
+        for (String routeId : routeIds) {
+            int r = (routeId == null) ? -1 : GtfsIdDictionary.ROUTES.idOf(routeId.trim());
+            if (r < 0 || r + 1 >= routeOffsets.length) {
+                continue;
+            }
+            for (int i = routeOffsets[r]; i < routeOffsets[r + 1]; i++) {
+                out.set(routeStops[i]);
+            }
+        }
+        return out;
+    }
+
+    /** @return numero di coppie (route, stop) distinte */
+    public int size() {
+        return routeStops.length;
+    }
+
+    /**
+     * Stima (approssimata) dell'heap occupato: due int per coppia più gli offset.
+     *
+     * @return byte stimati
+     */
+    public long estimatedHeapBytes() {
+        return 4 * 16L + 4L * (routeOffsets.length + routeStops.length + stopOffsets.length + stopRoutes.length);
+    }
+
+    // =========================
+    // Utility interne
+    // =========================
+
+    private static int[] routesOfTrips(int tripLimit, IntPredicate hasTrip,
+                                       IntFunction<TripsModel> tripOf) {
+        int[] out = new int[tripLimit];
+        for (int t = 0; t < tripLimit; t++) {
+            TripsModel trip = hasTrip.test(t) ? tripOf.apply(t) : null;
+            String routeId = (trip == null || trip.getRoute_id() == null) ? "" : trip.getRoute_id().trim();
+            out[t] = routeId.isEmpty() ? -1 : GtfsIdDictionary.ROUTES.intern(routeId);
+        }
+        return out;
+    }
+
+    /**
+     * Traspone un CSR {@code a -> b} in {@code b -> a}.
+     * Scorrendo le righe in ordine crescente, le posting della trasposta escono già ordinate.
+     *
+     * @param offsets offsets del CSR di partenza
+     * @param values posting del CSR di partenza
+     * @param outOffsets offsets della trasposta (dimensionato sul limite degli id di arrivo, riempito qui)
+     * @return posting della trasposta
+     */
+    private static int[] transpose(int[] offsets, int[] values, int[] outOffsets) {
+        int limit = outOffsets.length - 1;
+        for (int v : values) {
+            outOffsets[v + 1]++;
+        }
+        for (int i = 0; i < limit; i++) {
+            outOffsets[i + 1] += outOffsets[i];
+        }
+        int[] cursor = Arrays.copyOf(outOffsets, limit);
+        int[] out = new int[values.length];
+        for (int row = 0; row + 1 < offsets.length; row++) {
+            for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+                out[cursor[values[i]]++] = row;
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,365 @@
+package Service.Parsing.Static;
+
+import Model.Parsing.Static.CalendarDateModel;
+import Model.Parsing.Static.CalendarModel;
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.TripsModel;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calendario dei servizi GTFS (calendar.txt + calendar_dates.txt) con insiemi di servizi attivi precalcolati.
+ *
+ * Responsabilità:
+ * - assegnare a ogni service_id un indice denso e risolvere trip -> servizio tramite array (id globale del trip)
+ * - calcolare, per un giorno di servizio, il {@link BitSet} dei servizi attivi (regola settimanale + eccezioni)
+ * - tenere in cache il giorno corrente: viene ricalcolato solo quando cambia la data (dopo mezzanotte)
+ *
+ * Contesto:
+ * - usato da {@link StaticGtfsRepository} per scegliere trip rappresentativi che circolano oggi e dal fallback
+ *   statico degli arrivi per ignorare le corse di altri giorni.
+ *
+ * Note di progetto:
+ * - senza dati di calendario (file assenti) ogni trip è considerato attivo: stesso comportamento di prima.
+ * - un trip senza service_id è sempre attivo; un service_id sconosciuto al calendario non è mai attivo.
+ * - un trip oltre le 24:00 appartiene al giorno di servizio precedente: chi confronta orari dopo mezzanotte
+ *   deve consultare anche il {@link ServiceDay} di ieri.
+ * - immutabile a parte la cache dei giorni (thread-safe).
+ */
+public final class ServiceCalendar {
+
+    private static final DateTimeFormatter GTFS_DATE = DateTimeFormatter.BASIC_ISO_DATE;
+
+    /** Trip senza service_id: sempre attivo. */
+    private static final int ALWAYS_ACTIVE = -1;
+
+    /** Trip non presente in questo feed: mai attivo. */
+    private static final int NOT_IN_FEED = -2;
+
+    private static final ServiceCalendar EMPTY =
+            new ServiceCalendar(Map.of(), new byte[0], new long[0], new long[0], Map.of(), Map.of(), new int[0], false);
+
+    /** service_id -> indice denso. */
+    private final Map<String, Integer> serviceIndex;
+
+    /** Giorni della settimana per servizio: bit {@code d-1} per {@code DayOfWeek.of(d)}. */
+    private final byte[] weekdays;
+
+    /** Validità della regola settimanale per servizio (epoch day, estremi inclusi). */
+    private final long[] startDay;
+    private final long[] endDay;
+
+    /** Eccezioni calendar_dates: epoch day -> servizi aggiunti / soppressi. */
+    private final Map<Long, BitSet> added;
+    private final Map<Long, BitSet> removed;
+
+    /** Id globale del trip -> indice servizio (oppure {@link #ALWAYS_ACTIVE} / {@link #NOT_IN_FEED}). */
+    private final int[] serviceOfTrip;
+
+    private final boolean hasData;
+
+    /** Giorni di servizio già calcolati (al più ieri/oggi/domani rispetto all'ultimo richiesto). */
+    private final Map<LocalDate, ServiceDay> days = new ConcurrentHashMap<>();
+
+    private ServiceCalendar(Map<String, Integer> serviceIndex, byte[] weekdays, long[] startDay, long[] endDay,
+                            Map<Long, BitSet> added, Map<Long, BitSet> removed, int[] serviceOfTrip, boolean hasData) {
+        this.serviceIndex = serviceIndex;
+        this.weekdays = weekdays;
+        this.startDay = startDay;
+        this.endDay = endDay;
+        this.added = added;
+        this.removed = removed;
+        this.serviceOfTrip = serviceOfTrip;
+        this.hasData = hasData;
+    }
+
+    // =========================
+    // Costruzione
+    // =========================
+
+    /**
+     * @return calendario senza dati (tutti i trip attivi)
+     */
+    public static ServiceCalendar empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Costruisce il calendario e l'associazione trip -> servizio.
+     *
+     * @param calendars righe di calendar.txt (può essere vuota o null)
+     * @param calendarDates righe di calendar_dates.txt (può essere vuota o null)
+     * @param trips trips del feed (per risolvere trip_id -> service_id)
+     * @return calendario pronto all'uso ({@link #empty()} se non ci sono dati di calendario)
+     */
+    public static ServiceCalendar build(List<CalendarModel> calendars,
+                                        List<CalendarDateModel> calendarDates,
+                                        List<TripsModel> trips) {
+        List<CalendarModel> cal = (calendars == null) ? List.of() : calendars;
+        List<CalendarDateModel> dates = (calendarDates == null) ? List.of() : calendarDates;
+        if (cal.isEmpty() && dates.isEmpty()) {
+            return EMPTY;
+        }
+
+        Map<String, Integer> index = new HashMap<>();
+        for (CalendarModel c : cal) {
+            indexOf(index, c.getService_id());
+        }
+        for (CalendarDateModel d : dates) {
+            indexOf(index, d.getService_id());
+        }
+        List<TripsModel> allTrips = (trips == null) ? List.of() : trips;
+        for (TripsModel t : allTrips) {
+            indexOf(index, t.getService_id());
+        }
+
+        int n = index.size();
+        byte[] weekdays = new byte[n];
+        long[] startDay = new long[n];
+        long[] endDay = new long[n];
+        Arrays.fill(startDay, Long.MAX_VALUE); // nessuna regola settimanale
+        Arrays.fill(endDay, Long.MIN_VALUE);
+
+        for (CalendarModel c : cal) {
+            int s = indexOf(index, c.getService_id());
+            LocalDate start = parseDate(c.getStart_date());
+            LocalDate end = parseDate(c.getEnd_date());
+            if (s < 0 || start == null || end == null) {
+                continue;
+            }
+            weekdays[s] = (byte) (flag(c.getMonday(), DayOfWeek.MONDAY)
+                    | flag(c.getTuesday(), DayOfWeek.TUESDAY)
+                    | flag(c.getWednesday(), DayOfWeek.WEDNESDAY)
+                    | flag(c.getThursday(), DayOfWeek.THURSDAY)
+                    | flag(c.getFriday(), DayOfWeek.FRIDAY)
+                    | flag(c.getSaturday(), DayOfWeek.SATURDAY)
+                    | flag(c.getSunday(), DayOfWeek.SUNDAY));
+            startDay[s] = start.toEpochDay();
+            endDay[s] = end.toEpochDay();
+        }
+
+        Map<Long, BitSet> added = new HashMap<>();
+        Map<Long, BitSet> removed = new HashMap<>();
+        for (CalendarDateModel d : dates) {
+            int s = indexOf(index, d.getService_id());
+            LocalDate date = parseDate(d.getDate());
+            if (s < 0 || date == null) {
+                continue;
+            }
+            String type = safe(d.getException_type());
+            Map<Long, BitSet> target = "1".equals(type) ? added : "2".equals(type) ? removed : null;
+            if (target != null) {
+                target.computeIfAbsent(date.toEpochDay(), k -> new BitSet(n)).set(s);
+            }
+        }
+
+        // intern: i trip forniti come liste (test / preload) potrebbero non essere ancora registrati
+        int[] tripIds = new int[allTrips.size()];
+        for (int i = 0; i < tripIds.length; i++) {
+            tripIds[i] = GtfsIdDictionary.TRIPS.intern(safe(allTrips.get(i).getTrip_id()));
+        }
+
+        int[] serviceOfTrip = new int[GtfsIdDictionary.TRIPS.size()];
+        Arrays.fill(serviceOfTrip, NOT_IN_FEED);
+        for (int i = 0; i < tripIds.length; i++) {
+            int id = tripIds[i];
+            if (id < 0 || id >= serviceOfTrip.length) {
+                continue;
+            }
+            String serviceId = safe(allTrips.get(i).getService_id());
+            serviceOfTrip[id] = serviceId.isEmpty() ? ALWAYS_ACTIVE : index.get(serviceId);
+        }
+
+        return new ServiceCalendar(Map.copyOf(index), weekdays, startDay, endDay,
+                Map.copyOf(added), Map.copyOf(removed), serviceOfTrip, true);
+    }
+
+    // =========================
+    // Query
+    // =========================
+
+    /**
+     * @return true se il feed contiene calendar.txt e/o calendar_dates.txt
+     */
+    public boolean hasData() {
+        return hasData;
+    }
+
+    /**
+     * @return numero di service_id distinti
+     */
+    public int serviceCount() {
+        return serviceIndex.size();
+    }
+
+    /**
+     * @param serviceId service_id GTFS
+     * @return indice denso del servizio, oppure -1 se sconosciuto
+     */
+    public int serviceIndex(String serviceId) {
+        Integer s = (serviceId == null) ? null : serviceIndex.get(serviceId.trim());
+        return (s == null) ? -1 : s;
+    }
+
+    /**
+     * Giorno di servizio (con insieme dei servizi attivi), calcolato una sola volta per data.
+     *
+     * @param date data del giorno di servizio
+     * @return giorno di servizio (mai null)
+     */
+    public ServiceDay serviceDay(LocalDate date) {
+        ServiceDay day = days.get(date);
+        if (day != null) {
+            return day;
+        }
+
+        day = new ServiceDay(date, computeActiveServices(date));
+        ServiceDay raced = days.putIfAbsent(date, day);
+        if (raced != null) {
+            return raced;
+        }
+
+        // rollover: si tengono solo i giorni vicini all'ultimo richiesto (ieri/oggi/domani)
+        days.keySet().removeIf(d -> Math.abs(d.toEpochDay() - date.toEpochDay()) > 1);
+        return day;
+    }
+
+    /**
+     * @return giorno di servizio della data corrente (ricalcolato al cambio di data)
+     */
+    public ServiceDay today() {
+        return serviceDay(LocalDate.now());
+    }
+
+    /**
+     * Insieme dei servizi attivi in una data: regola settimanale nel periodo di validità,
+     * più i servizi aggiunti e meno quelli soppressi da calendar_dates.
+     */
+    private BitSet computeActiveServices(LocalDate date) {
+        int n = serviceIndex.size();
+        BitSet active = new BitSet(n);
+        long epochDay = date.toEpochDay();
+        int dayBit = 1 << (date.getDayOfWeek().getValue() - 1);
+
+        for (int s = 0; s < n; s++) {
+            if ((weekdays[s] & dayBit) != 0 && epochDay >= startDay[s] && epochDay <= endDay[s]) {
+                active.set(s);
+            }
+        }
+
+        BitSet plus = added.get(epochDay);
+        if (plus != null) {
+            active.or(plus);
+        }
+        BitSet minus = removed.get(epochDay);
+        if (minus != null) {
+            active.andNot(minus);
+        }
+        return active;
+    }
+
+    // =========================
+    // Giorno di servizio
+    // =========================
+
+    /**
+     * Servizi attivi in un giorno di servizio (immutabile).
+     */
+    public final class ServiceDay {
+
+        private final LocalDate date;
+        private final BitSet activeServices;
+
+        private ServiceDay(LocalDate date, BitSet activeServices) {
+            this.date = date;
+            this.activeServices = activeServices;
+        }
+
+        /** @return data del giorno di servizio */
+        public LocalDate date() {
+            return date;
+        }
+
+        /** @return numero di servizi attivi */
+        public int activeServiceCount() {
+            return activeServices.cardinality();
+        }
+
+        /**
+         * @param serviceIdx indice denso del servizio
+         * @return true se il servizio è attivo in questo giorno
+         */
+        public boolean isServiceActive(int serviceIdx) {
+            return serviceIdx >= 0 && activeServices.get(serviceIdx);
+        }
+
+        /**
+         * @param tripIdx id globale del trip ({@link GtfsIdDictionary#TRIPS})
+         * @return true se il trip circola in questo giorno (sempre true senza dati di calendario)
+         */
+        public boolean isTripActive(int tripIdx) {
+            if (!hasData) {
+                return true;
+            }
+            if (tripIdx < 0 || tripIdx >= serviceOfTrip.length) {
+                return false;
+            }
+            int s = serviceOfTrip[tripIdx];
+            return s == ALWAYS_ACTIVE || (s >= 0 && activeServices.get(s));
+        }
+
+        /**
+         * @param tripId trip_id GTFS
+         * @return true se il trip circola in questo giorno (sempre true senza dati di calendario)
+         */
+        public boolean isTripActive(String tripId) {
+            return !hasData || isTripActive(GtfsIdDictionary.TRIPS.idOf(tripId));
+        }
+
+        @Override
+        public String toString() {
+            return "ServiceDay[" + date + ", servizi attivi=" + activeServiceCount() + "]";
+        }
+    }
+
+    // =========================
+    // Helpers
+    // =========================
+
+    private static int indexOf(Map<String, Integer> index, String serviceId) {
+        String s = safe(serviceId);
+        if (s.isEmpty()) {
+            return -1;
+        }
+        return index.computeIfAbsent(s, k -> index.size());
+    }
+
+    private static int flag(String value, DayOfWeek day) {
+        return "1".equals(safe(value)) ? 1 << (day.getValue() - 1) : 0;
+    }
+
+    private static LocalDate parseDate(String s) {
+        String v = safe(s);
+        if (v.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(v, GTFS_DATE);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String safe(String s) {
+        return (s == null) ? "" : s.trim();
+    }
+}
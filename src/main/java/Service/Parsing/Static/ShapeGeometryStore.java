@@ -0,0 +1,408 @@
+package Service.Parsing.Static;
+
+import Service.Parsing.Csv.GtfsCsvReader;
+import Service.Parsing.ShapeColorService;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Geometria delle shape GTFS (shapes.txt) in formato primitivo, pronta per il disegno.
+ *
+ * Responsabilità:
+ * - leggere shapes.txt una volta e raggruppare i punti per shape_id in array {@code float[]} lat/lon
+ * - ordinare i punti per shape_pt_sequence al caricamento (il painter li scorre già in ordine)
+ * - precalcolare bounding box e flag "circolare" di ogni shape
+ * - offrire una piramide di livelli di dettaglio (Douglas-Peucker) per disegnare a ogni zoom solo i punti visibili
+ *
+ * Contesto:
+ * - dato derivato di {@link StaticGtfsFeed} (vedi {@code ShapesService}): la mappa recupera la geometria
+ *   di una linea per shape_id con una get, senza filtrare e riordinare tutti i punti a ogni evidenziazione.
+ *
+ * Note di progetto:
+ * - {@code float} basta per la mappa: a latitudini italiane l'errore è sotto il metro.
+ * - le righe con coordinate o sequence non parsabili vengono scartate.
+ * - immutabile dopo la costruzione (thread-safe in lettura); i livelli di dettaglio sono una cache
+ *   calcolata alla prima evidenziazione della shape.
+ */
+public final class ShapeGeometryStore {
+
+    /** Tolleranza del livello 0 della piramide (gradi Mercator, ~0.1 m): ogni livello la raddoppia. */
+    private static final double LOD_BASE_TOLERANCE_DEG = 1e-6;
+
+    /** Numero di livelli: l'ultimo tollera ~16 gradi (l'intera linea ridotta agli estremi). */
+    private static final int LOD_LEVELS = 25;
+
+    private static final ShapeGeometryStore EMPTY = new ShapeGeometryStore(Map.of());
+
+    /** shape_id -> geometria ordinata. */
+    private final Map<String, Shape> byShapeId;
+
+    private ShapeGeometryStore(Map<String, Shape> byShapeId) {
+        this.byShapeId = byShapeId;
+    }
+
+    /**
+     * @return store senza shape (feed senza shapes.txt)
+     */
+    public static ShapeGeometryStore empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Legge shapes.txt direttamente negli array primitivi (nessun modello per punto).
+     *
+     * Assunzioni:
+     * - presenza dell'header in prima riga: le colonne sono individuate per nome
+     * - obbligatorie: shape_id, shape_pt_lat, shape_pt_lon, shape_pt_sequence
+     *
+     * @param filePath path del file shapes (anche path logico dentro uno zip)
+     * @return store costruito
+     * @throws IOException se il file non è leggibile o mancano colonne obbligatorie
+     */
+    public static ShapeGeometryStore read(String filePath) throws IOException {
+        Map<String, Builder> builders = new HashMap<>();
+
+        GtfsCsvReader.read(filePath, header -> {
+            int cShape = header.require("shape_id");
+            int cLat = header.require("shape_pt_lat");
+            int cLon = header.require("shape_pt_lon");
+            int cSeq = header.require("shape_pt_sequence");
+
+            return row -> {
+                String shapeId = row.string(cShape);
+                float lat = row.floatValue(cLat, Float.NaN);
+                float lon = row.floatValue(cLon, Float.NaN);
+                int seq = row.intValue(cSeq, Integer.MIN_VALUE);
+                if (shapeId.isEmpty() || Float.isNaN(lat) || Float.isNaN(lon) || seq == Integer.MIN_VALUE) {
+                    return;
+                }
+                builders.computeIfAbsent(shapeId, k -> new Builder()).add(seq, lat, lon);
+            };
+        });
+
+        return build(builders);
+    }
+
+    private static ShapeGeometryStore build(Map<String, Builder> builders) {
+        if (builders.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, Shape> out = new HashMap<>(builders.size() * 2);
+        for (Map.Entry<String, Builder> e : builders.entrySet()) {
+            out.put(e.getKey(), e.getValue().build(e.getKey()));
+        }
+        return new ShapeGeometryStore(out);
+    }
+
+    // =========================
+    // Query
+    // =========================
+
+    /**
+     * @param shapeId shape_id GTFS
+     * @return geometria della shape, oppure null se assente
+     */
+    public Shape get(String shapeId) {
+        return (shapeId == null) ? null : byShapeId.get(shapeId);
+    }
+
+    /**
+     * @return numero di shape
+     */
+    public int size() {
+        return byShapeId.size();
+    }
+
+    // =========================
+    // Shape
+    // =========================
+
+    /**
+     * Polilinea di una shape: punti ordinati per sequence, bounding box, flag circolare e livelli di dettaglio.
+     */
+    public static final class Shape {
+        private final String shapeId;
+        private final float[] lat;
+        private final float[] lon;
+        private final double minLat;
+        private final double maxLat;
+        private final double minLon;
+        private final double maxLon;
+        private final boolean circular;
+
+        /**
+         * Importanza Douglas-Peucker per punto: massima tolleranza (gradi Mercator) a cui il punto resta visibile.
+         * Calcolata al primo {@link #detail(double)}.
+         */
+        private volatile float[] importance;
+
+        /** Livello della piramide -> indici dei punti da disegnare (calcolati on-demand). */
+        private final AtomicReferenceArray<int[]> levels = new AtomicReferenceArray<>(LOD_LEVELS);
+
+        private Shape(String shapeId, float[] lat, float[] lon) {
+            this.shapeId = shapeId;
+            this.lat = lat;
+            this.lon = lon;
+
+            float mnLat = Float.POSITIVE_INFINITY, mxLat = Float.NEGATIVE_INFINITY;
+            float mnLon = Float.POSITIVE_INFINITY, mxLon = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < lat.length; i++) {
+                mnLat = Math.min(mnLat, lat[i]);
+                mxLat = Math.max(mxLat, lat[i]);
+                mnLon = Math.min(mnLon, lon[i]);
+                mxLon = Math.max(mxLon, lon[i]);
+            }
+            this.minLat = mnLat;
+            this.maxLat = mxLat;
+            this.minLon = mnLon;
+            this.maxLon = mxLon;
+
+            int last = lat.length - 1;
+            this.circular = last > 0 && ShapeColorService.isCircular(lat[0], lon[0], lat[last], lon[last]);
+        }
+
+        /** @return shape_id GTFS */
+        public String shapeId() {
+            return shapeId;
+        }
+
+        /** @return numero di punti */
+        public int size() {
+            return lat.length;
+        }
+
+        /**
+         * @param i indice del punto (ordine di sequence)
+         * @return latitudine del punto
+         */
+        public double lat(int i) {
+            return lat[i];
+        }
+
+        /**
+         * @param i indice del punto (ordine di sequence)
+         * @return longitudine del punto
+         */
+        public double lon(int i) {
+            return lon[i];
+        }
+
+        /** @return latitudine minima della bounding box */
+        public double minLat() {
+            return minLat;
+        }
+
+        /** @return latitudine massima della bounding box */
+        public double maxLat() {
+            return maxLat;
+        }
+
+        /** @return longitudine minima della bounding box */
+        public double minLon() {
+            return minLon;
+        }
+
+        /** @return longitudine massima della bounding box */
+        public double maxLon() {
+            return maxLon;
+        }
+
+        /** @return true se primo e ultimo punto distano meno di 30 metri */
+        public boolean isCircular() {
+            return circular;
+        }
+
+        /**
+         * Indici dei punti da disegnare con la tolleranza richiesta (livello della piramide).
+         *
+         * Dettagli:
+         * - la tolleranza è in gradi nella proiezione Mercator (stessa scala su x e y, come i pixel della mappa):
+         *   il chiamante la ricava da "pixel di tolleranza / pixel per grado" allo zoom corrente.
+         * - il livello usato è il più grossolano con tolleranza non superiore a quella richiesta (potenze di 2,
+         *   come il fattore di scala tra due zoom consecutivi), quindi ogni zoom ha il suo livello.
+         * - primo e ultimo punto sono sempre inclusi.
+         *
+         * @param toleranceDeg tolleranza in gradi Mercator (sotto ~0.1 m = livello più fine, senza i soli punti allineati)
+         * @return indici crescenti dei punti (array condiviso: non modificarlo)
+         */
+        public int[] detail(double toleranceDeg) {
+            int level = (toleranceDeg <= LOD_BASE_TOLERANCE_DEG) ? 0
+                    : Math.min(LOD_LEVELS - 1,
+                    (int) Math.floor(Math.log(toleranceDeg / LOD_BASE_TOLERANCE_DEG) / Math.log(2)));
+
+            int[] idx = levels.get(level);
+            if (idx == null) {
+                idx = buildLevel(LOD_BASE_TOLERANCE_DEG * (1L << level));
+                levels.compareAndSet(level, null, idx);
+            }
+            return idx;
+        }
+
+        private int[] buildLevel(double tolerance) {
+            float[] imp = importance;
+            if (imp == null) {
+                imp = computeImportance(lat, lon);
+                importance = imp;
+            }
+            int count = 0;
+            for (float v : imp) {
+                if (v >= tolerance) count++;
+            }
+            int[] out = new int[count];
+            int k = 0;
+            for (int i = 0; i < imp.length; i++) {
+                if (imp[i] >= tolerance) out[k++] = i;
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Douglas-Peucker "completo": invece di fermarsi a una tolleranza registra, per ogni punto, la distanza
+     * a cui viene selezionato (limitata da quella del segmento padre, così i livelli sono annidati).
+     * Un solo calcolo serve tutti i livelli della piramide.
+     *
+     * @param lat latitudini ordinate
+     * @param lon longitudini ordinate
+     * @return importanza per punto (estremi = +inf)
+     */
+    private static float[] computeImportance(float[] lat, float[] lon) {
+        int n = lat.length;
+        float[] imp = new float[n];
+        if (n == 0) {
+            return imp;
+        }
+        imp[0] = Float.POSITIVE_INFINITY;
+        imp[n - 1] = Float.POSITIVE_INFINITY;
+        if (n < 3) {
+            return imp;
+        }
+
+        // coordinate in gradi "Mercator": y scalata come x, quindi le distanze sono proporzionali ai pixel
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = lon[i];
+            y[i] = Math.toDegrees(Math.log(Math.tan(Math.PI / 4 + Math.toRadians(lat[i]) / 2)));
+        }
+
+        // stack esplicito (a, b, importanza del padre): niente ricorsione sulle shape lunghe
+        int[] stackA = new int[64];
+        int[] stackB = new int[64];
+        float[] stackP = new float[64];
+        int top = 0;
+        stackA[0] = 0;
+        stackB[0] = n - 1;
+        stackP[0] = Float.POSITIVE_INFINITY;
+        top++;
+
+        while (top > 0) {
+            top--;
+            int a = stackA[top];
+            int b = stackB[top];
+            float parent = stackP[top];
+            if (b - a < 2) {
+                continue;
+            }
+
+            int best = -1;
+            double bestDist = -1;
+            for (int i = a + 1; i < b; i++) {
+                double d = segmentDistance(x[i], y[i], x[a], y[a], x[b], y[b]);
+                if (d > bestDist) {
+                    bestDist = d;
+                    best = i;
+                }
+            }
+
+            float v = (float) Math.min(bestDist, parent);
+            imp[best] = v;
+
+            if (top + 2 > stackA.length) {
+                stackA = Arrays.copyOf(stackA, stackA.length * 2);
+                stackB = Arrays.copyOf(stackB, stackB.length * 2);
+                stackP = Arrays.copyOf(stackP, stackP.length * 2);
+            }
+            stackA[top] = a;
+            stackB[top] = best;
+            stackP[top] = v;
+            top++;
+            stackA[top] = best;
+            stackB[top] = b;
+            stackP[top] = v;
+            top++;
+        }
+        return imp;
+    }
+
+    /**
+     * Distanza del punto p dal segmento ab (coordinate piane).
+     */
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double len2 = dx * dx + dy * dy;
+        if (len2 == 0) {
+            return Math.hypot(px - ax, py - ay);
+        }
+        double t = ((px - ax) * dx + (py - ay) * dy) / len2;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+
+    // =========================
+    // Costruzione
+    // =========================
+
+    /** Accumulatore dei punti di una shape durante il parsing (array che crescono per raddoppio). */
+    private static final class Builder {
+        int size;
+        int[] seq = new int[32];
+        float[] lat = new float[32];
+        float[] lon = new float[32];
+        boolean sorted = true;
+
+        void add(int s, float la, float lo) {
+            if (size == seq.length) {
+                int cap = size * 2;
+                seq = Arrays.copyOf(seq, cap);
+                lat = Arrays.copyOf(lat, cap);
+                lon = Arrays.copyOf(lon, cap);
+            }
+            if (size > 0 && s < seq[size - 1]) {
+                sorted = false;
+            }
+            seq[size] = s;
+            lat[size] = la;
+            lon[size] = lo;
+            size++;
+        }
+
+        Shape build(String shapeId) {
+            if (sorted) {
+                // caso tipico: shapes.txt già in ordine di sequence
+                return new Shape(shapeId, Arrays.copyOf(lat, size), Arrays.copyOf(lon, size));
+            }
+
+            // ordinamento per sequence tramite chiave (sequence << 32 | indice): nessun boxing
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = ((long) seq[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+
+            float[] sLat = new float[size];
+            float[] sLon = new float[size];
+            for (int i = 0; i < size; i++) {
+                int src = (int) keys[i];
+                sLat[i] = lat[src];
+                sLon[i] = lon[src];
+            }
+            return new Shape(shapeId, sLat, sLon);
+        }
+    }
+}
@@ -6,6 +6,8 @@ import Model.Parsing.Static.TripsModel;
 import Model.Points.StopModel;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Contenitore immutabile dei dati GTFS static già caricati in memoria.
@@ -45,6 +47,24 @@ public final class StaticGtfsData {
      */
     public final List<StopTimesModel> stopTimes;
 
+    /**
+     * Stop_times già in formato colonnare (opzionale).
+     * Se presente ha precedenza su {@link #stopTimes}, che in quel caso può essere null.
+     */
+    public final StopTimesStore stopTimesStore;
+
+    /**
+     * Indice stopId -> routeIds già calcolato (opzionale, es. letto da snapshot).
+     * Se null la repository lo ricostruisce dagli stop_times.
+     */
+    public final Map<String, Set<String>> routeIdsByStopId;
+
+    /**
+     * Stop_times lasciati su disco con indice per trip (opzionale, modalità low memory).
+     * Se presente ha precedenza sia su {@link #stopTimesStore} sia su {@link #stopTimes}.
+     */
+    public final StopTimesDiskStore stopTimesOnDisk;
+
     /**
      * Crea un contenitore con tutte le strutture principali del GTFS static.
      *
@@ -58,10 +78,76 @@ public final class StaticGtfsData {
             List<RoutesModel> routes,
             List<TripsModel> trips,
             List<StopTimesModel> stopTimes
+    ) {
+        this(stops, routes, trips, stopTimes, null);
+    }
+
+    /**
+     * Crea un contenitore in cui gli stop_times sono già stati caricati nello store colonnare.
+     *
+     * @param stops lista delle fermate caricate
+     * @param routes lista delle linee caricate
+     * @param trips lista dei viaggi caricati
+     * @param stopTimes lista "classica" degli stop_times (può essere null se {@code stopTimesStore} è presente)
+     * @param stopTimesStore stop_times in formato colonnare (può essere null)
+     */
+    public StaticGtfsData(
+            List<StopModel> stops,
+            List<RoutesModel> routes,
+            List<TripsModel> trips,
+            List<StopTimesModel> stopTimes,
+            StopTimesStore stopTimesStore
+    ) {
+        this(stops, routes, trips, stopTimes, stopTimesStore, null);
+    }
+
+    /**
+     * Crea un contenitore con dati e indici già pronti (tipicamente letti da {@link StaticGtfsSnapshot}).
+     *
+     * @param stops lista delle fermate caricate
+     * @param routes lista delle linee caricate
+     * @param trips lista dei viaggi caricati
+     * @param stopTimes lista "classica" degli stop_times (può essere null se {@code stopTimesStore} è presente)
+     * @param stopTimesStore stop_times in formato colonnare (può essere null)
+     * @param routeIdsByStopId indice stopId -> routeIds già calcolato (può essere null)
+     */
+    public StaticGtfsData(
+            List<StopModel> stops,
+            List<RoutesModel> routes,
+            List<TripsModel> trips,
+            List<StopTimesModel> stopTimes,
+            StopTimesStore stopTimesStore,
+            Map<String, Set<String>> routeIdsByStopId
     ) {
         this.stops = stops;
         this.routes = routes;
         this.trips = trips;
         this.stopTimes = stopTimes;
+        this.stopTimesStore = stopTimesStore;
+        this.routeIdsByStopId = routeIdsByStopId;
+        this.stopTimesOnDisk = null;
+    }
+
+    /**
+     * Crea un contenitore in cui gli stop_times restano su disco (modalità low memory).
+     *
+     * @param stops lista delle fermate caricate
+     * @param routes lista delle linee caricate
+     * @param trips lista dei viaggi caricati
+     * @param stopTimesOnDisk stop_times indicizzati su disco
+     */
+    public StaticGtfsData(
+            List<StopModel> stops,
+            List<RoutesModel> routes,
+            List<TripsModel> trips,
+            StopTimesDiskStore stopTimesOnDisk
+    ) {
+        this.stops = stops;
+        this.routes = routes;
+        this.trips = trips;
+        this.stopTimes = null;
+        this.stopTimesStore = null;
+        this.routeIdsByStopId = null;
+        this.stopTimesOnDisk = stopTimesOnDisk;
     }
 }
\ No newline at end of file
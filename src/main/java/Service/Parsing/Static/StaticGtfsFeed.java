@@ -0,0 +1,373 @@
+package Service.Parsing.Static;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.Index.StopSearchIndexV2;
+import Service.Parsing.Csv.GtfsArchive;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Versione completa e immutabile del feed GTFS static attualmente in uso.
+ *
+ * Responsabilità:
+ * - raggruppare in un solo oggetto tutto ciò che deriva da una versione del feed:
+ *   {@link StaticGtfsRepository} indicizzata, indice di ricerca fermate e dati derivati on-demand
+ *   (shape, colori, direzioni, ...)
+ * - pubblicare la versione corrente tramite un unico riferimento atomico ({@link #current()})
+ * - notificare i listener quando una nuova versione sostituisce la precedente
+ *
+ * Contesto:
+ * - i Service statici (StopService, RoutesService, TripsService, ShapesService, ...) leggono prima dal
+ *   feed corrente: se il path richiesto appartiene al feed, restituiscono i suoi dati invece della
+ *   propria cache. Così un hot-reload cambia la versione vista da tutti con una sola scrittura.
+ * - il caricamento ({@link #load}) non tocca il feed pubblicato: le query continuano sulla versione
+ *   precedente finché {@link #publish(StaticGtfsFeed)} non effettua lo scambio.
+ *
+ * Note di progetto:
+ * - i path della versione sostituita restano "alias" della nuova: un controller che conserva i path
+ *   iniziali (es. quelli di uno zip sostituito) vede comunque i dati dell'ultima versione.
+ * - i dati derivati ({@link #derived(String, Supplier)}) vivono dentro il feed: vengono scartati
+ *   insieme alla versione, senza invalidazioni sparse.
+ */
+public final class StaticGtfsFeed {
+
+    /** Tipologia di file del feed (per risolvere i path richiesti dai Service). */
+    public enum Source {
+        STOPS, ROUTES, TRIPS, STOP_TIMES, SHAPES
+    }
+
+    private static final AtomicReference<StaticGtfsFeed> CURRENT = new AtomicReference<>();
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    private static final List<Consumer<StaticGtfsFeed>> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private final long version;
+    private final Map<Source, Set<String>> paths;
+    private final StaticGtfsRepository repository;
+    private final StopSearchIndexV2 stopIndex;
+    private final Map<String, Object> derived;
+
+    private StaticGtfsFeed(long version, Map<Source, Set<String>> paths, StaticGtfsRepository repository,
+                           StopSearchIndexV2 stopIndex, Map<String, Object> derived) {
+        this.version = version;
+        this.paths = paths;
+        this.repository = repository;
+        this.stopIndex = stopIndex;
+        this.derived = derived;
+    }
+
+    // =========================
+    // Caricamento
+    // =========================
+
+    /**
+     * Costruisce una nuova versione completa del feed (repository + indici), senza pubblicarla.
+     *
+     * Dettagli:
+     * - i file vengono sempre riletti (nessuna cache dei Service): è il passo "pesante" del reload
+     *   e va eseguito fuori dall'EDT.
+     * - shapes.txt viene cercato accanto a stops (stessa cartella o stesso zip).
+     * - con {@code snapshotDir} l'indice di ricerca fermate viene letto da file (chiave = contenuto di stops)
+     *   e ricostruito/riscritto solo se stops è cambiato.
+     *
+     * @param stopsPath path stops
+     * @param routesPath path routes
+     * @param tripsPath path trips
+     * @param stopTimesPath path stop_times
+     * @param snapshotDir cartella snapshot binario e indice fermate su file (null per disattivarli)
+     * @return nuova versione del feed
+     * @throws NullPointerException se manca un path
+     */
+    public static StaticGtfsFeed load(String stopsPath, String routesPath, String tripsPath,
+                                      String stopTimesPath, Path snapshotDir) {
+        Objects.requireNonNull(stopsPath, "stopsPath null");
+        Objects.requireNonNull(routesPath, "routesPath null");
+        Objects.requireNonNull(tripsPath, "tripsPath null");
+        Objects.requireNonNull(stopTimesPath, "stopTimesPath null");
+
+        StaticGtfsRepository repo = new StaticGtfsRepositoryBuilder()
+                .withStopsPath(stopsPath)
+                .withRoutesPath(routesPath)
+                .withTripsPath(tripsPath)
+                .withStopTimesPath(stopTimesPath)
+                .indexStopToRoutes(true)
+                .indexTripStopTimes(true)
+                .indexStopStopTimes(true)
+                .withSnapshotDir(snapshotDir)
+                .build();
+
+        Map<Source, Set<String>> paths = new EnumMap<>(Source.class);
+        paths.put(Source.STOPS, Set.of(stopsPath));
+        paths.put(Source.ROUTES, Set.of(routesPath));
+        paths.put(Source.TRIPS, Set.of(tripsPath));
+        paths.put(Source.STOP_TIMES, Set.of(stopTimesPath));
+        String shapesPath = GtfsArchive.sibling(stopsPath, "shapes");
+        paths.put(Source.SHAPES, (shapesPath == null) ? Set.of() : Set.of(shapesPath));
+
+        StopSearchIndexV2 stopIndex = StopSearchIndexV2.loadOrBuild(repo.allStops(),
+                (snapshotDir == null) ? null : stopIndexKey(stopsPath), snapshotDir);
+        return new StaticGtfsFeed(VERSIONS.incrementAndGet(), paths, repo, stopIndex, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Chiave di contenuto di stops.txt per il file dell'indice di ricerca fermate.
+     *
+     * @param stopsPath path stops (file o path logico in archivio)
+     * @return chiave, oppure null se il file non è leggibile (l'indice viene solo costruito in memoria)
+     */
+    private static String stopIndexKey(String stopsPath) {
+        String archiveKey = GtfsArchive.keyOf(stopsPath);
+        if (archiveKey != null) {
+            return archiveKey;
+        }
+        try {
+            return StaticGtfsSnapshot.sourceKey(List.of(Path.of(stopsPath)));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[StaticGtfsFeed] chiave indice fermate non calcolabile: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // =========================
+    // Pubblicazione (riferimento unico)
+    // =========================
+
+    /**
+     * @return feed attualmente pubblicato, oppure null se nessun feed è stato ancora pubblicato
+     */
+    public static StaticGtfsFeed current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Pubblica una nuova versione: un'unica scrittura atomica rende la nuova versione visibile a tutti.
+     *
+     * Dettagli:
+     * - i path della versione sostituita diventano alias della nuova
+     * - gli archivi zip usati solo dalla versione sostituita vengono smontati ({@link GtfsArchive#unmount(String)}):
+     *   un feed aggiornato non tiene in vita il buffer del precedente
+     * - i listener vengono notificati dopo lo scambio, sul thread chiamante
+     * - una versione più vecchia di quella pubblicata viene ignorata (reload concorrenti) e il suo archivio smontato
+     *
+     * @param next versione da pubblicare
+     * @return versione effettivamente pubblicata (con gli alias ereditati)
+     */
+    public static StaticGtfsFeed publish(StaticGtfsFeed next) {
+        Objects.requireNonNull(next, "feed null");
+        StaticGtfsFeed prev;
+        StaticGtfsFeed merged;
+        do {
+            prev = CURRENT.get();
+            if (prev != null && prev.version >= next.version) {
+                releaseArchives(next, prev);
+                return prev;
+            }
+            merged = next.inheriting(prev);
+        } while (!CURRENT.compareAndSet(prev, merged));
+
+        if (prev != null) {
+            releaseArchives(prev, merged);
+        }
+
+        for (Consumer<StaticGtfsFeed> l : LISTENERS) {
+            try {
+                l.accept(merged);
+            } catch (RuntimeException e) {
+                System.err.println("[StaticGtfsFeed] listener fallito: " + e.getMessage());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Registra un listener invocato dopo ogni pubblicazione.
+     *
+     * @param listener callback (riceve la nuova versione)
+     */
+    public static void addListener(Consumer<StaticGtfsFeed> listener) {
+        if (listener != null) {
+            LISTENERS.add(listener);
+        }
+    }
+
+    /**
+     * @param listener callback registrata con {@link #addListener(Consumer)}
+     */
+    public static void removeListener(Consumer<StaticGtfsFeed> listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Feed corrente se serve il path indicato (usato dai Service per bypassare le proprie cache).
+     *
+     * @param source tipologia di file
+     * @param path path richiesto dal chiamante
+     * @return feed corrente, oppure null se non pubblicato o se il path non gli appartiene
+     */
+    public static StaticGtfsFeed serving(Source source, String path) {
+        StaticGtfsFeed f = CURRENT.get();
+        return (f != null && f.serves(source, path)) ? f : null;
+    }
+
+    /**
+     * Smonta gli archivi dei path di {@code dropped} non usati dai path propri di {@code kept}
+     * (gli alias ereditati non tengono montato un archivio).
+     */
+    private static void releaseArchives(StaticGtfsFeed dropped, StaticGtfsFeed kept) {
+        Set<String> inUse = new HashSet<>();
+        for (Source s : Source.values()) {
+            String archiveId = GtfsArchive.archiveOf(kept.path(s));
+            if (archiveId != null) {
+                inUse.add(archiveId);
+            }
+        }
+        for (Set<String> all : dropped.paths.values()) {
+            for (String p : all) {
+                String archiveId = GtfsArchive.archiveOf(p);
+                if (archiveId != null && !inUse.contains(archiveId)) {
+                    GtfsArchive.unmount(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compatta i {@link GtfsIdDictionary} sulla versione pubblicata ({@link GtfsIdDictionary#retainOnly}).
+     *
+     * Dettagli:
+     * - chiamato da {@link StaticGtfsLoader} prima di caricare una nuova versione: gli id sostituiti da due
+     *   reload vengono riassegnati a quelli nuovi invece di allungare i dizionari (e gli array dimensionati
+     *   su di essi) a ogni reload
+     * - gli id della versione sostituita dall'ultimo reload restano risolvibili per un'altra versione:
+     *   query in corso sulla vecchia repository, modelli realtime già costruiti e scritture di snapshot
+     *   in background non vedono un intero cambiare significato
+     */
+    static void retainPublishedIds() {
+        StaticGtfsFeed f = CURRENT.get();
+        if (f == null) {
+            return;
+        }
+        BitSet trips = new BitSet();
+        BitSet stops = new BitSet();
+        BitSet routes = new BitSet();
+        f.repository.markIds(trips, stops, routes);
+        int released = GtfsIdDictionary.TRIPS.retainOnly(trips)
+                + GtfsIdDictionary.STOPS.retainOnly(stops)
+                + GtfsIdDictionary.ROUTES.retainOnly(routes);
+        if (released > 0) {
+            System.out.println("[StaticGtfsFeed] id liberati dalle versioni precedenti: " + released);
+        }
+    }
+
+    private StaticGtfsFeed inheriting(StaticGtfsFeed prev) {
+        if (prev == null) {
+            return this;
+        }
+        Map<Source, Set<String>> merged = new EnumMap<>(Source.class);
+        for (Source s : Source.values()) {
+            Set<String> all = new LinkedHashSet<>(paths.getOrDefault(s, Set.of()));
+            all.addAll(prev.paths.getOrDefault(s, Set.of()));
+            merged.put(s, Collections.unmodifiableSet(all)); // ordine: path della nuova versione per primi
+        }
+        return new StaticGtfsFeed(version, merged, repository, stopIndex, derived);
+    }
+
+    // =========================
+    // Accesso ai dati
+    // =========================
+
+    /** @return numero di versione (crescente nel processo) */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @param source tipologia di file
+     * @param path path richiesto
+     * @return true se il path appartiene a questa versione (o a una versione sostituita)
+     */
+    public boolean serves(Source source, String path) {
+        return path != null && paths.getOrDefault(source, Set.of()).contains(path);
+    }
+
+    /**
+     * Path con cui è stata caricata questa versione (gli alias ereditati vengono dopo).
+     *
+     * @param source tipologia di file
+     * @return path del file, oppure null se il feed non lo comprende (es. shapes assente)
+     */
+    public String path(Source source) {
+        Set<String> all = paths.getOrDefault(source, Set.of());
+        return all.isEmpty() ? null : all.iterator().next();
+    }
+
+    /** @return repository indicizzata di questa versione */
+    public StaticGtfsRepository repository() {
+        return repository;
+    }
+
+    /** @return indice di ricerca fermate costruito su {@link #stops()} */
+    public StopSearchIndexV2 stopIndex() {
+        return stopIndex;
+    }
+
+    /** @return fermate di questa versione */
+    public List<StopModel> stops() {
+        return repository.allStops();
+    }
+
+    /** @return routes di questa versione */
+    public List<RoutesModel> routes() {
+        return repository.allRoutes();
+    }
+
+    /** @return trips di questa versione */
+    public List<TripsModel> trips() {
+        return repository.allTrips();
+    }
+
+    /**
+     * Dato derivato dal feed, calcolato al primo accesso e legato a questa versione.
+     *
+     * @param key chiave del dato (es. "shapes")
+     * @param loader calcolo del dato
+     * @param <T> tipo del dato
+     * @return valore calcolato (condiviso tra chiamanti)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T derived(String key, Supplier<T> loader) {
+        Object v = derived.get(key);
+        if (v == null) {
+            // niente computeIfAbsent: il loader può a sua volta leggere altri dati derivati
+            v = loader.get();
+            Object raced = derived.putIfAbsent(key, v);
+            if (raced != null) {
+                v = raced;
+            }
+        }
+        return (T) v;
+    }
+
+    @Override
+    public String toString() {
+        return "StaticGtfsFeed[v" + version + ", stops=" + stops().size() + ", trips=" + trips().size() + "]";
+    }
+}
@@ -0,0 +1,251 @@
+package Service.Parsing.Static;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Loader del GTFS static: produce l'unico {@link StaticGtfsFeed} condiviso dal processo, con hot-reload atomico.
+ *
+ * Responsabilità:
+ * - centralizzare i path dei file GTFS static (stops, routes, trips, stop_times)
+ * - caricare il feed solo al primo utilizzo: ogni file viene letto una volta per processo
+ * - ricaricare il feed senza riavviare l'app: la nuova versione completa (repository + indici)
+ *   viene costruita in background e poi sostituita alla precedente con un solo scambio di riferimento
+ *
+ * Contesto:
+ * - è il {@link Supplier} iniettato nei controller (mappa, ricerca linee/fermate, pannelli arrivi):
+ *   ognuno legge {@code get()} una volta per operazione e lavora su quella versione immutabile,
+ *   invece di mantenere cache proprie dei CSV.
+ * - la versione corrente è pubblicata anche in {@link StaticGtfsFeed#current()}, così i Service
+ *   statici interrogati per path (StopService, TripsService, ...) restituiscono gli stessi oggetti.
+ *
+ * Note di progetto:
+ * - il primo caricamento è sincrono (thread-safe tramite sincronizzazione sul reference).
+ * - {@link #reloadAll()} non invalida nulla: finché la nuova versione non è pronta le query
+ *   continuano sulla precedente (nessuna pausa in UI); un reload già in corso con gli stessi path
+ *   viene riusato, con path diversi ne viene accodato uno successivo.
+ * - in caso di errore durante il reload la versione corrente resta attiva.
+ */
+public final class StaticGtfsLoader implements Supplier<StaticGtfsFeed> {
+
+    /**
+     * Record che raggruppa i path dei file CSV del GTFS static.
+     *
+     * @param stopsCsvPath path stops.csv
+     * @param routesCsvPath path routes.csv
+     * @param tripsCsvPath path trips.csv
+     * @param stopTimesCsvPath path stop_times.csv
+     */
+    public record Paths(
+            String stopsCsvPath,
+            String routesCsvPath,
+            String tripsCsvPath,
+            String stopTimesCsvPath
+    ) {
+    }
+
+    /** Thread unico (daemon) per i reload: una sola build alla volta, mai sull'EDT. */
+    private static final ExecutorService RELOAD_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "static-gtfs-reload");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicReference<Paths> pathsRef;
+
+    /** Path della versione in {@link #feedRef} (scritti dal primo caricamento e dal thread dei reload). */
+    private volatile Paths loadedPaths;
+    private final Path snapshotDir;
+
+    /** Versione caricata da questo loader (null finché non serve). */
+    private final AtomicReference<StaticGtfsFeed> feedRef = new AtomicReference<>();
+
+    /** Protegge lo stato dei reload ({@link #running}, {@link #runningPaths}, {@link #queued}). */
+    private final Object reloadLock = new Object();
+
+    /** Reload in corso o in attesa del thread (null se nessuno). */
+    private CompletableFuture<StaticGtfsFeed> running;
+
+    /** Path caricati da {@link #running}. */
+    private Paths runningPaths;
+
+    /** Reload successivo, accodato quando i path cambiano durante {@link #running} (null se nessuno). */
+    private CompletableFuture<StaticGtfsFeed> queued;
+
+    /**
+     * Crea il loader con i path dei file GTFS static (senza snapshot binario).
+     *
+     * @param paths record con tutti i path necessari
+     */
+    public StaticGtfsLoader(Paths paths) {
+        this(paths, null);
+    }
+
+    /**
+     * Crea il loader con i path dei file GTFS static.
+     *
+     * @param paths record con tutti i path necessari
+     * @param snapshotDir cartella dello snapshot binario (null per disattivarlo)
+     */
+    public StaticGtfsLoader(Paths paths, Path snapshotDir) {
+        this.pathsRef = new AtomicReference<>(Objects.requireNonNull(paths, "paths null"));
+        this.snapshotDir = snapshotDir;
+    }
+
+    // =========================
+    // Versione corrente
+    // =========================
+
+    /**
+     * Restituisce la versione corrente del feed, caricandola al primo accesso.
+     *
+     * @return feed completo (mai null)
+     */
+    public StaticGtfsFeed current() {
+        StaticGtfsFeed f = feedRef.get();
+        if (f != null) {
+            return f;
+        }
+
+        synchronized (feedRef) {
+            f = feedRef.get();
+            if (f == null) {
+                Paths p = pathsRef.get();
+                f = StaticGtfsFeed.publish(load(p));
+                loadedPaths = p;
+                feedRef.set(f);
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Alias di {@link #current()} per l'uso come {@link Supplier}.
+     *
+     * @return feed completo (mai null)
+     */
+    @Override
+    public StaticGtfsFeed get() {
+        return current();
+    }
+
+    /**
+     * @return repository indicizzata della versione corrente (da leggere una volta per operazione)
+     */
+    public StaticGtfsRepository currentRepository() {
+        return current().repository();
+    }
+
+    /** @return path della versione corrente (o di quella in caricamento dopo {@link #reload(Paths)}) */
+    public Paths paths() {
+        return pathsRef.get();
+    }
+
+    // =========================
+    // Reload
+    // =========================
+
+    /**
+     * Ricarica il feed dagli stessi path (es. file aggiornati su disco) in background.
+     *
+     * @return future completato con la nuova versione già pubblicata
+     */
+    public CompletableFuture<StaticGtfsFeed> reloadAll() {
+        return reload(pathsRef.get());
+    }
+
+    /**
+     * Carica in background il feed dai nuovi path (es. un nuovo zip) e lo sostituisce al corrente.
+     *
+     * Dettagli:
+     * - le query continuano sulla versione precedente fino allo scambio
+     * - se un reload con gli stessi path è già in corso viene restituito quello
+     * - se i path cambiano durante un reload viene accodato un reload successivo, che parte al termine del
+     *   corrente con gli ultimi path richiesti: il future restituito si completa con la versione di quei path
+     *   (richieste arrivate mentre il successivo è in coda lo condividono)
+     * - in caso di errore il future termina eccezionalmente, la versione corrente resta attiva e
+     *   {@link #paths()} torna ai path con cui è stata caricata
+     * - prima del caricamento i dizionari degli id vengono compattati sulla versione pubblicata
+     *   ({@link StaticGtfsFeed#retainPublishedIds()}): reload ripetuti non li fanno crescere, e gli id
+     *   della versione appena sostituita restano validi fino al reload successivo
+     *
+     * @param paths path della nuova versione
+     * @return future completato con la nuova versione già pubblicata
+     */
+    public CompletableFuture<StaticGtfsFeed> reload(Paths paths) {
+        Objects.requireNonNull(paths, "paths null");
+
+        CompletableFuture<StaticGtfsFeed> next;
+        synchronized (reloadLock) {
+            pathsRef.set(paths);
+            if (queued != null) {
+                return queued; // partirà con gli ultimi path registrati
+            }
+            boolean busy = running != null && !running.isDone();
+            if (busy && paths.equals(runningPaths)) {
+                return running;
+            }
+
+            next = new CompletableFuture<>();
+            if (busy) {
+                queued = next;
+            } else {
+                running = next;
+                runningPaths = paths;
+            }
+        }
+
+        CompletableFuture<StaticGtfsFeed> task = next;
+        RELOAD_EXECUTOR.execute(() -> runReload(task));
+        return next;
+    }
+
+    /**
+     * Esegue un reload sul thread dedicato: un reload accodato diventa quello in corso e legge i path
+     * solo ora, così usa gli ultimi richiesti.
+     */
+    private void runReload(CompletableFuture<StaticGtfsFeed> task) {
+        Paths p;
+        synchronized (reloadLock) {
+            if (queued == task) {
+                queued = null;
+                running = task;
+                runningPaths = pathsRef.get();
+            }
+            p = runningPaths;
+        }
+
+        try {
+            StaticGtfsFeed.retainPublishedIds();
+            StaticGtfsFeed published = StaticGtfsFeed.publish(load(p));
+            feedRef.set(published);
+            loadedPaths = p;
+            System.out.println("[StaticGtfsLoader] feed ricaricato: " + published);
+            task.complete(published);
+        } catch (RuntimeException | Error e) {
+            System.err.println("[StaticGtfsLoader] reload fallito, resta la versione corrente: " + e.getMessage());
+            synchronized (reloadLock) {
+                Paths loaded = loadedPaths;
+                if (queued == null && loaded != null) {
+                    pathsRef.compareAndSet(p, loaded);
+                }
+            }
+            task.completeExceptionally(e);
+        }
+    }
+
+    private StaticGtfsFeed load(Paths p) {
+        return StaticGtfsFeed.load(
+                p.stopsCsvPath(),
+                p.routesCsvPath(),
+                p.tripsCsvPath(),
+                p.stopTimesCsvPath(),
+                snapshotDir
+        );
+    }
+}
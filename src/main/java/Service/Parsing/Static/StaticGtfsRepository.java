@@ -1,12 +1,18 @@
 package Service.Parsing.Static;
 
+import Model.Parsing.Static.GtfsIdDictionary;
 import Model.Parsing.Static.RoutesModel;
 import Model.Parsing.Static.StopTimesModel;
 import Model.Parsing.Static.TripsModel;
 import Model.Points.StopModel;
 
+import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 /**
  * Repository in-memory del GTFS static.
@@ -23,9 +29,18 @@ import java.util.stream.Collectors;
  * Note di progetto:
  * - alcuni indici sono opzionali per ridurre tempi di build/memoria (scelti dal Builder).
  * - quando un indice è disattivato, i metodi principali calcolano al volo facendo scan controllati.
+ * - gli stop_times sono tenuti in uno {@link StopTimesStore} colonnare (primitivi + dizionari):
+ *   le liste di {@link StopTimesModel} restituite sono viste sottili materializzate on-demand.
+ * - in modalità low memory restano invece su disco ({@link StopTimesDiskStore}): lo store colonnare è vuoto
+ *   e le query per trip/stop decodificano dal file solo i trip necessari.
+ * - i lookup per id sono array indicizzati dagli interi del {@link GtfsIdDictionary}: nessuna mappa
+ *   String -> model, e gli stessi interi sono usati dallo store e dai modelli realtime.
  */
 public final class StaticGtfsRepository {
 
+    /** Sotto questa soglia di righe l'indice stopId -> routeIds non viene diviso in partizioni. */
+    private static final int MIN_PARALLEL_ROWS = 1 << 16;
+
     // =========================
     // Dati raw (liste)
     // =========================
@@ -33,15 +48,20 @@ public final class StaticGtfsRepository {
     private final List<StopModel> allStops;
     private final List<RoutesModel> allRoutes;
     private final List<TripsModel> allTrips;
-    private final List<StopTimesModel> allStopTimes;
+
+    /** Stop_times in formato colonnare, raggruppati per trip e ordinati per stop_sequence. */
+    private final StopTimesStore stopTimes;
+
+    /** Stop_times su disco (modalità low memory), null se sono in {@link #stopTimes}. */
+    private final StopTimesDiskStore stopTimesOnDisk;
 
     // =========================
-    // Lookup principali (id -> model)
+    // Lookup principali (id globale -> model)
     // =========================
 
-    private final Map<String, StopModel> stopById;
-    private final Map<String, RoutesModel> routeById;
-    private final Map<String, TripsModel> tripById;
+    private final StopModel[] stopById;
+    private final RoutesModel[] routeById;
+    private final TripsModel[] tripById;
 
     /**
      * routeId -> directionId -> lista tripId.
@@ -51,22 +71,29 @@ public final class StaticGtfsRepository {
      */
     private final Map<String, Map<Integer, List<String>>> tripIdsByRouteDir;
 
+    /** route -> direzione -> capolinea / numero trip (precalcolata per ricerca linee e direzioni). */
+    private final RouteDirectionTable routeDirections;
+
     // =========================
     // Indici opzionali
     // =========================
 
-    /** tripId -> lista stop_times ordinati per stop_sequence (se indice attivo). */
-    private final Map<String, List<StopTimesModel>> stopTimesByTripId;
-
-    /** stopId -> lista stop_times (se indice attivo). */
-    private final Map<String, List<StopTimesModel>> stopTimesByStopId;
-
     /** stopId -> insieme routeId (join stop_times + trips) (se indice attivo). */
     private final Map<String, Set<String>> routeIdsByStopId;
 
     private final boolean indexStopToRoutesEnabled;
-    private final boolean indexTripStopTimesEnabled;
-    private final boolean indexStopStopTimesEnabled;
+
+    /** Calendario dei servizi (quali trip circolano in un giorno di servizio). */
+    private final ServiceCalendar serviceCalendar;
+
+    /** Orari per (stop, route, direzione), precalcolati al caricamento (null in modalità low memory). */
+    private final StopTimetables stopTimetables;
+
+    /** Pattern di fermate dei trip, precalcolati al caricamento (null in modalità low memory). */
+    private final TripPatterns tripPatterns;
+
+    /** Incidenza linea <-> fermata, precalcolata al caricamento (anche in modalità low memory). */
+    private final RouteStopIncidence routeStopIncidence;
 
     /**
      * Crea la repository a partire dai dati già caricati.
@@ -74,61 +101,132 @@ public final class StaticGtfsRepository {
      * Dettagli:
      * - normalizza le liste in input (mai null)
      * - costruisce lookup per id (stop/route/trip)
-     * - costruisce sempre {@code tripIdsByRouteDir} perché è molto usato
-     * - costruisce indici opzionali in base ai flag (trade-off memoria/velocità)
+     * - costruisce sempre {@code tripIdsByRouteDir} e la {@link RouteDirectionTable} perché sono molto usati
+     * - converte gli stop_times nello store colonnare (se non già forniti in quel formato)
+     * - costruisce indici opzionali in base ai flag (trade-off memoria/velocità),
+     *   riusando quelli già presenti in {@code data} (es. letti da snapshot)
+     * - precalcola le strutture usate dalle query della UI (orari per fermata, pattern dei trip,
+     *   incidenza linea/fermata), così nessuna query paga la loro costruzione
      *
      * @param data contenitore con liste GTFS static già pronte
+     * @param serviceCalendar calendario dei servizi (null = nessun dato, tutti i trip attivi)
      * @param indexStopToRoutes se true abilita indice stopId -> routeIds (utile per modalità FERMATA)
-     * @param indexTripStopTimes se true abilita indice tripId -> stop_times ordinati
+     * @param indexTripStopTimes se true abilita il fast path tripId -> stop_times ordinati
+     *                           (il raggruppamento per trip è intrinseco allo store colonnare)
      * @param indexStopStopTimes se true abilita indice stopId -> stop_times
      * @throws NullPointerException se {@code data} è null
      */
     StaticGtfsRepository(
             StaticGtfsData data,
+            ServiceCalendar serviceCalendar,
             boolean indexStopToRoutes,
             boolean indexTripStopTimes,
             boolean indexStopStopTimes
+    ) {
+        this(data, serviceCalendar, indexStopToRoutes, indexTripStopTimes, indexStopStopTimes, null);
+    }
+
+    /**
+     * Come il costruttore sequenziale, ma gli indici indipendenti vengono costruiti in parallelo su {@code pool}.
+     *
+     * Strategia:
+     * 1) lo store degli stop_times (se da convertire) viene costruito per primo: registra trip e stop
+     *    nei dizionari globali nello stesso ordine della costruzione sequenziale
+     * 2) lookup stop/route/trip, {@code tripIdsByRouteDir} e {@link RouteDirectionTable} partono insieme
+     *    (ogni dizionario è scritto da un solo task, quindi gli id restano deterministici)
+     * 3) l'indice stopId -> routeIds parte appena è pronto il lookup dei trip, con raggruppamento
+     *    per partizioni di righe e merge finale
+     * 4) pronti i lookup, le route referenziate dai trip vengono registrate in ordine nel dizionario
+     *    e partono in parallelo le strutture derivate (orari per fermata, pattern dei trip,
+     *    incidenza linea/fermata), che lo leggono soltanto
+     *
+     * @param data contenitore con liste GTFS static già pronte
+     * @param serviceCalendar calendario dei servizi (null = nessun dato, tutti i trip attivi)
+     * @param indexStopToRoutes se true abilita indice stopId -> routeIds
+     * @param indexTripStopTimes se true abilita il fast path tripId -> stop_times ordinati
+     * @param indexStopStopTimes se true abilita indice stopId -> stop_times
+     * @param pool pool per la costruzione (null o parallelismo 1 = costruzione sequenziale sul thread chiamante)
+     * @throws NullPointerException se {@code data} è null
+     */
+    StaticGtfsRepository(
+            StaticGtfsData data,
+            ServiceCalendar serviceCalendar,
+            boolean indexStopToRoutes,
+            boolean indexTripStopTimes,
+            boolean indexStopStopTimes,
+            ForkJoinPool pool
     ) {
         Objects.requireNonNull(data, "StaticGtfsData null");
+        ForkJoinPool workers = (pool != null && pool.getParallelism() > 1) ? pool : null;
 
         this.allStops = safeList(data.stops);
         this.allRoutes = safeList(data.routes);
         this.allTrips = safeList(data.trips);
-        this.allStopTimes = safeList(data.stopTimes);
+        this.stopTimesOnDisk = data.stopTimesOnDisk;
+        if (data.stopTimesOnDisk != null) {
+            this.stopTimes = StopTimesStore.fromModels(List.of(), false);
+        } else if (data.stopTimesStore != null) {
+            this.stopTimes = data.stopTimesStore;
+        } else {
+            this.stopTimes = StopTimesStore.fromModels(safeList(data.stopTimes), indexStopStopTimes, workers);
+        }
 
         this.indexStopToRoutesEnabled = indexStopToRoutes;
-        this.indexTripStopTimesEnabled = indexTripStopTimes;
-        this.indexStopStopTimesEnabled = indexStopStopTimes;
-
-        this.stopById = this.allStops.stream()
-                .filter(Objects::nonNull)
-                .filter(s -> !safe(s.getId()).isEmpty())
-                .collect(Collectors.toMap(s -> safe(s.getId()), s -> s, (a, b) -> a));
-
-        this.routeById = this.allRoutes.stream()
-                .filter(Objects::nonNull)
-                .filter(r -> !safe(r.getRoute_id()).isEmpty())
-                .collect(Collectors.toMap(r -> safe(r.getRoute_id()), r -> r, (a, b) -> a));
-
-        this.tripById = this.allTrips.stream()
-                .filter(Objects::nonNull)
-                .filter(t -> !safe(t.getTrip_id()).isEmpty())
-                .collect(Collectors.toMap(t -> safe(t.getTrip_id()), t -> t, (a, b) -> a));
-
-        this.tripIdsByRouteDir = buildTripIdsByRouteDir(this.allTrips);
-
-        this.stopTimesByTripId = indexTripStopTimes ? buildStopTimesByTripId(this.allStopTimes) : Map.of();
-        this.stopTimesByStopId = indexStopStopTimes ? buildStopTimesByStopId(this.allStopTimes) : Map.of();
-
-        if (indexStopToRoutes) {
-            // Per stop->routes serve stopTimesByStopId.
-            // Se l'indice stop->stop_times è disattivo lo costruiamo solo per questa fase.
-            Map<String, List<StopTimesModel>> stByStop =
-                    indexStopStopTimes ? this.stopTimesByStopId : buildStopTimesByStopId(this.allStopTimes);
-            this.routeIdsByStopId = buildRouteIdsByStopId(stByStop, this.tripById);
-        } else {
+        this.serviceCalendar = (serviceCalendar != null) ? serviceCalendar : ServiceCalendar.empty();
+
+        List<StopModel> stopList = this.allStops;
+        List<RoutesModel> routeList = this.allRoutes;
+        List<TripsModel> tripList = this.allTrips;
+        ForkJoinTask<StopModel[]> stops = fork(workers,
+                () -> indexById(stopList, StopModel::getId, GtfsIdDictionary.STOPS, StopModel[]::new));
+        ForkJoinTask<RoutesModel[]> routes = fork(workers,
+                () -> indexById(routeList, RoutesModel::getRoute_id, GtfsIdDictionary.ROUTES, RoutesModel[]::new));
+        ForkJoinTask<TripsModel[]> trips = fork(workers,
+                () -> indexById(tripList, TripsModel::getTrip_id, GtfsIdDictionary.TRIPS, TripsModel[]::new));
+        ForkJoinTask<Map<String, Map<Integer, List<String>>>> byRouteDir = fork(workers,
+                () -> buildTripIdsByRouteDir(tripList));
+        ForkJoinTask<RouteDirectionTable> directions = fork(workers,
+                () -> RouteDirectionTable.build(routeList, tripList));
+
+        this.tripById = trips.join();
+        if (!indexStopToRoutes) {
             this.routeIdsByStopId = Map.of();
+        } else if (data.routeIdsByStopId != null) {
+            this.routeIdsByStopId = data.routeIdsByStopId;
+        } else if (this.stopTimesOnDisk != null) {
+            this.routeIdsByStopId = buildRouteIdsByStopId(this.stopTimesOnDisk, this.tripById);
+        } else {
+            this.routeIdsByStopId = buildRouteIdsByStopId(this.stopTimes, this.tripById, workers);
         }
+
+        this.stopById = stops.join();
+        this.routeById = routes.join();
+
+        // route referenziate dai trip (anche se assenti da routes) registrate qui, in ordine:
+        // i task delle strutture derivate non scrivono nei dizionari
+        for (TripsModel t : tripList) {
+            String routeId = (t == null) ? "" : safe(t.getRoute_id());
+            if (!routeId.isEmpty()) {
+                GtfsIdDictionary.ROUTES.intern(routeId);
+            }
+        }
+        StopTimesStore store = this.stopTimes;
+        TripsModel[] tripArr = this.tripById;
+        boolean inMemory = (this.stopTimesOnDisk == null);
+        ForkJoinTask<StopTimetables> timetables = !inMemory ? null : fork(workers,
+                () -> StopTimetables.build(store, t -> lookup(tripArr, t)));
+        ForkJoinTask<TripPatterns> patterns = !inMemory ? null : fork(workers,
+                () -> TripPatterns.build(store, t -> lookup(tripArr, t)));
+        StopTimesDiskStore disk = this.stopTimesOnDisk;
+        ForkJoinTask<RouteStopIncidence> incidence = fork(workers, () -> inMemory
+                ? RouteStopIncidence.build(store, t -> lookup(tripArr, t))
+                : RouteStopIncidence.build(disk, t -> lookup(tripArr, t)));
+
+        this.tripIdsByRouteDir = byRouteDir.join();
+        this.routeDirections = directions.join();
+        this.stopTimetables = (timetables == null) ? null : timetables.join();
+        this.tripPatterns = (patterns == null) ? null : patterns.join();
+        this.routeStopIncidence = incidence.join();
     }
 
     // =========================
@@ -145,7 +243,17 @@ public final class StaticGtfsRepository {
         if (stopId == null) {
             return null;
         }
-        return stopById.get(stopId.trim());
+        return lookup(stopById, GtfsIdDictionary.STOPS.idOf(stopId.trim()));
+    }
+
+    /**
+     * Recupera una fermata tramite id globale ({@link GtfsIdDictionary#STOPS}).
+     *
+     * @param stopIdx id globale della fermata
+     * @return fermata, oppure null se non presente
+     */
+    public StopModel getStopByIndex(int stopIdx) {
+        return lookup(stopById, stopIdx);
     }
 
     /**
@@ -158,7 +266,7 @@ public final class StaticGtfsRepository {
         if (routeId == null) {
             return null;
         }
-        return routeById.get(routeId.trim());
+        return lookup(routeById, GtfsIdDictionary.ROUTES.idOf(routeId.trim()));
     }
 
     /**
@@ -171,7 +279,7 @@ public final class StaticGtfsRepository {
         if (tripId == null) {
             return null;
         }
-        return tripById.get(tripId.trim());
+        return lookup(tripById, GtfsIdDictionary.TRIPS.idOf(tripId.trim()));
     }
 
     /**
@@ -179,7 +287,7 @@ public final class StaticGtfsRepository {
      *
      * Strategia:
      * - fast path: usa l'indice stopId -> routeIds se abilitato
-     * - fallback: calcola al volo tramite join stop_times -> trips -> routes
+     * - fallback: usa la {@link RouteStopIncidence} (join stop_times -> trips -> routes precalcolato)
      *
      * @param stopId id fermata
      * @return lista di routes, vuota se nessuna trovata o input non valido
@@ -199,7 +307,7 @@ public final class StaticGtfsRepository {
 
             ArrayList<RoutesModel> out = new ArrayList<>(routeIds.size());
             for (String rid : routeIds) {
-                RoutesModel r = routeById.get(rid);
+                RoutesModel r = getRouteById(rid);
                 if (r != null) {
                     out.add(r);
                 }
@@ -207,51 +315,16 @@ public final class StaticGtfsRepository {
             return out;
         }
 
-        // Fallback: calcola al volo da stop_times (+ trips)
-        List<StopTimesModel> stForStop = getStopTimesForStop(sid);
-        if (stForStop.isEmpty()) {
-            return List.of();
-        }
-
-        // Trip che passano per lo stop
-        HashSet<String> tripIds = new HashSet<>();
-        for (StopTimesModel st : stForStop) {
-            if (st == null) {
-                continue;
-            }
-            String tid = safe(st.getTrip_id());
-            if (!tid.isEmpty()) {
-                tripIds.add(tid);
+        // Fallback: matrice di incidenza linea <-> fermata (precalcolata al caricamento)
+        int[] routeIdx = getRouteStopIncidence().routesAtStop(GtfsIdDictionary.STOPS.idOf(sid));
+        ArrayList<RoutesModel> out = new ArrayList<>(routeIdx.length);
+        for (int r : routeIdx) {
+            RoutesModel route = lookup(routeById, r);
+            if (route != null) {
+                out.add(route);
             }
         }
-        if (tripIds.isEmpty()) {
-            return List.of();
-        }
-
-        // Route via trips
-        HashSet<String> routeIds = new HashSet<>();
-        for (String tid : tripIds) {
-            TripsModel trip = tripById.get(tid);
-            if (trip == null) {
-                continue;
-            }
-            String rid = safe(trip.getRoute_id());
-            if (!rid.isEmpty()) {
-                routeIds.add(rid);
-            }
-        }
-        if (routeIds.isEmpty()) {
-            return List.of();
-        }
-
-        ArrayList<RoutesModel> out = new ArrayList<>(routeIds.size());
-        for (String rid : routeIds) {
-            RoutesModel r = routeById.get(rid);
-            if (r != null) {
-                out.add(r);
-            }
-        }
-        return out;
+        return out.isEmpty() ? List.of() : out;
     }
 
     /**
@@ -259,6 +332,11 @@ public final class StaticGtfsRepository {
      *
      * Nota:
      * - viene usato tipicamente per ricavare informazioni "di comodo" (es. headsign) senza scegliere un trip specifico.
+     * - preferisce un trip che circola nel giorno di servizio corrente (calendario); se la linea oggi non
+     *   circola restituisce comunque un trip, così la lista fermate resta disponibile.
+     * - tra i trip attivi oggi sceglie il pattern di fermate con più trip attivi (a parità, il più frequente
+     *   nell'intero feed; vedi {@link TripPatterns}), così headsign e lista fermate descrivono il percorso
+     *   tipico del giorno e non una variante limitata.
      *
      * @param routeId route_id GTFS
      * @param directionId direction_id (di solito 0 o 1)
@@ -277,15 +355,76 @@ public final class StaticGtfsRepository {
         if (trips == null || trips.isEmpty()) {
             return null;
         }
+
+        ServiceCalendar.ServiceDay today = serviceCalendar.today();
+        TripPatterns patterns = getTripPatterns();
+        int[] ranked = (patterns == null) ? new int[0] : patterns.patterns(routeId, directionId);
+        if (ranked.length > 0) {
+            // trip attivi oggi contati per pattern (indicizzato per rank: a parità vince il più frequente in assoluto)
+            int[] activeByRank = new int[ranked.length];
+            String[] firstActiveByRank = new String[ranked.length];
+            String firstOfTop = null;
+            for (String tripId : trips) {
+                int pattern = patterns.patternOfTrip(GtfsIdDictionary.TRIPS.idOf(tripId));
+                int rank = patterns.rankOf(pattern);
+                if (rank < 0 || rank >= ranked.length || ranked[rank] != pattern) {
+                    continue;
+                }
+                if (rank == 0 && firstOfTop == null) {
+                    firstOfTop = tripId;
+                }
+                if (today.isTripActive(tripId) && activeByRank[rank]++ == 0) {
+                    firstActiveByRank[rank] = tripId;
+                }
+            }
+            int best = 0;
+            for (int r = 1; r < ranked.length; r++) {
+                if (activeByRank[r] > activeByRank[best]) {
+                    best = r;
+                }
+            }
+            if (activeByRank[best] > 0) {
+                return firstActiveByRank[best];
+            }
+            if (firstOfTop != null) {
+                return firstOfTop;
+            }
+        }
+
+        for (String tripId : trips) {
+            if (today.isTripActive(tripId)) {
+                return tripId;
+            }
+        }
         return trips.get(0);
     }
 
+    /**
+     * Calendario dei servizi del feed.
+     *
+     * @return calendario (mai null: senza calendar.txt/calendar_dates.txt tutti i trip risultano attivi)
+     */
+    public ServiceCalendar getServiceCalendar() {
+        return serviceCalendar;
+    }
+
+    /**
+     * Giorno di servizio con i servizi attivi precalcolati (cache per data nel calendario).
+     *
+     * @param date data del giorno di servizio
+     * @return giorno di servizio (mai null)
+     */
+    public ServiceCalendar.ServiceDay serviceDay(LocalDate date) {
+        return serviceCalendar.serviceDay(date);
+    }
+
     /**
      * Restituisce gli stop_times di un trip ordinati per stop_sequence.
      *
-     * Strategia:
-     * - fast path: usa l'indice tripId -> stop_times se abilitato
-     * - fallback: scansiona {@code allStopTimes} e poi ordina
+     * Nota:
+     * - la lista è una vista read-only sullo {@link StopTimesStore}: le righe sono contigue e già ordinate,
+     *   quindi il lookup costa una get sul dizionario dei trip.
+     * - in modalità low memory le righe del trip vengono lette dal file (o dalla cache LRU dei trip decodificati).
      *
      * @param tripId trip_id GTFS
      * @return lista ordinata di stop_times, vuota se non trovata o input non valido
@@ -294,56 +433,96 @@ public final class StaticGtfsRepository {
         if (tripId == null || tripId.isBlank()) {
             return List.of();
         }
-        String tid = tripId.trim();
-
-        if (indexTripStopTimesEnabled && stopTimesByTripId != null && !stopTimesByTripId.isEmpty()) {
-            return stopTimesByTripId.getOrDefault(tid, List.of());
-        }
-
-        ArrayList<StopTimesModel> out = new ArrayList<>();
-        for (StopTimesModel st : allStopTimes) {
-            if (st == null) {
-                continue;
-            }
-            if (tid.equals(safe(st.getTrip_id()))) {
-                out.add(st);
-            }
+        if (stopTimesOnDisk != null) {
+            return stopTimesOnDisk.viewForTrip(tripId);
         }
-
-        out.sort(Comparator.comparingInt(s -> parseIntSafe(s.getStop_sequence(), 0)));
-        return out;
+        return stopTimes.viewForTrip(tripId);
     }
 
     /**
      * Restituisce gli stop_times associati a una fermata.
      *
      * Strategia:
-     * - fast path: usa l'indice stopId -> stop_times se abilitato
-     * - fallback: scansiona {@code allStopTimes}
+     * - fast path: usa l'indice stop -> righe dello store se abilitato
+     * - fallback: scansiona la colonna stop dello store
+     * - low memory: decodifica i trip della posting list dello stop
      *
      * @param stopId stop_id GTFS
-     * @return lista di stop_times, vuota se non trovata o input non valido
+     * @return lista di stop_times (vista read-only), vuota se non trovata o input non valido
      */
     public List<StopTimesModel> getStopTimesForStop(String stopId) {
         if (stopId == null || stopId.isBlank()) {
             return List.of();
         }
-        String sid = stopId.trim();
-
-        if (indexStopStopTimesEnabled && stopTimesByStopId != null && !stopTimesByStopId.isEmpty()) {
-            return stopTimesByStopId.getOrDefault(sid, List.of());
+        if (stopTimesOnDisk != null) {
+            return stopTimesOnDisk.viewForStop(stopId);
         }
+        return stopTimes.viewForStop(stopId);
+    }
 
-        ArrayList<StopTimesModel> out = new ArrayList<>();
-        for (StopTimesModel st : allStopTimes) {
-            if (st == null) {
-                continue;
-            }
-            if (sid.equals(safe(st.getStop_id()))) {
-                out.add(st);
-            }
-        }
-        return out;
+    /**
+     * Accesso diretto allo store colonnare degli stop_times.
+     *
+     * Uso tipico:
+     * - query "hot" che vogliono leggere orari in secondi e id densi senza materializzare modelli.
+     *
+     * Nota:
+     * - in modalità low memory lo store è vuoto: usare {@link #getStopTimesOnDisk()}.
+     *
+     * @return store immutabile (mai null)
+     */
+    public StopTimesStore getStopTimesStore() {
+        return stopTimes;
+    }
+
+    /**
+     * Orari di passaggio per (fermata, linea, direzione) con ricerca binaria del prossimo passaggio.
+     *
+     * Dettagli:
+     * - costruiti durante il caricamento della repository (thread di load, prima della pubblicazione del feed):
+     *   la prima fermata aperta non paga la costruzione
+     * - non disponibili in modalità low memory: richiederebbero di decodificare tutto il file
+     *
+     * @return orari precalcolati, oppure null se gli stop_times sono su disco
+     */
+    public StopTimetables getStopTimetables() {
+        return stopTimetables;
+    }
+
+    /**
+     * Matrice di incidenza linea <-> fermata (coppie distinte del join stop_times -> trips -> routes).
+     *
+     * Dettagli:
+     * - costruita durante il caricamento della repository, in parallelo agli altri indici;
+     *   disponibile anche in modalità low memory (usa le posting list stop -> trip dello store su disco)
+     *
+     * @return matrice di incidenza (mai null)
+     */
+    public RouteStopIncidence getRouteStopIncidence() {
+        return routeStopIncidence;
+    }
+
+    /**
+     * Pattern di fermate (journey pattern) dei trip: sequenze distinte per (linea, direzione).
+     *
+     * Dettagli:
+     * - costruiti durante il caricamento della repository (una passata sui trip dello store, in parallelo
+     *   agli altri indici): la prima richiesta "fermate della linea" li trova già pronti
+     * - non disponibili in modalità low memory: richiederebbero di decodificare tutto il file
+     *
+     * @return indice dei pattern, oppure null se gli stop_times sono su disco
+     */
+    public TripPatterns getTripPatterns() {
+        return tripPatterns;
+    }
+
+    /**
+     * Accesso agli stop_times lasciati su disco (modalità low memory).
+     *
+     * @return store su disco, oppure null se gli stop_times sono in memoria ({@link #getStopTimesStore()})
+     */
+    public StopTimesDiskStore getStopTimesOnDisk() {
+        return stopTimesOnDisk;
     }
 
     /**
@@ -353,8 +532,7 @@ public final class StaticGtfsRepository {
      * route -> trips -> stop_times -> stop_id
      *
      * Nota:
-     * - questo metodo assume che {@code stopTimesByTripId} sia disponibile (altrimenti ritorna insieme vuoto),
-     *   perché usa direttamente {@code stopTimesByTripId.getOrDefault(...)} senza fallback scan.
+     * - il join è precalcolato nella {@link RouteStopIncidence}: la query è l'unione delle righe delle route.
      *
      * @param routes lista di routes
      * @return insieme di stop_id (senza duplicati)
@@ -364,32 +542,17 @@ public final class StaticGtfsRepository {
             return Set.of();
         }
 
-        Set<String> out = new HashSet<>();
+        List<String> routeIds = new ArrayList<>(routes.size());
         for (RoutesModel r : routes) {
-            if (r == null) {
-                continue;
-            }
-            String routeId = safe(r.getRoute_id());
-            if (routeId.isEmpty()) {
-                continue;
-            }
-
-            Map<Integer, List<String>> byDir = tripIdsByRouteDir.get(routeId);
-            if (byDir == null) {
-                continue;
+            if (r != null && r.getRoute_id() != null) {
+                routeIds.add(r.getRoute_id());
             }
+        }
 
-            for (List<String> tripIds : byDir.values()) {
-                for (String tripId : tripIds) {
-                    List<StopTimesModel> sts = stopTimesByTripId.getOrDefault(tripId, List.of());
-                    for (StopTimesModel st : sts) {
-                        String sid = (st == null) ? "" : safe(st.getStop_id());
-                        if (!sid.isEmpty()) {
-                            out.add(sid);
-                        }
-                    }
-                }
-            }
+        BitSet stops = getRouteStopIncidence().stopsOfRoutes(routeIds);
+        Set<String> out = new HashSet<>(Math.max(16, stops.cardinality() * 2));
+        for (int s = stops.nextSetBit(0); s >= 0; s = stops.nextSetBit(s + 1)) {
+            out.add(GtfsIdDictionary.STOPS.name(s));
         }
         return out;
     }
@@ -468,6 +631,15 @@ public final class StaticGtfsRepository {
         return (trips == null) ? List.of() : trips;
     }
 
+    /**
+     * Tabella route -> direzione -> capolinea calcolata al caricamento.
+     *
+     * @return tabella delle direzioni (mai null)
+     */
+    public RouteDirectionTable getRouteDirections() {
+        return routeDirections;
+    }
+
     /**
      * Restituisce un headsign "di comodo" per route+direzione.
      *
@@ -497,6 +669,69 @@ public final class StaticGtfsRepository {
         return safe(t.getTrip_headsign());
     }
 
+    // =========================
+    // Accesso per snapshot e reload (package-private)
+    // =========================
+
+    List<StopModel> allStops() {
+        return allStops;
+    }
+
+    List<RoutesModel> allRoutes() {
+        return allRoutes;
+    }
+
+    List<TripsModel> allTrips() {
+        return allTrips;
+    }
+
+    /** @return indice stopId -> routeIds (vuoto se disattivo) */
+    Map<String, Set<String>> routeIdsByStopIdIndex() {
+        return routeIdsByStopId;
+    }
+
+    /**
+     * Marca gli id globali usati da questa versione: modelli, righe degli stop_times e route dei trip.
+     * Usato per scrivere nello snapshot solo gli id necessari e per compattare i dizionari al reload.
+     *
+     * @param trips interi usati di {@link GtfsIdDictionary#TRIPS} (output)
+     * @param stops interi usati di {@link GtfsIdDictionary#STOPS} (output)
+     * @param routes interi usati di {@link GtfsIdDictionary#ROUTES} (output)
+     */
+    void markIds(BitSet trips, BitSet stops, BitSet routes) {
+        markPresent(stopById, stops);
+        markPresent(routeById, routes);
+        markPresent(tripById, trips);
+
+        int tripLimit = (stopTimesOnDisk != null) ? stopTimesOnDisk.tripIdLimit() : stopTimes.tripIdLimit();
+        for (int t = 0; t < tripLimit; t++) {
+            if ((stopTimesOnDisk != null) ? stopTimesOnDisk.hasTrip(t) : stopTimes.hasTrip(t)) {
+                trips.set(t);
+            }
+        }
+        int stopLimit = (stopTimesOnDisk != null) ? stopTimesOnDisk.stopIdLimit() : stopTimes.stopIdLimit();
+        for (int s = 0; s < stopLimit; s++) {
+            if ((stopTimesOnDisk != null) ? stopTimesOnDisk.hasStop(s) : stopTimes.hasStop(s)) {
+                stops.set(s);
+            }
+        }
+
+        for (TripsModel t : allTrips) {
+            int r = (t == null) ? GtfsIdDictionary.NO_ID : GtfsIdDictionary.ROUTES.idOf(safe(t.getRoute_id()));
+            if (r != GtfsIdDictionary.NO_ID) {
+                routes.set(r);
+            }
+        }
+    }
+
+    private static void markPresent(Object[] byId, BitSet out) {
+        for (int i = 0; i < byId.length; i++) {
+            if (byId[i] != null) {
+                out.set(i);
+            }
+        }
+    }
+
     // =========================
     // Builders interni (indici)
     // =========================
@@ -530,89 +765,123 @@ public final class StaticGtfsRepository {
     }
 
     /**
-     * Costruisce l'indice tripId -> stop_times ordinati per stop_sequence.
+     * Costruisce l'indice stopId -> routeIds facendo il join:
+     * stop_times(stop, trip) + trips(trip_id -> route_id).
+     *
+     * Dettagli:
+     * - risolve la route una sola volta per trip (array indicizzato per id globale del trip)
+     * - scorre le colonne dello store senza materializzare modelli
      *
-     * @param stopTimes lista stop_times
-     * @return indice (mai null)
+     * @param stopTimes store colonnare degli stop_times
+     * @param tripById lookup id globale -> TripsModel
+     * @return mappa stopId -> insieme routeId (mai null)
      */
-    private static Map<String, List<StopTimesModel>> buildStopTimesByTripId(List<StopTimesModel> stopTimes) {
-        Map<String, List<StopTimesModel>> out = new HashMap<>();
-        for (StopTimesModel st : stopTimes) {
-            if (st == null) {
-                continue;
-            }
-            String tripId = safe(st.getTrip_id());
-            if (tripId.isEmpty()) {
-                continue;
+    private static Map<String, Set<String>> buildRouteIdsByStopId(
+            StopTimesStore stopTimes,
+            TripsModel[] tripById,
+            ForkJoinPool pool
+    ) {
+        String[] routeOfTrip = new String[stopTimes.tripIdLimit()];
+        for (int t = 0; t < routeOfTrip.length; t++) {
+            TripsModel trip = lookup(tripById, t);
+            String routeId = (trip == null) ? "" : safe(trip.getRoute_id());
+            routeOfTrip[t] = routeId.isEmpty() ? null : routeId;
+        }
+
+        int n = stopTimes.size();
+        int parts = (pool == null || n < MIN_PARALLEL_ROWS) ? 1 : pool.getParallelism();
+        if (parts == 1) {
+            return groupRoutesByStop(stopTimes, routeOfTrip, 0, n);
+        }
+
+        // raggruppamento per partizioni di righe, merge finale nella prima mappa
+        List<ForkJoinTask<Map<String, Set<String>>>> tasks = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            int from = (int) ((long) n * i / parts);
+            int to = (int) ((long) n * (i + 1) / parts);
+            tasks.add(pool.submit(() -> groupRoutesByStop(stopTimes, routeOfTrip, from, to)));
+        }
+        Map<String, Set<String>> out = tasks.get(0).join();
+        for (int i = 1; i < parts; i++) {
+            for (Map.Entry<String, Set<String>> e : tasks.get(i).join().entrySet()) {
+                Set<String> routes = out.putIfAbsent(e.getKey(), e.getValue());
+                if (routes != null) {
+                    routes.addAll(e.getValue());
+                }
             }
-            out.computeIfAbsent(tripId, k -> new ArrayList<>()).add(st);
-        }
-
-        for (List<StopTimesModel> list : out.values()) {
-            list.sort(Comparator.comparingInt(s -> parseIntSafe(s.getStop_sequence(), 0)));
         }
         return out;
     }
 
-    /**
-     * Costruisce l'indice stopId -> stop_times.
-     *
-     * @param stopTimes lista stop_times
-     * @return indice (mai null)
-     */
-    private static Map<String, List<StopTimesModel>> buildStopTimesByStopId(List<StopTimesModel> stopTimes) {
-        Map<String, List<StopTimesModel>> out = new HashMap<>();
-        for (StopTimesModel st : stopTimes) {
-            if (st == null) {
-                continue;
-            }
-            String stopId = safe(st.getStop_id());
-            if (stopId.isEmpty()) {
+    private static Map<String, Set<String>> groupRoutesByStop(StopTimesStore stopTimes, String[] routeOfTrip,
+                                                              int fromRow, int toRow) {
+        Map<String, Set<String>> out = new HashMap<>();
+        for (int row = fromRow; row < toRow; row++) {
+            String routeId = routeOfTrip[stopTimes.tripRef(row)];
+            if (routeId == null) {
                 continue;
             }
-            out.computeIfAbsent(stopId, k -> new ArrayList<>()).add(st);
+            out.computeIfAbsent(stopTimes.stopId(stopTimes.stopRef(row)), k -> new HashSet<>()).add(routeId);
         }
         return out;
     }
 
     /**
-     * Costruisce l'indice stopId -> routeIds facendo il join:
-     * stop_times(stop_id, trip_id) + trips(trip_id -> route_id).
+     * Variante low memory di {@link #buildRouteIdsByStopId(StopTimesStore, TripsModel[], ForkJoinPool)}:
+     * usa le posting list stop -> trip dello store su disco (nessuna riga decodificata).
      *
-     * @param stopTimesByStopId indice stopId -> stop_times
-     * @param tripById lookup tripId -> TripsModel
+     * @param disk stop_times su disco
+     * @param tripById lookup id globale -> TripsModel
      * @return mappa stopId -> insieme routeId (mai null)
      */
     private static Map<String, Set<String>> buildRouteIdsByStopId(
-            Map<String, List<StopTimesModel>> stopTimesByStopId,
-            Map<String, TripsModel> tripById
+            StopTimesDiskStore disk,
+            TripsModel[] tripById
     ) {
         Map<String, Set<String>> out = new HashMap<>();
-
-        for (Map.Entry<String, List<StopTimesModel>> e : stopTimesByStopId.entrySet()) {
-            String stopId = e.getKey();
-            Set<String> routeIds = new HashSet<>();
-
-            for (StopTimesModel st : e.getValue()) {
-                if (st == null) {
-                    continue;
-                }
-                TripsModel trip = tripById.get(safe(st.getTrip_id()));
-                if (trip == null) {
-                    continue;
-                }
-
-                String routeId = safe(trip.getRoute_id());
+        for (int s = 0; s < disk.stopIdLimit(); s++) {
+            int[] trips = disk.tripsForStop(s);
+            for (int t : trips) {
+                TripsModel trip = lookup(tripById, t);
+                String routeId = (trip == null) ? "" : safe(trip.getRoute_id());
                 if (!routeId.isEmpty()) {
-                    routeIds.add(routeId);
+                    out.computeIfAbsent(GtfsIdDictionary.STOPS.name(s), k -> new HashSet<>()).add(routeId);
                 }
             }
+        }
+        return out;
+    }
 
-            if (!routeIds.isEmpty()) {
-                out.put(stopId, routeIds);
+    /**
+     * Costruisce un lookup "id globale -> model" come array denso.
+     *
+     * Dettagli:
+     * - registra ogni id nel dizionario (se non già presente) e dimensiona l'array sull'id massimo
+     * - in caso di id duplicati vince la prima occorrenza (come il vecchio {@code toMap(..., (a, b) -> a)})
+     *
+     * @param items lista di modelli
+     * @param idOf estrattore dell'id GTFS
+     * @param dict dizionario globale del tipo di id
+     * @param newArray costruttore dell'array
+     * @param <T> tipo modello
+     * @return array indicizzato per id globale (posizioni senza modello a null)
+     */
+    private static <T> T[] indexById(List<T> items, Function<T, String> idOf,
+                                     GtfsIdDictionary dict, IntFunction<T[]> newArray) {
+        int[] ids = new int[items.size()];
+        int max = -1;
+        for (int i = 0; i < ids.length; i++) {
+            T item = items.get(i);
+            ids[i] = (item == null) ? GtfsIdDictionary.NO_ID : dict.intern(safe(idOf.apply(item)));
+            max = Math.max(max, ids[i]);
+        }
+
+        T[] out = newArray.apply(max + 1);
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != GtfsIdDictionary.NO_ID && out[ids[i]] == null) {
+                out[ids[i]] = items.get(i);
             }
         }
-
         return out;
     }
 
@@ -620,6 +889,18 @@ public final class StaticGtfsRepository {
     // Utility interne
     // =========================
 
+    /**
+     * Lookup "sicuro" in un array indicizzato per id globale.
+     *
+     * @param byId array indicizzato per id
+     * @param id id globale ({@link GtfsIdDictionary#NO_ID} se sconosciuto)
+     * @param <T> tipo modello
+     * @return modello, oppure null se assente o fuori range
+     */
+    private static <T> T lookup(T[] byId, int id) {
+        return (id >= 0 && id < byId.length) ? byId[id] : null;
+    }
+
     /**
      * Trim "sicuro": evita null.
      *
@@ -630,6 +911,20 @@ public final class StaticGtfsRepository {
         return (s == null) ? "" : s.trim();
     }
 
+    /**
+     * Avvia {@code task} su {@code pool}, oppure lo esegue subito sul thread chiamante se {@code pool} è null.
+     *
+     * @return task da cui leggere il risultato con {@code join()}
+     */
+    private static <T> ForkJoinTask<T> fork(ForkJoinPool pool, Callable<T> task) {
+        if (pool != null) {
+            return pool.submit(task);
+        }
+        ForkJoinTask<T> inline = ForkJoinTask.adapt(task);
+        inline.invoke();
+        return inline;
+    }
+
     /**
      * Parsing intero "sicuro".
      *
@@ -1,17 +1,26 @@
 package Service.Parsing.Static;
 
+import Model.Parsing.Static.CalendarDateModel;
+import Model.Parsing.Static.CalendarModel;
 import Model.Parsing.Static.RoutesModel;
 import Model.Parsing.Static.StopTimesModel;
 import Model.Parsing.Static.TripsModel;
 import Model.Points.StopModel;
 
+import Service.Parsing.Csv.GtfsArchive;
+import Service.Parsing.CalendarService;
 import Service.Parsing.RoutesService;
 import Service.Parsing.StopTimesService;
 import Service.Parsing.TripsService;
 import Service.Points.StopService;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Builder per creare una {@link StaticGtfsRepository}.
@@ -19,7 +28,8 @@ import java.util.Objects;
  * Responsabilità:
  * - costruire la repository partendo da:
  *   1) path dei file CSV GTFS (caricamento tramite i Service di parsing)
- *   2) liste già pronte (utile in test o in pre-caricamento)
+ *   2) un archivio zip del feed ({@link GtfsArchive}), letto senza estrazione su disco
+ *   3) liste già pronte (utile in test o in pre-caricamento)
  * - configurare quali indici opzionali attivare/disattivare (feature flags)
  *
  * Contesto:
@@ -28,6 +38,12 @@ import java.util.Objects;
  * Note di progetto:
  * - se una lista è stata impostata via {@code withX(...)} viene usata direttamente e il relativo path è ignorato.
  * - se una lista NON è stata impostata, allora è obbligatorio fornire il path corrispondente.
+ * - i file vengono sempre riletti (non passano dalle cache dei Service): una build può quindi
+ *   preparare una nuova versione del feed mentre la precedente è ancora in uso (hot-reload).
+ * - calendar.txt / calendar_dates.txt sono opzionali: se non impostati vengono cercati accanto a trips.
+ *   Sono piccoli e vengono sempre letti (anche quando i dati arrivano dallo snapshot).
+ * - con {@link #lowMemoryStopTimes(boolean)} gli stop_times restano su disco ({@link StopTimesDiskStore}):
+ *   lo snapshot binario in quel caso non viene né letto né scritto (conterrebbe lo store completo).
  */
 public final class StaticGtfsRepositoryBuilder {
 
@@ -39,6 +55,8 @@ public final class StaticGtfsRepositoryBuilder {
     private String routesCsvPath;
     private String tripsCsvPath;
     private String stopTimesCsvPath;
+    private String calendarPath;
+    private String calendarDatesPath;
 
     // =========================
     // Input (liste)
@@ -48,6 +66,8 @@ public final class StaticGtfsRepositoryBuilder {
     private List<RoutesModel> routes;
     private List<TripsModel> trips;
     private List<StopTimesModel> stopTimes;
+    private List<CalendarModel> calendars;
+    private List<CalendarDateModel> calendarDates;
 
     // =========================
     // Feature flags (indici)
@@ -57,6 +77,25 @@ public final class StaticGtfsRepositoryBuilder {
     private boolean indexTripStopTimes = true;
     private boolean indexStopStopTimes = true;
 
+    /** Caricamento concorrente dei file (default attivo). */
+    private boolean parallelLoading = true;
+
+    /** Pool per caricamento e costruzione degli indici (null = pool comune). */
+    private ForkJoinPool pool;
+
+    /** Stop_times su disco con indice per trip invece che nello store in heap (default disattivo). */
+    private boolean lowMemoryStopTimes = false;
+
+    /** Trip decodificati tenuti in cache in modalità low memory. */
+    private int lowMemoryCachedTrips = StopTimesDiskStore.DEFAULT_CACHED_TRIPS;
+
+    // =========================
+    // Snapshot binario
+    // =========================
+
+    /** Cartella degli snapshot (null = snapshot disattivato). */
+    private Path snapshotDir;
+
     /**
      * Crea un builder vuoto.
      * Impostare almeno path oppure liste prima di chiamare {@link #build()}.
@@ -110,6 +149,54 @@ public final class StaticGtfsRepositoryBuilder {
         return this;
     }
 
+    /**
+     * Imposta il path del file calendar (calendar.txt), opzionale.
+     * Se non impostato viene cercato nella stessa cartella (o nello stesso archivio) di trips.
+     *
+     * @param path path al file calendar
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder withCalendarPath(String path) {
+        this.calendarPath = path;
+        return this;
+    }
+
+    /**
+     * Imposta il path del file calendar_dates (calendar_dates.txt), opzionale.
+     * Se non impostato viene cercato nella stessa cartella (o nello stesso archivio) di trips.
+     *
+     * @param path path al file calendar_dates
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder withCalendarDatesPath(String path) {
+        this.calendarDatesPath = path;
+        return this;
+    }
+
+    // ====== input da ARCHIVIO zip ======
+
+    /**
+     * Usa come sorgente un feed GTFS zip: l'archivio viene montato e i path di stops, routes, trips
+     * e stop_times puntano ai file al suo interno (nessuna estrazione su disco).
+     *
+     * Note:
+     * - con lo snapshot attivo la chiave è quella dell'archivio ({@link GtfsArchive#key()}):
+     *   sostituire lo zip invalida lo snapshot. Lo stesso vale per path logici impostati con {@code withXPath}.
+     *
+     * @param archive archivio del feed
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder withGtfsArchive(GtfsArchive archive) {
+        archive.mount();
+        this.stopsCsvPath = archive.path("stops");
+        this.routesCsvPath = archive.path("routes");
+        this.tripsCsvPath = archive.path("trips");
+        this.stopTimesCsvPath = archive.path("stop_times");
+        this.calendarPath = archive.path("calendar");
+        this.calendarDatesPath = archive.path("calendar_dates");
+        return this;
+    }
+
     // ====== input da LISTE (test / preload) ======
 
     /**
@@ -156,6 +243,28 @@ public final class StaticGtfsRepositoryBuilder {
         return this;
     }
 
+    /**
+     * Fornisce direttamente le righe di calendar (in alternativa al path).
+     *
+     * @param calendars lista calendar già caricata
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder withCalendars(List<CalendarModel> calendars) {
+        this.calendars = calendars;
+        return this;
+    }
+
+    /**
+     * Fornisce direttamente le righe di calendar_dates (in alternativa al path).
+     *
+     * @param calendarDates lista calendar_dates già caricata
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder withCalendarDates(List<CalendarDateModel> calendarDates) {
+        this.calendarDates = calendarDates;
+        return this;
+    }
+
     // ====== feature flags ======
 
     /**
@@ -192,6 +301,76 @@ public final class StaticGtfsRepositoryBuilder {
         return this;
     }
 
+    /**
+     * Attiva/disattiva il caricamento concorrente dei file (e il parsing a chunk di stop_times).
+     * Disattivarlo è utile solo per confronti/diagnostica: il risultato è identico.
+     *
+     * @param enabled true per attivare
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder parallelLoading(boolean enabled) {
+        this.parallelLoading = enabled;
+        return this;
+    }
+
+    /**
+     * Imposta il pool usato per il caricamento concorrente e per la costruzione parallela degli indici
+     * (default: {@link ForkJoinPool#commonPool()}). Ignorato se {@link #parallelLoading(boolean)} è disattivo.
+     *
+     * @param pool pool dedicato (null = pool comune)
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder withPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Attiva/disattiva la modalità low memory per gli stop_times.
+     *
+     * Comportamento:
+     * - stop_times.txt viene mappato in memoria e scansionato una volta per costruire l'indice
+     *   tripId -> (offset, lunghezza) e le posting list stopId -> trip
+     * - le righe vengono decodificate solo quando richieste ({@code getStopTimesForTrip} / {@code getStopTimesForStop})
+     *   e i trip decodificati restano in una cache LRU limitata ({@link #lowMemoryTripCache(int)})
+     * - vale solo se gli stop_times arrivano da un path su file system: con liste fornite o path di un archivio zip
+     *   si ripiega sullo store in heap
+     *
+     * @param enabled true per attivare
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder lowMemoryStopTimes(boolean enabled) {
+        this.lowMemoryStopTimes = enabled;
+        return this;
+    }
+
+    /**
+     * Imposta quanti trip decodificati tenere in cache in modalità low memory.
+     *
+     * @param maxTrips numero massimo di trip in cache (minimo 1)
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder lowMemoryTripCache(int maxTrips) {
+        this.lowMemoryCachedTrips = Math.max(1, maxTrips);
+        return this;
+    }
+
+    /**
+     * Attiva lo snapshot binario del GTFS static nella cartella indicata.
+     *
+     * Comportamento:
+     * - vale solo se tutti i dati arrivano da path (nessuna lista fornita via {@code withX(...)})
+     * - se esiste uno snapshot con la stessa chiave di contenuto dei CSV viene caricato al posto del parsing
+     * - altrimenti si parsano i CSV e lo snapshot viene (ri)scritto in background
+     *
+     * @param dir cartella snapshot (es. {@link StaticGtfsSnapshot#defaultDirectory()}), null per disattivare
+     * @return builder (fluent API)
+     */
+    public StaticGtfsRepositoryBuilder withSnapshotDir(Path dir) {
+        this.snapshotDir = dir;
+        return this;
+    }
+
     // ====== build ======
 
     /**
@@ -201,27 +380,155 @@ public final class StaticGtfsRepositoryBuilder {
      * @throws NullPointerException se manca un path necessario e la lista corrispondente non è stata fornita
      */
     public StaticGtfsRepository build() {
-        StaticGtfsData data = loadIfNeeded();
+        String snapshotKey = snapshotKeyOrNull();
+        Path snapshotFile = (snapshotKey == null) ? null : StaticGtfsSnapshot.snapshotFile(snapshotDir, snapshotKey);
+
+        if (snapshotFile != null) {
+            StaticGtfsData cached = StaticGtfsSnapshot.read(snapshotFile, snapshotKey, indexStopStopTimes);
+            if (cached != null) {
+                return newRepository(cached);
+            }
+        }
+
+        StaticGtfsRepository repo = newRepository(loadIfNeeded());
+
+        if (snapshotFile != null) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    StaticGtfsSnapshot.write(snapshotFile, snapshotKey, repo);
+                } catch (IOException e) {
+                    System.err.println("[StaticGtfsRepositoryBuilder] scrittura snapshot fallita: " + e.getMessage());
+                }
+            });
+        }
+        return repo;
+    }
+
+    private StaticGtfsRepository newRepository(StaticGtfsData data) {
         return new StaticGtfsRepository(
                 data,
+                ServiceCalendar.build(loadCalendars(), loadCalendarDates(), data.trips),
                 indexStopToRoutes,
                 indexTripStopTimes,
-                indexStopStopTimes
+                indexStopStopTimes,
+                workerPool()
         );
     }
 
+    /** @return pool per i task paralleli, oppure null se il caricamento parallelo è disattivo */
+    private ForkJoinPool workerPool() {
+        if (!parallelLoading) {
+            return null;
+        }
+        return (pool != null) ? pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Calcola la chiave snapshot se lo snapshot è applicabile (cartella impostata e tutti i dati da path).
+     *
+     * @return chiave di contenuto dei CSV, oppure null se lo snapshot non si applica o i file non sono leggibili
+     */
+    private String snapshotKeyOrNull() {
+        if (lowMemoryStopTimes) {
+            return null;
+        }
+        if (snapshotDir == null || stops != null || routes != null || trips != null || stopTimes != null) {
+            return null;
+        }
+        if (stopsCsvPath == null || routesCsvPath == null || tripsCsvPath == null || stopTimesCsvPath == null) {
+            return null;
+        }
+        String archiveKey = GtfsArchive.keyOf(stopsCsvPath);
+        if (archiveKey != null) {
+            // feed zip: la chiave dell'archivio è già nel path logico (vale se tutti i file vengono dallo stesso zip)
+            boolean sameArchive = archiveKey.equals(GtfsArchive.keyOf(routesCsvPath))
+                    && archiveKey.equals(GtfsArchive.keyOf(tripsCsvPath))
+                    && archiveKey.equals(GtfsArchive.keyOf(stopTimesCsvPath));
+            return sameArchive ? archiveKey : null;
+        }
+        try {
+            return StaticGtfsSnapshot.sourceKey(List.of(
+                    Path.of(stopsCsvPath),
+                    Path.of(routesCsvPath),
+                    Path.of(tripsCsvPath),
+                    Path.of(stopTimesCsvPath)
+            ));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[StaticGtfsRepositoryBuilder] chiave snapshot non calcolabile: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Carica i dati solo se non sono stati forniti tramite liste.
      *
+     * Strategia:
+     * - stops, routes e trips vengono caricati in parallelo sul pool di lavoro
+     *   (il pool comune, salvo {@link #withPool(ForkJoinPool)})
+     * - stop_times (il file più grande) viene caricato dal thread chiamante, che a sua volta
+     *   lo divide in chunk parsati in parallelo sullo stesso pool
+     *
+     * Nota:
+     * - se gli stop_times arrivano dal path, il parser li riversa direttamente nello store colonnare
+     *   (senza creare la lista intermedia di {@link StopTimesModel}).
+     *
      * @return contenitore con tutte le liste GTFS static
      */
     private StaticGtfsData loadIfNeeded() {
-        List<StopModel> s = (stops != null) ? stops : loadStopsFromPath();
-        List<RoutesModel> r = (routes != null) ? routes : loadRoutesFromPath();
-        List<TripsModel> t = (trips != null) ? trips : loadTripsFromPath();
-        List<StopTimesModel> st = (stopTimes != null) ? stopTimes : loadStopTimesFromPath();
+        if (!parallelLoading) {
+            List<StopModel> s = (stops != null) ? stops : loadStopsFromPath();
+            List<RoutesModel> r = (routes != null) ? routes : loadRoutesFromPath();
+            List<TripsModel> t = (trips != null) ? trips : loadTripsFromPath();
+            if (stopTimes != null) {
+                return new StaticGtfsData(s, r, t, stopTimes);
+            }
+            StopTimesDiskStore disk = openStopTimesOnDiskOrNull();
+            if (disk != null) {
+                return new StaticGtfsData(s, r, t, disk);
+            }
+            return new StaticGtfsData(s, r, t, null, loadStopTimesStoreFromPath(null));
+        }
+
+        ForkJoinPool pool = workerPool();
+        CompletableFuture<List<StopModel>> s = (stops != null)
+                ? CompletableFuture.completedFuture(stops)
+                : CompletableFuture.supplyAsync(this::loadStopsFromPath, pool);
+        CompletableFuture<List<RoutesModel>> r = (routes != null)
+                ? CompletableFuture.completedFuture(routes)
+                : CompletableFuture.supplyAsync(this::loadRoutesFromPath, pool);
+        CompletableFuture<List<TripsModel>> t = (trips != null)
+                ? CompletableFuture.completedFuture(trips)
+                : CompletableFuture.supplyAsync(this::loadTripsFromPath, pool);
+
+        StopTimesDiskStore disk = (stopTimes != null) ? null : openStopTimesOnDiskOrNull();
+        if (disk != null) {
+            return new StaticGtfsData(join(s), join(r), join(t), disk);
+        }
+
+        StopTimesStore st = (stopTimes != null) ? null : loadStopTimesStoreFromPath(pool);
+
+        return new StaticGtfsData(join(s), join(r), join(t), stopTimes, st);
+    }
 
-        return new StaticGtfsData(s, r, t, st);
+    /**
+     * Attende un caricamento asincrono propagando l'eccezione originale (es. path mancante).
+     *
+     * @param future caricamento in corso
+     * @param <T> tipo del risultato
+     * @return risultato del caricamento
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            if (e.getCause() instanceof Error err) {
+                throw err;
+            }
+            throw e;
+        }
     }
 
     /**
@@ -232,7 +539,7 @@ public final class StaticGtfsRepositoryBuilder {
      */
     private List<StopModel> loadStopsFromPath() {
         Objects.requireNonNull(stopsCsvPath, "stopsCsvPath mancante (withStopsPath)");
-        return StopService.getAllStops(stopsCsvPath);
+        return StopService.readFromCSV(stopsCsvPath);
     }
 
     /**
@@ -243,7 +550,7 @@ public final class StaticGtfsRepositoryBuilder {
      */
     private List<RoutesModel> loadRoutesFromPath() {
         Objects.requireNonNull(routesCsvPath, "routesCsvPath mancante (withRoutesPath)");
-        return RoutesService.getAllRoutes(routesCsvPath);
+        return RoutesService.readFromCSV(routesCsvPath);
     }
 
     /**
@@ -254,17 +561,68 @@ public final class StaticGtfsRepositoryBuilder {
      */
     private List<TripsModel> loadTripsFromPath() {
         Objects.requireNonNull(tripsCsvPath, "tripsCsvPath mancante (withTripsPath)");
-        return TripsService.getAllTrips(tripsCsvPath);
+        return TripsService.readFromCSV(tripsCsvPath);
+    }
+
+    /**
+     * Righe di calendar: lista fornita, altrimenti file configurato o accanto a trips (se presente).
+     *
+     * @return righe calendar (vuota se il file non esiste)
+     */
+    private List<CalendarModel> loadCalendars() {
+        if (calendars != null) {
+            return calendars;
+        }
+        String path = (calendarPath != null) ? calendarPath : GtfsArchive.sibling(tripsCsvPath, "calendar");
+        return (path == null) ? List.of() : CalendarService.readCalendarFromCSV(path);
+    }
+
+    /**
+     * Righe di calendar_dates: lista fornita, altrimenti file configurato o accanto a trips (se presente).
+     *
+     * @return righe calendar_dates (vuota se il file non esiste)
+     */
+    private List<CalendarDateModel> loadCalendarDates() {
+        if (calendarDates != null) {
+            return calendarDates;
+        }
+        String path = (calendarDatesPath != null) ? calendarDatesPath : GtfsArchive.sibling(tripsCsvPath, "calendar_dates");
+        return (path == null) ? List.of() : CalendarService.readCalendarDatesFromCSV(path);
+    }
+
+    /**
+     * Apre gli stop_times su disco se la modalità low memory è attiva e applicabile.
+     *
+     * @return store su disco, oppure null se la modalità è disattiva, il path è in un archivio
+     *         o l'apertura fallisce (in quei casi si usa lo store in heap)
+     * @throws NullPointerException se la modalità è attiva e {@code stopTimesCsvPath} non è stato impostato
+     */
+    private StopTimesDiskStore openStopTimesOnDiskOrNull() {
+        if (!lowMemoryStopTimes) {
+            return null;
+        }
+        Objects.requireNonNull(stopTimesCsvPath, "stopTimesCsvPath mancante (withStopTimesPath)");
+        try {
+            StopTimesDiskStore disk = StopTimesDiskStore.open(stopTimesCsvPath, lowMemoryCachedTrips);
+            if (disk == null) {
+                System.err.println("[StaticGtfsRepositoryBuilder] low memory non applicabile a un archivio: stop_times in heap");
+            }
+            return disk;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[StaticGtfsRepositoryBuilder] stop_times su disco non disponibili: " + e.getMessage());
+            return null;
+        }
     }
 
     /**
-     * Carica gli stop_times dal path configurato.
+     * Carica gli stop_times dal path configurato, direttamente in formato colonnare.
      *
-     * @return lista di stop_times
+     * @param pool pool su cui parsare i chunk del file (null = sequenziale)
+     * @return store stop_times
      * @throws NullPointerException se {@code stopTimesCsvPath} non è stato impostato
      */
-    private List<StopTimesModel> loadStopTimesFromPath() {
+    private StopTimesStore loadStopTimesStoreFromPath(ForkJoinPool pool) {
         Objects.requireNonNull(stopTimesCsvPath, "stopTimesCsvPath mancante (withStopTimesPath)");
-        return StopTimesService.getAllStopTimes(stopTimesCsvPath);
+        return StopTimesService.readStore(stopTimesCsvPath, indexStopStopTimes, pool);
     }
 }
\ No newline at end of file
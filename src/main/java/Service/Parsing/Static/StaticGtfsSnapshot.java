@@ -0,0 +1,623 @@
+package Service.Parsing.Static;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Snapshot binario (versionato) del GTFS static già parsato e indicizzato.
+ *
+ * Responsabilità:
+ * - calcolare una chiave di contenuto dei file sorgente (CRC32C + dimensione)
+ * - scrivere stops, routes, trips, lo {@link StopTimesStore} (con i suoi indici) e l'indice stop -> routes
+ *   in un unico file sotto {@code ~/.damose/gtfs-snapshot}
+ * - rileggere il file tramite memory-mapping, restituendo uno {@link StaticGtfsData} pronto per la repository
+ *
+ * Contesto:
+ * - usato da {@link StaticGtfsRepositoryBuilder#withSnapshotDir(Path)}: al primo avvio si parsano i CSV e si
+ *   scrive lo snapshot; agli avvii successivi, se la chiave coincide, il parsing viene saltato.
+ *
+ * Note di progetto:
+ * - formato: header (magic, versione, chiave, flag, offset tabella stringhe) + corpo + tabella stringhe.
+ * - tutte le stringhe sono deduplicate in una tabella unica e referenziate da int (-1 = null):
+ *   in lettura le istanze String sono condivise tra modelli e dizionari dello store.
+ * - il corpo si apre con gli id (trip, stop, route) usati dalla repository, rinumerati in modo denso
+ *   nell'ordine del {@link GtfsIdDictionary}: gli id di versioni precedenti non finiscono nello snapshot e,
+ *   letti per primi su un dizionario vuoto, riproducono gli interi salvati (colonne dello store senza rimappare).
+ * - la scrittura avviene su file temporaneo + move atomico: uno snapshot troncato non viene mai letto.
+ * - qualunque incoerenza (versione, chiave, file corrotto) produce null e quindi il fallback sul CSV.
+ */
+public final class StaticGtfsSnapshot {
+
+    /** Versione del formato: va incrementata a ogni modifica del layout. */
+    public static final int FORMAT_VERSION = 2;
+
+    private static final byte[] MAGIC = "DAMOSEGT".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String FILE_PREFIX = "static-";
+    private static final String FILE_SUFFIX = ".snap";
+
+    private static final int FLAG_STOP_INDEX = 1;
+    private static final int FLAG_STOP_ROUTES = 2;
+
+    /**
+     * Classe di soli metodi statici: costruttore privato.
+     */
+    private StaticGtfsSnapshot() {
+    }
+
+    // =========================
+    // Chiave / percorsi
+    // =========================
+
+    /**
+     * @return cartella di default degli snapshot ({@code ~/.damose/gtfs-snapshot})
+     */
+    public static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".damose", "gtfs-snapshot");
+    }
+
+    /**
+     * Calcola la chiave di contenuto dei file sorgente.
+     *
+     * Dettagli:
+     * - CRC32C sull'intero contenuto (file mappati, in ordine) + dimensione totale
+     * - basta modificare un byte di un file per cambiare chiave
+     *
+     * @param sources file sorgente (ordine significativo)
+     * @return chiave esadecimale
+     * @throws IOException se un file non è leggibile
+     */
+    public static String sourceKey(List<Path> sources) throws IOException {
+        CRC32C crc = new CRC32C();
+        long total = 0;
+        for (Path p : sources) {
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                long size = ch.size();
+                long pos = 0;
+                while (pos < size) {
+                    long len = Math.min(Integer.MAX_VALUE, size - pos);
+                    crc.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, len));
+                    pos += len;
+                }
+                total += size;
+                crc.update(longBytes(size));
+            }
+        }
+        return String.format("%08x%012x", crc.getValue(), total & 0xFFFFFFFFFFFFL);
+    }
+
+    /**
+     * @param dir cartella snapshot
+     * @param key chiave di contenuto
+     * @return path del file snapshot per quella chiave
+     */
+    public static Path snapshotFile(Path dir, String key) {
+        return dir.resolve(FILE_PREFIX + key + FILE_SUFFIX);
+    }
+
+    // =========================
+    // Lettura
+    // =========================
+
+    /**
+     * Legge uno snapshot se esiste ed è coerente con la chiave e con gli indici richiesti.
+     *
+     * @param file file snapshot
+     * @param key chiave di contenuto attesa
+     * @param needStopIndex true se serve l'indice stop -> righe dello store
+     * @return dati pronti per la repository, oppure null (snapshot assente, vecchio o non valido)
+     */
+    public static StaticGtfsData read(Path file, String key, boolean needStopIndex) {
+        if (file == null || key == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            Input in = new Input(ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+
+            byte[] magic = new byte[MAGIC.length];
+            in.buf.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.buf.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            if (!key.equals(in.rawString())) {
+                return null;
+            }
+            int flags = in.buf.getInt();
+            if (needStopIndex && (flags & FLAG_STOP_INDEX) == 0) {
+                return null;
+            }
+
+            long tableOffset = in.buf.getLong();
+            int bodyStart = in.buf.position();
+            in.buf.position((int) tableOffset);
+            in.readTable();
+            in.buf.position(bodyStart);
+
+            int[] tripMap = readIds(in, GtfsIdDictionary.TRIPS);
+            int[] stopMap = readIds(in, GtfsIdDictionary.STOPS);
+            readIds(in, GtfsIdDictionary.ROUTES);
+
+            List<StopModel> stops = readStops(in);
+            List<RoutesModel> routes = readRoutes(in);
+            List<TripsModel> trips = readTrips(in);
+            StopTimesStore store = StopTimesStore.readSnapshot(in, tripMap, stopMap);
+            Map<String, Set<String>> stopRoutes = ((flags & FLAG_STOP_ROUTES) != 0) ? readStopRoutes(in) : null;
+
+            return new StaticGtfsData(stops, routes, trips, null, store, stopRoutes);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[StaticGtfsSnapshot] snapshot non valido, uso i CSV: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Registra nel dizionario gli id salvati (in ordine di id).
+     *
+     * @return mappa id salvato -> id globale, oppure null se coincidono (identità)
+     */
+    private static int[] readIds(Input in, GtfsIdDictionary dict) {
+        String[] names = in.strings();
+        int[] map = new int[names.length];
+        boolean identity = true;
+        for (int i = 0; i < names.length; i++) {
+            map[i] = dict.intern(names[i]);
+            identity &= (map[i] == i);
+        }
+        return identity ? null : map;
+    }
+
+    private static List<StopModel> readStops(Input in) {
+        int n = in.buf.getInt();
+        List<StopModel> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            StopModel s = new StopModel();
+            s.setId(GtfsIdDictionary.STOPS.canonical(in.str()));
+            s.setCode(in.str());
+            s.setName(in.str());
+            s.setDescription(in.str());
+            s.setLatitude(in.buf.getDouble());
+            s.setLongitude(in.buf.getDouble());
+            s.setUrl(in.str());
+            s.setWheelchair_boarding(in.str());
+            s.setTimezone(in.str());
+            s.setLocation_type(in.str());
+            s.setParent_station(in.str());
+            out.add(s);
+        }
+        return out;
+    }
+
+    private static List<RoutesModel> readRoutes(Input in) {
+        int n = in.buf.getInt();
+        List<RoutesModel> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            RoutesModel r = new RoutesModel();
+            r.setRoute_id(GtfsIdDictionary.ROUTES.canonical(in.str()));
+            r.setAgency_id(in.str());
+            r.setRoute_short_name(in.str());
+            r.setRoute_long_name(in.str());
+            r.setRoute_type(in.str());
+            r.setRoute_url(in.str());
+            r.setRoute_color(in.str());
+            r.setRoute_text_color(in.str());
+            out.add(r);
+        }
+        return out;
+    }
+
+    private static List<TripsModel> readTrips(Input in) {
+        int n = in.buf.getInt();
+        List<TripsModel> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            TripsModel t = new TripsModel();
+            t.setRoute_id(GtfsIdDictionary.ROUTES.canonical(in.str()));
+            t.setService_id(in.str());
+            t.setTrip_id(GtfsIdDictionary.TRIPS.canonical(in.str()));
+            t.setTrip_headsign(in.str());
+            t.setTrip_short_name(in.str());
+            t.setDirection_id(in.str());
+            t.setBlock_id(in.str());
+            t.setShape_id(in.str());
+            t.setWheelchair_accessible(in.str());
+            t.setExceptional(in.str());
+            out.add(t);
+        }
+        return out;
+    }
+
+    private static Map<String, Set<String>> readStopRoutes(Input in) {
+        int n = in.buf.getInt();
+        Map<String, Set<String>> out = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            String stopId = GtfsIdDictionary.STOPS.canonical(in.str());
+            String[] routeIds = in.strings();
+            Set<String> set = new LinkedHashSet<>(routeIds.length * 2);
+            for (String r : routeIds) {
+                set.add(GtfsIdDictionary.ROUTES.canonical(r));
+            }
+            out.put(stopId, set);
+        }
+        return out;
+    }
+
+    // =========================
+    // Scrittura
+    // =========================
+
+    /**
+     * Scrive lo snapshot di una repository già costruita.
+     *
+     * Dettagli:
+     * - scrive su un file temporaneo nella stessa cartella e poi lo rinomina (atomico se supportato)
+     * - elimina gli snapshot di chiavi precedenti (ne resta uno solo per cartella)
+     *
+     * @param file file snapshot di destinazione
+     * @param key chiave di contenuto dei sorgenti
+     * @param repo repository da serializzare
+     * @throws IOException in caso di errori di scrittura
+     */
+    public static void write(Path file, String key, StaticGtfsRepository repo) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, FILE_PREFIX, ".tmp");
+
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Output out = new Output(ch);
+
+                StopTimesStore store = repo.getStopTimesStore();
+                Map<String, Set<String>> stopRoutes = repo.routeIdsByStopIdIndex();
+                int flags = (store.hasStopIndex() ? FLAG_STOP_INDEX : 0)
+                        | (stopRoutes.isEmpty() ? 0 : FLAG_STOP_ROUTES);
+
+                out.buf.put(MAGIC);
+                out.buf.putInt(FORMAT_VERSION);
+                out.rawString(key);
+                out.buf.putInt(flags);
+                long tableOffsetPos = out.position();
+                out.buf.putLong(0L); // patch a fine scrittura
+
+                BitSet trips = new BitSet();
+                BitSet stops = new BitSet();
+                BitSet routes = new BitSet();
+                repo.markIds(trips, stops, routes);
+                int[] tripMap = writeIds(out, GtfsIdDictionary.TRIPS, trips);
+                int[] stopMap = writeIds(out, GtfsIdDictionary.STOPS, stops);
+                writeIds(out, GtfsIdDictionary.ROUTES, routes);
+                writeStops(out, repo.allStops());
+                writeRoutes(out, repo.allRoutes());
+                writeTrips(out, repo.allTrips());
+                store.writeSnapshot(out, tripMap, stopMap);
+                if (!stopRoutes.isEmpty()) {
+                    writeStopRoutes(out, stopRoutes);
+                }
+
+                long tableOffset = out.position();
+                out.writeTable();
+                out.flush();
+
+                ByteBuffer patch = ByteBuffer.allocate(Long.BYTES).putLong(0, tableOffset);
+                ch.write(patch, tableOffsetPos);
+                ch.force(false);
+            }
+
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        deleteStale(dir, file);
+    }
+
+    /**
+     * Scrive gli id usati (in ordine di id globale) e restituisce la rinumerazione applicata.
+     *
+     * @return mappa id globale -> id salvato (-1 se non usato), crescente sugli id usati
+     */
+    private static int[] writeIds(Output out, GtfsIdDictionary dict, BitSet used) throws IOException {
+        int[] map = new int[dict.size()];
+        Arrays.fill(map, -1);
+        String[] names = new String[used.cardinality()];
+        int n = 0;
+        for (int i = used.nextSetBit(0); i >= 0 && i < map.length; i = used.nextSetBit(i + 1)) {
+            map[i] = n;
+            names[n++] = dict.name(i);
+        }
+        out.strings((n == names.length) ? names : Arrays.copyOf(names, n));
+        return map;
+    }
+
+    private static void writeStops(Output out, List<StopModel> stops) throws IOException {
+        out.ensure(4);
+        out.buf.putInt(stops.size());
+        for (StopModel s : stops) {
+            out.str(s.getId());
+            out.str(s.getCode());
+            out.str(s.getName());
+            out.str(s.getDescription());
+            out.ensure(16);
+            out.buf.putDouble(s.getLatitude());
+            out.buf.putDouble(s.getLongitude());
+            out.str(s.getUrl());
+            out.str(s.getWheelchair_boarding());
+            out.str(s.getTimezone());
+            out.str(s.getLocation_type());
+            out.str(s.getParent_station());
+        }
+    }
+
+    private static void writeRoutes(Output out, List<RoutesModel> routes) throws IOException {
+        out.ensure(4);
+        out.buf.putInt(routes.size());
+        for (RoutesModel r : routes) {
+            out.str(r.getRoute_id());
+            out.str(r.getAgency_id());
+            out.str(r.getRoute_short_name());
+            out.str(r.getRoute_long_name());
+            out.str(r.getRoute_type());
+            out.str(r.getRoute_url());
+            out.str(r.getRoute_color());
+            out.str(r.getRoute_text_color());
+        }
+    }
+
+    private static void writeTrips(Output out, List<TripsModel> trips) throws IOException {
+        out.ensure(4);
+        out.buf.putInt(trips.size());
+        for (TripsModel t : trips) {
+            out.str(t.getRoute_id());
+            out.str(t.getService_id());
+            out.str(t.getTrip_id());
+            out.str(t.getTrip_headsign());
+            out.str(t.getTrip_short_name());
+            out.str(t.getDirection_id());
+            out.str(t.getBlock_id());
+            out.str(t.getShape_id());
+            out.str(t.getWheelchair_accessible());
+            out.str(t.getExceptional());
+        }
+    }
+
+    private static void writeStopRoutes(Output out, Map<String, Set<String>> stopRoutes) throws IOException {
+        out.ensure(4);
+        out.buf.putInt(stopRoutes.size());
+        for (Map.Entry<String, Set<String>> e : stopRoutes.entrySet()) {
+            out.str(e.getKey());
+            out.strings(e.getValue().toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Elimina gli snapshot diversi da quello appena scritto (e temporanei rimasti da scritture interrotte).
+     */
+    private static void deleteStale(Path dir, Path keep) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, FILE_PREFIX + "*")) {
+            for (Path f : files) {
+                if (!f.getFileName().equals(keep.getFileName())) {
+                    Files.deleteIfExists(f);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[StaticGtfsSnapshot] pulizia snapshot vecchi fallita: " + e.getMessage());
+        }
+    }
+
+    private static byte[] longBytes(long v) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(v).array();
+    }
+
+    // =========================
+    // I/O binario (package-private: usato anche da StopTimesStore)
+    // =========================
+
+    /**
+     * Scrittore sequenziale su {@link FileChannel} con buffer diretto e tabella stringhe deduplicata.
+     */
+    static final class Output {
+
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+        private final Map<String, Integer> table = new HashMap<>();
+        private final List<String> tableValues = new ArrayList<>();
+        private long flushed;
+
+        private Output(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        long position() {
+            return flushed + buf.position();
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                flushed += ch.write(buf);
+            }
+            buf.clear();
+        }
+
+        /** Scrive il riferimento alla stringa nella tabella (-1 = null). */
+        void str(String s) throws IOException {
+            ensure(4);
+            if (s == null) {
+                buf.putInt(-1);
+                return;
+            }
+            Integer ref = table.get(s);
+            if (ref == null) {
+                ref = tableValues.size();
+                table.put(s, ref);
+                tableValues.add(s);
+            }
+            buf.putInt(ref);
+        }
+
+        void strings(String[] values) throws IOException {
+            ensure(4);
+            buf.putInt(values.length);
+            for (String v : values) {
+                str(v);
+            }
+        }
+
+        void ints(int[] values) throws IOException {
+            ensure(4);
+            buf.putInt(values.length);
+            int i = 0;
+            while (i < values.length) {
+                ensure(4);
+                int n = Math.min(values.length - i, buf.remaining() / 4);
+                buf.asIntBuffer().put(values, i, n);
+                buf.position(buf.position() + n * 4);
+                i += n;
+            }
+        }
+
+        void floats(float[] values) throws IOException {
+            ensure(4);
+            buf.putInt(values.length);
+            int i = 0;
+            while (i < values.length) {
+                ensure(4);
+                int n = Math.min(values.length - i, buf.remaining() / 4);
+                buf.asFloatBuffer().put(values, i, n);
+                buf.position(buf.position() + n * 4);
+                i += n;
+            }
+        }
+
+        void bytes(byte[] values) throws IOException {
+            ensure(4);
+            buf.putInt(values.length);
+            int i = 0;
+            while (i < values.length) {
+                ensure(1);
+                int n = Math.min(values.length - i, buf.remaining());
+                buf.put(values, i, n);
+                i += n;
+            }
+        }
+
+        void bool(boolean v) throws IOException {
+            ensure(1);
+            buf.put((byte) (v ? 1 : 0));
+        }
+
+        private void rawString(String s) throws IOException {
+            bytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void writeTable() throws IOException {
+            ensure(4);
+            buf.putInt(tableValues.size());
+            for (String s : tableValues) {
+                rawString(s);
+            }
+        }
+    }
+
+    /**
+     * Lettore su buffer mappato; le stringhe sono risolte tramite la tabella letta all'apertura.
+     */
+    static final class Input {
+
+        private final ByteBuffer buf;
+        private String[] table = new String[0];
+
+        private Input(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        String str() {
+            int ref = buf.getInt();
+            return (ref < 0) ? null : table[ref];
+        }
+
+        String[] strings() {
+            int n = buf.getInt();
+            String[] out = new String[n];
+            for (int i = 0; i < n; i++) {
+                out[i] = str();
+            }
+            return out;
+        }
+
+        int[] ints() {
+            int n = buf.getInt();
+            int[] out = new int[n];
+            buf.asIntBuffer().get(out);
+            buf.position(buf.position() + n * 4);
+            return out;
+        }
+
+        float[] floats() {
+            int n = buf.getInt();
+            float[] out = new float[n];
+            buf.asFloatBuffer().get(out);
+            buf.position(buf.position() + n * 4);
+            return out;
+        }
+
+        byte[] bytes() {
+            int n = buf.getInt();
+            byte[] out = new byte[n];
+            buf.get(out);
+            return out;
+        }
+
+        boolean bool() {
+            return buf.get() != 0;
+        }
+
+        private String rawString() {
+            return new String(bytes(), StandardCharsets.UTF_8);
+        }
+
+        private void readTable() {
+            int n = buf.getInt();
+            String[] t = new String[n];
+            for (int i = 0; i < n; i++) {
+                t[i] = rawString();
+            }
+            table = t;
+        }
+    }
+}
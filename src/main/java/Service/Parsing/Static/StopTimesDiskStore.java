@@ -0,0 +1,822 @@
+package Service.Parsing.Static;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.StopTimesModel;
+
+import Service.Parsing.Csv.GtfsArchive;
+import Service.Parsing.Csv.GtfsCsvReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Stop_times GTFS static lasciati su disco e letti a richiesta (modalità "low memory").
+ *
+ * Responsabilità:
+ * - mappare stop_times.txt in memoria (mapping read-only: le pagine sono gestite dal sistema operativo,
+ *   non occupano heap) e scansionarlo una sola volta
+ * - costruire l'indice trip -> intervallo di byte (offset, fine) delle sue righe nel file
+ * - costruire le posting list stop -> trip che lo toccano (formato CSR: offsets + posting)
+ * - decodificare le righe di un trip solo quando servono, tenendo i trip decodificati in una cache LRU limitata
+ *
+ * Contesto:
+ * - alternativa allo {@link StopTimesStore} per client con heap ridotto: attivata da
+ *   {@link StaticGtfsRepositoryBuilder#lowMemoryStopTimes(boolean)}.
+ * - la {@link StaticGtfsRepository} la usa per {@code getStopTimesForTrip} / {@code getStopTimesForStop}
+ *   e per gli indici derivati (stop -> route).
+ *
+ * Note di progetto:
+ * - in heap restano solo gli indici: due int per trip (più il conteggio righe) e un int per coppia (stop, trip).
+ * - trip_id e stop_id sono registrati nel {@link GtfsIdDictionary} globale come nello store colonnare.
+ * - se le righe di un trip non sono contigue nel file (raro: GTFS le raggruppa per trip) i segmenti
+ *   aggiuntivi sono tenuti a parte; la decodifica filtra comunque le righe per trip_id.
+ * - i path logici di un {@link GtfsArchive} non sono mappabili: {@link #open(String, int)} restituisce null
+ *   e il chiamante ripiega sullo store in heap.
+ * - immutabile dopo la costruzione tranne la cache (sincronizzata): condivisibile tra thread.
+ */
+public final class StopTimesDiskStore {
+
+    /** Trip decodificati tenuti in cache se non specificato diversamente. */
+    public static final int DEFAULT_CACHED_TRIPS = 512;
+
+    private static final GtfsIdDictionary TRIPS = GtfsIdDictionary.TRIPS;
+    private static final GtfsIdDictionary STOPS = GtfsIdDictionary.STOPS;
+
+    /** Contenuto del file (mapping read-only, letto solo con accessi assoluti). */
+    private final ByteBuffer file;
+
+    // ---- colonne (indici nell'header) ----
+    private final int cTrip;
+    private final int cArr;
+    private final int cDep;
+    private final int cStop;
+    private final int cSeq;
+    private final int cHead;
+    private final int cPick;
+    private final int cDrop;
+    private final int cDist;
+    private final int cTp;
+
+    /** tripIndex -> primo segmento [segStart, segEnd) nel file (-1 = nessuna riga). */
+    private final int[] segStart;
+    private final int[] segEnd;
+
+    /** tripIndex -> segmenti successivi (coppie start/end), solo per trip non contigui. */
+    private final Map<Integer, int[]> extraSegments;
+
+    /** Righe per trip in forma cumulativa: il trip t ha righe [rowOffsets[t], rowOffsets[t+1]). */
+    private final int[] rowOffsets;
+
+    /** stopIndex -> posizione in {@link #stopTrips}. */
+    private final int[] stopOffsets;
+
+    /** Trip raggruppati per stop (ordine di file). */
+    private final int[] stopTrips;
+
+    private final int tripCount;
+
+    /** Cache LRU dei trip decodificati (accessOrder = true). */
+    private final LinkedHashMap<Integer, TripRows> cache;
+
+    private StopTimesDiskStore(ByteBuffer file, GtfsCsvReader.Header header, int maxCachedTrips) throws IOException {
+        this.file = file;
+
+        if (header != null) {
+            cTrip = header.require("trip_id");
+            cStop = header.require("stop_id");
+            cArr = header.column("arrival_time");
+            cDep = header.column("departure_time");
+            cSeq = header.column("stop_sequence");
+            cHead = header.column("stop_headsign");
+            cPick = header.column("pickup_type");
+            cDrop = header.column("drop_off_type");
+            cDist = header.column("shape_dist_traveled");
+            cTp = header.column("timepoint");
+        } else {
+            cTrip = cStop = cArr = cDep = cSeq = cHead = cPick = cDrop = cDist = cTp = -1;
+        }
+
+        Scan scan = new Scan();
+        if (header != null) {
+            GtfsCsvReader.read(file.duplicate(), h -> scan::onRow);
+            scan.closeSegment();
+        }
+
+        int tripLimit = TRIPS.size();
+        this.segStart = fill(Arrays.copyOf(scan.segStart, tripLimit), scan.segStart.length, tripLimit, -1);
+        this.segEnd = Arrays.copyOf(scan.segEnd, tripLimit);
+        this.extraSegments = scan.extra;
+
+        int[] ro = new int[tripLimit + 1];
+        int trips = 0;
+        for (int t = 0; t < tripLimit; t++) {
+            int rows = (t < scan.rowsPerTrip.length) ? scan.rowsPerTrip[t] : 0;
+            if (rows > 0) {
+                trips++;
+            }
+            ro[t + 1] = ro[t] + rows;
+        }
+        this.rowOffsets = ro;
+        this.tripCount = trips;
+
+        // Posting list stop -> trip (counting sort sulle coppie raccolte in scansione).
+        int stopLimit = STOPS.size();
+        int[] so = new int[stopLimit + 1];
+        for (int i = 0; i < scan.pairs; i++) {
+            so[scan.pairStop[i] + 1]++;
+        }
+        for (int s = 0; s < stopLimit; s++) {
+            so[s + 1] += so[s];
+        }
+        int[] cursor = Arrays.copyOf(so, stopLimit);
+        int[] posting = new int[scan.pairs];
+        for (int i = 0; i < scan.pairs; i++) {
+            posting[cursor[scan.pairStop[i]]++] = scan.pairTrip[i];
+        }
+        this.stopOffsets = so;
+        this.stopTrips = posting;
+
+        int capacity = Math.max(1, maxCachedTrips);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, TripRows> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Mappa il file e costruisce gli indici con una sola scansione.
+     *
+     * @param filePath path di stop_times.txt su file system
+     * @param maxCachedTrips numero massimo di trip decodificati tenuti in cache (minimo 1)
+     * @return store pronto all'uso, oppure null se il path è un path logico di archivio (non mappabile)
+     * @throws IOException in caso di errori di I/O, file oltre 2 GB o colonne obbligatorie mancanti
+     */
+    public static StopTimesDiskStore open(String filePath, int maxCachedTrips) throws IOException {
+        if (filePath == null || filePath.isBlank()) {
+            throw new IOException("path stop_times vuoto");
+        }
+        if (GtfsArchive.keyOf(filePath) != null) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file troppo grande per il mapping: " + filePath);
+            }
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new StopTimesDiskStore(buf, GtfsCsvReader.header(buf.duplicate()), maxCachedTrips);
+        }
+    }
+
+    // =========================
+    // Dimensioni / id
+    // =========================
+
+    /** @return numero di righe valide (con trip_id e stop_id) nel file */
+    public int size() {
+        return rowOffsets[rowOffsets.length - 1];
+    }
+
+    /** @return numero di trip distinti con almeno una riga */
+    public int tripCount() {
+        return tripCount;
+    }
+
+    /** @return limite (escluso) degli indici trip noti all'indice */
+    public int tripIdLimit() {
+        return rowOffsets.length - 1;
+    }
+
+    /** @return limite (escluso) degli indici stop noti all'indice */
+    public int stopIdLimit() {
+        return stopOffsets.length - 1;
+    }
+
+    /**
+     * @param tripId trip_id GTFS
+     * @return indice del trip (id globale), oppure -1 se il trip non ha stop_times
+     */
+    public int tripIndex(String tripId) {
+        if (tripId == null) {
+            return -1;
+        }
+        int idx = TRIPS.idOf(tripId.trim());
+        return hasTrip(idx) ? idx : -1;
+    }
+
+    /**
+     * @param tripIdx id globale del trip
+     * @return true se il trip ha almeno una riga nel file
+     */
+    public boolean hasTrip(int tripIdx) {
+        return tripIdx >= 0 && tripIdx + 1 < rowOffsets.length && rowOffsets[tripIdx + 1] > rowOffsets[tripIdx];
+    }
+
+    /**
+     * @param stopId stop_id GTFS
+     * @return indice dello stop (id globale), oppure -1 se lo stop non compare negli stop_times
+     */
+    public int stopIndex(String stopId) {
+        if (stopId == null) {
+            return -1;
+        }
+        int idx = STOPS.idOf(stopId.trim());
+        return hasStop(idx) ? idx : -1;
+    }
+
+    /**
+     * @param stopIdx id globale dello stop
+     * @return true se lo stop compare in almeno una riga del file
+     */
+    public boolean hasStop(int stopIdx) {
+        return stopIdx >= 0 && stopIdx + 1 < stopOffsets.length && stopOffsets[stopIdx + 1] > stopOffsets[stopIdx];
+    }
+
+    /**
+     * Posting list di uno stop: i trip che lo toccano, in ordine di file.
+     *
+     * @param stopIndex indice dello stop (id globale)
+     * @return array di indici trip (mai null)
+     */
+    public int[] tripsForStop(int stopIndex) {
+        if (stopIndex < 0 || stopIndex + 1 >= stopOffsets.length) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(stopTrips, stopOffsets[stopIndex], stopOffsets[stopIndex + 1]);
+    }
+
+    // =========================
+    // Accesso ai trip (decodifica + cache)
+    // =========================
+
+    /**
+     * Righe di un trip, ordinate per stop_sequence.
+     * Alla prima richiesta le righe vengono lette dal file e decodificate; poi restano in cache finché
+     * non vengono espulse da trip usati più di recente.
+     *
+     * @param tripIdx indice del trip (id globale)
+     * @return righe del trip, oppure null se il trip non ha stop_times
+     */
+    public TripRows trip(int tripIdx) {
+        if (!hasTrip(tripIdx)) {
+            return null;
+        }
+        synchronized (cache) {
+            TripRows hit = cache.get(tripIdx);
+            if (hit != null) {
+                return hit;
+            }
+        }
+        // Decodifica fuori dal lock: due thread sullo stesso trip al massimo decodificano due volte.
+        TripRows rows = decode(tripIdx);
+        synchronized (cache) {
+            cache.put(tripIdx, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Righe di un trip in uno stop (più di una solo per i trip ad anello), ordinate per stop_sequence.
+     *
+     * Dettagli:
+     * - se il trip è già in cache le righe vengono prese da lì
+     * - altrimenti il segmento del trip viene riletto tenendo solo le righe dello stop, senza decodificare
+     *   le altre e senza inserire il trip in cache: una scansione per fermata (centinaia di trip)
+     *   non espelle i trip usati dalle altre query
+     *
+     * @param tripIdx indice del trip (id globale)
+     * @param stopIdx indice dello stop (id globale)
+     * @return righe del trip nello stop (eventualmente vuote), oppure null se il trip non ha stop_times
+     */
+    public TripRows rowsAtStop(int tripIdx, int stopIdx) {
+        if (!hasTrip(tripIdx)) {
+            return null;
+        }
+        TripRows cached;
+        synchronized (cache) {
+            cached = cache.get(tripIdx);
+        }
+        return (cached != null) ? cached.onlyStop(stopIdx) : decode(tripIdx, stopIdx);
+    }
+
+    /** @return numero di trip attualmente decodificati in cache */
+    public int cachedTrips() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    // =========================
+    // Viste compatibili (List<StopTimesModel>)
+    // =========================
+
+    /**
+     * @param tripId trip_id GTFS
+     * @return stop_times del trip ordinati per stop_sequence (read-only, vuota se il trip è sconosciuto)
+     */
+    public List<StopTimesModel> viewForTrip(String tripId) {
+        TripRows rows = trip(tripIndex(tripId));
+        return (rows == null) ? List.of() : rows.asList();
+    }
+
+    /**
+     * Stop_times di uno stop: per ogni trip della posting list legge solo le righe dello stop
+     * ({@link #rowsAtStop(int, int)}, senza passare i trip nella cache).
+     *
+     * @param stopId stop_id GTFS
+     * @return lista materializzata (vuota se lo stop è sconosciuto)
+     */
+    public List<StopTimesModel> viewForStop(String stopId) {
+        int s = stopIndex(stopId);
+        if (s < 0) {
+            return List.of();
+        }
+        ArrayList<StopTimesModel> out = new ArrayList<>();
+        BitSet seen = new BitSet();
+        for (int p = stopOffsets[s]; p < stopOffsets[s + 1]; p++) {
+            int t = stopTrips[p];
+            if (seen.get(t)) {
+                continue;
+            }
+            seen.set(t);
+            TripRows rows = rowsAtStop(t, s);
+            for (int i = 0; i < rows.size(); i++) {
+                out.add(rows.toModel(i));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Vista (lazy) su tutte le righe, raggruppate per trip (ordine di id) e ordinate per stop_sequence.
+     * Pensata per scansioni sequenziali: ogni trip viene decodificato una volta passando dalla cache.
+     *
+     * @return lista read-only; ogni {@code get(i)} materializza un nuovo {@link StopTimesModel}
+     */
+    public List<StopTimesModel> viewAll() {
+        return new AllRowsView();
+    }
+
+    /**
+     * Stima (approssimata, JVM 64 bit con compressed oops) dell'heap occupato dagli indici
+     * (esclusi i trip in cache e il file mappato, che è fuori heap).
+     *
+     * @return byte stimati
+     */
+    public long estimatedHeapBytes() {
+        long bytes = 0;
+        bytes += 16L + 4L * segStart.length;
+        bytes += 16L + 4L * segEnd.length;
+        bytes += 16L + 4L * rowOffsets.length;
+        bytes += 16L + 4L * stopOffsets.length;
+        bytes += 16L + 4L * stopTrips.length;
+        for (int[] extra : extraSegments.values()) {
+            bytes += 48L + 16L + 4L * extra.length;
+        }
+        return bytes;
+    }
+
+    // =========================
+    // Decodifica
+    // =========================
+
+    private TripRows decode(int tripIdx) {
+        return decode(tripIdx, -1);
+    }
+
+    /**
+     * @param onlyStop se {@code >= 0} tiene solo le righe di questo stop (le altre non vengono decodificate)
+     */
+    private TripRows decode(int tripIdx, int onlyStop) {
+        String tripId = TRIPS.name(tripIdx);
+        String stopId = (onlyStop >= 0) ? STOPS.name(onlyStop) : null;
+        int expected = (onlyStop >= 0) ? 1 : rowOffsets[tripIdx + 1] - rowOffsets[tripIdx];
+        TripRows.Builder b = new TripRows.Builder(tripIdx, expected);
+
+        GtfsCsvReader.RowSink sink = row -> {
+            if (!tripId.equals(row.string(cTrip))) {
+                return;
+            }
+            String sid = row.string(cStop);
+            if (sid.isEmpty() || (stopId != null && !stopId.equals(sid))) {
+                return;
+            }
+            b.add(
+                    STOPS.intern(sid),
+                    row.gtfsSeconds(cArr),
+                    row.gtfsSeconds(cDep),
+                    row.intValue(cSeq, StopTimesStore.NO_SEQUENCE),
+                    row.string(cHead),
+                    row.intValue(cPick, -1),
+                    row.intValue(cDrop, -1),
+                    row.floatValue(cDist, Float.NaN),
+                    row.intValue(cTp, -1)
+            );
+        };
+
+        GtfsCsvReader.readRange(file, segStart[tripIdx], segEnd[tripIdx], sink);
+        int[] extra = extraSegments.get(tripIdx);
+        if (extra != null) {
+            for (int i = 0; i < extra.length; i += 2) {
+                GtfsCsvReader.readRange(file, extra[i], extra[i + 1], sink);
+            }
+        }
+        return b.build();
+    }
+
+    /**
+     * Stato della scansione iniziale: segmenti per trip, righe per trip e coppie (stop, trip).
+     */
+    private final class Scan {
+        int[] segStart = new int[0];
+        int[] segEnd = new int[0];
+        int[] rowsPerTrip = new int[0];
+        final Map<Integer, int[]> extra = new HashMap<>();
+
+        /** stopIndex -> ultimo trip (+1) che ha toccato lo stop: evita coppie ripetute nello stesso trip. */
+        int[] lastTripOfStop = new int[0];
+        int[] pairStop = new int[1024];
+        int[] pairTrip = new int[1024];
+        int pairs;
+
+        String lastTrip;
+        int curTrip = -1;
+        int curStart;
+        int curEnd;
+
+        String lastStop;
+        int lastStopRef = -1;
+
+        void onRow(GtfsCsvReader.Row row) {
+            String tid = row.string(cTrip);
+            String sid = row.string(cStop);
+            if (tid.isEmpty() || sid.isEmpty()) {
+                return;
+            }
+
+            int t;
+            if (tid.equals(lastTrip)) {
+                t = curTrip;
+            } else {
+                lastTrip = tid;
+                t = TRIPS.intern(tid);
+            }
+            if (t != curTrip) {
+                closeSegment();
+                curTrip = t;
+                curStart = row.lineStart();
+            }
+            curEnd = row.lineEnd();
+
+            if (t >= rowsPerTrip.length) {
+                rowsPerTrip = Arrays.copyOf(rowsPerTrip, grow(rowsPerTrip.length, t + 1));
+            }
+            rowsPerTrip[t]++;
+
+            if (!sid.equals(lastStop)) {
+                lastStop = sid;
+                lastStopRef = STOPS.intern(sid);
+            }
+            int s = lastStopRef;
+            if (s >= lastTripOfStop.length) {
+                lastTripOfStop = Arrays.copyOf(lastTripOfStop, grow(lastTripOfStop.length, s + 1));
+            }
+            if (lastTripOfStop[s] != t + 1) {
+                lastTripOfStop[s] = t + 1;
+                if (pairs == pairStop.length) {
+                    pairStop = Arrays.copyOf(pairStop, pairs * 2);
+                    pairTrip = Arrays.copyOf(pairTrip, pairs * 2);
+                }
+                pairStop[pairs] = s;
+                pairTrip[pairs] = t;
+                pairs++;
+            }
+        }
+
+        void closeSegment() {
+            int t = curTrip;
+            if (t < 0) {
+                return;
+            }
+            if (t >= segStart.length) {
+                int cap = grow(segStart.length, t + 1);
+                int old = segStart.length;
+                segStart = fill(Arrays.copyOf(segStart, cap), old, cap, -1);
+                segEnd = Arrays.copyOf(segEnd, cap);
+            }
+            if (segStart[t] < 0) {
+                segStart[t] = curStart;
+                segEnd[t] = curEnd;
+            } else {
+                int[] prev = extra.get(t);
+                int[] next = (prev == null) ? new int[2] : Arrays.copyOf(prev, prev.length + 2);
+                next[next.length - 2] = curStart;
+                next[next.length - 1] = curEnd;
+                extra.put(t, next);
+            }
+        }
+    }
+
+    /** Vista su tutte le righe (trip per trip) con ricerca binaria sugli offset cumulativi. */
+    private final class AllRowsView extends AbstractList<StopTimesModel> implements RandomAccess {
+
+        @Override
+        public StopTimesModel get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+            }
+            // ultimo t con rowOffsets[t] <= index (i trip vuoti hanno offset uguali al successivo)
+            int lo = 0;
+            int hi = rowOffsets.length - 2;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (rowOffsets[mid] <= index) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return trip(lo).toModel(index - rowOffsets[lo]);
+        }
+
+        @Override
+        public int size() {
+            return StopTimesDiskStore.this.size();
+        }
+    }
+
+    // =========================
+    // Righe di un trip
+    // =========================
+
+    /**
+     * Righe decodificate di un singolo trip, in colonne primitive e ordinate per stop_sequence.
+     * Immutabile: può essere condivisa tra thread e conservata anche dopo l'espulsione dalla cache.
+     */
+    public static final class TripRows {
+        private final int tripIndex;
+        private final int[] stopRef;
+        private final int[] arrivalSec;
+        private final int[] departureSec;
+        private final int[] sequence;
+        private final String[] headsign;
+        private final float[] shapeDist;
+        private final byte[] pickup;
+        private final byte[] dropOff;
+        private final byte[] timepoint;
+
+        /** Copia con le sole righe {@code rows} (indici di riga, in ordine). */
+        private TripRows(TripRows src, int[] rows) {
+            this.tripIndex = src.tripIndex;
+            int n = rows.length;
+            this.stopRef = new int[n];
+            this.arrivalSec = new int[n];
+            this.departureSec = new int[n];
+            this.sequence = new int[n];
+            this.headsign = new String[n];
+            this.shapeDist = new float[n];
+            this.pickup = new byte[n];
+            this.dropOff = new byte[n];
+            this.timepoint = new byte[n];
+            for (int i = 0; i < n; i++) {
+                int r = rows[i];
+                stopRef[i] = src.stopRef[r];
+                arrivalSec[i] = src.arrivalSec[r];
+                departureSec[i] = src.departureSec[r];
+                sequence[i] = src.sequence[r];
+                headsign[i] = src.headsign[r];
+                shapeDist[i] = src.shapeDist[r];
+                pickup[i] = src.pickup[r];
+                dropOff[i] = src.dropOff[r];
+                timepoint[i] = src.timepoint[r];
+            }
+        }
+
+        private TripRows(Builder b, int[] order) {
+            this.tripIndex = b.tripIndex;
+            int n = order.length;
+            this.stopRef = new int[n];
+            this.arrivalSec = new int[n];
+            this.departureSec = new int[n];
+            this.sequence = new int[n];
+            this.headsign = new String[n];
+            this.shapeDist = new float[n];
+            this.pickup = new byte[n];
+            this.dropOff = new byte[n];
+            this.timepoint = new byte[n];
+            for (int i = 0; i < n; i++) {
+                int r = order[i];
+                stopRef[i] = b.stopRef[r];
+                arrivalSec[i] = b.arrivalSec[r];
+                departureSec[i] = b.departureSec[r];
+                sequence[i] = b.sequence[r];
+                headsign[i] = b.headsign[r];
+                shapeDist[i] = b.shapeDist[r];
+                pickup[i] = b.pickup[r];
+                dropOff[i] = b.dropOff[r];
+                timepoint[i] = b.timepoint[r];
+            }
+        }
+
+        /** @return indice (id globale) del trip */
+        public int tripIndex() {
+            return tripIndex;
+        }
+
+        /**
+         * @param stopIdx indice dello stop
+         * @return righe del trip nello stop (ordine invariato)
+         */
+        TripRows onlyStop(int stopIdx) {
+            int n = 0;
+            int[] rows = new int[stopRef.length];
+            for (int i = 0; i < stopRef.length; i++) {
+                if (stopRef[i] == stopIdx) {
+                    rows[n++] = i;
+                }
+            }
+            return new TripRows(this, Arrays.copyOf(rows, n));
+        }
+
+        /** @return numero di righe del trip */
+        public int size() {
+            return stopRef.length;
+        }
+
+        /** @return indice denso dello stop della riga */
+        public int stopRef(int i) {
+            return stopRef[i];
+        }
+
+        /** @return arrival_time in secondi, oppure {@link StopTimesStore#NO_TIME} */
+        public int arrivalSec(int i) {
+            return arrivalSec[i];
+        }
+
+        /** @return departure_time in secondi, oppure {@link StopTimesStore#NO_TIME} */
+        public int departureSec(int i) {
+            return departureSec[i];
+        }
+
+        /** @return stop_sequence, oppure {@link StopTimesStore#NO_SEQUENCE} */
+        public int sequence(int i) {
+            return sequence[i];
+        }
+
+        /**
+         * Ricostruisce il modello "classico" di una riga (stesso formato dello {@link StopTimesStore}).
+         *
+         * @param i indice di riga nel trip
+         * @return nuova istanza di {@link StopTimesModel}
+         */
+        public StopTimesModel toModel(int i) {
+            StopTimesModel st = new StopTimesModel();
+            st.setTrip_id(TRIPS.name(tripIndex));
+            st.setStop_id(STOPS.name(stopRef[i]));
+            st.setArrival_time(StopTimesStore.formatGtfsTime(arrivalSec[i]));
+            st.setDeparture_time(StopTimesStore.formatGtfsTime(departureSec[i]));
+            st.setStop_sequence(sequence[i] == StopTimesStore.NO_SEQUENCE ? "" : String.valueOf(sequence[i]));
+            st.setStop_headsign(headsign[i]);
+            st.setPickup_type(StopTimesStore.formatFlag(pickup[i]));
+            st.setDrop_off_type(StopTimesStore.formatFlag(dropOff[i]));
+            st.setShape_dist_traveled(Float.isNaN(shapeDist[i]) ? "" : StopTimesStore.formatDistance(shapeDist[i]));
+            st.setTimepoint(StopTimesStore.formatFlag(timepoint[i]));
+            return st;
+        }
+
+        /**
+         * @return vista read-only; ogni {@code get(i)} materializza un nuovo {@link StopTimesModel}
+         */
+        public List<StopTimesModel> asList() {
+            return new AbstractRowsList();
+        }
+
+        private final class AbstractRowsList extends AbstractList<StopTimesModel> implements RandomAccess {
+            @Override
+            public StopTimesModel get(int index) {
+                if (index < 0 || index >= stopRef.length) {
+                    throw new IndexOutOfBoundsException("index " + index + ", size " + stopRef.length);
+                }
+                return toModel(index);
+            }
+
+            @Override
+            public int size() {
+                return stopRef.length;
+            }
+        }
+
+        /** Accumulatore delle righe lette dal file (ordine di file). */
+        private static final class Builder {
+            final int tripIndex;
+            int size;
+            int[] stopRef;
+            int[] arrivalSec;
+            int[] departureSec;
+            int[] sequence;
+            String[] headsign;
+            float[] shapeDist;
+            byte[] pickup;
+            byte[] dropOff;
+            byte[] timepoint;
+
+            Builder(int tripIndex, int expectedRows) {
+                this.tripIndex = tripIndex;
+                int cap = Math.max(1, expectedRows);
+                stopRef = new int[cap];
+                arrivalSec = new int[cap];
+                departureSec = new int[cap];
+                sequence = new int[cap];
+                headsign = new String[cap];
+                shapeDist = new float[cap];
+                pickup = new byte[cap];
+                dropOff = new byte[cap];
+                timepoint = new byte[cap];
+            }
+
+            void add(int stop, int arrival, int departure, int seq, String head,
+                     int pick, int drop, float dist, int tp) {
+                if (size == stopRef.length) {
+                    int cap = size * 2;
+                    stopRef = Arrays.copyOf(stopRef, cap);
+                    arrivalSec = Arrays.copyOf(arrivalSec, cap);
+                    departureSec = Arrays.copyOf(departureSec, cap);
+                    sequence = Arrays.copyOf(sequence, cap);
+                    headsign = Arrays.copyOf(headsign, cap);
+                    shapeDist = Arrays.copyOf(shapeDist, cap);
+                    pickup = Arrays.copyOf(pickup, cap);
+                    dropOff = Arrays.copyOf(dropOff, cap);
+                    timepoint = Arrays.copyOf(timepoint, cap);
+                }
+                stopRef[size] = stop;
+                arrivalSec[size] = arrival;
+                departureSec[size] = departure;
+                sequence[size] = seq;
+                headsign[size] = head;
+                shapeDist[size] = dist;
+                pickup[size] = flag(pick, 6);
+                dropOff[size] = flag(drop, 6);
+                timepoint[size] = flag(tp, 2);
+                size++;
+            }
+
+            /** Ordinamento stabile per stop_sequence (come nello store colonnare). */
+            TripRows build() {
+                int[] order = new int[size];
+                boolean sorted = true;
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                    if (i > 0 && sortable(sequence[i - 1]) > sortable(sequence[i])) {
+                        sorted = false;
+                    }
+                }
+                if (!sorted) {
+                    long[] keys = new long[size];
+                    for (int i = 0; i < size; i++) {
+                        keys[i] = ((long) sortable(sequence[i]) << 32) | i;
+                    }
+                    Arrays.sort(keys);
+                    for (int i = 0; i < size; i++) {
+                        order[i] = (int) keys[i];
+                    }
+                }
+                return new TripRows(this, order);
+            }
+
+            private static int sortable(int seq) {
+                return (seq == StopTimesStore.NO_SEQUENCE) ? 0 : seq;
+            }
+
+            private static byte flag(int v, int max) {
+                return (byte) ((v < 0 || v > max) ? -1 : v);
+            }
+        }
+    }
+
+    // =========================
+    // Utility interne
+    // =========================
+
+    private static int grow(int current, int min) {
+        return Math.max(min, Math.max(16, current + (current >> 1)));
+    }
+
+    private static int[] fill(int[] a, int from, int to, int value) {
+        Arrays.fill(a, Math.min(from, to), to, value);
+        return a;
+    }
+}
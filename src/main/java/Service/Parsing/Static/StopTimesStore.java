@@ -0,0 +1,1182 @@
+package Service.Parsing.Static;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.StopTimesModel;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Store colonnare e primitivo degli stop_times GTFS static.
+ *
+ * Responsabilità:
+ * - sostituire la {@code List<StopTimesModel>} (dieci String per riga) con colonne di primitivi
+ * - codificare trip_id e stop_id con gli interi densi del {@link GtfsIdDictionary} globale
+ *   (gli stessi usati da trips/stops e risolti dal realtime) e stop_headsign con un dizionario locale
+ * - conservare gli orari già convertiti in secondi dall'inizio del giorno di servizio
+ * - mantenere le righe raggruppate per trip e ordinate per stop_sequence
+ * - offrire un indice opzionale stop -> righe (formato CSR: offsets + posting)
+ *
+ * Contesto:
+ * - costruito dalla {@link StaticGtfsRepository} (o direttamente dal parsing) tramite {@link Builder}.
+ * - le query "hot" (es. predizione arrivi) leggono direttamente le colonne per indice di riga;
+ *   le API storiche ({@code List<StopTimesModel>}) sono viste sottili che materializzano le righe on-demand.
+ *
+ * Note di progetto:
+ * - l'indice di un trip/stop è il suo id globale: gli array indicizzati per trip/stop coprono
+ *   l'intervallo [0, {@link #tripIdLimit()}) / [0, {@link #stopIdLimit()}) e possono avere posizioni vuote
+ *   (id caricati da altri file ma senza stop_times).
+ * - pickup_type, drop_off_type e timepoint sono impacchettati in un solo byte per riga.
+ * - i valori mancanti/non parsabili sono rappresentati da sentinelle ({@link #NO_TIME}, {@link #NO_SEQUENCE}).
+ * - l'oggetto è immutabile dopo la costruzione e quindi condivisibile tra thread senza sincronizzazione.
+ */
+public final class StopTimesStore {
+
+    /** Sentinella per orario mancante o non valido. */
+    public static final int NO_TIME = -1;
+
+    /** Sentinella per stop_sequence mancante o non parsabile (ordinata come 0). */
+    public static final int NO_SEQUENCE = Integer.MIN_VALUE;
+
+    private static final GtfsIdDictionary TRIPS = GtfsIdDictionary.TRIPS;
+    private static final GtfsIdDictionary STOPS = GtfsIdDictionary.STOPS;
+
+    /** Sotto questa soglia la costruzione parallela costa più del lavoro che divide. */
+    private static final int MIN_PARALLEL_ROWS = 1 << 16;
+
+    /** Partizioni di trip per worker: qualche partizione in più dei core bilancia trip di lunghezza diversa. */
+    private static final int PARTITIONS_PER_WORKER = 4;
+
+    // =========================
+    // Dizionario locale (int -> String)
+    // =========================
+
+    private final String[] headsigns;
+
+    /** Numero di trip / stop distinti con almeno una riga. */
+    private final int tripCount;
+    private final int stopCount;
+
+    /** Stop con almeno una riga (indicizzato per id globale). */
+    private final BitSet stopsPresent;
+
+    // =========================
+    // Colonne (una cella per riga)
+    // =========================
+
+    private final int[] tripRef;
+    private final int[] stopRef;
+    private final int[] arrivalSec;
+    private final int[] departureSec;
+    private final int[] sequence;
+    private final int[] headsignRef;
+    private final float[] shapeDist;
+    private final byte[] flags;
+
+    /** tripIndex -> prima riga del trip; le righe del trip sono [tripOffsets[t], tripOffsets[t+1]). */
+    private final int[] tripOffsets;
+
+    /** stopIndex -> posizione in {@link #stopRows} (null se l'indice per stop è disattivo). */
+    private final int[] stopOffsets;
+
+    /** Righe raggruppate per stop (null se l'indice per stop è disattivo). */
+    private final int[] stopRows;
+
+    private StopTimesStore(Builder b, boolean indexByStop, ForkJoinPool pool) {
+        int n = b.size;
+        boolean parallel = pool != null && pool.getParallelism() > 1 && n >= MIN_PARALLEL_ROWS;
+
+        this.headsigns = b.headsignDict.toArray();
+
+        // Ordinamento stabile per (trip, stop_sequence): counting sort sul trip + sort per segmento.
+        int tripLimit = TRIPS.size();
+        int[] offsets = new int[tripLimit + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[b.tripRef[i] + 1]++;
+        }
+        int trips = 0;
+        for (int t = 0; t < tripLimit; t++) {
+            if (offsets[t + 1] > 0) {
+                trips++;
+            }
+            offsets[t + 1] += offsets[t];
+        }
+        this.tripCount = trips;
+
+        int[] cursor = Arrays.copyOf(offsets, tripLimit);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[cursor[b.tripRef[i]]++] = i;
+        }
+
+        if (parallel) {
+            // partizioni di trip con un numero di righe simile: ogni task ordina i propri segmenti
+            int[] bounds = tripPartitions(offsets, pool.getParallelism() * PARTITIONS_PER_WORKER);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(bounds.length - 1);
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                int fromTrip = bounds[i];
+                int toTrip = bounds[i + 1];
+                tasks.add(pool.submit(() -> sortTripSegments(order, offsets, fromTrip, toTrip, b.sequence)));
+            }
+            joinAll(tasks);
+        } else {
+            sortTripSegments(order, offsets, 0, tripLimit, b.sequence);
+        }
+
+        this.tripOffsets = offsets;
+        if (parallel) {
+            // colonne indipendenti: una permutazione per task
+            ForkJoinTask<int[]> fTrip = pool.submit(() -> permute(b.tripRef, order));
+            ForkJoinTask<int[]> fStop = pool.submit(() -> permute(b.stopRef, order));
+            ForkJoinTask<int[]> fArr = pool.submit(() -> permute(b.arrivalSec, order));
+            ForkJoinTask<int[]> fDep = pool.submit(() -> permute(b.departureSec, order));
+            ForkJoinTask<int[]> fSeq = pool.submit(() -> permute(b.sequence, order));
+            ForkJoinTask<int[]> fHead = pool.submit(() -> permute(b.headsignRef, order));
+            ForkJoinTask<float[]> fDist = pool.submit(() -> permute(b.shapeDist, order));
+            ForkJoinTask<byte[]> fFlags = pool.submit(() -> permute(b.flags, order));
+            this.tripRef = fTrip.join();
+            this.stopRef = fStop.join();
+            this.arrivalSec = fArr.join();
+            this.departureSec = fDep.join();
+            this.sequence = fSeq.join();
+            this.headsignRef = fHead.join();
+            this.shapeDist = fDist.join();
+            this.flags = fFlags.join();
+        } else {
+            this.tripRef = permute(b.tripRef, order);
+            this.stopRef = permute(b.stopRef, order);
+            this.arrivalSec = permute(b.arrivalSec, order);
+            this.departureSec = permute(b.departureSec, order);
+            this.sequence = permute(b.sequence, order);
+            this.headsignRef = permute(b.headsignRef, order);
+            this.shapeDist = permute(b.shapeDist, order);
+            this.flags = permute(b.flags, order);
+        }
+
+        this.stopsPresent = presentStops(stopRef);
+        this.stopCount = stopsPresent.cardinality();
+
+        if (indexByStop) {
+            int stopLimit = STOPS.size();
+            int[] so = new int[stopLimit + 1];
+            for (int i = 0; i < n; i++) {
+                so[stopRef[i] + 1]++;
+            }
+            for (int s = 0; s < stopLimit; s++) {
+                so[s + 1] += so[s];
+            }
+            int[] sc = Arrays.copyOf(so, stopLimit);
+            int[] rows = new int[n];
+            for (int i = 0; i < n; i++) {
+                rows[sc[stopRef[i]]++] = i;
+            }
+            this.stopOffsets = so;
+            this.stopRows = rows;
+        } else {
+            this.stopOffsets = null;
+            this.stopRows = null;
+        }
+    }
+
+    /**
+     * Costruttore da colonne già pronte (usato dalla lettura dello snapshot binario).
+     * I riferimenti trip/stop devono essere già id globali.
+     */
+    private StopTimesStore(
+            String[] headsigns,
+            int[] tripRef, int[] stopRef, int[] arrivalSec, int[] departureSec, int[] sequence,
+            int[] headsignRef, float[] shapeDist, byte[] flags,
+            int[] tripOffsets, int[] stopOffsets, int[] stopRows
+    ) {
+        this.headsigns = headsigns;
+        this.tripRef = tripRef;
+        this.stopRef = stopRef;
+        this.arrivalSec = arrivalSec;
+        this.departureSec = departureSec;
+        this.sequence = sequence;
+        this.headsignRef = headsignRef;
+        this.shapeDist = shapeDist;
+        this.flags = flags;
+        this.tripOffsets = tripOffsets;
+        this.stopOffsets = stopOffsets;
+        this.stopRows = stopRows;
+
+        int trips = 0;
+        for (int t = 0; t + 1 < tripOffsets.length; t++) {
+            if (tripOffsets[t + 1] > tripOffsets[t]) {
+                trips++;
+            }
+        }
+        this.tripCount = trips;
+        this.stopsPresent = presentStops(stopRef);
+        this.stopCount = stopsPresent.cardinality();
+    }
+
+    /**
+     * Costruisce uno store a partire dalla lista "classica" di modelli.
+     *
+     * @param stopTimes lista stop_times (righe null o senza trip_id/stop_id vengono scartate)
+     * @param indexByStop se true costruisce anche l'indice stop -> righe
+     * @return store immutabile (mai null)
+     */
+    public static StopTimesStore fromModels(List<StopTimesModel> stopTimes, boolean indexByStop) {
+        return fromModels(stopTimes, indexByStop, null);
+    }
+
+    /**
+     * Come {@link #fromModels(List, boolean)}, con la costruzione divisa in task su {@code pool}
+     * (vedi {@link Builder#build(boolean, ForkJoinPool)}).
+     *
+     * @param stopTimes lista stop_times (righe null o senza trip_id/stop_id vengono scartate)
+     * @param indexByStop se true costruisce anche l'indice stop -> righe
+     * @param pool pool per la costruzione (null = sequenziale)
+     * @return store immutabile
+     */
+    public static StopTimesStore fromModels(List<StopTimesModel> stopTimes, boolean indexByStop, ForkJoinPool pool) {
+        Builder b = new Builder(stopTimes == null ? 16 : stopTimes.size());
+        if (stopTimes != null) {
+            for (StopTimesModel st : stopTimes) {
+                b.add(st);
+            }
+        }
+        return b.build(indexByStop, pool);
+    }
+
+    // =========================
+    // Dimensioni / id
+    // =========================
+
+    /** @return numero di righe (stop_times) nello store */
+    public int size() {
+        return tripRef.length;
+    }
+
+    /** @return numero di trip distinti con almeno una riga */
+    public int tripCount() {
+        return tripCount;
+    }
+
+    /** @return numero di stop distinti referenziati dagli stop_times */
+    public int stopCount() {
+        return stopCount;
+    }
+
+    /**
+     * @return limite (escluso) degli indici trip accettati da {@link #tripStart(int)} / {@link #tripEnd(int)}:
+     *         gli array indicizzati per trip vanno dimensionati così
+     */
+    public int tripIdLimit() {
+        return tripOffsets.length - 1;
+    }
+
+    /**
+     * @return limite (escluso) degli indici stop referenziati dallo store
+     */
+    public int stopIdLimit() {
+        return (stopOffsets != null) ? stopOffsets.length - 1 : stopsPresent.length();
+    }
+
+    /** @return true se l'indice stop -> righe è disponibile */
+    public boolean hasStopIndex() {
+        return stopRows != null;
+    }
+
+    /**
+     * @param tripId trip_id GTFS
+     * @return indice del trip (id globale), oppure -1 se il trip non ha stop_times
+     */
+    public int tripIndex(String tripId) {
+        if (tripId == null) {
+            return -1;
+        }
+        int idx = TRIPS.idOf(tripId.trim());
+        return hasTrip(idx) ? idx : -1;
+    }
+
+    /**
+     * @param tripIdx id globale del trip ({@link GtfsIdDictionary#TRIPS})
+     * @return true se il trip ha almeno una riga nello store
+     */
+    public boolean hasTrip(int tripIdx) {
+        return tripIdx >= 0 && tripIdx + 1 < tripOffsets.length && tripOffsets[tripIdx + 1] > tripOffsets[tripIdx];
+    }
+
+    /**
+     * @param stopId stop_id GTFS
+     * @return indice dello stop (id globale), oppure -1 se lo stop non compare negli stop_times
+     */
+    public int stopIndex(String stopId) {
+        if (stopId == null) {
+            return -1;
+        }
+        int idx = STOPS.idOf(stopId.trim());
+        return hasStop(idx) ? idx : -1;
+    }
+
+    /**
+     * @param stopIdx id globale dello stop ({@link GtfsIdDictionary#STOPS})
+     * @return true se lo stop compare in almeno una riga dello store
+     */
+    public boolean hasStop(int stopIdx) {
+        return stopIdx >= 0 && stopsPresent.get(stopIdx);
+    }
+
+    /** @return trip_id associato all'indice */
+    public String tripId(int tripIndex) {
+        return TRIPS.name(tripIndex);
+    }
+
+    /** @return stop_id associato all'indice */
+    public String stopId(int stopIndex) {
+        return STOPS.name(stopIndex);
+    }
+
+    // =========================
+    // Accesso per riga (hot path)
+    // =========================
+
+    /** @return prima riga del trip (inclusa) */
+    public int tripStart(int tripIndex) {
+        return tripOffsets[tripIndex];
+    }
+
+    /** @return ultima riga del trip (esclusa) */
+    public int tripEnd(int tripIndex) {
+        return tripOffsets[tripIndex + 1];
+    }
+
+    /** @return indice denso del trip della riga */
+    public int tripRef(int row) {
+        return tripRef[row];
+    }
+
+    /** @return indice denso dello stop della riga */
+    public int stopRef(int row) {
+        return stopRef[row];
+    }
+
+    /** @return arrival_time in secondi (può superare 86400), oppure {@link #NO_TIME} */
+    public int arrivalSec(int row) {
+        return arrivalSec[row];
+    }
+
+    /** @return departure_time in secondi (può superare 86400), oppure {@link #NO_TIME} */
+    public int departureSec(int row) {
+        return departureSec[row];
+    }
+
+    /** @return stop_sequence, oppure {@link #NO_SEQUENCE} */
+    public int sequence(int row) {
+        return sequence[row];
+    }
+
+    /** @return pickup_type (0..3), oppure -1 se assente */
+    public int pickupType(int row) {
+        return (flags[row] & 0x07) - 1;
+    }
+
+    /** @return drop_off_type (0..3), oppure -1 se assente */
+    public int dropOffType(int row) {
+        return ((flags[row] >> 3) & 0x07) - 1;
+    }
+
+    /** @return timepoint (0/1), oppure -1 se assente */
+    public int timepoint(int row) {
+        return ((flags[row] >> 6) & 0x03) - 1;
+    }
+
+    /**
+     * Restituisce le righe che toccano uno stop.
+     * Richiede l'indice per stop; in sua assenza effettua uno scan della colonna {@code stopRef}.
+     *
+     * @param stopIndex indice dello stop (id globale)
+     * @return array di righe (mai null)
+     */
+    public int[] rowsForStop(int stopIndex) {
+        if (stopIndex < 0 || !stopsPresent.get(stopIndex)) {
+            return new int[0];
+        }
+        if (stopRows != null) {
+            return Arrays.copyOfRange(stopRows, stopOffsets[stopIndex], stopOffsets[stopIndex + 1]);
+        }
+
+        int count = 0;
+        int[] tmp = new int[16];
+        for (int i = 0; i < stopRef.length; i++) {
+            if (stopRef[i] == stopIndex) {
+                if (count == tmp.length) {
+                    tmp = Arrays.copyOf(tmp, count * 2);
+                }
+                tmp[count++] = i;
+            }
+        }
+        return Arrays.copyOf(tmp, count);
+    }
+
+    // =========================
+    // Viste compatibili (List<StopTimesModel>)
+    // =========================
+
+    /**
+     * Vista (lazy) su tutte le righe, raggruppate per trip e ordinate per stop_sequence.
+     *
+     * @return lista read-only; ogni {@code get(i)} materializza un nuovo {@link StopTimesModel}
+     */
+    public List<StopTimesModel> viewAll() {
+        return new RowRangeView(0, size());
+    }
+
+    /**
+     * Vista (lazy) sugli stop_times di un trip, ordinati per stop_sequence.
+     *
+     * @param tripId trip_id GTFS
+     * @return lista read-only; ogni {@code get(i)} materializza un nuovo {@link StopTimesModel}
+     */
+    public List<StopTimesModel> viewForTrip(String tripId) {
+        int t = tripIndex(tripId);
+        if (t < 0) {
+            return List.of();
+        }
+        return new RowRangeView(tripOffsets[t], tripOffsets[t + 1]);
+    }
+
+    /**
+     * Vista (lazy) sugli stop_times di uno stop.
+     *
+     * @param stopId stop_id GTFS
+     * @return lista read-only; ogni {@code get(i)} materializza un nuovo {@link StopTimesModel}
+     */
+    public List<StopTimesModel> viewForStop(String stopId) {
+        int s = stopIndex(stopId);
+        if (s < 0) {
+            return List.of();
+        }
+        if (stopRows != null) {
+            return new RowArrayView(stopRows, stopOffsets[s], stopOffsets[s + 1]);
+        }
+        int[] rows = rowsForStop(s);
+        return new RowArrayView(rows, 0, rows.length);
+    }
+
+    /**
+     * Ricostruisce il modello "classico" di una riga.
+     *
+     * @param row indice di riga
+     * @return nuova istanza di {@link StopTimesModel}
+     */
+    public StopTimesModel toModel(int row) {
+        StopTimesModel st = new StopTimesModel();
+        st.setTrip_id(TRIPS.name(tripRef[row]));
+        st.setStop_id(STOPS.name(stopRef[row]));
+        st.setArrival_time(formatGtfsTime(arrivalSec[row]));
+        st.setDeparture_time(formatGtfsTime(departureSec[row]));
+        st.setStop_sequence(sequence[row] == NO_SEQUENCE ? "" : String.valueOf(sequence[row]));
+        st.setStop_headsign(headsigns[headsignRef[row]]);
+        st.setPickup_type(formatFlag(pickupType(row)));
+        st.setDrop_off_type(formatFlag(dropOffType(row)));
+        st.setShape_dist_traveled(Float.isNaN(shapeDist[row]) ? "" : formatDistance(shapeDist[row]));
+        st.setTimepoint(formatFlag(timepoint(row)));
+        return st;
+    }
+
+    /**
+     * Stima (approssimata, JVM 64 bit con compressed oops) dell'occupazione heap dello store.
+     * Le stringhe di trip_id / stop_id non sono contate: vivono nel {@link GtfsIdDictionary} condiviso.
+     *
+     * @return byte stimati
+     */
+    public long estimatedHeapBytes() {
+        long bytes = 0;
+        bytes += intArrayBytes(tripRef.length) * 6L;      // tripRef, stopRef, arr, dep, seq, headsignRef
+        bytes += 16L + 4L * shapeDist.length;             // float[]
+        bytes += 16L + flags.length;                      // byte[]
+        bytes += intArrayBytes(tripOffsets.length);
+        if (stopRows != null) {
+            bytes += intArrayBytes(stopOffsets.length) + intArrayBytes(stopRows.length);
+        }
+        bytes += 16L + stopsPresent.size() / 8;
+        bytes += dictionaryBytes(headsigns);
+        return bytes;
+    }
+
+    // =========================
+    // Parsing / formattazione orari
+    // =========================
+
+    /**
+     * Converte un orario GTFS "H:MM:SS" / "HH:MM:SS" in secondi dall'inizio del giorno di servizio.
+     *
+     * Regole:
+     * - ore ammesse fino a 47 (corse oltre la mezzanotte)
+     * - minuti e secondi in [0, 59]
+     *
+     * @param hhmmss orario GTFS
+     * @return secondi, oppure {@link #NO_TIME} se mancante o non valido
+     */
+    public static int parseGtfsSeconds(String hhmmss) {
+        if (hhmmss == null) {
+            return NO_TIME;
+        }
+        String s = hhmmss.trim();
+        int len = s.length();
+        int c1 = s.indexOf(':');
+        int c2 = (c1 < 0) ? -1 : s.indexOf(':', c1 + 1);
+        if (c1 <= 0 || c2 < 0 || c2 == c1 + 1 || c2 == len - 1) {
+            return NO_TIME;
+        }
+
+        int h = parseDigits(s, 0, c1);
+        int m = parseDigits(s, c1 + 1, c2);
+        int sec = parseDigits(s, c2 + 1, len);
+        if (h < 0 || m < 0 || sec < 0) {
+            return NO_TIME;
+        }
+        if (m >= 60 || sec >= 60 || h >= 48) {
+            return NO_TIME;
+        }
+        return h * 3600 + m * 60 + sec;
+    }
+
+    /**
+     * Formatta secondi GTFS in "HH:MM:SS" (ore anche oltre 24).
+     *
+     * @param seconds secondi dall'inizio del giorno di servizio
+     * @return stringa formattata, vuota se {@link #NO_TIME}
+     */
+    public static String formatGtfsTime(int seconds) {
+        if (seconds < 0) {
+            return "";
+        }
+        int h = seconds / 3600;
+        int m = (seconds % 3600) / 60;
+        int s = seconds % 60;
+        char[] out = new char[8];
+        out[0] = (char) ('0' + (h / 10) % 10);
+        out[1] = (char) ('0' + h % 10);
+        out[2] = ':';
+        out[3] = (char) ('0' + m / 10);
+        out[4] = (char) ('0' + m % 10);
+        out[5] = ':';
+        out[6] = (char) ('0' + s / 10);
+        out[7] = (char) ('0' + s % 10);
+        return new String(out);
+    }
+
+    // =========================
+    // Snapshot binario
+    // =========================
+
+    /**
+     * Scrive dizionari, colonne e indici nello snapshot (layout letto da {@link #readSnapshot}).
+     *
+     * Dettagli:
+     * - i riferimenti trip/stop sono scritti con gli id salvati dallo snapshot (sezione dizionari, prima
+     *   dei modelli): la rinumerazione è crescente, quindi l'ordine delle righe e degli indici non cambia
+     *   e basta rimappare riferimenti e offset.
+     *
+     * @param out scrittore dello snapshot
+     * @param tripMap id globale -> id salvato dei trip (deve coprire tutti i trip dello store)
+     * @param stopMap id globale -> id salvato degli stop (deve coprire tutti gli stop dello store)
+     * @throws IOException in caso di errori di scrittura
+     */
+    void writeSnapshot(StaticGtfsSnapshot.Output out, int[] tripMap, int[] stopMap) throws IOException {
+        out.strings(headsigns);
+        out.ints(remapRefs(tripRef, tripMap));
+        out.ints(remapRefs(stopRef, stopMap));
+        out.ints(arrivalSec);
+        out.ints(departureSec);
+        out.ints(sequence);
+        out.ints(headsignRef);
+        out.floats(shapeDist);
+        out.bytes(flags);
+        out.ints(remapOffsets(tripOffsets, tripMap));
+        out.bool(stopRows != null);
+        if (stopRows != null) {
+            out.ints(remapOffsets(stopOffsets, stopMap));
+            out.ints(stopRows);
+        }
+    }
+
+    /**
+     * Ricostruisce lo store dallo snapshot.
+     *
+     * Dettagli:
+     * - se gli id salvati coincidono con quelli del {@link GtfsIdDictionary} corrente (mappe null: caso tipico,
+     *   snapshot letto all'avvio) le colonne sono usate così come sono, senza riordinare né reindicizzare.
+     * - altrimenti (dizionario già popolato in un altro ordine) i riferimenti vengono rimappati
+     *   e lo store ricostruito tramite {@link Builder}.
+     *
+     * @param in lettore dello snapshot
+     * @param tripMap id salvato -> id globale dei trip (null = identità)
+     * @param stopMap id salvato -> id globale degli stop (null = identità)
+     * @return store immutabile
+     */
+    static StopTimesStore readSnapshot(StaticGtfsSnapshot.Input in, int[] tripMap, int[] stopMap) {
+        String[] heads = in.strings();
+        int[] tRef = in.ints();
+        int[] sRef = in.ints();
+        int[] arr = in.ints();
+        int[] dep = in.ints();
+        int[] seq = in.ints();
+        int[] hRef = in.ints();
+        float[] dist = in.floats();
+        byte[] fl = in.bytes();
+        int[] tOff = in.ints();
+        int[] sOff = null;
+        int[] sRows = null;
+        if (in.bool()) {
+            sOff = in.ints();
+            sRows = in.ints();
+        }
+        if (tripMap == null && stopMap == null) {
+            return new StopTimesStore(heads, tRef, sRef, arr, dep, seq, hRef, dist, fl, tOff, sOff, sRows);
+        }
+
+        Builder b = new Builder(tRef.length);
+        for (String h : heads) {
+            b.headsignDict.intern(h);
+        }
+        for (int i = 0; i < tRef.length; i++) {
+            b.addRaw(
+                    (tripMap == null) ? tRef[i] : tripMap[tRef[i]],
+                    (stopMap == null) ? sRef[i] : stopMap[sRef[i]],
+                    arr[i], dep[i], seq[i], hRef[i], dist[i], fl[i]
+            );
+        }
+        return b.build(sRows != null);
+    }
+
+    private static int[] remapRefs(int[] refs, int[] map) {
+        int[] out = new int[refs.length];
+        for (int i = 0; i < refs.length; i++) {
+            out[i] = map[refs[i]];
+        }
+        return out;
+    }
+
+    /**
+     * Offset per id salvato: gli id non salvati hanno intervalli vuoti, quindi l'inizio dell'id salvato
+     * coincide con l'inizio del suo id globale.
+     */
+    private static int[] remapOffsets(int[] offsets, int[] map) {
+        int limit = offsets.length - 1;
+        int saved = 0;
+        for (int m : map) {
+            if (m >= 0) {
+                saved++;
+            }
+        }
+        int[] out = new int[saved + 1];
+        for (int g = 0; g < map.length; g++) {
+            if (map[g] >= 0) {
+                out[map[g]] = offsets[Math.min(g, limit)];
+            }
+        }
+        out[saved] = offsets[limit];
+        return out;
+    }
+
+    private static BitSet presentStops(int[] stopRef) {
+        BitSet out = new BitSet();
+        for (int s : stopRef) {
+            out.set(s);
+        }
+        return out;
+    }
+
+    // =========================
+    // Builder (sink di parsing)
+    // =========================
+
+    /**
+     * Accumulatore a colonne usato durante il parsing.
+     *
+     * Note:
+     * - le righe senza trip_id o stop_id vengono scartate (non sono indicizzabili).
+     * - trip_id e stop_id vengono registrati subito nel {@link GtfsIdDictionary} globale (thread-safe:
+     *   più builder possono lavorare in parallelo su chunk diversi).
+     * - dopo {@link #build(boolean)} il builder non va più riutilizzato.
+     */
+    public static final class Builder {
+
+        private final Dictionary headsignDict = new Dictionary();
+
+        /** Ultimo trip/stop visto: gli stop_times sono raggruppati per trip, evita lookup ripetuti. */
+        private String lastTrip;
+        private int lastTripRef = -1;
+        private String lastStop;
+        private int lastStopRef = -1;
+
+        private int size;
+        private int[] tripRef;
+        private int[] stopRef;
+        private int[] arrivalSec;
+        private int[] departureSec;
+        private int[] sequence;
+        private int[] headsignRef;
+        private float[] shapeDist;
+        private byte[] flags;
+
+        /**
+         * @param expectedRows stima del numero di righe (solo per dimensionare i buffer)
+         */
+        public Builder(int expectedRows) {
+            int cap = Math.max(16, expectedRows);
+            tripRef = new int[cap];
+            stopRef = new int[cap];
+            arrivalSec = new int[cap];
+            departureSec = new int[cap];
+            sequence = new int[cap];
+            headsignRef = new int[cap];
+            shapeDist = new float[cap];
+            flags = new byte[cap];
+            headsignDict.intern("");
+        }
+
+        /**
+         * Aggiunge una riga a partire da un {@link StopTimesModel}.
+         *
+         * @param st riga stop_times (null ignorata)
+         * @return builder (fluent API)
+         */
+        public Builder add(StopTimesModel st) {
+            if (st == null) {
+                return this;
+            }
+            return add(
+                    st.getTrip_id(),
+                    parseGtfsSeconds(st.getArrival_time()),
+                    parseGtfsSeconds(st.getDeparture_time()),
+                    st.getStop_id(),
+                    parseSequence(st.getStop_sequence()),
+                    st.getStop_headsign(),
+                    parseFlag(st.getPickup_type()),
+                    parseFlag(st.getDrop_off_type()),
+                    parseDistance(st.getShape_dist_traveled()),
+                    parseFlag(st.getTimepoint())
+            );
+        }
+
+        /**
+         * Aggiunge una riga già convertita in primitivi.
+         *
+         * @param tripId trip_id GTFS
+         * @param arrival arrival_time in secondi ({@link #NO_TIME} se assente)
+         * @param departure departure_time in secondi ({@link #NO_TIME} se assente)
+         * @param stopId stop_id GTFS
+         * @param seq stop_sequence ({@link #NO_SEQUENCE} se assente)
+         * @param headsign stop_headsign (può essere null)
+         * @param pickup pickup_type (-1 se assente)
+         * @param dropOff drop_off_type (-1 se assente)
+         * @param dist shape_dist_traveled (NaN se assente)
+         * @param timepoint timepoint (-1 se assente)
+         * @return builder (fluent API)
+         */
+        public Builder add(String tripId, int arrival, int departure, String stopId, int seq,
+                           String headsign, int pickup, int dropOff, float dist, int timepoint) {
+            String tid = safe(tripId);
+            String sid = safe(stopId);
+            if (tid.isEmpty() || sid.isEmpty()) {
+                return this;
+            }
+            if (!tid.equals(lastTrip)) {
+                lastTrip = tid;
+                lastTripRef = TRIPS.intern(tid);
+            }
+            if (!sid.equals(lastStop)) {
+                lastStop = sid;
+                lastStopRef = STOPS.intern(sid);
+            }
+            return addRaw(lastTripRef, lastStopRef, arrival, departure, seq,
+                    headsignDict.intern(safe(headsign)), dist, packFlags(pickup, dropOff, timepoint));
+        }
+
+        private Builder addRaw(int trip, int stop, int arrival, int departure, int seq,
+                               int headsign, float dist, byte packedFlags) {
+            ensureCapacity(size + 1);
+            tripRef[size] = trip;
+            stopRef[size] = stop;
+            arrivalSec[size] = arrival;
+            departureSec[size] = departure;
+            sequence[size] = seq;
+            headsignRef[size] = headsign;
+            shapeDist[size] = dist;
+            flags[size] = packedFlags;
+            size++;
+            return this;
+        }
+
+        /**
+         * Accoda tutte le righe di un altro builder (es. un chunk parsato in parallelo).
+         *
+         * Dettagli:
+         * - trip/stop sono già id globali; solo gli stop_headsign vengono rimappati sul proprio dizionario
+         * - l'ordine delle righe è quello di chiamata: accodando i chunk in ordine si ottiene l'ordine del file
+         *
+         * @param other builder da accodare (non va più usato dopo la chiamata)
+         * @return builder (fluent API)
+         */
+        public Builder append(Builder other) {
+            if (other == null || other.size == 0) {
+                return this;
+            }
+            int[] headsignMap = remap(other.headsignDict, headsignDict);
+
+            ensureCapacity(size + other.size);
+            for (int i = 0; i < other.size; i++) {
+                int row = size + i;
+                headsignRef[row] = headsignMap[other.headsignRef[i]];
+            }
+            System.arraycopy(other.tripRef, 0, tripRef, size, other.size);
+            System.arraycopy(other.stopRef, 0, stopRef, size, other.size);
+            System.arraycopy(other.arrivalSec, 0, arrivalSec, size, other.size);
+            System.arraycopy(other.departureSec, 0, departureSec, size, other.size);
+            System.arraycopy(other.sequence, 0, sequence, size, other.size);
+            System.arraycopy(other.shapeDist, 0, shapeDist, size, other.size);
+            System.arraycopy(other.flags, 0, flags, size, other.size);
+            size += other.size;
+            return this;
+        }
+
+        private static int[] remap(Dictionary from, Dictionary to) {
+            String[] values = from.toArray();
+            int[] map = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                map[i] = to.intern(values[i]);
+            }
+            return map;
+        }
+
+        /** @return righe accumulate finora */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Chiude il builder e crea lo store immutabile.
+         *
+         * @param indexByStop se true costruisce anche l'indice stop -> righe
+         * @return store pronto all'uso
+         */
+        public StopTimesStore build(boolean indexByStop) {
+            return new StopTimesStore(this, indexByStop, null);
+        }
+
+        /**
+         * Come {@link #build(boolean)}, ma l'ordinamento per trip e la permutazione delle colonne
+         * vengono divisi in task su {@code pool}; il risultato è identico.
+         *
+         * @param indexByStop se true costruisce anche l'indice stop -> righe
+         * @param pool pool su cui eseguire i task (null o parallelismo 1 = costruzione sequenziale)
+         * @return store pronto all'uso
+         */
+        public StopTimesStore build(boolean indexByStop, ForkJoinPool pool) {
+            return new StopTimesStore(this, indexByStop, pool);
+        }
+
+        private void ensureCapacity(int min) {
+            if (min <= tripRef.length) {
+                return;
+            }
+            int cap = Math.max(min, tripRef.length + (tripRef.length >> 1));
+            tripRef = Arrays.copyOf(tripRef, cap);
+            stopRef = Arrays.copyOf(stopRef, cap);
+            arrivalSec = Arrays.copyOf(arrivalSec, cap);
+            departureSec = Arrays.copyOf(departureSec, cap);
+            sequence = Arrays.copyOf(sequence, cap);
+            headsignRef = Arrays.copyOf(headsignRef, cap);
+            shapeDist = Arrays.copyOf(shapeDist, cap);
+            flags = Arrays.copyOf(flags, cap);
+        }
+    }
+
+    /**
+     * Dizionario String -> int denso (ordine di prima apparizione).
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> index = new HashMap<>();
+        private String[] values = new String[64];
+
+        int intern(String s) {
+            Integer existing = index.get(s);
+            if (existing != null) {
+                return existing;
+            }
+            int id = index.size();
+            if (id == values.length) {
+                values = Arrays.copyOf(values, id * 2);
+            }
+            values[id] = s;
+            index.put(s, id);
+            return id;
+        }
+
+        String[] toArray() {
+            return Arrays.copyOf(values, index.size());
+        }
+    }
+
+    // =========================
+    // Viste
+    // =========================
+
+    /** Vista su un intervallo contiguo di righe (trip). */
+    private final class RowRangeView extends AbstractList<StopTimesModel> implements RandomAccess {
+        private final int from;
+        private final int to;
+
+        RowRangeView(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public StopTimesModel get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + (to - from));
+            }
+            return toModel(from + index);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    /** Vista su un sotto-array di indici di riga (stop). */
+    private final class RowArrayView extends AbstractList<StopTimesModel> implements RandomAccess {
+        private final int[] rows;
+        private final int from;
+        private final int to;
+
+        RowArrayView(int[] rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public StopTimesModel get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + (to - from));
+            }
+            return toModel(rows[from + index]);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    // =========================
+    // Utility interne
+    // =========================
+
+    private static boolean isSortedBySequence(int[] order, int from, int to, int[] seq) {
+        for (int i = from + 1; i < to; i++) {
+            if (sortableSequence(seq[order[i - 1]]) > sortableSequence(seq[order[i]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int sortableSequence(int seq) {
+        return (seq == NO_SEQUENCE) ? 0 : seq;
+    }
+
+    /**
+     * Ordina per stop_sequence i segmenti dei trip in [fromTrip, toTrip) (solo quelli non già ordinati).
+     * Segmenti di trip diversi sono disgiunti: più chiamate su intervalli diversi possono girare in parallelo.
+     */
+    private static void sortTripSegments(int[] order, int[] offsets, int fromTrip, int toTrip, int[] seq) {
+        long[] keys = new long[0];
+        for (int t = fromTrip; t < toTrip; t++) {
+            int from = offsets[t];
+            int to = offsets[t + 1];
+            if (isSortedBySequence(order, from, to, seq)) {
+                continue;
+            }
+            int len = to - from;
+            if (keys.length < len) {
+                keys = new long[len];
+            }
+            for (int k = 0; k < len; k++) {
+                int row = order[from + k];
+                keys[k] = ((long) sortableSequence(seq[row]) << 32) | row;
+            }
+            Arrays.sort(keys, 0, len);
+            for (int k = 0; k < len; k++) {
+                order[from + k] = (int) keys[k];
+            }
+        }
+    }
+
+    /**
+     * Divide i trip in al più {@code parts} intervalli contigui con un numero di righe simile.
+     *
+     * @return confini [b0=0, b1, ..., bk=tripLimit]
+     */
+    private static int[] tripPartitions(int[] offsets, int parts) {
+        int tripLimit = offsets.length - 1;
+        int rows = offsets[tripLimit];
+        int[] bounds = new int[parts + 1];
+        int k = 1;
+        int t = 0;
+        for (; k < parts; k++) {
+            long target = (long) rows * k / parts;
+            while (t < tripLimit && offsets[t] < target) {
+                t++;
+            }
+            bounds[k] = t;
+        }
+        bounds[parts] = tripLimit;
+        return bounds;
+    }
+
+    private static void joinAll(List<ForkJoinTask<?>> tasks) {
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    private static int[] permute(int[] src, int[] order) {
+        int[] out = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            out[i] = src[order[i]];
+        }
+        return out;
+    }
+
+    private static float[] permute(float[] src, int[] order) {
+        float[] out = new float[order.length];
+        for (int i = 0; i < order.length; i++) {
+            out[i] = src[order[i]];
+        }
+        return out;
+    }
+
+    private static byte[] permute(byte[] src, int[] order) {
+        byte[] out = new byte[order.length];
+        for (int i = 0; i < order.length; i++) {
+            out[i] = src[order[i]];
+        }
+        return out;
+    }
+
+    private static byte packFlags(int pickup, int dropOff, int timepoint) {
+        int p = (pickup < 0 || pickup > 6) ? 0 : pickup + 1;
+        int d = (dropOff < 0 || dropOff > 6) ? 0 : dropOff + 1;
+        int t = (timepoint < 0 || timepoint > 2) ? 0 : timepoint + 1;
+        return (byte) (p | (d << 3) | (t << 6));
+    }
+
+    private static int parseDigits(String s, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            v = v * 10 + (c - '0');
+            if (v > 1_000_000) {
+                return -1;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Parsing "sicuro" di stop_sequence.
+     *
+     * @param s stringa numerica
+     * @return valore, oppure {@link #NO_SEQUENCE}
+     */
+    static int parseSequence(String s) {
+        if (s == null) {
+            return NO_SEQUENCE;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return NO_SEQUENCE;
+        }
+    }
+
+    /**
+     * Parsing "sicuro" di un flag GTFS numerico (pickup_type, drop_off_type, timepoint).
+     *
+     * @param s stringa numerica
+     * @return valore, oppure -1 se assente/non valido
+     */
+    static int parseFlag(String s) {
+        if (s == null) {
+            return -1;
+        }
+        String t = s.trim();
+        if (t.length() != 1) {
+            return -1;
+        }
+        char c = t.charAt(0);
+        return (c >= '0' && c <= '6') ? c - '0' : -1;
+    }
+
+    /**
+     * Parsing "sicuro" di shape_dist_traveled.
+     *
+     * @param s stringa numerica
+     * @return valore, oppure NaN se assente/non valido
+     */
+    static float parseDistance(String s) {
+        if (s == null || s.isBlank()) {
+            return Float.NaN;
+        }
+        try {
+            return Float.parseFloat(s.trim());
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    static String formatFlag(int v) {
+        return (v < 0) ? "" : String.valueOf(v);
+    }
+
+    static String formatDistance(float v) {
+        if (v == (long) v) {
+            return String.valueOf((long) v);
+        }
+        return String.valueOf(v);
+    }
+
+    private static long intArrayBytes(int len) {
+        return 16L + 4L * len;
+    }
+
+    private static long dictionaryBytes(String[] values) {
+        // array + per voce: String (24) + byte[] (16 + len) + entry HashMap (~32) + Integer (16)
+        long bytes = 16L + 4L * values.length;
+        for (String v : values) {
+            bytes += 24 + 16 + v.length() + 32 + 16;
+        }
+        return bytes;
+    }
+
+    private static String safe(String s) {
+        return (s == null) ? "" : s.trim();
+    }
+}
@@ -0,0 +1,434 @@
+package Service.Parsing.Static;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.TripsModel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Orari di passaggio precalcolati per (fermata, linea, direzione).
+ *
+ * Responsabilità:
+ * - raggruppare una volta sola le righe di stop_times per (stop, route, direction_id)
+ * - tenere per ogni gruppo gli arrival_time ordinati ({@code int[]} in secondi) con i trip paralleli
+ * - rispondere a "prossimo passaggio dopo le X" con una ricerca binaria, saltando i trip che non circolano
+ * - elencare i prossimi passaggi di una fermata su tutte le linee (tabellone), in ordine di orario
+ *
+ * Contesto:
+ * - costruita dalla {@link StaticGtfsRepository} durante il caricamento, a partire dallo {@link StopTimesStore}.
+ * - usata da {@code ArrivalPredictionService} al posto della scansione trip per trip della linea.
+ *
+ * Note di progetto:
+ * - le righe senza arrival_time non entrano negli orari (come nella scansione precedente).
+ * - direction_id diversi da 0/1 (o assenti) finiscono nel gruppo "senza direzione";
+ *   la query con direzione -1 unisce tutti i gruppi della linea.
+ * - gli orari oltre le 24:00 restano nel giorno di servizio del trip: le corse notturne di ieri
+ *   vengono cercate spostando l'orario richiesto di 24 ore.
+ * - immutabile dopo la costruzione (thread-safe in lettura).
+ */
+public final class StopTimetables {
+
+    private static final int SECONDS_PER_DAY = 86_400;
+
+    /** Codici direzione nella chiave di gruppo. */
+    private static final int DIR_NONE = 0;
+    private static final int DIR_0 = 1;
+    private static final int DIR_1 = 2;
+
+    /** Chiave (stop, route, direzione) -> indice di gruppo. */
+    private final Map<Long, Integer> groupByKey;
+
+    /** Gruppo g occupa [groupOffsets[g], groupOffsets[g+1]) in {@link #arrivalSec} / {@link #tripRef}. */
+    private final int[] groupOffsets;
+
+    /** Arrival_time in secondi, ordinati all'interno di ogni gruppo. */
+    private final int[] arrivalSec;
+
+    /** Trip (id globale) paralleli a {@link #arrivalSec}. */
+    private final int[] tripRef;
+
+    /** Route (id globale) e codice direzione di ogni gruppo. */
+    private final int[] groupRoute;
+    private final byte[] groupDir;
+
+    /** Fermata s -> gruppi [stopGroupOffsets[s], stopGroupOffsets[s+1]) in {@link #stopGroups}. */
+    private final int[] stopGroupOffsets;
+    private final int[] stopGroups;
+
+    private StopTimetables(Map<Long, Integer> groupByKey, int[] groupOffsets, int[] arrivalSec, int[] tripRef) {
+        this.groupByKey = groupByKey;
+        this.groupOffsets = groupOffsets;
+        this.arrivalSec = arrivalSec;
+        this.tripRef = tripRef;
+
+        int groupCount = groupOffsets.length - 1;
+        int[] groupStop = new int[groupCount];
+        this.groupRoute = new int[groupCount];
+        this.groupDir = new byte[groupCount];
+        int stopLimit = 0;
+        for (Map.Entry<Long, Integer> e : groupByKey.entrySet()) {
+            long key = e.getKey();
+            int g = e.getValue();
+            groupStop[g] = (int) (key >>> 32);
+            groupRoute[g] = (int) ((key >>> 2) & 0x3FFF_FFFF);
+            groupDir[g] = (byte) (key & 3);
+            stopLimit = Math.max(stopLimit, groupStop[g] + 1);
+        }
+
+        this.stopGroupOffsets = new int[stopLimit + 1];
+        for (int g = 0; g < groupCount; g++) {
+            stopGroupOffsets[groupStop[g] + 1]++;
+        }
+        for (int s = 0; s < stopLimit; s++) {
+            stopGroupOffsets[s + 1] += stopGroupOffsets[s];
+        }
+        int[] cursor = Arrays.copyOf(stopGroupOffsets, stopLimit);
+        this.stopGroups = new int[groupCount];
+        for (int g = 0; g < groupCount; g++) {
+            stopGroups[cursor[groupStop[g]]++] = g;
+        }
+    }
+
+    /**
+     * Spostamento (es. ritardo stimato) applicato a tutti i passaggi di una linea/direzione in una fermata.
+     */
+    @FunctionalInterface
+    public interface Shift {
+        /**
+         * @param routeIdx id globale della route
+         * @param directionId 0/1, oppure -1 se il gruppo non ha direzione
+         * @return secondi da sommare agli orari del gruppo
+         */
+        int seconds(int routeIdx, int directionId);
+    }
+
+    /**
+     * Riceve i passaggi del tabellone in ordine di orario.
+     */
+    @FunctionalInterface
+    public interface DepartureVisitor {
+        /**
+         * @param sec orario (spostato) in secondi sull'orologio di oggi
+         * @param tripIdx id globale del trip
+         * @param routeIdx id globale della route
+         * @param directionId 0/1, oppure -1 se il gruppo non ha direzione
+         * @return false per interrompere la visita
+         */
+        boolean visit(int sec, int tripIdx, int routeIdx, int directionId);
+    }
+
+    /**
+     * Costruisce gli orari con una passata sulle righe dello store più un ordinamento per gruppo.
+     *
+     * @param store stop_times in formato colonnare
+     * @param tripOf lookup id globale del trip -> TripsModel (null se sconosciuto)
+     * @return orari immutabili
+     */
+    static StopTimetables build(StopTimesStore store, IntFunction<TripsModel> tripOf) {
+        int tripLimit = store.tripIdLimit();
+        int[] routeOfTrip = new int[tripLimit];
+        byte[] dirOfTrip = new byte[tripLimit];
+        for (int t = 0; t < tripLimit; t++) {
+            TripsModel trip = store.hasTrip(t) ? tripOf.apply(t) : null;
+            String routeId = (trip == null || trip.getRoute_id() == null) ? "" : trip.getRoute_id().trim();
+            routeOfTrip[t] = routeId.isEmpty() ? -1 : GtfsIdDictionary.ROUTES.intern(routeId);
+            dirOfTrip[t] = (byte) ((trip == null) ? DIR_NONE : directionCode(trip.getDirection_id()));
+        }
+
+        // 1) gruppo di ogni riga + conteggio per gruppo
+        int n = store.size();
+        int[] groupOfRow = new int[n];
+        int[] counts = new int[64];
+        Map<Long, Integer> groups = new HashMap<>();
+        for (int row = 0; row < n; row++) {
+            int t = store.tripRef(row);
+            int route = routeOfTrip[t];
+            if (route < 0 || store.arrivalSec(row) < 0) {
+                groupOfRow[row] = -1;
+                continue;
+            }
+            long key = key(store.stopRef(row), route, dirOfTrip[t]);
+            Integer g = groups.get(key);
+            if (g == null) {
+                g = groups.size();
+                groups.put(key, g);
+                if (g == counts.length) {
+                    counts = Arrays.copyOf(counts, g * 2);
+                }
+            }
+            groupOfRow[row] = g;
+            counts[g]++;
+        }
+
+        // 2) CSR per gruppo
+        int groupCount = groups.size();
+        int[] offsets = new int[groupCount + 1];
+        for (int g = 0; g < groupCount; g++) {
+            offsets[g + 1] = offsets[g] + counts[g];
+        }
+        int[] cursor = Arrays.copyOf(offsets, groupCount);
+        long[] keys = new long[offsets[groupCount]];
+        for (int row = 0; row < n; row++) {
+            int g = groupOfRow[row];
+            if (g < 0) {
+                continue;
+            }
+            // arrival nei 32 bit alti: l'ordinamento per chiave è l'ordinamento per orario
+            keys[cursor[g]++] = ((long) store.arrivalSec(row) << 32) | store.tripRef(row);
+        }
+
+        // 3) ordinamento per orario dentro ogni gruppo
+        int[] arr = new int[keys.length];
+        int[] trips = new int[keys.length];
+        for (int g = 0; g < groupCount; g++) {
+            Arrays.sort(keys, offsets[g], offsets[g + 1]);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            arr[i] = (int) (keys[i] >>> 32);
+            trips[i] = (int) keys[i];
+        }
+        return new StopTimetables(groups, offsets, arr, trips);
+    }
+
+    // =========================
+    // Query
+    // =========================
+
+    /**
+     * Prossimo passaggio di una linea in una fermata, sull'orologio di oggi.
+     *
+     * Dettagli:
+     * - per i trip di oggi cerca il primo orario {@code >= nowSec}
+     * - per i trip di ieri cerca il primo orario {@code >= nowSec + 24h} (corse oltre la mezzanotte)
+     *   e lo riporta su oggi
+     * - in entrambi i casi parte dalla ricerca binaria e salta solo i trip che non circolano
+     *
+     * @param stopId stop_id GTFS
+     * @param routeId route_id GTFS
+     * @param directionId direction_id (0/1), oppure -1 per tutte le direzioni
+     * @param nowSec secondi dall'inizio del giorno di oggi
+     * @param runsToday trip (id globale) che circolano nel giorno di servizio di oggi
+     * @param runsYesterday trip (id globale) che circolano nel giorno di servizio di ieri
+     * @return secondi (sull'orologio di oggi) del prossimo passaggio, oppure {@link StopTimesStore#NO_TIME}
+     */
+    public int nextArrival(String stopId, String routeId, int directionId, int nowSec,
+                           IntPredicate runsToday, IntPredicate runsYesterday) {
+        if (stopId == null || routeId == null) {
+            return StopTimesStore.NO_TIME;
+        }
+        int stop = GtfsIdDictionary.STOPS.idOf(stopId.trim());
+        int route = GtfsIdDictionary.ROUTES.idOf(routeId.trim());
+        if (stop < 0 || route < 0) {
+            return StopTimesStore.NO_TIME;
+        }
+
+        int best = Integer.MAX_VALUE;
+        if (directionId == -1) {
+            best = nextInGroup(group(stop, route, DIR_NONE), nowSec, runsToday, runsYesterday, best);
+            best = nextInGroup(group(stop, route, DIR_0), nowSec, runsToday, runsYesterday, best);
+            best = nextInGroup(group(stop, route, DIR_1), nowSec, runsToday, runsYesterday, best);
+        } else {
+            int code = directionCode(directionId);
+            if (code != DIR_NONE) {
+                best = nextInGroup(group(stop, route, code), nowSec, runsToday, runsYesterday, best);
+            }
+        }
+        return (best == Integer.MAX_VALUE) ? StopTimesStore.NO_TIME : best;
+    }
+
+    /**
+     * Passaggi di una fermata su tutte le linee, in ordine di orario (tabellone).
+     *
+     * Dettagli:
+     * - stessi criteri di {@link #nextArrival}: trip di oggi con orario {@code >= nowSec}, trip di ieri
+     *   oltre le 24:00 riportati su oggi
+     * - ogni gruppo (linea, direzione) ha uno spostamento costante, quindi resta ordinato: i gruppi vengono
+     *   fusi (merge a k vie) partendo dalla ricerca binaria, senza ordinare né materializzare i passaggi
+     * - la visita si ferma quando il visitor restituisce false o l'orario supera {@code untilSec}:
+     *   il costo dipende dalle righe prodotte, non dalla dimensione degli orari
+     *
+     * @param stopId stop_id GTFS
+     * @param nowSec secondi dall'inizio del giorno di oggi
+     * @param untilSec ultimo orario (spostato) incluso
+     * @param runsToday trip (id globale) che circolano nel giorno di servizio di oggi
+     * @param runsYesterday trip (id globale) che circolano nel giorno di servizio di ieri
+     * @param shift spostamento per linea/direzione (null = nessuno)
+     * @param visitor destinatario dei passaggi
+     */
+    public void forEachDeparture(String stopId, int nowSec, int untilSec,
+                                 IntPredicate runsToday, IntPredicate runsYesterday,
+                                 Shift shift, DepartureVisitor visitor) {
+        int stop = (stopId == null) ? -1 : GtfsIdDictionary.STOPS.idOf(stopId.trim());
+        if (stop < 0 || stop + 1 >= stopGroupOffsets.length) {
+            return;
+        }
+
+        // corsie: per ogni gruppo una per oggi e una per ieri (orari oltre le 24:00)
+        int groups = stopGroupOffsets[stop + 1] - stopGroupOffsets[stop];
+        int lanes = groups * 2;
+        int[] laneGroup = new int[lanes];
+        int[] laneShift = new int[lanes];
+        int[] laneCursor = new int[lanes];
+        PriorityQueue<Long> heap = new PriorityQueue<>(Math.max(1, lanes));
+
+        for (int i = 0; i < groups; i++) {
+            int g = stopGroups[stopGroupOffsets[stop] + i];
+            int dir = directionOf(groupDir[g]);
+            int delta = (shift == null) ? 0 : shift.seconds(groupRoute[g], dir);
+            int from = groupOffsets[g];
+            int to = groupOffsets[g + 1];
+
+            laneGroup[2 * i] = g;
+            laneShift[2 * i] = delta;
+            laneCursor[2 * i] = lowerBound(from, to, nowSec);
+
+            laneGroup[2 * i + 1] = g;
+            laneShift[2 * i + 1] = delta - SECONDS_PER_DAY;
+            laneCursor[2 * i + 1] = lowerBound(from, to, nowSec + SECONDS_PER_DAY);
+
+            push(heap, 2 * i, laneCursor, laneGroup, laneShift, untilSec);
+            push(heap, 2 * i + 1, laneCursor, laneGroup, laneShift, untilSec);
+        }
+
+        while (!heap.isEmpty()) {
+            long top = heap.poll();
+            int lane = (int) top;
+            int sec = (int) (top >> 32);
+            int g = laneGroup[lane];
+            int row = laneCursor[lane]++;
+
+            IntPredicate runs = ((lane & 1) == 0) ? runsToday : runsYesterday;
+            if (runs.test(tripRef[row])
+                    && !visitor.visit(sec, tripRef[row], groupRoute[g], directionOf(groupDir[g]))) {
+                return;
+            }
+            push(heap, lane, laneCursor, laneGroup, laneShift, untilSec);
+        }
+    }
+
+    /** Inserisce nel heap il prossimo passaggio della corsia (chiave: orario nei 32 bit alti, corsia nei bassi). */
+    private void push(PriorityQueue<Long> heap, int lane, int[] laneCursor, int[] laneGroup, int[] laneShift,
+                      int untilSec) {
+        int row = laneCursor[lane];
+        if (row >= groupOffsets[laneGroup[lane] + 1]) {
+            return;
+        }
+        int sec = arrivalSec[row] + laneShift[lane];
+        if (sec <= untilSec) {
+            heap.add(((long) sec << 32) | lane);
+        }
+    }
+
+    /**
+     * @param stopId stop_id GTFS
+     * @param routeId route_id GTFS
+     * @param directionId direction_id (0/1), oppure -1 per il gruppo senza direzione
+     * @return numero di passaggi in orario per la combinazione (0 se sconosciuta)
+     */
+    public int size(String stopId, String routeId, int directionId) {
+        if (stopId == null || routeId == null) {
+            return 0;
+        }
+        int g = group(GtfsIdDictionary.STOPS.idOf(stopId.trim()), GtfsIdDictionary.ROUTES.idOf(routeId.trim()),
+                directionCode(directionId));
+        return (g < 0) ? 0 : groupOffsets[g + 1] - groupOffsets[g];
+    }
+
+    /** @return numero di gruppi (stop, route, direzione) */
+    public int groupCount() {
+        return groupOffsets.length - 1;
+    }
+
+    /**
+     * Stima (approssimata) dell'heap occupato: due int per passaggio più la mappa dei gruppi.
+     *
+     * @return byte stimati
+     */
+    public long estimatedHeapBytes() {
+        long bytes = 16L + 4L * arrivalSec.length;
+        bytes += 16L + 4L * tripRef.length;
+        bytes += 16L + 4L * groupOffsets.length;
+        bytes += 16L + 5L * groupRoute.length;
+        bytes += 32L + 4L * (stopGroupOffsets.length + stopGroups.length);
+        bytes += groupByKey.size() * (32L + 24L + 16L);
+        return bytes;
+    }
+
+    // =========================
+    // Utility interne
+    // =========================
+
+    private int nextInGroup(int g, int nowSec, IntPredicate runsToday, IntPredicate runsYesterday, int best) {
+        if (g < 0) {
+            return best;
+        }
+        int from = groupOffsets[g];
+        int to = groupOffsets[g + 1];
+
+        for (int i = lowerBound(from, to, nowSec); i < to && arrivalSec[i] < best; i++) {
+            if (runsToday.test(tripRef[i])) {
+                best = arrivalSec[i];
+                break;
+            }
+        }
+        for (int i = lowerBound(from, to, nowSec + SECONDS_PER_DAY); i < to; i++) {
+            int onToday = arrivalSec[i] - SECONDS_PER_DAY;
+            if (onToday >= best) {
+                break;
+            }
+            if (runsYesterday.test(tripRef[i])) {
+                best = onToday;
+                break;
+            }
+        }
+        return best;
+    }
+
+    /** @return primo indice in [from, to) con orario {@code >= sec} (to se nessuno) */
+    private int lowerBound(int from, int to, int sec) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (arrivalSec[mid] < sec) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int group(int stop, int route, int dirCode) {
+        if (stop < 0 || route < 0) {
+            return -1;
+        }
+        Integer g = groupByKey.get(key(stop, route, dirCode));
+        return (g == null) ? -1 : g;
+    }
+
+    private static long key(int stop, int route, int dirCode) {
+        return ((long) stop << 32) | ((long) route << 2) | dirCode;
+    }
+
+    private static int directionOf(int dirCode) {
+        return (dirCode == DIR_0) ? 0 : (dirCode == DIR_1) ? 1 : -1;
+    }
+
+    private static int directionCode(int directionId) {
+        return (directionId == 0) ? DIR_0 : (directionId == 1) ? DIR_1 : DIR_NONE;
+    }
+
+    private static int directionCode(String directionId) {
+        if (directionId == null) {
+            return DIR_NONE;
+        }
+        String d = directionId.trim();
+        return "0".equals(d) ? DIR_0 : "1".equals(d) ? DIR_1 : DIR_NONE;
+    }
+}
@@ -0,0 +1,365 @@
+package Service.Parsing.Static;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.TripsModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Indice dei "journey pattern" del GTFS static: trip raggruppati per sequenza di fermate.
+ *
+ * Responsabilità:
+ * - raggruppare i trip di ogni (route, direction_id) per sequenza ordinata di fermate distinta (pattern)
+ * - memorizzare la sequenza di fermate una sola volta per pattern
+ * - per ogni trip tenere solo pattern, orario di partenza e profilo dei tempi (offset deduplicati)
+ * - contare i trip per pattern, così la scelta del percorso "tipico" di una linea è esatta
+ *
+ * Contesto:
+ * - costruito dalla {@link StaticGtfsRepository} durante il caricamento, a partire dallo {@link StopTimesStore}.
+ * - usato per la lista fermate di una linea ({@code TripStopsService}) e per il trip rappresentativo.
+ *
+ * Note di progetto:
+ * - un profilo è la coppia di vettori (offset arrivo, offset partenza) rispetto all'orario base del trip
+ *   (partenza della prima fermata, o arrivo se manca): trip dello stesso pattern con le stesse
+ *   percorrenze condividono il profilo, quindi un trip costa tre int.
+ * - gli orari mancanti restano tali ({@link StopTimesStore#NO_TIME}) anche ricostruiti.
+ * - i pattern di una (route, direzione) sono ordinati per numero di trip decrescente
+ *   (a parità, ordine di prima apparizione).
+ * - immutabile dopo la costruzione (thread-safe in lettura).
+ */
+public final class TripPatterns {
+
+    /** Offset "orario mancante" nei profili (NO_TIME = -1 è un offset valido). */
+    private static final int NO_OFFSET = Integer.MIN_VALUE;
+
+    // ---- pattern (CSR sulle fermate) ----
+    private final int[] patternOffsets;
+    private final int[] patternStops;
+    private final int[] patternTrips;
+    /** Posizione del pattern nell'ordinamento della sua (route, direzione): 0 = più frequente. */
+    private final int[] patternRank;
+
+    // ---- profili (CSR allineato alla lunghezza del pattern) ----
+    private final int[] profileOffsets;
+    private final int[] profileArrival;
+    private final int[] profileDeparture;
+
+    // ---- per trip (indicizzati per id globale, -1 = nessuna riga) ----
+    private final int[] tripPattern;
+    private final int[] tripProfile;
+    private final int[] tripBase;
+
+    /** (route, direzione) -> pattern ordinati per numero di trip decrescente. */
+    private final Map<Long, int[]> patternsByRouteDir;
+
+    private TripPatterns(int[] patternOffsets, int[] patternStops, int[] patternTrips, int[] patternRank,
+                         int[] profileOffsets, int[] profileArrival, int[] profileDeparture,
+                         int[] tripPattern, int[] tripProfile, int[] tripBase,
+                         Map<Long, int[]> patternsByRouteDir) {
+        this.patternOffsets = patternOffsets;
+        this.patternStops = patternStops;
+        this.patternTrips = patternTrips;
+        this.patternRank = patternRank;
+        this.profileOffsets = profileOffsets;
+        this.profileArrival = profileArrival;
+        this.profileDeparture = profileDeparture;
+        this.tripPattern = tripPattern;
+        this.tripProfile = tripProfile;
+        this.tripBase = tripBase;
+        this.patternsByRouteDir = patternsByRouteDir;
+    }
+
+    /**
+     * Costruisce l'indice con una passata sui trip dello store.
+     *
+     * @param store stop_times in formato colonnare (righe di un trip contigue e ordinate)
+     * @param tripOf lookup id globale del trip -> TripsModel (null se sconosciuto)
+     * @return indice immutabile
+     */
+    static TripPatterns build(StopTimesStore store, IntFunction<TripsModel> tripOf) {
+        int tripLimit = store.tripIdLimit();
+        int[] tripPattern = new int[tripLimit];
+        int[] tripProfile = new int[tripLimit];
+        int[] tripBase = new int[tripLimit];
+        Arrays.fill(tripPattern, -1);
+        Arrays.fill(tripProfile, -1);
+
+        Map<IntsKey, Integer> patternIds = new HashMap<>();
+        Map<IntsKey, Integer> profileIds = new HashMap<>();
+        List<int[]> patterns = new ArrayList<>();
+        List<int[]> profiles = new ArrayList<>();
+        int[] tripsPerPattern = new int[64];
+        Map<Long, List<Integer>> byRouteDir = new LinkedHashMap<>();
+
+        for (int t = 0; t < tripLimit; t++) {
+            if (!store.hasTrip(t)) {
+                continue;
+            }
+            int from = store.tripStart(t);
+            int n = store.tripEnd(t) - from;
+
+            TripsModel trip = tripOf.apply(t);
+            int route = routeIndex(trip);
+            int dir = (trip == null) ? -1 : parseIntSafe(trip.getDirection_id(), -1);
+
+            // pattern = [route, dir, stop...]
+            int[] pk = new int[n + 2];
+            pk[0] = route;
+            pk[1] = dir;
+            for (int i = 0; i < n; i++) {
+                pk[i + 2] = store.stopRef(from + i);
+            }
+            Integer p = patternIds.get(new IntsKey(pk));
+            if (p == null) {
+                p = patterns.size();
+                patternIds.put(new IntsKey(pk), p);
+                patterns.add(Arrays.copyOfRange(pk, 2, pk.length));
+                if (p == tripsPerPattern.length) {
+                    tripsPerPattern = Arrays.copyOf(tripsPerPattern, p * 2);
+                }
+                byRouteDir.computeIfAbsent(routeDirKey(route, dir), k -> new ArrayList<>()).add(p);
+            }
+            tripsPerPattern[p]++;
+
+            // profilo = [pattern, offset arrivo..., offset partenza...]
+            int base = baseTime(store, from);
+            int[] fk = new int[2 * n + 1];
+            fk[0] = p;
+            for (int i = 0; i < n; i++) {
+                fk[1 + i] = offset(store.arrivalSec(from + i), base);
+                fk[1 + n + i] = offset(store.departureSec(from + i), base);
+            }
+            Integer f = profileIds.get(new IntsKey(fk));
+            if (f == null) {
+                f = profiles.size();
+                profileIds.put(new IntsKey(fk), f);
+                profiles.add(fk);
+            }
+
+            tripPattern[t] = p;
+            tripProfile[t] = f;
+            tripBase[t] = base;
+        }
+
+        // CSR pattern -> fermate
+        int[] po = new int[patterns.size() + 1];
+        for (int p = 0; p < patterns.size(); p++) {
+            po[p + 1] = po[p] + patterns.get(p).length;
+        }
+        int[] ps = new int[po[patterns.size()]];
+        for (int p = 0; p < patterns.size(); p++) {
+            System.arraycopy(patterns.get(p), 0, ps, po[p], patterns.get(p).length);
+        }
+
+        // CSR profilo -> offset (arrivo e partenza allineati)
+        int[] fo = new int[profiles.size() + 1];
+        for (int f = 0; f < profiles.size(); f++) {
+            fo[f + 1] = fo[f] + (profiles.get(f).length - 1) / 2;
+        }
+        int[] fa = new int[fo[profiles.size()]];
+        int[] fd = new int[fo[profiles.size()]];
+        for (int f = 0; f < profiles.size(); f++) {
+            int[] fk = profiles.get(f);
+            int n = (fk.length - 1) / 2;
+            System.arraycopy(fk, 1, fa, fo[f], n);
+            System.arraycopy(fk, 1 + n, fd, fo[f], n);
+        }
+
+        int[] counts = Arrays.copyOf(tripsPerPattern, patterns.size());
+        int[] ranks = new int[patterns.size()];
+        Map<Long, int[]> sorted = new HashMap<>(byRouteDir.size() * 2);
+        for (Map.Entry<Long, List<Integer>> e : byRouteDir.entrySet()) {
+            int[] ordered = e.getValue().stream()
+                    .sorted((a, b) -> Integer.compare(counts[b], counts[a]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            for (int r = 0; r < ordered.length; r++) {
+                ranks[ordered[r]] = r;
+            }
+            sorted.put(e.getKey(), ordered);
+        }
+
+        return new TripPatterns(po, ps, counts, ranks, fo, fa, fd, tripPattern, tripProfile, tripBase, sorted);
+    }
+
+    // =========================
+    // Pattern
+    // =========================
+
+    /** @return numero di pattern distinti */
+    public int patternCount() {
+        return patternTrips.length;
+    }
+
+    /** @return numero di profili dei tempi distinti */
+    public int profileCount() {
+        return profileOffsets.length - 1;
+    }
+
+    /** @return numero di fermate del pattern */
+    public int stopCount(int pattern) {
+        return patternOffsets[pattern + 1] - patternOffsets[pattern];
+    }
+
+    /** @return fermata (id globale) in posizione {@code i} del pattern */
+    public int stopRef(int pattern, int i) {
+        return patternStops[patternOffsets[pattern] + i];
+    }
+
+    /** @return numero di trip che seguono il pattern */
+    public int tripCount(int pattern) {
+        return patternTrips[pattern];
+    }
+
+    /**
+     * @param pattern id del pattern (-1 ammesso)
+     * @return posizione del pattern tra quelli della sua (route, direzione), 0 = più frequente; -1 se non valido
+     */
+    public int rankOf(int pattern) {
+        return (pattern >= 0 && pattern < patternRank.length) ? patternRank[pattern] : -1;
+    }
+
+    /**
+     * @param routeId route_id GTFS
+     * @param directionId direction_id
+     * @return pattern della route in quella direzione, dal più frequente (vuoto se nessuno)
+     */
+    public int[] patterns(String routeId, int directionId) {
+        int[] p = patternsOf(routeId, directionId);
+        return (p == null) ? new int[0] : p.clone();
+    }
+
+    /**
+     * @param routeId route_id GTFS
+     * @param directionId direction_id
+     * @return pattern con più trip per la route in quella direzione, oppure -1
+     */
+    public int mostFrequentPattern(String routeId, int directionId) {
+        int[] p = patternsOf(routeId, directionId);
+        return (p == null || p.length == 0) ? -1 : p[0];
+    }
+
+    // =========================
+    // Trip
+    // =========================
+
+    /** @return pattern del trip (id globale), oppure -1 se il trip non ha stop_times */
+    public int patternOfTrip(int tripIdx) {
+        return (tripIdx >= 0 && tripIdx < tripPattern.length) ? tripPattern[tripIdx] : -1;
+    }
+
+    /**
+     * @param tripIdx id globale del trip (con pattern)
+     * @param i posizione della fermata nel pattern
+     * @return arrival_time in secondi ricostruito, oppure {@link StopTimesStore#NO_TIME}
+     */
+    public int arrivalSec(int tripIdx, int i) {
+        return restore(profileArrival[profileOffsets[tripProfile[tripIdx]] + i], tripBase[tripIdx]);
+    }
+
+    /**
+     * @param tripIdx id globale del trip (con pattern)
+     * @param i posizione della fermata nel pattern
+     * @return departure_time in secondi ricostruito, oppure {@link StopTimesStore#NO_TIME}
+     */
+    public int departureSec(int tripIdx, int i) {
+        return restore(profileDeparture[profileOffsets[tripProfile[tripIdx]] + i], tripBase[tripIdx]);
+    }
+
+    /**
+     * Stima (approssimata) dell'heap occupato dall'indice.
+     *
+     * @return byte stimati
+     */
+    public long estimatedHeapBytes() {
+        long bytes = 0;
+        bytes += 16L + 4L * patternOffsets.length;
+        bytes += 16L + 4L * patternStops.length;
+        bytes += 16L + 4L * patternTrips.length;
+        bytes += 16L + 4L * patternRank.length;
+        bytes += 16L + 4L * profileOffsets.length;
+        bytes += 16L + 4L * profileArrival.length;
+        bytes += 16L + 4L * profileDeparture.length;
+        bytes += 3 * (16L + 4L * tripPattern.length);
+        for (int[] p : patternsByRouteDir.values()) {
+            bytes += 32L + 24L + 16L + 4L * p.length;
+        }
+        return bytes;
+    }
+
+    // =========================
+    // Utility interne
+    // =========================
+
+    private int[] patternsOf(String routeId, int directionId) {
+        if (routeId == null) {
+            return null;
+        }
+        int route = GtfsIdDictionary.ROUTES.idOf(routeId.trim());
+        return (route < 0) ? null : patternsByRouteDir.get(routeDirKey(route, directionId));
+    }
+
+    private static int routeIndex(TripsModel trip) {
+        String routeId = (trip == null || trip.getRoute_id() == null) ? "" : trip.getRoute_id().trim();
+        return routeId.isEmpty() ? -1 : GtfsIdDictionary.ROUTES.intern(routeId);
+    }
+
+    private static long routeDirKey(int route, int dir) {
+        return ((long) route << 32) | (dir & 0xFFFFFFFFL);
+    }
+
+    private static int baseTime(StopTimesStore store, int firstRow) {
+        int dep = store.departureSec(firstRow);
+        if (dep != StopTimesStore.NO_TIME) {
+            return dep;
+        }
+        int arr = store.arrivalSec(firstRow);
+        return (arr != StopTimesStore.NO_TIME) ? arr : 0;
+    }
+
+    private static int offset(int sec, int base) {
+        return (sec == StopTimesStore.NO_TIME) ? NO_OFFSET : sec - base;
+    }
+
+    private static int restore(int offset, int base) {
+        return (offset == NO_OFFSET) ? StopTimesStore.NO_TIME : base + offset;
+    }
+
+    private static int parseIntSafe(String s, int def) {
+        if (s == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /** Chiave hash su un int[] (contenuto, non identità). */
+    private static final class IntsKey {
+        final int[] a;
+        final int hash;
+
+        IntsKey(int[] a) {
+            this.a = a;
+            this.hash = Arrays.hashCode(a);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntsKey k && k.hash == hash && Arrays.equals(k.a, a);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -2,13 +2,8 @@ package Service.Parsing;
 
 import Model.Parsing.Static.RoutesModel;
 import Model.Parsing.Static.StopTimesModel;
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
+import Model.Parsing.Static.TripsModel;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -18,7 +13,7 @@ import java.util.stream.Collectors;
  *
  * Usa:
  *  - stop_times.txt/csv  -> trip_id per quello stop_id
- *  - trips.csv           -> route_id per trip_id
+ *  - trips.csv           -> route_id per trip_id (tramite la cache di {@link TripsService})
  *  - routes.csv          -> dettagli della route (short_name, long_name, ...)
  *
  * Creatore: Simone Bonuso
@@ -32,25 +27,10 @@ public class StopLinesService {
     private static Set<String> readRouteIdsForTrips(Set<String> tripIds, String tripsCsvPath) {
         Set<String> routeIds = new HashSet<>();
 
-        try (CSVReader reader = new CSVReader(
-                new InputStreamReader(new FileInputStream(tripsCsvPath), StandardCharsets.UTF_8))) {
-
-            String[] next;
-            reader.readNext(); // header
-
-            while ((next = reader.readNext()) != null) {
-                if (next.length < 3) continue;
-
-                String csvRouteId = next[0].trim(); // route_id
-                String csvTripId  = next[2].trim(); // trip_id
-
-                if (tripIds.contains(csvTripId)) {
-                    routeIds.add(csvRouteId);
-                }
+        for (TripsModel trip : TripsService.getAllTrips(tripsCsvPath)) {
+            if (tripIds.contains(trip.getTrip_id())) {
+                routeIds.add(trip.getRoute_id());
             }
-
-        } catch (IOException | CsvValidationException e) {
-            System.err.println("Errore lettura trips.csv in StopLinesService: " + e.getMessage());
         }
 
         return routeIds;
@@ -1,18 +1,19 @@
 package Service.Parsing;
 
+import Model.Parsing.Static.GtfsIdDictionary;
 import Model.Parsing.Static.RoutesModel;
 import Model.Parsing.Static.StopTimesModel;
 import Model.Parsing.Static.TripsModel;
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
+import Service.Parsing.Csv.GtfsCsvReader;
+import Service.Parsing.Static.RouteStopIncidence;
+import Service.Parsing.Static.StopTimesDiskStore;
+import Service.Parsing.Static.StopTimesStore;
+import Service.Parsing.Static.StaticGtfsFeed;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Service di lettura e utilità per {@code stop_times.csv} (GTFS static).
@@ -36,6 +37,12 @@ public class StopTimesService {
      */
     private static final Map<String, List<StopTimesModel>> cachedStopTimesByPath = new ConcurrentHashMap<>();
 
+    /**
+     * Incidenza linea <-> fermata per coppia (trips path, stop_times path), usata quando i path
+     * non appartengono al feed pubblicato.
+     */
+    private static final Map<String, RouteStopIncidence> cachedIncidenceByPaths = new ConcurrentHashMap<>();
+
     // =========================
     // Data access
     // =========================
@@ -50,6 +57,11 @@ public class StopTimesService {
         if (filePath == null || filePath.isBlank()) {
             return List.of();
         }
+        StaticGtfsFeed feed = StaticGtfsFeed.serving(StaticGtfsFeed.Source.STOP_TIMES, filePath);
+        if (feed != null) {
+            StopTimesDiskStore disk = feed.repository().getStopTimesOnDisk();
+            return (disk != null) ? disk.viewAll() : feed.repository().getStopTimesStore().viewAll();
+        }
         return cachedStopTimesByPath.computeIfAbsent(filePath, StopTimesService::readFromCSV);
     }
 
@@ -63,6 +75,7 @@ public class StopTimesService {
             return;
         }
         cachedStopTimesByPath.put(filePath, readFromCSV(filePath));
+        cachedIncidenceByPaths.keySet().removeIf(k -> k.endsWith("\n" + filePath));
     }
 
     /**
@@ -71,14 +84,52 @@ public class StopTimesService {
      */
     public static void clearCache() {
         cachedStopTimesByPath.clear();
+        cachedIncidenceByPaths.clear();
+    }
+
+    /**
+     * Matrice di incidenza linea <-> fermata per i file indicati.
+     *
+     * Strategia:
+     * - se entrambi i path appartengono al feed pubblicato usa quella della repository
+     * - altrimenti la costruisce una volta per coppia di path (store colonnare + trips) e la tiene in cache
+     *
+     * @param tripsPath path trips.csv
+     * @param stopTimesPath path stop_times.csv
+     * @return matrice di incidenza (mai null; vuota se i file non sono leggibili)
+     */
+    public static RouteStopIncidence getRouteStopIncidence(String tripsPath, String stopTimesPath) {
+        StaticGtfsFeed feed = StaticGtfsFeed.serving(StaticGtfsFeed.Source.STOP_TIMES, stopTimesPath);
+        if (feed != null && feed.serves(StaticGtfsFeed.Source.TRIPS, tripsPath)) {
+            return feed.repository().getRouteStopIncidence();
+        }
+        return cachedIncidenceByPaths.computeIfAbsent(tripsPath + "\n" + stopTimesPath, k -> {
+            TripsModel[] tripById = new TripsModel[0];
+            for (TripsModel t : TripsService.getAllTrips(tripsPath)) {
+                String id = (t == null || t.getTrip_id() == null) ? "" : t.getTrip_id().trim();
+                int idx = GtfsIdDictionary.TRIPS.intern(id);
+                if (idx < 0) {
+                    continue;
+                }
+                if (idx >= tripById.length) {
+                    tripById = Arrays.copyOf(tripById, Math.max(idx + 1, tripById.length * 2));
+                }
+                if (tripById[idx] == null) {
+                    tripById[idx] = t;
+                }
+            }
+            TripsModel[] trips = tripById;
+            StopTimesStore store = StopTimesStore.fromModels(getAllStopTimes(stopTimesPath), false);
+            return RouteStopIncidence.build(store, t -> (t >= 0 && t < trips.length) ? trips[t] : null);
+        });
     }
 
     /**
      * Parsing diretto del CSV (senza cache).
      *
      * Assunzioni:
-     * - presenza dell'header in prima riga
-     * - layout minimo di 10 colonne (secondo il dataset usato nel progetto)
+     * - presenza dell'header in prima riga: le colonne sono individuate per nome
+     * - obbligatorie: trip_id, stop_id (le altre, se assenti, restano stringhe vuote)
      *
      * @param filePath path del file stop_times.csv
      * @return lista di {@link StopTimesModel} (mai null)
@@ -86,32 +137,36 @@ public class StopTimesService {
     private static List<StopTimesModel> readFromCSV(String filePath) {
         List<StopTimesModel> stopsTimesList = new ArrayList<>();
 
-        try (CSVReader reader = new CSVReader(
-                new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8)
-        )) {
-            String[] nextLine;
-            reader.readNext(); // header
-
-            while ((nextLine = reader.readNext()) != null) {
-                if (nextLine.length < 10) {
-                    continue; // riga malformata
-                }
+        try {
+            GtfsCsvReader.read(filePath, header -> {
+                int cTrip = header.require("trip_id");
+                int cArr = header.column("arrival_time");
+                int cDep = header.column("departure_time");
+                int cStop = header.require("stop_id");
+                int cSeq = header.column("stop_sequence");
+                int cHead = header.column("stop_headsign");
+                int cPick = header.column("pickup_type");
+                int cDrop = header.column("drop_off_type");
+                int cDist = header.column("shape_dist_traveled");
+                int cTp = header.column("timepoint");
 
-                StopTimesModel stopTimes = new StopTimesModel();
-                stopTimes.setTrip_id(safe(nextLine[0]));
-                stopTimes.setArrival_time(safe(nextLine[1]));
-                stopTimes.setDeparture_time(safe(nextLine[2]));
-                stopTimes.setStop_id(safe(nextLine[3]));
-                stopTimes.setStop_sequence(safe(nextLine[4]));
-                stopTimes.setStop_headsign(safe(nextLine[5]));
-                stopTimes.setPickup_type(safe(nextLine[6]));
-                stopTimes.setDrop_off_type(safe(nextLine[7]));
-                stopTimes.setShape_dist_traveled(safe(nextLine[8]));
-                stopTimes.setTimepoint(safe(nextLine[9]));
+                return row -> {
+                    StopTimesModel stopTimes = new StopTimesModel();
+                    stopTimes.setTrip_id(GtfsIdDictionary.TRIPS.canonical(row.string(cTrip)));
+                    stopTimes.setArrival_time(row.string(cArr));
+                    stopTimes.setDeparture_time(row.string(cDep));
+                    stopTimes.setStop_id(GtfsIdDictionary.STOPS.canonical(row.string(cStop)));
+                    stopTimes.setStop_sequence(row.string(cSeq));
+                    stopTimes.setStop_headsign(row.string(cHead));
+                    stopTimes.setPickup_type(row.string(cPick));
+                    stopTimes.setDrop_off_type(row.string(cDrop));
+                    stopTimes.setShape_dist_traveled(row.string(cDist));
+                    stopTimes.setTimepoint(row.string(cTp));
 
-                stopsTimesList.add(stopTimes);
-            }
-        } catch (IOException | CsvValidationException e) {
+                    stopsTimesList.add(stopTimes);
+                };
+            });
+        } catch (IOException e) {
             System.err.println("Errore nella lettura/CSV di stop_times: " + e.getMessage());
         }
 
@@ -119,13 +174,114 @@ public class StopTimesService {
     }
 
     /**
-     * Trim "sicuro": evita null.
+     * Parsing diretto del CSV verso lo store colonnare (senza passare dai modelli e senza cache).
+     *
+     * Dettagli:
+     * - orari, sequence e flag vengono decodificati direttamente dai byte del file
+     * - le stringhe allocate sono solo trip_id/stop_id/headsign (ripetute su righe consecutive → riusate)
+     * - usa il pool comune: vedi {@link #readStore(String, boolean, ForkJoinPool)}
      *
-     * @param s stringa in input
-     * @return stringa trim()mata oppure vuota se null
+     * @param filePath path del file stop_times.csv
+     * @param indexByStop true per costruire anche l'indice per stop_id
+     * @return store (vuoto se path non valido o in caso di errori)
      */
-    private static String safe(String s) {
-        return (s == null) ? "" : s.trim();
+    public static StopTimesStore readStore(String filePath, boolean indexByStop) {
+        return readStore(filePath, indexByStop, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Come {@link #readStore(String, boolean)}, ma il file viene diviso in chunk su confini di riga
+     * e i chunk vengono parsati in parallelo su {@code pool}; i builder parziali sono poi accodati in ordine di file
+     * e lo store finale viene ordinato per trip sullo stesso pool.
+     *
+     * @param filePath path del file stop_times.csv
+     * @param indexByStop true per costruire anche l'indice per stop_id
+     * @param pool pool su cui parsare i chunk (null o parallelismo 1 = parsing sequenziale sul thread chiamante)
+     * @return store (vuoto se path non valido o in caso di errori)
+     */
+    public static StopTimesStore readStore(String filePath, boolean indexByStop, ForkJoinPool pool) {
+        StopTimesStore.Builder merged = new StopTimesStore.Builder(1024);
+        if (filePath == null || filePath.isBlank()) {
+            return merged.build(indexByStop);
+        }
+
+        try {
+            if (pool == null || pool.getParallelism() <= 1) {
+                // un solo worker: dividere in chunk aggiungerebbe solo il costo del merge
+                StopTimesStore.Builder builder = merged;
+                GtfsCsvReader.read(filePath, header -> sinkFor(header, builder));
+                return merged.build(indexByStop);
+            }
+
+
+            List<StopTimesStore.Builder> chunks = GtfsCsvReader.readChunks(
+                    filePath,
+                    pool,
+                    new GtfsCsvReader.ChunkSinkFactory<>() {
+                        @Override
+                        public StopTimesStore.Builder newChunk() {
+                            return new StopTimesStore.Builder(1024);
+                        }
+
+                        @Override
+                        public GtfsCsvReader.RowSink open(GtfsCsvReader.Header header, StopTimesStore.Builder chunk)
+                                throws IOException {
+                            return sinkFor(header, chunk);
+                        }
+                    }
+            );
+
+            if (chunks.size() == 1) {
+                return chunks.get(0).build(indexByStop, pool);
+            }
+            int rows = 0;
+            for (StopTimesStore.Builder chunk : chunks) {
+                rows += chunk.size();
+            }
+            merged = new StopTimesStore.Builder(rows);
+            for (StopTimesStore.Builder chunk : chunks) {
+                merged.append(chunk);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Errore nella lettura/CSV di stop_times: " + e.getMessage());
+            merged = new StopTimesStore.Builder(16);
+        }
+        return merged.build(indexByStop, pool);
+    }
+
+    /**
+     * Crea il sink che riversa le righe di stop_times in un {@link StopTimesStore.Builder}.
+     *
+     * @param header header del file
+     * @param builder builder di destinazione
+     * @return sink per {@link GtfsCsvReader}
+     * @throws IOException se mancano trip_id o stop_id
+     */
+    public static GtfsCsvReader.RowSink sinkFor(GtfsCsvReader.Header header, StopTimesStore.Builder builder)
+            throws IOException {
+        int cTrip = header.require("trip_id");
+        int cArr = header.column("arrival_time");
+        int cDep = header.column("departure_time");
+        int cStop = header.require("stop_id");
+        int cSeq = header.column("stop_sequence");
+        int cHead = header.column("stop_headsign");
+        int cPick = header.column("pickup_type");
+        int cDrop = header.column("drop_off_type");
+        int cDist = header.column("shape_dist_traveled");
+        int cTp = header.column("timepoint");
+
+        return row -> builder.add(
+                row.string(cTrip),
+                row.gtfsSeconds(cArr),
+                row.gtfsSeconds(cDep),
+                row.string(cStop),
+                row.intValue(cSeq, StopTimesStore.NO_SEQUENCE),
+                row.string(cHead),
+                row.intValue(cPick, -1),
+                row.intValue(cDrop, -1),
+                row.floatValue(cDist, Float.NaN),
+                row.intValue(cTp, -1)
+        );
     }
 
     // =========================
@@ -136,8 +292,8 @@ public class StopTimesService {
      * Restituisce le route che passano per una fermata.
      *
      * Strategia (join corretto GTFS):
-     * 1) stop_times: ricavo tutti i trip_id che passano per lo stop
-     * 2) trips: dai trip_id ricavo i route_id
+     * 1-2) stop_times + trips: route_id che passano per lo stop, dalla {@link RouteStopIncidence}
+     *      (join calcolato una volta per coppia di file)
      * 3) routes: dai route_id ricavo i {@link RoutesModel}
      *
      * Nota:
@@ -159,34 +315,18 @@ public class StopTimesService {
             return List.of();
         }
 
-        // 1) trip_id che passano per lo stop
-        List<String> tripIdsAtStop = StopTimesService.getAllStopTimes(stopTimesPath).stream()
-                .filter(st -> st != null && stopId.equals(st.getStop_id()))
-                .map(StopTimesModel::getTrip_id)
-                .filter(Objects::nonNull)
-                .map(String::trim)
-                .filter(s -> !s.isBlank())
-                .distinct()
-                .toList();
-
-        if (tripIdsAtStop.isEmpty()) {
+        // 1-2) route che servono lo stop (join precalcolato)
+        RouteStopIncidence incidence = getRouteStopIncidence(tripsPath, stopTimesPath);
+        int[] routeIdx = incidence.routesAtStop(GtfsIdDictionary.STOPS.idOf(stopId.trim()));
+        if (routeIdx.length == 0) {
             return List.of();
         }
-
-        // 2) route_id dei trip
-        Set<String> routeIds = TripsService.getAllTrips(tripsPath).stream()
-                .filter(t -> t != null && t.getTrip_id() != null && tripIdsAtStop.contains(t.getTrip_id().trim()))
-                .map(TripsModel::getRoute_id)
-                .filter(Objects::nonNull)
-                .map(String::trim)
-                .filter(s -> !s.isBlank())
-                .collect(Collectors.toCollection(LinkedHashSet::new)); // mantiene ordine
-
-        if (routeIds.isEmpty()) {
-            return List.of();
+        Set<String> routeIds = new HashSet<>(routeIdx.length * 2);
+        for (int r : routeIdx) {
+            routeIds.add(GtfsIdDictionary.ROUTES.name(r));
         }
 
-        // 3) RoutesModel per quei route_id
+        // 3) RoutesModel per quei route_id (ordine di routes.csv)
         List<RoutesModel> out = new ArrayList<>();
         for (RoutesModel r : RoutesService.getAllRoutes(routesPath)) {
             if (r == null) {
@@ -204,7 +344,7 @@ public class StopTimesService {
      * Restituisce gli stop_id toccati da un insieme di routes (join GTFS).
      *
      * Join:
-     * route_id -> trips(trip_id) -> stop_times(stop_id)
+     * route_id -> trips(trip_id) -> stop_times(stop_id), precalcolato nella {@link RouteStopIncidence}
      *
      * @param routes lista di routes
      * @param tripsPath path trips.csv
@@ -226,37 +366,21 @@ public class StopTimesService {
             return List.of();
         }
 
-        // routeIds
-        List<String> routeIds = routes.stream()
-                .filter(r -> r != null && r.getRoute_id() != null && !r.getRoute_id().isBlank())
-                .map(r -> r.getRoute_id().trim())
-                .distinct()
-                .toList();
-
+        List<String> routeIds = new ArrayList<>(routes.size());
+        for (RoutesModel r : routes) {
+            if (r != null && r.getRoute_id() != null && !r.getRoute_id().isBlank()) {
+                routeIds.add(r.getRoute_id());
+            }
+        }
         if (routeIds.isEmpty()) {
             return List.of();
         }
 
-        // tripIds delle route
-        List<String> tripIds = TripsService.getAllTrips(tripsPath).stream()
-                .filter(t -> t != null && t.getRoute_id() != null && routeIds.contains(t.getRoute_id().trim()))
-                .map(TripsModel::getTrip_id)
-                .filter(id -> id != null && !id.isBlank())
-                .map(String::trim)
-                .distinct()
-                .toList();
-
-        if (tripIds.isEmpty()) {
-            return List.of();
+        BitSet stops = getRouteStopIncidence(tripsPath, stopTimesPath).stopsOfRoutes(routeIds);
+        List<String> out = new ArrayList<>(stops.cardinality());
+        for (int st = stops.nextSetBit(0); st >= 0; st = stops.nextSetBit(st + 1)) {
+            out.add(GtfsIdDictionary.STOPS.name(st));
         }
-
-        // stopIds dagli stop_times filtrati per trip_id
-        return getAllStopTimes(stopTimesPath).stream()
-                .filter(st -> st != null && st.getTrip_id() != null && tripIds.contains(st.getTrip_id().trim()))
-                .map(StopTimesModel::getStop_id)
-                .filter(id -> id != null && !id.isBlank())
-                .map(String::trim)
-                .distinct()
-                .toList();
+        return out;
     }
 }
\ No newline at end of file
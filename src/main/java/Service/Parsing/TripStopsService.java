@@ -1,8 +1,10 @@
 package Service.Parsing;
 
+import Model.Parsing.Static.GtfsIdDictionary;
 import Model.Parsing.Static.StopTimesModel;
 import Model.Points.StopModel;
 import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.TripPatterns;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -13,13 +15,14 @@ import java.util.Objects;
  *
  * Responsabilità:
  * - dato {@code routeId} e {@code directionId}, selezionare un trip rappresentativo
- * - usare gli {@code stop_times} del trip per ricostruire l'elenco ordinato delle fermate
+ * - tradurre la sequenza del suo pattern di fermate (o, senza indice, i suoi {@code stop_times})
+ *   nell'elenco ordinato delle fermate
  *
  * Contesto:
  * - usato in modalità LINEA (LINE-mode) per mostrare la lista fermate della linea selezionata.
  *
  * Note di progetto:
- * - la sequenza dipende dal "trip rappresentativo" scelto dalla repository:
+ * - la sequenza è quella del percorso seguito dal maggior numero di trip (tra quelli che circolano oggi):
  *   se nel dataset esistono più varianti di percorso, la lista potrebbe non coprire tutte le varianti.
  * - questo metodo non fa I/O: usa esclusivamente la {@link StaticGtfsRepository}.
  */
@@ -35,9 +38,10 @@ public class TripStopsService {
      * Restituisce la lista ordinata di fermate per una determinata route e direzione.
      *
      * Strategia:
-     * 1) ottiene un trip rappresentativo per {@code routeId + directionId}
-     * 2) legge gli stop_times del trip (già ordinati per stop_sequence nella repository, se indice attivo)
-     * 3) traduce ogni stop_id in {@link StopModel}
+     * 1) ottiene un trip rappresentativo per {@code routeId + directionId} (pattern più frequente tra quelli attivi)
+     * 2) se disponibili i {@link TripPatterns}, usa la sequenza (già deduplicata) del suo pattern;
+     *    altrimenti ne legge gli stop_times (già ordinati per stop_sequence nella repository)
+     * 3) traduce ogni fermata in {@link StopModel}
      *
      * @param routeId route_id GTFS
      * @param directionId direction_id GTFS (di solito 0 o 1)
@@ -57,6 +61,20 @@ public class TripStopsService {
             return List.of();
         }
 
+        TripPatterns patterns = repo.getTripPatterns();
+        int pattern = (patterns == null) ? -1 : patterns.patternOfTrip(GtfsIdDictionary.TRIPS.idOf(tripId));
+        if (pattern >= 0) {
+            int n = patterns.stopCount(pattern);
+            ArrayList<StopModel> out = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                StopModel stop = repo.getStopByIndex(patterns.stopRef(pattern, i));
+                if (stop != null) {
+                    out.add(stop);
+                }
+            }
+            return out;
+        }
+
         List<StopTimesModel> stopTimes = repo.getStopTimesForTrip(tripId);
         if (stopTimes == null || stopTimes.isEmpty()) {
             return List.of();
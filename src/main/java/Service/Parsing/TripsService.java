@@ -1,13 +1,11 @@
 package Service.Parsing;
 
+import Model.Parsing.Static.GtfsIdDictionary;
 import Model.Parsing.Static.TripsModel;
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
+import Service.Parsing.Csv.GtfsCsvReader;
+import Service.Parsing.Static.StaticGtfsFeed;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +46,10 @@ public class TripsService {
         if (filePath == null || filePath.isBlank()) {
             return List.of();
         }
+        StaticGtfsFeed feed = StaticGtfsFeed.serving(StaticGtfsFeed.Source.TRIPS, filePath);
+        if (feed != null) {
+            return feed.trips();
+        }
         return cachedTripsByPath.computeIfAbsent(filePath, TripsService::readFromCSV);
     }
 
@@ -75,54 +77,49 @@ public class TripsService {
      * Parsing diretto dal CSV (senza cache).
      *
      * Assunzioni:
-     * - presenza dell'header in prima riga
-     * - layout minimo di 10 colonne (come nel parser originale del progetto)
+     * - presenza dell'header in prima riga: le colonne sono individuate per nome
+     * - obbligatorie: route_id, trip_id (le altre, se assenti, restano stringhe vuote)
      *
      * @param filePath path del file trips.csv
      * @return lista di {@link TripsModel} (mai null)
      */
-    private static List<TripsModel> readFromCSV(String filePath) {
+    public static List<TripsModel> readFromCSV(String filePath) {
         List<TripsModel> tripsList = new ArrayList<>();
 
-        try (CSVReader reader = new CSVReader(
-                new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8)
-        )) {
-            String[] nextLine;
-            reader.readNext(); // header
-
-            while ((nextLine = reader.readNext()) != null) {
-                if (nextLine.length < 10) {
-                    continue; // riga malformata
-                }
+        try {
+            GtfsCsvReader.read(filePath, header -> {
+                int cRoute = header.require("route_id");
+                int cService = header.column("service_id");
+                int cTrip = header.require("trip_id");
+                int cHeadsign = header.column("trip_headsign");
+                int cShortName = header.column("trip_short_name");
+                int cDir = header.column("direction_id");
+                int cBlock = header.column("block_id");
+                int cShape = header.column("shape_id");
+                int cWheelchair = header.column("wheelchair_accessible");
+                int cExceptional = header.column("exceptional");
 
-                TripsModel trip = new TripsModel();
-                trip.setRoute_id(safe(nextLine[0]));
-                trip.setService_id(safe(nextLine[1]));
-                trip.setTrip_id(safe(nextLine[2]));
-                trip.setTrip_headsign(safe(nextLine[3]));
-                trip.setTrip_short_name(safe(nextLine[4]));
-                trip.setDirection_id(safe(nextLine[5]));
-                trip.setBlock_id(safe(nextLine[6]));
-                trip.setShape_id(safe(nextLine[7]));
-                trip.setWheelchair_accessible(safe(nextLine[8]));
-                trip.setExceptional(safe(nextLine[9]));
+                return row -> {
+                    TripsModel trip = new TripsModel();
+                    trip.setRoute_id(GtfsIdDictionary.ROUTES.canonical(row.string(cRoute)));
+                    trip.setService_id(row.string(cService));
+                    trip.setTrip_id(GtfsIdDictionary.TRIPS.canonical(row.string(cTrip)));
+                    trip.setTrip_headsign(row.string(cHeadsign));
+                    trip.setTrip_short_name(row.string(cShortName));
+                    trip.setDirection_id(row.string(cDir));
+                    trip.setBlock_id(row.string(cBlock));
+                    trip.setShape_id(row.string(cShape));
+                    trip.setWheelchair_accessible(row.string(cWheelchair));
+                    trip.setExceptional(row.string(cExceptional));
 
-                tripsList.add(trip);
-            }
-        } catch (IOException | CsvValidationException e) {
+                    tripsList.add(trip);
+                };
+            });
+        } catch (IOException e) {
             System.err.println("Errore nella lettura/CSV trips: " + e.getMessage());
         }
 
         return tripsList;
     }
 
-    /**
-     * Trim "sicuro": evita null.
-     *
-     * @param s stringa in input
-     * @return stringa trim()mata oppure vuota se null
-     */
-    private static String safe(String s) {
-        return (s == null) ? "" : s.trim();
-    }
 }
\ No newline at end of file
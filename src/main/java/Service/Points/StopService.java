@@ -1,30 +1,25 @@
 package Service.Points;
 
+import Model.Parsing.Static.GtfsIdDictionary;
 import Model.Parsing.Static.RoutesModel;
-import Model.Parsing.Static.StopTimesModel;
-import Model.Parsing.Static.TripsModel;
 import Model.Points.StopModel;
 
 import Service.Index.StopSearchIndexV2;
 import Service.Parsing.StopTimesService;
-import Service.Parsing.TripsService;
+import Service.Parsing.Static.StaticGtfsFeed;
 import Service.Util.TextNormalize;
 
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
+import Service.Parsing.Csv.GtfsCsvReader;
 import org.jxmapviewer.viewer.GeoPosition;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Service per la gestione delle fermate (stops.csv).
@@ -37,7 +32,9 @@ import java.util.stream.Collectors;
  * - offrire un join (routes -> trips -> stop_times -> stops) per ottenere le fermate servite da un insieme di linee
  *
  * Note di progetto:
- * - cache globale: se si cambia dataset a runtime va chiamato {@link #reloadStops(String)}.
+ * - se è pubblicato uno {@link StaticGtfsFeed} che comprende il path richiesto, fermate e indice
+ *   arrivano dal feed (versione unica, sostituita atomicamente dall'hot-reload).
+ * - altrimenti cache globale: se si cambia dataset a runtime va chiamato {@link #reloadStops(String)}.
  * - l'indice {@link StopSearchIndexV2} viene ricostruito quando la cache viene ricaricata.
  * - in caso di righe senza coordinate valide, la fermata viene scartata.
  */
@@ -61,6 +58,10 @@ public class StopService {
      * @return lista di fermate (mai null)
      */
     public static List<StopModel> getAllStops(String filePath) {
+        StaticGtfsFeed feed = StaticGtfsFeed.serving(StaticGtfsFeed.Source.STOPS, filePath);
+        if (feed != null) {
+            return feed.stops();
+        }
         if (cachedStops == null) {
             cachedStops = readFromCSV(filePath);
             indexV2 = new StopSearchIndexV2(cachedStops);
@@ -68,6 +69,22 @@ public class StopService {
         return cachedStops;
     }
 
+    /**
+     * Indice di ricerca da usare per il path: quello del feed pubblicato se il path gli appartiene,
+     * altrimenti quello costruito sulla cache locale.
+     *
+     * @param filePath path del file stops.csv
+     * @return indice (null solo se la cache non è inizializzabile)
+     */
+    private static StopSearchIndexV2 searchIndex(String filePath) {
+        StaticGtfsFeed feed = StaticGtfsFeed.serving(StaticGtfsFeed.Source.STOPS, filePath);
+        if (feed != null) {
+            return feed.stopIndex();
+        }
+        getAllStops(filePath);
+        return indexV2;
+    }
+
     /**
      * Ricarica fermate e indice dal file specificato.
      *
@@ -82,8 +99,8 @@ public class StopService {
      * Parsing diretto del CSV (senza cache).
      *
      * Assunzioni:
-     * - presenza dell'header in prima riga
-     * - layout minimo di 11 colonne (come nel dataset usato nel progetto)
+     * - presenza dell'header in prima riga: le colonne sono individuate per nome
+     * - obbligatorie: stop_id, stop_lat, stop_lon (le altre, se assenti, restano stringhe vuote)
      *
      * Scelte:
      * - se lat/lon non sono parsabili la fermata viene scartata (marker senza coordinate non utili in mappa).
@@ -91,45 +108,48 @@ public class StopService {
      * @param filePath path del file stops.csv
      * @return lista di fermate (mai null)
      */
-    private static List<StopModel> readFromCSV(String filePath) {
+    public static List<StopModel> readFromCSV(String filePath) {
         List<StopModel> stops = new ArrayList<>();
 
-        try (CSVReader reader = new CSVReader(
-                new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8)
-        )) {
-            String[] next;
-            reader.readNext(); // header
-
-            while ((next = reader.readNext()) != null) {
-                if (next.length < 11) {
-                    continue;
-                }
-
-                StopModel stop = new StopModel();
-                stop.setId(safe(next[0]));
-                stop.setCode(safe(next[1]));
-                stop.setName(safe(next[2]));
-                stop.setDescription(safe(next[3]));
-
-                try {
-                    stop.setLatitude(Double.parseDouble(safe(next[4])));
-                    stop.setLongitude(Double.parseDouble(safe(next[5])));
-                } catch (Exception ignored) {
-                    continue;
-                }
-
-                stop.setUrl(safe(next[6]));
-                stop.setWheelchair_boarding(safe(next[7]));
-                stop.setTimezone(safe(next[8]));
-                stop.setLocation_type(safe(next[9]));
-                stop.setParent_station(safe(next[10]));
-
-                stops.add(stop);
-            }
-
-        } catch (IOException | CsvValidationException e) {
+        try {
+            GtfsCsvReader.read(filePath, header -> {
+                int cId = header.require("stop_id");
+                int cCode = header.column("stop_code");
+                int cName = header.column("stop_name");
+                int cDesc = header.column("stop_desc");
+                int cLat = header.require("stop_lat");
+                int cLon = header.require("stop_lon");
+                int cUrl = header.column("stop_url");
+                int cWheelchair = header.column("wheelchair_boarding");
+                int cTimezone = header.column("stop_timezone");
+                int cLocationType = header.column("location_type");
+                int cParent = header.column("parent_station");
+
+                return row -> {
+                    double lat = row.doubleValue(cLat, Double.NaN);
+                    double lon = row.doubleValue(cLon, Double.NaN);
+                    if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                        return;
+                    }
+
+                    StopModel stop = new StopModel();
+                    stop.setId(GtfsIdDictionary.STOPS.canonical(row.string(cId)));
+                    stop.setCode(row.string(cCode));
+                    stop.setName(row.string(cName));
+                    stop.setDescription(row.string(cDesc));
+                    stop.setLatitude(lat);
+                    stop.setLongitude(lon);
+                    stop.setUrl(row.string(cUrl));
+                    stop.setWheelchair_boarding(row.string(cWheelchair));
+                    stop.setTimezone(row.string(cTimezone));
+                    stop.setLocation_type(row.string(cLocationType));
+                    stop.setParent_station(row.string(cParent));
+
+                    stops.add(stop);
+                };
+            });
+        } catch (IOException e) {
             System.err.println("Errore lettura stops.csv: " + e.getMessage());
-            e.printStackTrace();
         }
 
         return stops;
@@ -147,11 +167,11 @@ public class StopService {
      * @return fermata, oppure null se non trovata
      */
     public static StopModel findById(String id, String filePath) {
-        getAllStops(filePath);
-        if (indexV2 == null) {
+        StopSearchIndexV2 index = searchIndex(filePath);
+        if (index == null) {
             return null;
         }
-        return indexV2.findById(id);
+        return index.findById(id);
     }
 
     /**
@@ -165,11 +185,11 @@ public class StopService {
      * @return lista di fermate matchate (max 50)
      */
     public static List<StopModel> searchByName(String name, String filePath) {
-        getAllStops(filePath);
-        if (indexV2 == null) {
+        StopSearchIndexV2 index = searchIndex(filePath);
+        if (index == null) {
             return List.of();
         }
-        return indexV2.searchByName(name, 50);
+        return index.searchByName(name, 50);
     }
 
     /**
@@ -198,20 +218,20 @@ public class StopService {
      * @return lista risultati (max 50)
      */
     public static List<StopModel> searchByCode(String code, String filePath) {
-        getAllStops(filePath);
-        if (indexV2 == null) {
+        StopSearchIndexV2 index = searchIndex(filePath);
+        if (index == null) {
             return List.of();
         }
         if (code == null || code.isBlank()) {
             return List.of();
         }
 
-        StopModel exact = indexV2.findByCodeExact(code);
+        StopModel exact = index.findByCodeExact(code);
         if (exact != null) {
             return List.of(exact);
         }
 
-        return indexV2.suggestByCodePrefix(code, 50);
+        return index.suggestByCodePrefix(code, 50);
     }
 
     /**
@@ -236,8 +256,8 @@ public class StopService {
      * @return lista risultati (max {@code limit})
      */
     public static List<StopModel> smartSearch(String query, String filePath, int limit) {
-        getAllStops(filePath);
-        if (indexV2 == null) {
+        StopSearchIndexV2 index = searchIndex(filePath);
+        if (index == null) {
             return List.of();
         }
         if (query == null || query.isBlank()) {
@@ -245,14 +265,14 @@ public class StopService {
         }
 
         if (TextNormalize.isMostlyNumeric(query)) {
-            StopModel exact = indexV2.findByCodeExact(query);
+            StopModel exact = index.findByCodeExact(query);
             if (exact != null) {
                 return List.of(exact);
             }
-            return indexV2.suggestByCodePrefix(query, limit);
+            return index.suggestByCodePrefix(query, limit);
         }
 
-        return indexV2.searchByName(query, limit);
+        return index.searchByName(query, limit);
     }
 
     // =========================
@@ -268,15 +288,27 @@ public class StopService {
      * @return fermate entro il raggio, ordinate per distanza crescente
      */
     public static List<StopModel> searchNearby(GeoPosition pos, double radiusKm, String filePath) {
-        return getAllStops(filePath).stream()
-                .filter(s -> isWithinRadius(pos, s, radiusKm))
-                .sorted(Comparator.comparingDouble(s -> calculateDistance(pos, s.getGeoPosition())))
-                .toList();
+        record Hit(StopModel stop, double km) {}
+
+        // Distanza calcolata una sola volta per fermata (il sort non la ricalcola a ogni confronto).
+        List<Hit> hits = new ArrayList<>();
+        for (StopModel s : getAllStops(filePath)) {
+            if (s == null || !s.hasPosition()) continue;
+            double km = calculateDistance(pos.getLatitude(), pos.getLongitude(), s.getLatitude(), s.getLongitude());
+            if (km <= radiusKm) {
+                hits.add(new Hit(s, km));
+            }
+        }
+
+        hits.sort(Comparator.comparingDouble(Hit::km));
+        return hits.stream().map(Hit::stop).toList();
     }
 
     /**
      * Ricava tutte le fermate servite da un insieme di linee, usando join GTFS:
      * routes(route_id) -> trips(trip_id, route_id) -> stop_times(stop_id, trip_id) -> stops(stop_id).
+     * Le prime due join sono precalcolate nella matrice di incidenza linea <-> fermata
+     * (vedi {@link StopTimesService#getRouteStopIncidence(String, String)}).
      *
      * @param routes lista di routes
      * @param tripsPath path trips.csv
@@ -294,42 +326,9 @@ public class StopService {
             return List.of();
         }
 
-        Set<String> routeIds = routes.stream()
-                .filter(Objects::nonNull)
-                .map(RoutesModel::getRoute_id)
-                .filter(Objects::nonNull)
-                .map(String::trim)
-                .filter(s -> !s.isBlank())
-                .collect(Collectors.toSet());
-
-        if (routeIds.isEmpty()) {
-            return List.of();
-        }
-
-        // 1) route_id -> trip_id
-        Set<String> tripIds = TripsService.getAllTrips(tripsPath).stream()
-                .filter(Objects::nonNull)
-                .filter(t -> routeIds.contains(safe(t.getRoute_id())))
-                .map(TripsModel::getTrip_id)
-                .filter(Objects::nonNull)
-                .map(String::trim)
-                .filter(s -> !s.isBlank())
-                .collect(Collectors.toSet());
-
-        if (tripIds.isEmpty()) {
-            return List.of();
-        }
-
-        // 2) trip_id -> stop_id
-        Set<String> stopIds = StopTimesService.getAllStopTimes(stopTimesPath).stream()
-                .filter(Objects::nonNull)
-                .filter(st -> tripIds.contains(safe(st.getTrip_id())))
-                .map(StopTimesModel::getStop_id)
-                .filter(Objects::nonNull)
-                .map(String::trim)
-                .filter(s -> !s.isBlank())
-                .collect(Collectors.toSet());
-
+        // 1-2) route_id -> stop_id (join trips/stop_times precalcolato)
+        Set<String> stopIds = new HashSet<>(
+                StopTimesService.findStopIdsByRoutesGtfsJoin(routes, tripsPath, stopTimesPath));
         if (stopIds.isEmpty()) {
             return List.of();
         }
@@ -350,11 +349,11 @@ public class StopService {
      * @return true se la fermata è entro il raggio
      */
     public static boolean isWithinRadius(GeoPosition coords, StopModel stop, double radiusKm) {
-        try {
-            return calculateDistance(coords, stop.getGeoPosition()) <= radiusKm;
-        } catch (Exception e) {
+        if (coords == null || stop == null || !stop.hasPosition()) {
             return false;
         }
+        return calculateDistance(coords.getLatitude(), coords.getLongitude(),
+                stop.getLatitude(), stop.getLongitude()) <= radiusKm;
     }
 
     /**
@@ -365,14 +364,27 @@ public class StopService {
      * @return distanza in km
      */
     public static double calculateDistance(GeoPosition a, GeoPosition b) {
+        return calculateDistance(a.getLatitude(), a.getLongitude(), b.getLatitude(), b.getLongitude());
+    }
+
+    /**
+     * Variante su coordinate primitive: evita di costruire {@link GeoPosition} nei loop sulle fermate.
+     *
+     * @param latA latitudine punto A
+     * @param lonA longitudine punto A
+     * @param latB latitudine punto B
+     * @param lonB longitudine punto B
+     * @return distanza in km
+     */
+    public static double calculateDistance(double latA, double lonA, double latB, double lonB) {
         final int R = 6371; // raggio medio Terra in km
 
-        double lat = Math.toRadians(b.getLatitude() - a.getLatitude());
-        double lon = Math.toRadians(b.getLongitude() - a.getLongitude());
+        double lat = Math.toRadians(latB - latA);
+        double lon = Math.toRadians(lonB - lonA);
 
         double h = Math.sin(lat / 2) * Math.sin(lat / 2)
-                + Math.cos(Math.toRadians(a.getLatitude()))
-                * Math.cos(Math.toRadians(b.getLatitude()))
+                + Math.cos(Math.toRadians(latA))
+                * Math.cos(Math.toRadians(latB))
                 * Math.sin(lon / 2) * Math.sin(lon / 2);
 
         return 2 * R * Math.atan2(Math.sqrt(h), Math.sqrt(1 - h));
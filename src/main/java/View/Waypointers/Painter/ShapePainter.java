@@ -1,9 +1,12 @@
 package View.Waypointers.Painter;
 
-import Model.Parsing.Static.ShapesModel;
 import Service.Parsing.ShapeColorService;
+import Service.Parsing.Static.ShapeGeometryStore;
+import Service.Parsing.Static.StaticGtfsFeed;
 
 import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.viewer.GeoPosition;
+import org.jxmapviewer.viewer.TileFactory;
 import org.jxmapviewer.viewer.Waypoint;
 import org.jxmapviewer.viewer.WaypointPainter;
 
@@ -12,52 +15,53 @@ import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 /**
  * Painter che disegna il percorso (shape) della linea/direzione attualmente selezionata.
  *
- * La vista riceve una lista di {@link ShapesModel} già filtrata dal controller in base alla ricerca.
+ * La vista riceve le geometrie ({@link ShapeGeometryStore.Shape}) già scelte dal controller in base alla ricerca:
+ * i punti sono già raggruppati per shape_id e ordinati per sequence al caricamento del feed.
  * In fase di disegno:
- * - raggruppa i punti per shape_id
- * - ordina i punti per sequence
+ * - salta le shape la cui bounding box è fuori dalla viewport
  * - sceglie un colore coerente con la linea tramite {@link ShapeColorService}
- * - rende il tracciato come una polyline sopra la {@link JXMapViewer}
+ * - rende il tracciato come una polyline sopra la {@link JXMapViewer}, usando il livello di dettaglio
+ *   adatto allo zoom corrente (scostamento massimo sotto il pixel)
  */
 public class ShapePainter extends WaypointPainter<Waypoint> {
 
-    private List<ShapesModel> highlightedShapes = List.of();
-    private final String routesPath;
-    private final String tripsPath;
+    /** Scostamento massimo (pixel) tra la linea semplificata e quella completa. */
+    private static final double TOLERANCE_PX = 0.75;
+
+    private List<ShapeGeometryStore.Shape> highlightedShapes = List.of();
+    private final Supplier<StaticGtfsFeed> feed;
 
     /**
      * Crea un painter per le shape evidenziate.
      *
-     * @param routesPath path al file routes (GTFS statico), usato per ricavare colori/associazioni
-     * @param tripsPath path al file trips (GTFS statico), usato per ricavare colori/associazioni
+     * @param feed versione corrente del GTFS statico, usata per ricavare colori/associazioni
      */
-    public ShapePainter(String routesPath, String tripsPath) {
-        this.routesPath = routesPath;
-        this.tripsPath = tripsPath;
+    public ShapePainter(Supplier<StaticGtfsFeed> feed) {
+        this.feed = feed;
         setWaypoints(new HashSet<>());
     }
 
     /**
-     * Imposta l'insieme di punti shape da disegnare come evidenziati.
+     * Imposta le shape da disegnare come evidenziate.
      * Se null, la selezione viene azzerata.
      *
-     * @param shapes lista di punti shape della linea/direzione selezionata
+     * @param shapes geometrie della linea/direzione selezionata
      */
-    public void setHighlightedShapes(List<ShapesModel> shapes) {
+    public void setHighlightedShapes(List<ShapeGeometryStore.Shape> shapes) {
         this.highlightedShapes = shapes != null ? shapes : List.of();
     }
 
     /**
      * Disegna tutte le shape evidenziate sopra la mappa.
      *
-     * Per ogni shape_id:
+     * Per ogni shape:
      * - recupera il colore associato alla linea
-     * - applica un trattamento specifico per i percorsi circolari (dove previsto)
+     * - applica un trattamento specifico per i percorsi circolari (flag precalcolato)
      * - disegna la polyline convertendo coordinate geografiche in coordinate pixel
      *
      * @param g contesto grafico
@@ -72,24 +76,20 @@ public class ShapePainter extends WaypointPainter<Waypoint> {
         Object oldAA = g.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-        Map<String, Color> shapeColors = ShapeColorService.getShapeColors(routesPath, tripsPath);
-        Map<String, List<ShapesModel>> shapesGrouped = groupShapesById(highlightedShapes);
-
-        for (Map.Entry<String, List<ShapesModel>> entry : shapesGrouped.entrySet()) {
-            String shapeId = entry.getKey();
-            List<ShapesModel> points = entry.getValue();
+        Map<String, Color> shapeColors = ShapeColorService.getShapeColors(feed.get());
 
-            Color color = shapeColors.getOrDefault(shapeId, Color.GRAY);
+        for (ShapeGeometryStore.Shape shape : highlightedShapes) {
+            Color color = shapeColors.getOrDefault(shape.shapeId(), Color.GRAY);
 
             // Se il percorso è circolare, usiamo un colore più evidente; eccezione: alcune linee tram hanno già un colore dedicato.
-            if (ShapeColorService.isCircularShape(points)) {
+            if (shape.isCircular()) {
                 Color tramOcra = new Color(204, 119, 34);
                 if (!color.equals(tramOcra)) {
                     color = new Color(0, 100, 0);
                 }
             }
 
-            drawShape(g, map, points, color);
+            drawShape(g, map, shape, color);
         }
 
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, oldAA);
@@ -100,28 +100,34 @@ public class ShapePainter extends WaypointPainter<Waypoint> {
      *
      * @param g contesto grafico
      * @param map mappa JXMapViewer
-     * @param points punti ordinati della shape
+     * @param shape geometria della shape (punti ordinati, semplificati in base allo zoom)
      * @param color colore del tracciato
      */
-    private void drawShape(Graphics2D g, JXMapViewer map, List<ShapesModel> points, Color color) {
-        Path2D path = new Path2D.Double();
-        boolean first = true;
-
-        for (ShapesModel point : points) {
-            Point2D pt = map.getTileFactory().geoToPixel(
-                    new org.jxmapviewer.viewer.GeoPosition(
-                            Double.parseDouble(point.getShape_pt_lat()),
-                            Double.parseDouble(point.getShape_pt_lon())),
-                    map.getZoom()
-            );
-
-            Rectangle viewport = map.getViewportBounds();
+    private void drawShape(Graphics2D g, JXMapViewer map, ShapeGeometryStore.Shape shape, Color color) {
+        TileFactory tileFactory = map.getTileFactory();
+        int zoom = map.getZoom();
+        Rectangle viewport = map.getViewportBounds();
+
+        // Culling: bounding box precalcolata contro la viewport (nord = y minore).
+        Point2D nw = tileFactory.geoToPixel(new GeoPosition(shape.maxLat(), shape.minLon()), zoom);
+        Point2D se = tileFactory.geoToPixel(new GeoPosition(shape.minLat(), shape.maxLon()), zoom);
+        if (!viewport.intersects(nw.getX(), nw.getY(), se.getX() - nw.getX() + 1, se.getY() - nw.getY() + 1)) {
+            return;
+        }
+
+        double toleranceDeg = TOLERANCE_PX / tileFactory.getInfo().getLongitudeDegreeWidthInPixels(zoom);
+        int[] points = shape.detail(toleranceDeg);
+
+        Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO, points.length);
+        for (int k = 0; k < points.length; k++) {
+            int i = points[k];
+            Point2D pt = tileFactory.geoToPixel(new GeoPosition(shape.lat(i), shape.lon(i)), zoom);
+
             double x = pt.getX() - viewport.getX();
             double y = pt.getY() - viewport.getY();
 
-            if (first) {
+            if (k == 0) {
                 path.moveTo(x, y);
-                first = false;
             } else {
                 path.lineTo(x, y);
             }
@@ -131,23 +137,4 @@ public class ShapePainter extends WaypointPainter<Waypoint> {
         g.setStroke(new BasicStroke(3f));
         g.draw(path);
     }
-
-    /**
-     * Raggruppa i punti shape per shape_id e li ordina per sequence.
-     * Il metodo filtra anche eventuali record non validi (shape_id null o vuoto).
-     *
-     * @param shapes lista di punti shape
-     * @return mappa shape_id -> lista punti ordinata per shape_pt_sequence
-     */
-    private Map<String, List<ShapesModel>> groupShapesById(List<ShapesModel> shapes) {
-        List<ShapesModel> filtered = shapes.stream()
-                .filter(s -> s.getShape_id() != null && !s.getShape_id().isEmpty())
-                .collect(Collectors.toList());
-
-        filtered.sort(Comparator.comparing(ShapesModel::getShape_id)
-                .thenComparingInt(a -> Integer.parseInt(a.getShape_pt_sequence())));
-
-        return filtered.stream()
-                .collect(Collectors.groupingBy(ShapesModel::getShape_id));
-    }
 }
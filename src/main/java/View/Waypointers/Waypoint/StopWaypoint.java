@@ -21,7 +21,7 @@ public class StopWaypoint extends DefaultWaypoint {
      * @param stop modello della fermata (non dovrebbe essere null)
      */
     public StopWaypoint(StopModel stop) {
-        // Inizializza il waypoint usando la posizione geografica del modello.
+        // Riusa la GeoPosition già cachata nel modello (nessuna allocazione per waypoint).
         super(stop.getGeoPosition());
         this.stop = stop;
     }
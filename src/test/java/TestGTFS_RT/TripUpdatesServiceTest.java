@@ -47,6 +47,50 @@ public class TripUpdatesServiceTest {
         service.stop();
     }
 
+    @Test
+    public void refreshOnce_notifiesListeners_evenIfOneFails() throws Exception {
+        TripUpdatesFetcher fakeFetcher = () -> List.of(sampleTripUpdate());
+
+        ConnectionManager dummy = new ConnectionManager(
+                Executors.newScheduledThreadPool(1),
+                () -> {}, () -> true,
+                1000, 1000, 2
+        );
+
+        TripUpdatesService service = new TripUpdatesService(fakeFetcher, dummy);
+        AtomicReference<List<TripUpdateInfo>> received = new AtomicReference<>();
+        service.addListener(u -> { throw new IllegalStateException("boom"); });
+        service.addListener(received::set);
+
+        service.refreshOnce();
+
+        assertSame(service.getTripUpdates(), received.get());
+
+        service.stop();
+    }
+
+    @Test
+    public void refreshOnce_runsListenersBeforePublishingFeed() throws Exception {
+        TripUpdatesFetcher fakeFetcher = () -> List.of(sampleTripUpdate());
+
+        ConnectionManager dummy = new ConnectionManager(
+                Executors.newScheduledThreadPool(1),
+                () -> {}, () -> true,
+                1000, 1000, 2
+        );
+
+        TripUpdatesService service = new TripUpdatesService(fakeFetcher, dummy);
+        AtomicReference<List<TripUpdateInfo>> seenDuringListener = new AtomicReference<>();
+        service.addListener(u -> seenDuringListener.set(service.getTripUpdates()));
+
+        service.refreshOnce();
+
+        assertTrue(seenDuringListener.get().isEmpty());
+        assertEquals(1, service.getTripUpdates().size());
+
+        service.stop();
+    }
+
     @Test
     public void start_triggersPeriodicRefresh() throws Exception {
         scheduler = Executors.newScheduledThreadPool(2);
@@ -0,0 +1,227 @@
+package TestGTFS_Static.ArrivalPrediction;
+
+import Model.ArrivalRow;
+import Model.GTFS_RT.StopTimeUpdateInfo;
+import Model.GTFS_RT.TripUpdateInfo;
+import Model.GTFS_RT.Enums.ScheduleRelationship;
+import Model.Net.ConnectionListener;
+import Model.Net.ConnectionState;
+import Model.Net.ConnectionStatusProvider;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.GTFS_RT.ArrivalPredictionService;
+import Service.GTFS_RT.Fetcher.TripUpdates.TripUpdatesService;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ArrivalPredictionServiceBatchTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final List<String> LINE_STOPS = Arrays.asList("S1", "S2", null, "S3", "MISSING");
+
+    @Test
+    public void nextForStopsOnRoute_matchesPerStopCalls_static() {
+        ArrivalPredictionService svc = service(repo(), new FakeTripUpdatesService(List.of()), ConnectionState.OFFLINE);
+
+        assertMatchesPerStopCalls(svc, "R1", 0);
+        assertMatchesPerStopCalls(svc, "R1", -1);
+    }
+
+    @Test
+    public void nextForStopsOnRoute_matchesPerStopCalls_realtime() {
+        long now = Instant.now().getEpochSecond();
+        TripUpdateInfo tu = new TripUpdateInfo("E1", "T1", "R1", 0, null, null, null, now,
+                List.of(new StopTimeUpdateInfo("S2", 2, now + 600, null, null, null, ScheduleRelationship.SCHEDULED)));
+        ArrivalPredictionService svc = service(repo(), new FakeTripUpdatesService(List.of(tu)), ConnectionState.ONLINE);
+
+        List<ArrivalRow> rows = svc.getNextForStopsOnRoute("R1", 0, LINE_STOPS);
+        assertFalse(rows.get(0).realtime);
+        assertTrue(rows.get(1).realtime);
+        assertMatchesPerStopCalls(svc, "R1", 0);
+    }
+
+    @Test
+    public void nextForStopsOnRoute_matchesPerStopCalls_lowMemory() throws Exception {
+        File f = tmp.newFile("stop_times.txt");
+        Files.writeString(f.toPath(),
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n" +
+                "T1,25:10:00,25:10:00,S1,1\n" +
+                "T1,25:20:00,25:20:00,S2,2\n" +
+                "T1,25:30:00,25:30:00,S3,3\n" +
+                "T2,26:10:00,26:10:00,S1,1\n" +
+                "T2,26:20:00,26:20:00,S2,2\n" +
+                "T3,25:40:00,25:40:00,S3,1\n", StandardCharsets.UTF_8);
+        StaticGtfsRepository repo = new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("S1"), stop("S2"), stop("S3")))
+                .withRoutes(List.of(route("R1", "64")))
+                .withTrips(List.of(trip("T1", "R1", 0, "A"), trip("T2", "R1", 0, "A"), trip("T3", "R1", 1, "B")))
+                .withStopTimesPath(f.getAbsolutePath())
+                .lowMemoryStopTimes(true)
+                .build();
+        ArrivalPredictionService svc = service(repo, new FakeTripUpdatesService(List.of()), ConnectionState.OFFLINE);
+
+        List<ArrivalRow> rows = svc.getNextForStopsOnRoute("R1", 0, LINE_STOPS);
+        assertEquals("01:10", rows.get(0).time.toString());
+        assertEquals("01:20", rows.get(1).time.toString());
+        assertNull(rows.get(2));
+        assertEquals("01:30", rows.get(3).time.toString());
+        assertNull(rows.get(4).time);
+        assertMatchesPerStopCalls(svc, "R1", 0);
+        assertMatchesPerStopCalls(svc, "R1", -1);
+    }
+
+    @Test
+    public void nextForStopsOnRoute_invalidRoute_returnsNulls() {
+        ArrivalPredictionService svc = service(repo(), new FakeTripUpdatesService(List.of()), ConnectionState.OFFLINE);
+
+        List<ArrivalRow> rows = svc.getNextForStopsOnRoute(" ", 0, List.of("S1", "S2"));
+        assertEquals(2, rows.size());
+        assertNull(rows.get(0));
+        assertNull(rows.get(1));
+        assertTrue(svc.getNextForStopsOnRoute("R1", 0, List.of()).isEmpty());
+    }
+
+    @Test
+    public void arrivalsForStops_matchesPerStopCalls() {
+        ArrivalPredictionService svc = service(repo(), new FakeTripUpdatesService(List.of()), ConnectionState.OFFLINE);
+
+        Map<String, List<ArrivalRow>> byStop = svc.getArrivalsForStops(LINE_STOPS);
+        assertEquals(List.of("S1", "S2", "S3", "MISSING"), List.copyOf(byStop.keySet()));
+        assertTrue(byStop.get("MISSING").isEmpty());
+
+        for (Map.Entry<String, List<ArrivalRow>> e : byStop.entrySet()) {
+            List<ArrivalRow> single = svc.getArrivalsForStop(e.getKey());
+            assertEquals(single.size(), e.getValue().size());
+            for (int i = 0; i < single.size(); i++) {
+                assertSameRow(single.get(i), e.getValue().get(i));
+            }
+        }
+        // S1: linea 64 (due capolinea distinti) + linea 75
+        assertEquals(3, byStop.get("S1").size());
+    }
+
+    // ===================== helpers =====================
+
+    private static void assertMatchesPerStopCalls(ArrivalPredictionService svc, String routeId, int dir) {
+        List<ArrivalRow> batch = svc.getNextForStopsOnRoute(routeId, dir, LINE_STOPS);
+        assertEquals(LINE_STOPS.size(), batch.size());
+        for (int i = 0; i < LINE_STOPS.size(); i++) {
+            assertSameRow(svc.getNextForStopOnRoute(LINE_STOPS.get(i), routeId, dir), batch.get(i));
+        }
+    }
+
+    private static void assertSameRow(ArrivalRow expected, ArrivalRow actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.tripId, actual.tripId);
+        assertEquals(expected.routeId, actual.routeId);
+        assertEquals(expected.directionId, actual.directionId);
+        assertEquals(expected.line, actual.line);
+        assertEquals(expected.headsign, actual.headsign);
+        assertEquals(expected.time, actual.time);
+        assertEquals(expected.realtime, actual.realtime);
+    }
+
+    private static ArrivalPredictionService service(StaticGtfsRepository repo, TripUpdatesService tu, ConnectionState state) {
+        return new ArrivalPredictionService(tu, new FixedStatusProvider(state), repo);
+    }
+
+    private static StaticGtfsRepository repo() {
+        return new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("S1"), stop("S2"), stop("S3")))
+                .withRoutes(List.of(route("R1", "64"), route("R2", "75")))
+                .withTrips(List.of(
+                        trip("T1", "R1", 0, "A"), trip("T2", "R1", 0, "A"),
+                        trip("T3", "R1", 1, "B"), trip("T4", "R2", 0, "C")))
+                .withStopTimes(List.of(
+                        stopTime("T1", "S1", "25:10:00", "1"),
+                        stopTime("T1", "S2", "25:20:00", "2"),
+                        stopTime("T1", "S3", "25:30:00", "3"),
+                        stopTime("T2", "S1", "26:10:00", "1"),
+                        stopTime("T2", "S2", "26:20:00", "2"),
+                        stopTime("T3", "S3", "25:40:00", "1"),
+                        stopTime("T3", "S1", "25:50:00", "2"),
+                        stopTime("T4", "S1", "25:05:00", "1")))
+                .indexStopToRoutes(true)
+                .indexTripStopTimes(true)
+                .indexStopStopTimes(true)
+                .build();
+    }
+
+    // ===================== fakes =====================
+
+    private static final class FakeTripUpdatesService extends TripUpdatesService {
+        private final List<TripUpdateInfo> updates;
+        public FakeTripUpdatesService(List<TripUpdateInfo> updates) {
+            super("http://invalid");
+            this.updates = (updates == null) ? List.of() : updates;
+        }
+        @Override public List<TripUpdateInfo> getTripUpdates() { return updates; }
+        @Override public void start() {}
+        @Override public void stop() {}
+    }
+
+    private static final class FixedStatusProvider implements ConnectionStatusProvider {
+        private final ConnectionState state;
+        FixedStatusProvider(ConnectionState state) { this.state = state; }
+        @Override public ConnectionState getState() { return state; }
+        @Override public void addListener(ConnectionListener listener) {}
+        @Override public void removeListener(ConnectionListener listener) {}
+    }
+
+    private static StopModel stop(String id) {
+        StopModel s = new StopModel();
+        s.setId(id);
+        s.setCode("X");
+        s.setName("N");
+        s.setLatitude(41.9);
+        s.setLongitude(12.5);
+        return s;
+    }
+
+    private static RoutesModel route(String routeId, String shortName) {
+        RoutesModel r = new RoutesModel();
+        r.setRoute_id(routeId);
+        r.setRoute_short_name(shortName);
+        r.setRoute_type("3");
+        return r;
+    }
+
+    private static TripsModel trip(String tripId, String routeId, int dir, String headsign) {
+        TripsModel t = new TripsModel();
+        t.setTrip_id(tripId);
+        t.setRoute_id(routeId);
+        t.setDirection_id(String.valueOf(dir));
+        t.setTrip_headsign(headsign);
+        return t;
+    }
+
+    private static StopTimesModel stopTime(String tripId, String stopId, String arr, String seq) {
+        StopTimesModel st = new StopTimesModel();
+        st.setTrip_id(tripId);
+        st.setStop_id(stopId);
+        st.setArrival_time(arr);
+        st.setStop_sequence(seq);
+        return st;
+    }
+}
@@ -0,0 +1,179 @@
+package TestGTFS_Static.ArrivalPrediction;
+
+import Model.ArrivalRow;
+import Model.GTFS_RT.StopTimeUpdateInfo;
+import Model.GTFS_RT.TripUpdateInfo;
+import Model.GTFS_RT.Enums.ScheduleRelationship;
+import Model.Net.ConnectionListener;
+import Model.Net.ConnectionState;
+import Model.Net.ConnectionStatusProvider;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.GTFS_RT.ArrivalPredictionService;
+import Service.GTFS_RT.Fetcher.TripUpdates.TripUpdatesService;
+import Service.GTFS_RT.Index.ArrivalResultCache;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ArrivalPredictionServiceCacheTest {
+
+    @Test
+    public void stopMode_repeatedRefresh_isServedFromCache() {
+        ArrivalPredictionService svc = new ArrivalPredictionService(
+                new MutableTripUpdatesService(), new FixedStatusProvider(ConnectionState.OFFLINE), repo());
+
+        List<ArrivalRow> first = svc.getArrivalsForStop("CS1");
+        List<ArrivalRow> second = svc.getArrivalsForStop("CS1");
+
+        assertFalse(first.isEmpty());
+        assertSame(first, second);
+        assertEquals(1, svc.getCacheMisses());
+        assertEquals(1, svc.getCacheHits());
+    }
+
+    @Test
+    public void newRealtimeFeed_invalidatesCachedRows() {
+        MutableTripUpdatesService tu = new MutableTripUpdatesService();
+        ArrivalPredictionService svc = new ArrivalPredictionService(
+                tu, new FixedStatusProvider(ConnectionState.ONLINE), repo());
+
+        ArrivalRow before = svc.getNextForStopOnRoute("CS1", "CR1", 0);
+        assertFalse(before.realtime);
+        assertSame(before, svc.getNextForStopOnRoute("CS1", "CR1", 0));
+
+        long now = Instant.now().getEpochSecond();
+        tu.updates = List.of(new TripUpdateInfo("E1", "CT1", "CR1", 0, null, null, null, now,
+                List.of(new StopTimeUpdateInfo("CS1", 1, now + 300, null, null, null, ScheduleRelationship.SCHEDULED))));
+
+        ArrivalRow after = svc.getNextForStopOnRoute("CS1", "CR1", 0);
+        assertTrue(after.realtime);
+        assertEquals(2, svc.getCacheMisses());
+    }
+
+    @Test
+    public void lineMode_batchFillsCacheForSingleStopCalls() {
+        ArrivalPredictionService svc = new ArrivalPredictionService(
+                new MutableTripUpdatesService(), new FixedStatusProvider(ConnectionState.OFFLINE), repo());
+
+        List<ArrivalRow> batch = svc.getNextForStopsOnRoute("CR1", 0, List.of("CS1", "CS2"));
+        assertEquals(2, svc.getCacheMisses());
+
+        assertSame(batch.get(1), svc.getNextForStopOnRoute("CS2", "CR1", 0));
+        assertEquals(1, svc.getCacheHits());
+
+        // stessa fermata, altra direzione: voce distinta
+        svc.getNextForStopOnRoute("CS2", "CR1", 1);
+        assertEquals(3, svc.getCacheMisses());
+    }
+
+    @Test
+    public void resultCache_evictsLeastRecentlyUsed_andClearsOnNewSource() {
+        ArrivalResultCache<String> cache = new ArrivalResultCache<>(2);
+        ArrivalResultCache.Key a = key("A");
+        ArrivalResultCache.Key b = key("B");
+        ArrivalResultCache.Key c = key("C");
+        Object repo = new Object();
+        cache.validateFor(repo);
+
+        cache.put(a, "a");
+        cache.put(b, "b");
+        assertEquals("a", cache.get(a));   // A diventa la più recente
+        cache.put(c, "c");
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(b));
+        assertEquals("c", cache.get(c));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+
+        cache.validateFor(repo);
+        assertEquals(2, cache.size());
+        cache.validateFor(new Object());
+        assertEquals(0, cache.size());
+    }
+
+    // ===================== helpers =====================
+
+    private static ArrivalResultCache.Key key(String stopId) {
+        return new ArrivalResultCache.Key(stopId, null, -1, 0, 0, false);
+    }
+
+    private static StaticGtfsRepository repo() {
+        return new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("CS1"), stop("CS2")))
+                .withRoutes(List.of(route("CR1", "64")))
+                .withTrips(List.of(trip("CT1", "CR1", 0, "A"), trip("CT2", "CR1", 1, "B")))
+                .withStopTimes(List.of(
+                        stopTime("CT1", "CS1", "25:10:00", "1"),
+                        stopTime("CT1", "CS2", "25:20:00", "2"),
+                        stopTime("CT2", "CS2", "25:30:00", "1")))
+                .indexStopToRoutes(true)
+                .indexTripStopTimes(true)
+                .indexStopStopTimes(true)
+                .build();
+    }
+
+    // ===================== fakes =====================
+
+    private static final class MutableTripUpdatesService extends TripUpdatesService {
+        volatile List<TripUpdateInfo> updates = List.of();
+        MutableTripUpdatesService() {
+            super("http://invalid");
+        }
+        @Override public List<TripUpdateInfo> getTripUpdates() { return updates; }
+        @Override public void start() {}
+        @Override public void stop() {}
+    }
+
+    private static final class FixedStatusProvider implements ConnectionStatusProvider {
+        private final ConnectionState state;
+        FixedStatusProvider(ConnectionState state) { this.state = state; }
+        @Override public ConnectionState getState() { return state; }
+        @Override public void addListener(ConnectionListener listener) {}
+        @Override public void removeListener(ConnectionListener listener) {}
+    }
+
+    private static StopModel stop(String id) {
+        StopModel s = new StopModel();
+        s.setId(id);
+        s.setCode("X");
+        s.setName("N");
+        s.setLatitude(41.9);
+        s.setLongitude(12.5);
+        return s;
+    }
+
+    private static RoutesModel route(String routeId, String shortName) {
+        RoutesModel r = new RoutesModel();
+        r.setRoute_id(routeId);
+        r.setRoute_short_name(shortName);
+        r.setRoute_type("3");
+        return r;
+    }
+
+    private static TripsModel trip(String tripId, String routeId, int dir, String headsign) {
+        TripsModel t = new TripsModel();
+        t.setTrip_id(tripId);
+        t.setRoute_id(routeId);
+        t.setDirection_id(String.valueOf(dir));
+        t.setTrip_headsign(headsign);
+        return t;
+    }
+
+    private static StopTimesModel stopTime(String tripId, String stopId, String arr, String seq) {
+        StopTimesModel st = new StopTimesModel();
+        st.setTrip_id(tripId);
+        st.setStop_id(stopId);
+        st.setArrival_time(arr);
+        st.setStop_sequence(seq);
+        return st;
+    }
+}
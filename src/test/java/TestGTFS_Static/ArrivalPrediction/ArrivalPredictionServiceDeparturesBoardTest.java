@@ -0,0 +1,234 @@
+package TestGTFS_Static.ArrivalPrediction;
+
+import Model.ArrivalRow;
+import Model.GTFS_RT.StopTimeUpdateInfo;
+import Model.GTFS_RT.TripUpdateInfo;
+import Model.GTFS_RT.Enums.ScheduleRelationship;
+import Model.Net.ConnectionListener;
+import Model.Net.ConnectionState;
+import Model.Net.ConnectionStatusProvider;
+import Model.Parsing.Static.CalendarDateModel;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.GTFS_RT.ArrivalPredictionService;
+import Service.GTFS_RT.Fetcher.TripUpdates.TripUpdatesService;
+import Service.GTFS_RT.Index.DelayHistoryStore;
+import Service.GTFS_RT.Index.TripUpdatesRtIndex;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tutti i trip circolano solo oggi (calendar_dates), così le corse oltre le 24:00 non compaiono
+ * anche come corse notturne di ieri, qualunque sia l'ora di esecuzione del test.
+ */
+public class ArrivalPredictionServiceDeparturesBoardTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final List<TripsModel> TRIPS = List.of(
+            trip("BT1", "BR1", 0, "A"), trip("BT2", "BR1", 0, "A"),
+            trip("BT3", "BR1", 1, "B"), trip("BT4", "BR2", 0, "C"));
+
+    @Test
+    public void board_mergesLinesInTimeOrder_andStopsAtMaxRows() {
+        ArrivalPredictionService svc = service(repo(), List.of(), ConnectionState.OFFLINE);
+
+        List<ArrivalRow> rows = svc.getDeparturesBoard("BS1", 3, 0);
+        assertEquals(List.of("01:05", "01:10", "01:50"), times(rows));
+        assertEquals(List.of("BT4", "BT1", "BT3"), rows.stream().map(r -> r.tripId).toList());
+        assertEquals(List.of("75", "64", "64"), rows.stream().map(r -> r.line).toList());
+        assertEquals(List.of("C", "A", "B"), rows.stream().map(r -> r.headsign).toList());
+        assertEquals(Integer.valueOf(1), rows.get(2).directionId);
+        assertTrue(rows.stream().noneMatch(r -> r.realtime));
+
+        assertEquals(4, svc.getDeparturesBoard("BS1", 0, 0).size());
+        assertTrue(svc.getDeparturesBoard("MISSING", 10, 0).isEmpty());
+        assertTrue(svc.getDeparturesBoard(" ", 10, 0).isEmpty());
+    }
+
+    @Test
+    public void board_timeWindow_limitsRows() {
+        ArrivalPredictionService svc = service(repo(), List.of(), ConnectionState.OFFLINE);
+
+        // le corse sono tutte dopo la mezzanotte: fuori da una finestra di un minuto
+        assertTrue(svc.getDeparturesBoard("BS1", 0, 1).isEmpty());
+        assertEquals(4, svc.getDeparturesBoard("BS1", 0, 48 * 60).size());
+    }
+
+    @Test
+    public void board_realtimeRowsAreMerged_andReplaceTheirStaticTrip() {
+        long now = Instant.now().getEpochSecond();
+        TripUpdateInfo tu = new TripUpdateInfo("E1", "BT1", "BR1", 0, null, null, null, now,
+                List.of(new StopTimeUpdateInfo("BS1", 1, now + 60, null, null, null, ScheduleRelationship.SCHEDULED)));
+        ArrivalPredictionService svc = service(repo(), List.of(tu), ConnectionState.ONLINE);
+
+        List<ArrivalRow> rows = svc.getDeparturesBoard("BS1", 0, 0);
+        assertEquals(List.of("BT1", "BT4", "BT3", "BT2"), rows.stream().map(r -> r.tripId).toList());
+        assertTrue(rows.get(0).realtime);
+        assertNotNull(rows.get(0).minutes);
+        assertEquals("64", rows.get(0).line);
+        assertEquals("A", rows.get(0).headsign);
+        assertFalse(rows.get(1).realtime);
+
+        assertEquals(List.of("BT1", "BT4"), svc.getDeparturesBoard("BS1", 2, 0).stream().map(r -> r.tripId).toList());
+    }
+
+    @Test
+    public void board_dropsRealtimeEtasAlreadyPassed_inPreparedSnapshot() {
+        long now = Instant.now().getEpochSecond();
+        List<TripUpdateInfo> feed = List.of(
+                new TripUpdateInfo("E1", "BT1", "BR1", 0, null, null, null, now,
+                        List.of(new StopTimeUpdateInfo("BS1", 1, now - 120, null, null, null, ScheduleRelationship.SCHEDULED))),
+                new TripUpdateInfo("E2", "BT2", "BR1", 0, null, null, null, now,
+                        List.of(new StopTimeUpdateInfo("BS1", 1, now + 600, null, null, null, ScheduleRelationship.SCHEDULED))));
+
+        // snapshot preparato dall'ingest qualche minuto prima della richiesta
+        TripUpdatesRtIndex rtIndex = new TripUpdatesRtIndex();
+        rtIndex.rebuild(feed, now - 300);
+        ArrivalPredictionService svc = new ArrivalPredictionService(new FakeTripUpdatesService(feed),
+                new FixedStatusProvider(ConnectionState.ONLINE), repo(), rtIndex, new DelayHistoryStore(0.25));
+        svc.start();
+
+        List<ArrivalRow> rows = svc.getDeparturesBoard("BS1", 0, 0);
+        assertEquals(List.of("BT2", "BT4", "BT3"), rows.stream().map(r -> r.tripId).toList());
+        assertTrue(rows.get(0).realtime);
+        assertTrue(rows.stream().allMatch(r -> r.minutes == null || r.minutes >= 0));
+    }
+
+    @Test
+    public void board_lowMemoryMode_matchesInMemoryBoard() throws Exception {
+        File f = tmp.newFile("stop_times.txt");
+        Files.writeString(f.toPath(),
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n" +
+                "BT1,25:10:00,25:10:00,BS1,1\n" +
+                "BT1,25:20:00,25:20:00,BS2,2\n" +
+                "BT2,26:10:00,26:10:00,BS1,1\n" +
+                "BT3,25:40:00,25:40:00,BS2,1\n" +
+                "BT3,25:50:00,25:50:00,BS1,2\n" +
+                "BT4,25:05:00,25:05:00,BS1,1\n", StandardCharsets.UTF_8);
+        StaticGtfsRepository disk = new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("BS1"), stop("BS2")))
+                .withRoutes(List.of(route("BR1", "64"), route("BR2", "75")))
+                .withTrips(TRIPS)
+                .withStopTimesPath(f.getAbsolutePath())
+                .withCalendars(List.of())
+                .withCalendarDates(List.of(today()))
+                .lowMemoryStopTimes(true)
+                .build();
+
+        List<ArrivalRow> expected = service(repo(), List.of(), ConnectionState.OFFLINE).getDeparturesBoard("BS1", 3, 0);
+        List<ArrivalRow> actual = service(disk, List.of(), ConnectionState.OFFLINE).getDeparturesBoard("BS1", 3, 0);
+        assertEquals(times(expected), times(actual));
+        assertEquals(expected.stream().map(r -> r.tripId).toList(), actual.stream().map(r -> r.tripId).toList());
+    }
+
+    // ===================== helpers =====================
+
+    private static List<String> times(List<ArrivalRow> rows) {
+        return rows.stream().map(r -> r.time.toString()).toList();
+    }
+
+    private static ArrivalPredictionService service(StaticGtfsRepository repo, List<TripUpdateInfo> updates,
+                                                    ConnectionState state) {
+        return new ArrivalPredictionService(new FakeTripUpdatesService(updates), new FixedStatusProvider(state), repo);
+    }
+
+    private static StaticGtfsRepository repo() {
+        return new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("BS1"), stop("BS2")))
+                .withRoutes(List.of(route("BR1", "64"), route("BR2", "75")))
+                .withTrips(TRIPS)
+                .withStopTimes(List.of(
+                        stopTime("BT1", "BS1", "25:10:00", "1"),
+                        stopTime("BT1", "BS2", "25:20:00", "2"),
+                        stopTime("BT2", "BS1", "26:10:00", "1"),
+                        stopTime("BT3", "BS2", "25:40:00", "1"),
+                        stopTime("BT3", "BS1", "25:50:00", "2"),
+                        stopTime("BT4", "BS1", "25:05:00", "1")))
+                .withCalendars(List.of())
+                .withCalendarDates(List.of(today()))
+                .build();
+    }
+
+    private static CalendarDateModel today() {
+        CalendarDateModel cd = new CalendarDateModel();
+        cd.setService_id("BOARD_TODAY");
+        cd.setDate(LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE));
+        cd.setException_type("1");
+        return cd;
+    }
+
+    // ===================== fakes =====================
+
+    private static final class FakeTripUpdatesService extends TripUpdatesService {
+        private final List<TripUpdateInfo> updates;
+        public FakeTripUpdatesService(List<TripUpdateInfo> updates) {
+            super("http://invalid");
+            this.updates = (updates == null) ? List.of() : updates;
+        }
+        @Override public List<TripUpdateInfo> getTripUpdates() { return updates; }
+        @Override public void start() {}
+        @Override public void stop() {}
+    }
+
+    private static final class FixedStatusProvider implements ConnectionStatusProvider {
+        private final ConnectionState state;
+        FixedStatusProvider(ConnectionState state) { this.state = state; }
+        @Override public ConnectionState getState() { return state; }
+        @Override public void addListener(ConnectionListener listener) {}
+        @Override public void removeListener(ConnectionListener listener) {}
+    }
+
+    private static StopModel stop(String id) {
+        StopModel s = new StopModel();
+        s.setId(id);
+        s.setCode("X");
+        s.setName("N");
+        s.setLatitude(41.9);
+        s.setLongitude(12.5);
+        return s;
+    }
+
+    private static RoutesModel route(String routeId, String shortName) {
+        RoutesModel r = new RoutesModel();
+        r.setRoute_id(routeId);
+        r.setRoute_short_name(shortName);
+        r.setRoute_type("3");
+        return r;
+    }
+
+    private static TripsModel trip(String tripId, String routeId, int dir, String headsign) {
+        TripsModel t = new TripsModel();
+        t.setTrip_id(tripId);
+        t.setRoute_id(routeId);
+        t.setDirection_id(String.valueOf(dir));
+        t.setTrip_headsign(headsign);
+        t.setService_id("BOARD_TODAY");
+        return t;
+    }
+
+    private static StopTimesModel stopTime(String tripId, String stopId, String arr, String seq) {
+        StopTimesModel st = new StopTimesModel();
+        st.setTrip_id(tripId);
+        st.setStop_id(stopId);
+        st.setArrival_time(arr);
+        st.setStop_sequence(seq);
+        return st;
+    }
+}
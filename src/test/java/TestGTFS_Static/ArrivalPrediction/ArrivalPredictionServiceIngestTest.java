@@ -0,0 +1,178 @@
+package TestGTFS_Static.ArrivalPrediction;
+
+import Model.ArrivalRow;
+import Model.GTFS_RT.StopTimeUpdateInfo;
+import Model.GTFS_RT.TripUpdateInfo;
+import Model.GTFS_RT.Enums.ScheduleRelationship;
+import Model.Net.ConnectionListener;
+import Model.Net.ConnectionManager;
+import Model.Net.ConnectionState;
+import Model.Net.ConnectionStatusProvider;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.GTFS_RT.ArrivalPredictionService;
+import Service.GTFS_RT.Fetcher.TripUpdates.TripUpdatesService;
+import Service.GTFS_RT.Index.DelayHistoryStore;
+import Service.GTFS_RT.Index.TripUpdatesRtIndex;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class ArrivalPredictionServiceIngestTest {
+
+    @Test
+    public void newFeed_isIndexedOnFetchThread_beforeAnyQuery() throws Exception {
+        long now = Instant.now().getEpochSecond();
+        List<TripUpdateInfo> feed = List.of(new TripUpdateInfo("E1", "IT1", "IR1", 0, null, null, 90, now,
+                List.of(new StopTimeUpdateInfo("IS1", 1, now + 300, 90, null, null, ScheduleRelationship.SCHEDULED))));
+
+        ConnectionManager dummy = new ConnectionManager(
+                Executors.newScheduledThreadPool(1),
+                () -> {}, () -> true,
+                1000, 1000, 2
+        );
+        TripUpdatesService tu = new TripUpdatesService(() -> feed, dummy);
+        TripUpdatesRtIndex rtIndex = new TripUpdatesRtIndex();
+        DelayHistoryStore history = new DelayHistoryStore(0.25);
+        ArrivalPredictionService svc = new ArrivalPredictionService(
+                tu, new OnlineStatusProvider(), repo(), rtIndex, history);
+        svc.start();
+
+        assertNull(rtIndex.findBestEta("IR1", 0, "IS1"));
+
+        // stadio di ingest: nessuna query eseguita finora
+        tu.refreshOnce();
+        assertNotNull(rtIndex.findBestEta("IR1", 0, "IS1"));
+        assertEquals(Integer.valueOf(90), history.estimateDelaySec("IR1", 0, "IS1"));
+
+        // la query legge lo snapshot già pronto
+        ArrivalRow row = svc.getNextForStopOnRoute("IS1", "IR1", 0);
+        assertTrue(row.realtime);
+        assertEquals("IT1", row.tripId);
+
+        tu.stop();
+    }
+
+    @Test
+    public void stop_detachesIngest_andQueriesRebuildAgain() throws Exception {
+        long now = Instant.now().getEpochSecond();
+        List<TripUpdateInfo> feed = List.of(new TripUpdateInfo("E1", "IT1", "IR1", 0, null, null, null, now,
+                List.of(new StopTimeUpdateInfo("IS1", 1, now + 300, null, null, null, ScheduleRelationship.SCHEDULED))));
+
+        ConnectionManager dummy = new ConnectionManager(
+                Executors.newScheduledThreadPool(1),
+                () -> {}, () -> true,
+                1000, 1000, 2
+        );
+        TripUpdatesService tu = new TripUpdatesService(() -> feed, dummy);
+        TripUpdatesRtIndex rtIndex = new TripUpdatesRtIndex();
+        ArrivalPredictionService svc = new ArrivalPredictionService(
+                tu, new OnlineStatusProvider(), repo(), rtIndex, new DelayHistoryStore(0.25));
+        svc.start();
+        svc.stop();
+
+        tu.refreshOnce();
+        assertNull(rtIndex.findBestEta("IR1", 0, "IS1"));
+
+        // senza ingest la query ricostruisce l'indice
+        assertTrue(svc.getNextForStopOnRoute("IS1", "IR1", 0).realtime);
+        assertNotNull(rtIndex.findBestEta("IR1", 0, "IS1"));
+
+        tu.stop();
+    }
+
+    @Test
+    public void failedIngest_isRetriedByTheNextQuery() throws Exception {
+        long now = Instant.now().getEpochSecond();
+        List<TripUpdateInfo> feed = List.of(new TripUpdateInfo("E1", "IT1", "IR1", 0, null, null, 90, now,
+                List.of(new StopTimeUpdateInfo("IS1", 1, now + 300, 90, null, null, ScheduleRelationship.SCHEDULED))));
+
+        ConnectionManager dummy = new ConnectionManager(
+                Executors.newScheduledThreadPool(1),
+                () -> {}, () -> true,
+                1000, 1000, 2
+        );
+        TripUpdatesService tu = new TripUpdatesService(() -> feed, dummy);
+        FailingOnceHistory history = new FailingOnceHistory();
+        ArrivalPredictionService svc = new ArrivalPredictionService(
+                tu, new OnlineStatusProvider(), repo(), new TripUpdatesRtIndex(), history);
+        svc.start();
+
+        // il listener fallisce: il feed viene pubblicato comunque, ma lo storico non lo contiene
+        tu.refreshOnce();
+        assertSame(feed, tu.getTripUpdates());
+        assertNull(history.estimateDelaySec("IR1", 0, "IS1"));
+
+        // la prima query trova un feed non indicizzato e lo ricostruisce, anche con l'ingest attivo
+        assertTrue(svc.getNextForStopOnRoute("IS1", "IR1", 0).realtime);
+        assertEquals(Integer.valueOf(90), history.estimateDelaySec("IR1", 0, "IS1"));
+
+        svc.stop();
+        tu.stop();
+    }
+
+    // ===================== helpers =====================
+
+    private static StaticGtfsRepository repo() {
+        StopModel s = new StopModel();
+        s.setId("IS1");
+        s.setName("N");
+        s.setLatitude(41.9);
+        s.setLongitude(12.5);
+
+        RoutesModel r = new RoutesModel();
+        r.setRoute_id("IR1");
+        r.setRoute_short_name("64");
+        r.setRoute_type("3");
+
+        TripsModel t = new TripsModel();
+        t.setTrip_id("IT1");
+        t.setRoute_id("IR1");
+        t.setDirection_id("0");
+
+        StopTimesModel st = new StopTimesModel();
+        st.setTrip_id("IT1");
+        st.setStop_id("IS1");
+        st.setArrival_time("25:10:00");
+        st.setStop_sequence("1");
+
+        return new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(s))
+                .withRoutes(List.of(r))
+                .withTrips(List.of(t))
+                .withStopTimes(List.of(st))
+                .build();
+    }
+
+    /** Storico che fallisce alla prima osservazione (ingest interrotto). */
+    private static final class FailingOnceHistory extends DelayHistoryStore {
+        private boolean failed;
+
+        FailingOnceHistory() {
+            super(0.25);
+        }
+
+        @Override
+        public void observe(String routeId, Integer directionId, String stopId, Integer delaySec, long nowEpoch) {
+            if (!failed) {
+                failed = true;
+                throw new IllegalStateException("ingest interrotto");
+            }
+            super.observe(routeId, directionId, stopId, delaySec, nowEpoch);
+        }
+    }
+
+    private static final class OnlineStatusProvider implements ConnectionStatusProvider {
+        @Override public ConnectionState getState() { return ConnectionState.ONLINE; }
+        @Override public void addListener(ConnectionListener listener) {}
+        @Override public void removeListener(ConnectionListener listener) {}
+    }
+}
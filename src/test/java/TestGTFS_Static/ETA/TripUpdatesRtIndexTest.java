@@ -4,11 +4,17 @@ import Model.GTFS_RT.StopTimeUpdateInfo;
 import Model.GTFS_RT.TripUpdateInfo;
 import Model.GTFS_RT.Enums.ScheduleRelationship;
 import Service.GTFS_RT.Index.BestEta;
+import Service.GTFS_RT.Index.StopEta;
 import Service.GTFS_RT.Index.TripUpdatesRtIndex;
 import org.junit.Test;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -38,6 +44,62 @@ public class TripUpdatesRtIndexTest {
         assertEquals(Long.valueOf(now + 300), best.etaEpoch);
     }
 
+    @Test
+    public void concurrentRebuilds_readersNeverSeePartialOrEmptyIndex() throws Exception {
+        long now = Instant.now().getEpochSecond();
+        int stops = 300;
+        List<TripUpdateInfo> feedA = feed("TA", stops, now + 600);
+        List<TripUpdateInfo> feedB = feed("TB", stops, now + 1200);
+
+        TripUpdatesRtIndex idx = new TripUpdatesRtIndex();
+        idx.rebuild(feedA, now);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicLong reads = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(4);
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            int offset = r;
+            Thread t = new Thread(() -> {
+                try {
+                    for (int i = offset; running.get() && failure.get() == null; i = (i + 7) % stops) {
+                        BestEta best = idx.findBestEta("R1", 0, "S" + i);
+                        List<StopEta> etas = idx.etasForStop("S" + i);
+                        if (best == null || etas.size() != 1) {
+                            failure.set("indice parziale su S" + i + ": best=" + best + " etas=" + etas.size());
+                        } else if (best.etaEpoch != now + 600 && best.etaEpoch != now + 1200) {
+                            failure.set("ETA inattesa su S" + i + ": " + best.etaEpoch);
+                        }
+                        reads.incrementAndGet();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            readers.add(t);
+            t.start();
+        }
+
+        for (int round = 0; round < 400 && failure.get() == null; round++) {
+            idx.rebuild((round % 2 == 0) ? feedB : feedA, now);
+        }
+        running.set(false);
+        done.await();
+
+        assertNull(failure.get(), failure.get());
+        assertTrue(reads.get() > 0);
+    }
+
+    private static List<TripUpdateInfo> feed(String tripId, int stops, long etaEpoch) {
+        List<StopTimeUpdateInfo> stus = new ArrayList<>();
+        for (int i = 0; i < stops; i++) {
+            stus.add(stu("S" + i, etaEpoch, 0));
+        }
+        return List.of(tripUpdate("E-" + tripId, tripId, "R1", 0, stus));
+    }
+
     private static TripUpdateInfo tripUpdate(String entityId, String tripId, String routeId, Integer dir, List<StopTimeUpdateInfo> stus) {
         return new TripUpdateInfo(entityId, tripId, routeId, dir, null, null, null, Instant.now().getEpochSecond(), stus);
     }
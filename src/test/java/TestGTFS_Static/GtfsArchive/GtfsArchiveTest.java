@@ -0,0 +1,170 @@
+package TestGTFS_Static.GtfsArchive;
+
+import Model.Parsing.Static.StopTimesModel;
+import Service.Parsing.Csv.GtfsArchive;
+import Service.Parsing.Csv.GtfsCsvReader;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.Static.StaticGtfsSnapshot;
+import Service.Parsing.TripsService;
+import Service.Points.StopService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class GtfsArchiveTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String STOPS = "stop_id,stop_code,stop_name,stop_lat,stop_lon\n"
+            + "S1,905,Termini,41.9009,12.5016\n"
+            + "S2,70,\"Venezia, piazza\",41.8960,12.4823\n";
+    private static final String ROUTES = "route_id,route_short_name,route_type\nR1,64,3\n";
+    private static final String STOP_TIMES = "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+            + "T1,10:05:00,10:05:00,S2,2\n"
+            + "T1,10:00:00,10:00:00,S1,1\n";
+    private static final String SHAPES = "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n"
+            + "SH1,41.90,12.50,1\nSH1,41.89,12.48,2\n";
+
+    @Test
+    public void repositoryIsBuiltDirectlyFromTheZip() throws Exception {
+        Path zip = zip("feed.zip", trips("San Pietro"));
+        GtfsArchive archive = GtfsArchive.open(zip).mount();
+        StopService.reloadStops(archive.path("stops")); // cache globale del processo corrente
+
+        StaticGtfsRepository repo = new StaticGtfsRepositoryBuilder().withGtfsArchive(archive).build();
+
+        assertEquals("Venezia, piazza", repo.getStopById("S2").getName());
+        assertEquals("San Pietro", repo.getTripById("T1").getTrip_headsign());
+        List<StopTimesModel> times = repo.getStopTimesForTrip("T1");
+        assertEquals(2, times.size());
+        assertEquals("S1", times.get(0).getStop_id());
+        assertEquals(1, repo.getRoutesForStop("S2").size());
+        assertTrue(GtfsArchive.isArchivePath(archive.path("stop_times")));
+    }
+
+    @Test
+    public void storedEntriesAndDirectoriesAreResolved_siblingFindsShapes() throws Exception {
+        Path zip = zip("nested.zip", trips("Termini"));
+        GtfsArchive archive = GtfsArchive.open(zip).mount();
+
+        assertTrue(archive.contains("routes"));
+        assertTrue(archive.contains("gtfs/stops.txt"));
+        assertFalse(archive.contains("calendar"));
+        assertEquals(ROUTES, StandardCharsets.UTF_8.decode(archive.read("routes")).toString());
+
+        String shapesPath = GtfsArchive.sibling(archive.path("stops"), "shapes");
+        List<String> ids = new ArrayList<>();
+        GtfsCsvReader.read(shapesPath, header -> {
+            int c = header.require("shape_id");
+            return row -> ids.add(row.string(c));
+        });
+        assertEquals(List.of("SH1", "SH1"), ids);
+
+        try {
+            GtfsCsvReader.read(archive.path("calendar"), header -> row -> { });
+            fail("file mancante: attesa IOException");
+        } catch (IOException expected) {
+            // ok
+        }
+    }
+
+    @Test
+    public void replacingTheZip_changesPathsAndSnapshotKey() throws Exception {
+        Path snapshotDir = tmp.newFolder("snap").toPath();
+        Path zip = zip("rome.zip", trips("San Pietro"));
+
+        GtfsArchive first = GtfsArchive.open(zip);
+        StopService.reloadStops(first.mount().path("stops"));
+        new StaticGtfsRepositoryBuilder().withGtfsArchive(first).withSnapshotDir(snapshotDir).build();
+        awaitFile(StaticGtfsSnapshot.snapshotFile(snapshotDir, first.key()));
+
+        Files.delete(zip);
+        zip("rome.zip", trips("Laurentina"));
+        GtfsArchive second = GtfsArchive.open(zip);
+
+        assertNotEquals(first.key(), second.key());
+        assertNotEquals(first.path("trips"), second.mount().path("trips"));
+        assertEquals(second.key(), GtfsArchive.keyOf(second.path("trips")));
+
+        StaticGtfsRepository repo = new StaticGtfsRepositoryBuilder()
+                .withGtfsArchive(second)
+                .withSnapshotDir(snapshotDir)
+                .build();
+        assertEquals("Laurentina", repo.getTripById("T1").getTrip_headsign());
+        assertEquals("Laurentina", TripsService.getAllTrips(second.path("trips")).get(0).getTrip_headsign());
+    }
+
+    @Test(expected = IOException.class)
+    public void notAZip_isRejected() throws Exception {
+        Path p = tmp.newFile("broken.zip").toPath();
+        Files.writeString(p, STOPS, StandardCharsets.UTF_8);
+        GtfsArchive.open(p);
+    }
+
+    // ===== helpers =====
+
+    private static String trips(String headsign) {
+        return "route_id,service_id,trip_id,trip_headsign,direction_id,shape_id\n"
+                + "R1,FER,T1," + headsign + ",0,SH1\n";
+    }
+
+    /**
+     * Crea un feed zip: stops in una sottocartella, routes non compresso (STORED), il resto DEFLATED.
+     */
+    private Path zip(String name, String trips) throws IOException {
+        Path p = tmp.getRoot().toPath().resolve(name);
+        try (OutputStream out = Files.newOutputStream(p); ZipOutputStream zos = new ZipOutputStream(out)) {
+            zos.putNextEntry(new ZipEntry("gtfs/"));
+            zos.closeEntry();
+            deflated(zos, "gtfs/stops.txt", STOPS);
+            stored(zos, "routes.txt", ROUTES);
+            deflated(zos, "trips.txt", trips);
+            deflated(zos, "stop_times.txt", STOP_TIMES);
+            deflated(zos, "gtfs/shapes.txt", SHAPES);
+        }
+        return p;
+    }
+
+    private static void deflated(ZipOutputStream zos, String name, String content) throws IOException {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(content.getBytes(StandardCharsets.UTF_8));
+        zos.closeEntry();
+    }
+
+    private static void stored(ZipOutputStream zos, String name, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ZipEntry e = new ZipEntry(name);
+        e.setMethod(ZipEntry.STORED);
+        e.setSize(bytes.length);
+        e.setCompressedSize(bytes.length);
+        e.setCrc(crc.getValue());
+        zos.putNextEntry(e);
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
+    private static void awaitFile(Path file) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue("snapshot non scritto: " + file, Files.exists(file));
+    }
+}
@@ -0,0 +1,183 @@
+package TestGTFS_Static.GtfsCsvReader;
+
+import Model.Parsing.Static.TripsModel;
+import Service.Parsing.Csv.GtfsCsvReader;
+import Service.Parsing.StopTimesService;
+import Service.Parsing.TripsService;
+import Service.Parsing.Static.StopTimesStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GtfsCsvReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void columnsAreResolvedByHeaderName_evenWithBomAndReordering() throws Exception {
+        String csv = "\uFEFFtrip_id,route_id,service_id\r\n"
+                + "T1,R9,FER\r\n"
+                + "\r\n"
+                + "T2,R10,FES";
+        List<String> out = new ArrayList<>();
+
+        int rows = GtfsCsvReader.read(buffer(csv), header -> {
+            int cRoute = header.require("route_id");
+            int cTrip = header.require("trip_id");
+            return row -> out.add(row.string(cRoute) + "/" + row.string(cTrip));
+        });
+
+        assertEquals(2, rows);
+        assertEquals(List.of("R9/T1", "R10/T2"), out);
+    }
+
+    @Test
+    public void quotedFields_supportCommasEscapedQuotesAndNewlines() throws Exception {
+        String csv = "stop_id,stop_name\n"
+                + "1,\"Termini, piazza\"\n"
+                + "2,\"Largo \"\"Argentina\"\"\"\n"
+                + "3,\"riga\nspezzata\"\n"
+                + "4, spazi \n";
+        List<String> names = new ArrayList<>();
+
+        GtfsCsvReader.read(buffer(csv), header -> {
+            int cName = header.require("stop_name");
+            return row -> names.add(row.string(cName));
+        });
+
+        assertEquals(List.of("Termini, piazza", "Largo \"Argentina\"", "riga\nspezzata", "spazi"), names);
+    }
+
+    @Test
+    public void linesLongerThanReadWindow_andRepeatedReads_keepValues() throws Exception {
+        String longName = "Via " + "lunga ".repeat(20_000);
+        String csv = "stop_id,stop_name,stop_lat\n"
+                + "1,\"" + longName + "\",41.5\n"
+                + "2,\"Largo \"\"Argentina\"\"\",41.9\n";
+        List<String> out = new ArrayList<>();
+
+        GtfsCsvReader.read(buffer(csv), header -> {
+            int cName = header.require("stop_name");
+            int cLat = header.require("stop_lat");
+            return row -> {
+                // il secondo accesso allo stesso campo deve restituire lo stesso valore (nessun unescape doppio)
+                out.add(row.string(cName) + "|" + row.string(cName) + "|" + row.doubleValue(cLat, -1));
+            };
+        });
+
+        assertEquals(List.of(
+                longName.trim() + "|" + longName.trim() + "|41.5",
+                "Largo \"Argentina\"|Largo \"Argentina\"|41.9"), out);
+    }
+
+    @Test
+    public void typedGetters_decodeBytesAndFallBackOnInvalid() throws Exception {
+        String csv = "n,t,d\n"
+                + "42,25:30:05,41.902783\n"
+                + "x,10:61:00,-12.5\n"
+                + ",,1e-3\n"
+                + "1,,0.000000000000000000000001\n"
+                + "2,,-\n"
+                + "3,,.\n"
+                + "4,, + \n";
+        List<Object[]> out = new ArrayList<>();
+
+        GtfsCsvReader.read(buffer(csv), header -> {
+            int cN = header.column("n");
+            int cT = header.column("t");
+            int cD = header.column("d");
+            int cMissing = header.column("missing");
+            assertEquals(-1, cMissing);
+            return row -> out.add(new Object[]{
+                    row.intValue(cN, -1), row.gtfsSeconds(cT), row.doubleValue(cD, Double.NaN),
+                    row.string(cMissing), row.isBlank(cN)
+            });
+        });
+
+        assertEquals(42, out.get(0)[0]);
+        assertEquals(25 * 3600 + 30 * 60 + 5, out.get(0)[1]);
+        assertEquals(41.902783, (double) out.get(0)[2], 0.0);
+        assertEquals("", out.get(0)[3]);
+
+        assertEquals(-1, out.get(1)[0]);
+        assertEquals(-1, out.get(1)[1]);
+        assertEquals(-12.5, (double) out.get(1)[2], 0.0);
+
+        assertEquals(true, out.get(2)[4]);
+        assertEquals(0.001, (double) out.get(2)[2], 0.0);
+
+        // scala oltre la tabella delle potenze (zeri iniziali non contano come cifre)
+        assertEquals(1e-24, (double) out.get(3)[2], 0.0);
+
+        // nessuna cifra: default, come Double.parseDouble (una coordinata malformata non diventa 0)
+        assertTrue(Double.isNaN((double) out.get(4)[2]));
+        assertTrue(Double.isNaN((double) out.get(5)[2]));
+        assertTrue(Double.isNaN((double) out.get(6)[2]));
+    }
+
+    @Test
+    public void missingRequiredColumn_servicesReturnEmpty() throws Exception {
+        File f = write("trips.csv", "route_id,service_id\nR1,FER\n");
+        TripsService.clearCache();
+
+        assertTrue(TripsService.getAllTrips(f.getAbsolutePath()).isEmpty());
+    }
+
+    @Test
+    public void tripsService_readsFeedWithDifferentColumnOrder() throws Exception {
+        File f = write("trips.csv", "trip_id,direction_id,route_id,trip_headsign\n"
+                + "T1,1,R1,\"Termini\"\n");
+        TripsService.clearCache();
+
+        List<TripsModel> trips = TripsService.getAllTrips(f.getAbsolutePath());
+        assertEquals(1, trips.size());
+        assertEquals("R1", trips.get(0).getRoute_id());
+        assertEquals("1", trips.get(0).getDirection_id());
+        assertEquals("Termini", trips.get(0).getTrip_headsign());
+        assertEquals("", trips.get(0).getShape_id());
+    }
+
+    @Test
+    public void stopTimesStore_isFilledDirectlyFromFile() throws Exception {
+        File f = write("stop_times.csv",
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence,pickup_type\n"
+                        + "T1,10:05:00,10:05:30,S2,2,0\n"
+                        + "T1,10:00:00,10:00:00,S1,1,1\n"
+                        + "T2,24:10:00,24:10:00,S1,1,\n");
+
+        StopTimesStore store = StopTimesService.readStore(f.getAbsolutePath(), true);
+
+        assertEquals(3, store.size());
+        assertEquals(2, store.tripCount());
+        int t1 = store.tripIndex("T1");
+        int first = store.tripStart(t1);
+        assertEquals("S1", store.stopId(store.stopRef(first)));
+        assertEquals(10 * 3600, store.arrivalSec(first));
+        assertEquals(1, store.pickupType(first));
+        assertEquals(2, store.viewForStop("S1").size());
+        assertEquals("24:10:00", store.viewForTrip("T2").get(0).getArrival_time());
+    }
+
+    // ===== helpers =====
+
+    private static ByteBuffer buffer(String csv) {
+        return ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File write(String name, String content) throws IOException {
+        File f = tmp.newFile(name);
+        Files.writeString(f.toPath(), content, StandardCharsets.UTF_8);
+        return f;
+    }
+}
@@ -0,0 +1,124 @@
+package TestGTFS_Static.GtfsCsvReader;
+
+import Model.Parsing.Static.StopTimesModel;
+import Service.Parsing.Csv.GtfsCsvReader;
+import Service.Parsing.Static.StopTimesStore;
+import com.opencsv.CSVReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput di {@link GtfsCsvReader} rispetto al parsing OpenCSV che sostituisce, su uno stop_times sintetico
+ * con tutte le colonne GTFS. Migliore di più ripetizioni (dopo un riscaldamento) per ridurre il rumore di JIT e GC.
+ */
+public class GtfsCsvReaderThroughputTest {
+
+    private static final int ROWS = 400_000;
+    private static final int WARMUP = 3;
+    private static final int RUNS = 7;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void stopTimesScan_isAtLeastTwiceAsFastAsOpenCsv() throws Exception {
+        File file = stopTimes();
+
+        int[] rows = new int[2];
+        long reader = Long.MAX_VALUE;
+        long openCsv = Long.MAX_VALUE;
+        for (int run = 0; run < WARMUP + RUNS; run++) {
+            long t0 = System.nanoTime();
+            rows[0] = scanWithReader(file);
+            long t1 = System.nanoTime();
+            rows[1] = scanWithOpenCsv(file);
+            long t2 = System.nanoTime();
+            if (run >= WARMUP) {
+                reader = Math.min(reader, t1 - t0);
+                openCsv = Math.min(openCsv, t2 - t1);
+            }
+        }
+
+        assertEquals(ROWS, rows[0]);
+        assertEquals(ROWS, rows[1]);
+        System.out.printf("[GtfsCsvReaderThroughputTest] %d righe: GtfsCsvReader %d ms, OpenCSV %d ms%n",
+                ROWS, reader / 1_000_000, openCsv / 1_000_000);
+        assertTrue("GtfsCsvReader " + reader / 1_000_000 + " ms vs OpenCSV " + openCsv / 1_000_000 + " ms",
+                reader * 2 <= openCsv);
+    }
+
+    // ===== helpers =====
+
+    /** Lavoro del loader attuale: ogni colonna letta con il getter tipizzato che usa lo store. */
+    private static int scanWithReader(File file) throws Exception {
+        long[] sink = new long[1];
+        int rows = GtfsCsvReader.read(file.toPath(), header -> {
+            int cTrip = header.require("trip_id");
+            int cArr = header.require("arrival_time");
+            int cDep = header.require("departure_time");
+            int cStop = header.require("stop_id");
+            int cSeq = header.require("stop_sequence");
+            int cHead = header.column("stop_headsign");
+            int cPick = header.column("pickup_type");
+            int cDrop = header.column("drop_off_type");
+            int cDist = header.column("shape_dist_traveled");
+            int cTp = header.column("timepoint");
+            return row -> sink[0] += row.string(cTrip).length() + row.string(cStop).length()
+                    + row.gtfsSeconds(cArr) + row.gtfsSeconds(cDep) + row.intValue(cSeq, 0)
+                    + row.string(cHead).length() + row.intValue(cPick, 0) + row.intValue(cDrop, 0)
+                    + (long) row.floatValue(cDist, 0f) + row.intValue(cTp, 1);
+        });
+        assertTrue(sink[0] > 0);
+        return rows;
+    }
+
+    /** Percorso precedente (readFromCSV): OpenCSV, colonne per posizione, un modello di stringhe per riga. */
+    private static int scanWithOpenCsv(File file) throws Exception {
+        int rows = 0;
+        long sink = 0;
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+             CSVReader csv = new CSVReader(in)) {
+            csv.readNext(); // header
+            String[] line;
+            while ((line = csv.readNext()) != null) {
+                StopTimesModel st = new StopTimesModel();
+                st.setTrip_id(line[0].trim());
+                st.setArrival_time(line[1].trim());
+                st.setDeparture_time(line[2].trim());
+                st.setStop_id(line[3].trim());
+                st.setStop_sequence(line[4].trim());
+                st.setStop_headsign(line[5].trim());
+                st.setPickup_type(line[6].trim());
+                st.setDrop_off_type(line[7].trim());
+                st.setShape_dist_traveled(line[8].trim());
+                st.setTimepoint(line[9].trim());
+                sink += st.getTrip_id().length() + st.getTimepoint().length();
+                rows++;
+            }
+        }
+        assertTrue(sink > 0);
+        return rows;
+    }
+
+    private File stopTimes() throws Exception {
+        StringBuilder sb = new StringBuilder(ROWS * 80).append("trip_id,arrival_time,departure_time,stop_id,"
+                + "stop_sequence,stop_headsign,pickup_type,drop_off_type,shape_dist_traveled,timepoint\n");
+        for (int i = 0; i < ROWS; i++) {
+            String time = StopTimesStore.formatGtfsTime(5 * 3600 + (i % 60_000));
+            sb.append("T").append(i / 30).append(',').append(time).append(',').append(time)
+                    .append(",S").append(i % 7_000).append(',').append(i % 30 + 1)
+                    .append(",Capolinea,0,0,").append(i % 30 * 412.5).append(",1\n");
+        }
+        File f = tmp.newFile("stop_times.txt");
+        Files.writeString(f.toPath(), sb.toString(), StandardCharsets.UTF_8);
+        return f;
+    }
+}
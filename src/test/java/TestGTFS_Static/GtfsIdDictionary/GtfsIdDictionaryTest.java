@@ -0,0 +1,163 @@
+package TestGTFS_Static.GtfsIdDictionary;
+
+import Model.GTFS_RT.StopTimeUpdateInfo;
+import Model.GTFS_RT.TripUpdateInfo;
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.StopTimesModel;
+import Service.Parsing.Static.StaticGtfsData;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.Static.StaticGtfsSnapshot;
+import Service.Parsing.Static.StopTimesStore;
+import Service.Points.StopService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GtfsIdDictionaryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void internAssignsDenseStableIds_idOfDoesNotGrow() {
+        int a = GtfsIdDictionary.TRIPS.intern("DICT_T_A");
+        int b = GtfsIdDictionary.TRIPS.intern("DICT_T_B");
+
+        assertEquals(a + 1, b);
+        assertEquals(a, GtfsIdDictionary.TRIPS.intern(new String("DICT_T_A")));
+        assertEquals("DICT_T_B", GtfsIdDictionary.TRIPS.name(b));
+        assertEquals(GtfsIdDictionary.NO_ID, GtfsIdDictionary.TRIPS.intern(""));
+
+        int size = GtfsIdDictionary.TRIPS.size();
+        assertEquals(GtfsIdDictionary.NO_ID, GtfsIdDictionary.TRIPS.idOf("DICT_T_UNKNOWN"));
+        assertEquals(size, GtfsIdDictionary.TRIPS.size());
+    }
+
+    @Test
+    public void retainOnly_holdsDroppedIdsForOneMoreVersion_thenReusesTheirSlots() {
+        int a = GtfsIdDictionary.TRIPS.intern("DICT_RET_A");
+        int b = GtfsIdDictionary.TRIPS.intern("DICT_RET_B");
+        int c = GtfsIdDictionary.TRIPS.intern("DICT_RET_C");
+
+        BitSet live = new BitSet();
+        live.set(0, GtfsIdDictionary.TRIPS.size());
+        live.clear(b);
+
+        // primo reload senza B: B è solo ritirato, chi conserva il suo intero lo risolve ancora
+        assertEquals(0, GtfsIdDictionary.TRIPS.retainOnly(live));
+        assertEquals(b, GtfsIdDictionary.TRIPS.idOf("DICT_RET_B"));
+        assertEquals("DICT_RET_B", GtfsIdDictionary.TRIPS.name(b));
+        assertTrue(GtfsIdDictionary.TRIPS.isAssigned(b));
+
+        // secondo reload senza B: l'intero viene liberato, il nome resta leggibile fino al riuso
+        assertEquals(1, GtfsIdDictionary.TRIPS.retainOnly(live));
+        assertEquals(GtfsIdDictionary.NO_ID, GtfsIdDictionary.TRIPS.idOf("DICT_RET_B"));
+        assertFalse(GtfsIdDictionary.TRIPS.isAssigned(b));
+        assertEquals("DICT_RET_B", GtfsIdDictionary.TRIPS.name(b));
+
+        // gli id mantenuti non cambiano, il nuovo id riusa lo slot libero
+        int size = GtfsIdDictionary.TRIPS.size();
+        assertEquals(b, GtfsIdDictionary.TRIPS.intern("DICT_RET_D"));
+        assertEquals(size, GtfsIdDictionary.TRIPS.size());
+        assertEquals(a, GtfsIdDictionary.TRIPS.idOf("DICT_RET_A"));
+        assertEquals(c, GtfsIdDictionary.TRIPS.idOf("DICT_RET_C"));
+        assertEquals("DICT_RET_D", GtfsIdDictionary.TRIPS.name(b));
+    }
+
+    @Test
+    public void staticStoreAndRealtimeShareTheSameIdsAndInstances() throws Exception {
+        StaticGtfsRepository repo = builder(null).build();
+        StopTimesStore store = repo.getStopTimesStore();
+
+        int trip = store.tripIndex("DICT_T1");
+        int stop = store.stopIndex("DICT_S2");
+        assertEquals(GtfsIdDictionary.TRIPS.idOf("DICT_T1"), trip);
+        assertEquals(GtfsIdDictionary.STOPS.idOf("DICT_S2"), stop);
+        assertEquals(1, store.tripCount());
+        assertEquals(2, store.stopCount());
+        assertTrue(store.tripIdLimit() > trip);
+
+        String canonicalTrip = repo.getTripById("DICT_T1").getTrip_id();
+        assertSame(canonicalTrip, store.tripId(trip));
+        assertSame(repo.getStopById("DICT_S2").getId(), store.stopId(stop));
+
+        TripUpdateInfo tu = new TripUpdateInfo("e1", new String("DICT_T1"), "DICT_R1", 0,
+                null, null, 60, 0L, List.of(new StopTimeUpdateInfo(new String("DICT_S2"), 2, null, 60, null, null, null)));
+        assertEquals(trip, tu.tripIdx);
+        assertSame(canonicalTrip, tu.tripId);
+        assertEquals(GtfsIdDictionary.ROUTES.idOf("DICT_R1"), tu.routeIdx);
+        assertEquals(stop, tu.stopTimeUpdates.get(0).stopIdx);
+
+        TripUpdateInfo unknown = new TripUpdateInfo("e2", "DICT_T_RT_ONLY", null, null, null, null, null, null, List.of());
+        assertEquals(GtfsIdDictionary.NO_ID, unknown.tripIdx);
+        assertEquals(GtfsIdDictionary.NO_ID, unknown.routeIdx);
+    }
+
+    @Test
+    public void snapshotRead_resolvesToTheSameIdsAndCanonicalInstances() throws Exception {
+        Path snapshotDir = tmp.newFolder("snap").toPath();
+        StaticGtfsRepository parsed = builder(snapshotDir).build();
+
+        Path dir = tmp.getRoot().toPath();
+        String key = StaticGtfsSnapshot.sourceKey(List.of(
+                dir.resolve("stops.csv"), dir.resolve("routes.csv"), dir.resolve("trips.csv"), dir.resolve("stop_times.csv")));
+        Path file = StaticGtfsSnapshot.snapshotFile(snapshotDir, key);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        StaticGtfsData data = StaticGtfsSnapshot.read(file, key, true);
+        assertNotNull(data);
+        int trip = GtfsIdDictionary.TRIPS.idOf("DICT_T1");
+        assertEquals(trip, data.stopTimesStore.tripIndex("DICT_T1"));
+        assertSame(GtfsIdDictionary.TRIPS.name(trip), data.trips.get(0).getTrip_id());
+        assertSame(GtfsIdDictionary.STOPS.canonicalIfKnown("DICT_S1"), data.stops.get(0).getId());
+
+        List<StopTimesModel> a = parsed.getStopTimesForTrip("DICT_T1");
+        List<StopTimesModel> b = data.stopTimesStore.viewForTrip("DICT_T1");
+        assertEquals(2, b.size());
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(a.get(i).getStop_id(), b.get(i).getStop_id());
+            assertEquals(a.get(i).getArrival_time(), b.get(i).getArrival_time());
+        }
+        assertEquals(1, data.stopTimesStore.viewForStop("DICT_S1").size());
+    }
+
+    // ===== helpers =====
+
+    private StaticGtfsRepositoryBuilder builder(Path snapshotDir) throws Exception {
+        Path stops = write("stops.csv", "stop_id,stop_code,stop_name,stop_lat,stop_lon\n"
+                + "DICT_S1,905,Termini,41.9009,12.5016\n"
+                + "DICT_S2,70,Venezia,41.8960,12.4823\n");
+        Path routes = write("routes.csv", "route_id,route_short_name,route_type\nDICT_R1,64,3\n");
+        Path trips = write("trips.csv", "route_id,service_id,trip_id,trip_headsign,direction_id\n"
+                + "DICT_R1,FER,DICT_T1,San Pietro,0\n");
+        Path stopTimes = write("stop_times.csv", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                + "DICT_T1,10:05:00,10:05:00,DICT_S2,2\n"
+                + "DICT_T1,10:00:00,10:00:00,DICT_S1,1\n");
+        StopService.reloadStops(stops.toString());
+
+        StaticGtfsRepositoryBuilder b = new StaticGtfsRepositoryBuilder()
+                .withStopsPath(stops.toString())
+                .withRoutesPath(routes.toString())
+                .withTripsPath(trips.toString())
+                .withStopTimesPath(stopTimes.toString());
+        return (snapshotDir == null) ? b : b.withSnapshotDir(snapshotDir);
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path p = tmp.getRoot().toPath().resolve(name);
+        Files.writeString(p, content, StandardCharsets.UTF_8);
+        return p;
+    }
+}
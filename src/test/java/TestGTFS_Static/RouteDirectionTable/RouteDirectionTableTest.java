@@ -0,0 +1,83 @@
+package TestGTFS_Static.RouteDirectionTable;
+
+import Model.Map.RouteDirectionOption;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.TripsModel;
+import Service.Index.LineSearchIndex;
+import Service.Parsing.Static.RouteDirectionTable;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RouteDirectionTableTest {
+
+    @Test
+    public void build_groupsTripsByRouteAndDirection_withHeadsignAndCounts() {
+        RouteDirectionTable table = RouteDirectionTable.build(
+                List.of(route("RDT_64", "64", "3"), route("RDT_NOTRIPS", "H", "x")),
+                List.of(trip("RDT_T1", "RDT_64", "0", ""),
+                        trip("RDT_T2", "RDT_64", "0", "Laurentina"),
+                        trip("RDT_T3", "RDT_64", "1", "Termini"),
+                        trip("RDT_T4", "RDT_64", "0", "Laurentina"),
+                        trip("RDT_T5", "RDT_64", "", "Ignota"),
+                        trip("RDT_T6", "RDT_ORPHAN", "1", "Ostia")));
+
+        RouteDirectionTable.Route r64 = table.route("RDT_64");
+        assertEquals("64", r64.shortName());
+        assertEquals(3, r64.routeType());
+        assertEquals(2, r64.directions().size());
+
+        RouteDirectionTable.Direction dir0 = r64.direction(0);
+        assertEquals("Laurentina", dir0.headsign()); // primo non vuoto
+        assertEquals(List.of("", "Laurentina"), dir0.headsigns());
+        assertEquals(3, dir0.tripCount());
+        assertEquals(1, r64.direction(1).tripCount());
+
+        assertTrue(table.route("RDT_NOTRIPS").directions().isEmpty());
+        assertEquals(-1, table.route("RDT_NOTRIPS").routeType());
+
+        RouteDirectionTable.Route orphan = table.route("RDT_ORPHAN");
+        assertNull(orphan.shortName());
+        assertEquals("Ostia", orphan.direction(1).headsign());
+
+        assertNull(table.route("RDT_MISSING"));
+        assertEquals(0, RouteDirectionTable.empty().size());
+    }
+
+    @Test
+    public void lineSearchIndex_usesTheSameTable() {
+        RouteDirectionTable table = RouteDirectionTable.build(
+                List.of(route("RDT_8", "8", "0"), route("RDT_NOTRIPS", "80", "3")),
+                List.of(trip("RDT_T1", "RDT_8", "0", "Casaletto"),
+                        trip("RDT_T2", "RDT_8", "1", "Argentina"),
+                        trip("RDT_T3", "RDT_ORPHAN", "0", "Ostia")));
+
+        List<RouteDirectionOption> options = new LineSearchIndex(table).search("8");
+
+        assertEquals(3, options.size());
+        assertTrue(options.stream().anyMatch(o -> o.getRouteId().equals("RDT_8")
+                && o.getDirectionId() == 1 && o.getHeadsign().equals("Argentina")));
+        assertTrue(options.stream().anyMatch(o -> o.getRouteId().equals("RDT_NOTRIPS")
+                && o.getDirectionId() == -1));
+        assertTrue(options.stream().noneMatch(o -> o.getRouteId().equals("RDT_ORPHAN")));
+    }
+
+    private static RoutesModel route(String id, String shortName, String type) {
+        RoutesModel r = new RoutesModel();
+        r.setRoute_id(id);
+        r.setRoute_short_name(shortName);
+        r.setRoute_type(type);
+        return r;
+    }
+
+    private static TripsModel trip(String tripId, String routeId, String dir, String headsign) {
+        TripsModel t = new TripsModel();
+        t.setTrip_id(tripId);
+        t.setRoute_id(routeId);
+        t.setDirection_id(dir);
+        t.setTrip_headsign(headsign);
+        return t;
+    }
+}
@@ -0,0 +1,155 @@
+package TestGTFS_Static.RouteStopIncidence;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.Parsing.Static.RouteStopIncidence;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.StopTimesService;
+import Service.Points.StopService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RouteStopIncidenceTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void bothDirections_areDeduplicatedAndSorted() {
+        RouteStopIncidence inc = repo(true).getRouteStopIncidence();
+
+        int r1 = GtfsIdDictionary.ROUTES.idOf("IR1");
+        int r2 = GtfsIdDictionary.ROUTES.idOf("IR2");
+        int s2 = GtfsIdDictionary.STOPS.idOf("IS2");
+
+        // IR1 ha due trip sulle stesse fermate: ogni coppia compare una sola volta
+        assertArrayEquals(ids(GtfsIdDictionary.STOPS, "IS1", "IS2"), inc.stopsOfRoute(r1));
+        assertArrayEquals(ids(GtfsIdDictionary.STOPS, "IS2", "IS3"), inc.stopsOfRoute(r2));
+        assertArrayEquals(ids(GtfsIdDictionary.ROUTES, "IR1", "IR2"), inc.routesAtStop(s2));
+        assertEquals(4, inc.size());
+
+        assertEquals(0, inc.stopsOfRoute(-1).length);
+        assertEquals(0, inc.routesAtStop(GtfsIdDictionary.STOPS.idOf("MISSING")).length);
+        assertEquals(3, inc.stopsOfRoutes(List.of("IR1", "IR2", "MISSING")).cardinality());
+    }
+
+    @Test
+    public void repositoryQueries_useIncidence_withAndWithoutStopIndex() {
+        for (boolean indexed : new boolean[]{true, false}) {
+            StaticGtfsRepository repo = repo(indexed);
+            assertEquals(Set.of("IS2", "IS3"), repo.getStopIdsForRoutes(List.of(route("IR2"))));
+            assertEquals(Set.of("IS1", "IS2", "IS3"), repo.getStopIdsForRoutes(List.of(route("IR1"), route("IR2"))));
+            assertEquals(2, repo.getRoutesForStop("IS2").size());
+            assertEquals(1, repo.getRoutesForStop("IS3").size());
+            assertTrue(repo.getRoutesForStop("MISSING").isEmpty());
+        }
+    }
+
+    @Test
+    public void pathServices_joinThroughIncidence() throws Exception {
+        String trips = write("trips.csv", "route_id,service_id,trip_id,direction_id\n"
+                + "PIR1,FER,PIT1,0\nPIR1,FER,PIT2,1\nPIR2,FER,PIT3,0\n");
+        String stopTimes = write("stop_times.csv", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                + "PIT1,10:00:00,10:00:00,PIS1,1\nPIT1,10:05:00,10:05:00,PIS2,2\n"
+                + "PIT2,11:00:00,11:00:00,PIS2,1\nPIT3,12:00:00,12:00:00,PIS3,1\n");
+        String stops = write("stops.csv", "stop_id,stop_code,stop_name,stop_lat,stop_lon\n"
+                + "PIS1,1,Uno,41.9,12.5\nPIS2,2,Due,41.9,12.5\nPIS3,3,Tre,41.9,12.5\n");
+        String routes = write("routes.csv", "route_id,route_short_name,route_type\nPIR1,1,3\nPIR2,2,3\n");
+        StopTimesService.clearCache();
+        StopService.reloadStops(stops);
+
+        assertEquals(Set.of("PIS1", "PIS2"),
+                new HashSet<>(StopTimesService.findStopIdsByRoutesGtfsJoin(List.of(route("PIR1")), trips, stopTimes)));
+        assertSame(StopTimesService.getRouteStopIncidence(trips, stopTimes),
+                StopTimesService.getRouteStopIncidence(trips, stopTimes));
+
+        Set<String> found = new HashSet<>();
+        for (StopModel s : StopService.findStopsByRoutes(List.of(route("PIR2")), trips, stopTimes, stops)) {
+            found.add(s.getId());
+        }
+        assertEquals(Set.of("PIS3"), found);
+
+        assertEquals(1, StopTimesService.getRoutesForStop("PIS2", stopTimes, trips, routes).size());
+    }
+
+    // ===== helpers =====
+
+    private static int[] ids(GtfsIdDictionary dict, String... names) {
+        int[] out = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            out[i] = dict.idOf(names[i]);
+        }
+        Arrays.sort(out);
+        return out;
+    }
+
+    private static StaticGtfsRepository repo(boolean indexStopToRoutes) {
+        return new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("IS1"), stop("IS2"), stop("IS3")))
+                .withRoutes(List.of(route("IR1"), route("IR2")))
+                .withTrips(List.of(trip("IT1", "IR1"), trip("IT2", "IR1"), trip("IT3", "IR2")))
+                .withStopTimes(List.of(
+                        stopTime("IT1", "IS1", "1"), stopTime("IT1", "IS2", "2"),
+                        stopTime("IT2", "IS1", "1"), stopTime("IT2", "IS2", "2"),
+                        stopTime("IT3", "IS2", "1"), stopTime("IT3", "IS3", "2")))
+                .withCalendars(List.of())
+                .withCalendarDates(List.of())
+                .indexStopToRoutes(indexStopToRoutes)
+                .build();
+    }
+
+    private String write(String name, String content) throws Exception {
+        File f = tmp.newFile(name);
+        Files.writeString(f.toPath(), content, StandardCharsets.UTF_8);
+        return f.getAbsolutePath();
+    }
+
+    private static StopModel stop(String id) {
+        StopModel s = new StopModel();
+        s.setId(id);
+        s.setName(id);
+        s.setLatitude(41.9);
+        s.setLongitude(12.5);
+        return s;
+    }
+
+    private static RoutesModel route(String routeId) {
+        RoutesModel r = new RoutesModel();
+        r.setRoute_id(routeId);
+        r.setRoute_short_name(routeId);
+        r.setRoute_type("3");
+        return r;
+    }
+
+    private static TripsModel trip(String tripId, String routeId) {
+        TripsModel t = new TripsModel();
+        t.setTrip_id(tripId);
+        t.setRoute_id(routeId);
+        t.setDirection_id("0");
+        return t;
+    }
+
+    private static StopTimesModel stopTime(String tripId, String stopId, String seq) {
+        StopTimesModel st = new StopTimesModel();
+        st.setTrip_id(tripId);
+        st.setStop_id(stopId);
+        st.setArrival_time("10:00:00");
+        st.setStop_sequence(seq);
+        return st;
+    }
+}
@@ -0,0 +1,158 @@
+package TestGTFS_Static.ServiceCalendar;
+
+import Model.ArrivalRow;
+import Model.Net.ConnectionListener;
+import Model.Net.ConnectionState;
+import Model.Net.ConnectionStatusProvider;
+import Model.Parsing.Static.CalendarDateModel;
+import Model.Parsing.Static.CalendarModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.GTFS_RT.ArrivalPredictionService;
+import Service.GTFS_RT.Fetcher.TripUpdates.TripUpdatesService;
+import Service.Parsing.Static.ServiceCalendar;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.TripStopsService;
+import Service.Points.StopService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ServiceCalendarTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void weeklyRuleAndExceptions_buildTheActiveServiceSet() {
+        ServiceCalendar cal = ServiceCalendar.build(
+                List.of(calendar("CAL_FER", "1111100", "20260101", "20261231"),
+                        calendar("CAL_FES", "0000011", "20260101", "20261231")),
+                List.of(calendarDate("CAL_FER", "20260602", "2"),   // martedì festivo
+                        calendarDate("CAL_FES", "20260602", "1"),
+                        calendarDate("CAL_EXTRA", "20260603", "1")), // solo calendar_dates
+                List.of(trip("CAL_T_FER", "CAL_FER"), trip("CAL_T_FES", "CAL_FES"),
+                        trip("CAL_T_NOSERVICE", ""), trip("CAL_T_UNKNOWN", "CAL_MISSING")));
+
+        assertTrue(cal.hasData());
+        assertEquals(4, cal.serviceCount());
+
+        ServiceCalendar.ServiceDay monday = cal.serviceDay(LocalDate.of(2026, 6, 1));
+        assertTrue(monday.isTripActive("CAL_T_FER"));
+        assertFalse(monday.isTripActive("CAL_T_FES"));
+        assertTrue(monday.isTripActive("CAL_T_NOSERVICE"));
+        assertFalse(monday.isTripActive("CAL_T_UNKNOWN"));
+
+        ServiceCalendar.ServiceDay holiday = cal.serviceDay(LocalDate.of(2026, 6, 2));
+        assertFalse(holiday.isTripActive("CAL_T_FER"));
+        assertTrue(holiday.isTripActive("CAL_T_FES"));
+        assertEquals(1, holiday.activeServiceCount());
+
+        ServiceCalendar.ServiceDay wednesday = cal.serviceDay(LocalDate.of(2026, 6, 3));
+        assertTrue(wednesday.isServiceActive(cal.serviceIndex("CAL_EXTRA")));
+        assertSame(wednesday, cal.serviceDay(LocalDate.of(2026, 6, 3))); // calcolato una volta per data
+
+        assertFalse(cal.serviceDay(LocalDate.of(2027, 1, 4)).isTripActive("CAL_T_FER")); // fuori validità
+        assertTrue(ServiceCalendar.empty().today().isTripActive("CAL_ANY"));
+    }
+
+    @Test
+    public void calendarFilesNextToTrips_representativeTripAndStopsFollowTheServiceDay() throws Exception {
+        String today = LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+        write("calendar.csv", "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n"
+                + "CAL_NEVER,0,0,0,0,0,0,0,20200101,20991231\n");
+        write("calendar_dates.csv", "service_id,date,exception_type\nCAL_TODAY," + today + ",1\n");
+
+        StaticGtfsRepository repo = new StaticGtfsRepositoryBuilder()
+                .withStopsPath(write("stops.csv", "stop_id,stop_code,stop_name,stop_lat,stop_lon\n"
+                        + "CAL_S1,1,Deposito,41.90,12.50\n"
+                        + "CAL_S2,2,Termini,41.90,12.50\n"
+                        + "CAL_S3,3,Colosseo,41.89,12.49\n"))
+                .withRoutesPath(write("routes.csv", "route_id,route_short_name,route_type\nCAL_R1,75,3\n"))
+                .withTripsPath(write("trips.csv", "route_id,service_id,trip_id,trip_headsign,direction_id\n"
+                        + "CAL_R1,CAL_NEVER,CAL_T_OLD,Deposito,0\n"
+                        + "CAL_R1,CAL_TODAY,CAL_T_NOW,Colosseo,0\n"))
+                .withStopTimesPath(write("stop_times.csv", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                        + "CAL_T_OLD,47:00:00,47:00:00,CAL_S1,1\n"
+                        + "CAL_T_OLD,47:05:00,47:05:00,CAL_S2,2\n"
+                        + "CAL_T_NOW,10:00:00,10:00:00,CAL_S2,1\n"
+                        + "CAL_T_NOW,10:05:00,10:05:00,CAL_S3,2\n"))
+                .build();
+        StopService.reloadStops(tmp.getRoot().toPath().resolve("stops.csv").toString());
+
+        assertTrue(repo.getServiceCalendar().hasData());
+        assertEquals("CAL_T_NOW", repo.getRepresentativeTripId("CAL_R1", 0));
+        assertEquals("Colosseo", repo.pickHeadsign("CAL_R1", 0));
+        List<StopModel> stops = TripStopsService.getStopsForRouteDirection("CAL_R1", 0, repo);
+        assertEquals(List.of("CAL_S2", "CAL_S3"), stops.stream().map(StopModel::getId).toList());
+
+        // CAL_S1 è servita solo dal trip che non circola: nessuna corsa statica (prima: 47:00 → 23:00)
+        ArrivalPredictionService svc = new ArrivalPredictionService(new OfflineTripUpdates(), new Offline(), repo);
+        ArrivalRow row = svc.getNextForStopOnRoute("CAL_S1", "CAL_R1", 0);
+        assertNotNull(row);
+        assertNull(row.time);
+    }
+
+    // ===== fakes =====
+
+    private static final class OfflineTripUpdates extends TripUpdatesService {
+        OfflineTripUpdates() { super("http://invalid"); }
+        @Override public void start() {}
+        @Override public void stop() {}
+    }
+
+    private static final class Offline implements ConnectionStatusProvider {
+        @Override public ConnectionState getState() { return ConnectionState.OFFLINE; }
+        @Override public void addListener(ConnectionListener listener) {}
+        @Override public void removeListener(ConnectionListener listener) {}
+    }
+
+    // ===== helpers =====
+
+    private static CalendarModel calendar(String serviceId, String days, String start, String end) {
+        CalendarModel c = new CalendarModel();
+        c.setService_id(serviceId);
+        c.setMonday(days.substring(0, 1));
+        c.setTuesday(days.substring(1, 2));
+        c.setWednesday(days.substring(2, 3));
+        c.setThursday(days.substring(3, 4));
+        c.setFriday(days.substring(4, 5));
+        c.setSaturday(days.substring(5, 6));
+        c.setSunday(days.substring(6, 7));
+        c.setStart_date(start);
+        c.setEnd_date(end);
+        return c;
+    }
+
+    private static CalendarDateModel calendarDate(String serviceId, String date, String type) {
+        CalendarDateModel d = new CalendarDateModel();
+        d.setService_id(serviceId);
+        d.setDate(date);
+        d.setException_type(type);
+        return d;
+    }
+
+    private static TripsModel trip(String tripId, String serviceId) {
+        TripsModel t = new TripsModel();
+        t.setTrip_id(tripId);
+        t.setRoute_id("CAL_R");
+        t.setService_id(serviceId);
+        return t;
+    }
+
+    private String write(String name, String content) throws Exception {
+        Path p = tmp.getRoot().toPath().resolve(name);
+        Files.writeString(p, content, StandardCharsets.UTF_8);
+        return p.toString();
+    }
+}
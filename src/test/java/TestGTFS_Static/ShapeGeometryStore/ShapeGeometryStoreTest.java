@@ -0,0 +1,87 @@
+package TestGTFS_Static.ShapeGeometryStore;
+
+import Service.Parsing.ShapesService;
+import Service.Parsing.Static.ShapeGeometryStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ShapeGeometryStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void read_groupsByShapeAndSortsBySequence_withBoundsAndCircularFlag() throws Exception {
+        Path shapes = tmp.newFile("shapes.csv").toPath();
+        Files.writeString(shapes,
+                "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence,shape_dist_traveled\n"
+                        + "SGS_LINE,41.90,12.50,3,\n"
+                        + "SGS_RING,41.80,12.40,1,\n"
+                        + "SGS_LINE,41.80,12.40,1,\n"
+                        + "SGS_RING,41.81,12.41,2,\n"
+                        + "SGS_LINE,41.85,12.45,2,\n"
+                        + "SGS_LINE,abc,12.45,4,\n"      // coordinate non valide: scartata
+                        + "SGS_RING,41.8001,12.4001,3,\n",
+                StandardCharsets.UTF_8);
+
+        ShapeGeometryStore store = ShapeGeometryStore.read(shapes.toString());
+        assertEquals(2, store.size());
+
+        ShapeGeometryStore.Shape line = store.get("SGS_LINE");
+        assertEquals(3, line.size());
+        assertEquals(41.80, line.lat(0), 1e-5);
+        assertEquals(41.85, line.lat(1), 1e-5);
+        assertEquals(12.50, line.lon(2), 1e-5);
+        assertEquals(41.80, line.minLat(), 1e-5);
+        assertEquals(41.90, line.maxLat(), 1e-5);
+        assertEquals(12.40, line.minLon(), 1e-5);
+        assertEquals(12.50, line.maxLon(), 1e-5);
+        assertFalse(line.isCircular());
+
+        assertTrue(store.get("SGS_RING").isCircular());
+        assertNull(store.get("SGS_MISSING"));
+    }
+
+    @Test
+    public void detail_coarserToleranceKeepsFewerPoints_endpointsAlwaysKept() throws Exception {
+        StringBuilder csv = new StringBuilder("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n");
+        for (int i = 0; i <= 200; i++) {
+            // linea quasi retta con una piccola oscillazione e una "punta" a metà percorso
+            double lat = 41.80 + i * 0.0005;
+            double lon = 12.40 + ((i % 2 == 0) ? 0.00005 : -0.00005) + ((i == 100) ? 0.01 : 0);
+            csv.append("SGS_LOD,").append(lat).append(',').append(lon).append(',').append(i + 1).append('\n');
+        }
+        Path shapes = tmp.newFile("shapes_lod.csv").toPath();
+        Files.writeString(shapes, csv.toString(), StandardCharsets.UTF_8);
+
+        ShapeGeometryStore.Shape shape = ShapeGeometryStore.read(shapes.toString()).get("SGS_LOD");
+
+        int[] full = shape.detail(0);
+        int[] fine = shape.detail(1e-6);
+        int[] coarse = shape.detail(0.0012);
+        int[] world = shape.detail(10);
+
+        assertEquals(201, full.length);
+        assertEquals(201, fine.length);
+        assertTrue(coarse.length < 10);
+        assertEquals(0, coarse[0]);
+        assertEquals(200, coarse[coarse.length - 1]);
+        assertTrue(Arrays.stream(coarse).anyMatch(i -> i == 100)); // la punta resta visibile
+        assertArrayEquals(new int[]{0, 200}, world);
+        assertSame(coarse, shape.detail(0.0015)); // stesso livello della piramide
+    }
+
+    @Test
+    public void readStore_missingFile_returnsEmptyStore() {
+        assertEquals(0, ShapesService.readStore(tmp.getRoot().toPath().resolve("nope.csv").toString()).size());
+        assertEquals(0, ShapesService.readStore(null).size());
+    }
+}
@@ -0,0 +1,208 @@
+package TestGTFS_Static.StaticGtfsReload;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Service.Parsing.Csv.GtfsArchive;
+import Service.Parsing.Static.StaticGtfsFeed;
+import Service.Parsing.TripsService;
+import Service.Points.StopService;
+import Service.Parsing.Static.StaticGtfsLoader;
+import Service.Parsing.Static.StaticGtfsRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class StaticGtfsReloadTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void reloadAll_swapsTheWholeVersion_oldRepositoryKeepsWorking() throws Exception {
+        Path dir = tmp.newFolder("v1").toPath();
+        StaticGtfsLoader feeds = new StaticGtfsLoader(paths(dir, "Termini", "San Pietro"));
+
+        StaticGtfsFeed first = feeds.current();
+        StaticGtfsRepository oldRepo = feeds.currentRepository();
+        String stopsPath = feeds.paths().stopsCsvPath();
+        String tripsPath = feeds.paths().tripsCsvPath();
+
+        assertSame(first, StaticGtfsFeed.current());
+        assertEquals("Termini", StopService.getAllStops(stopsPath).get(0).getName());
+        assertEquals("San Pietro", TripsService.getAllTrips(tripsPath).get(0).getTrip_headsign());
+
+        paths(dir, "Termini (nuova)", "Laurentina");
+        StaticGtfsFeed second = feeds.reloadAll().get(10, TimeUnit.SECONDS);
+
+        assertTrue(second.version() > first.version());
+        assertSame(second, StaticGtfsFeed.current());
+        assertEquals("Termini (nuova)", feeds.currentRepository().getStopById("RL_S1").getName());
+        assertEquals("Termini (nuova)", StopService.getAllStops(stopsPath).get(0).getName());
+        assertEquals("Laurentina", TripsService.getAllTrips(tripsPath).get(0).getTrip_headsign());
+        assertEquals("Termini (nuova)", StopService.findById("RL_S1", stopsPath).getName());
+
+        // chi ha letto la versione precedente continua a lavorare su dati coerenti
+        assertEquals("Termini", oldRepo.getStopById("RL_S1").getName());
+        assertEquals(2, oldRepo.getStopTimesForTrip("RL_T1").size());
+    }
+
+    @Test
+    public void reloadFromNewPaths_oldPathsSeeTheNewVersion_listenerNotified() throws Exception {
+        StaticGtfsLoader feeds = new StaticGtfsLoader(paths(tmp.newFolder("a").toPath(), "Venezia", "Termini"));
+        String oldStops = feeds.paths().stopsCsvPath();
+        feeds.current();
+
+        List<StaticGtfsFeed> published = new CopyOnWriteArrayList<>();
+        Consumer<StaticGtfsFeed> listener = published::add;
+        StaticGtfsFeed.addListener(listener);
+        try {
+            StaticGtfsFeed next = feeds.reload(paths(tmp.newFolder("b").toPath(), "Colosseo", "Anagnina"))
+                    .get(10, TimeUnit.SECONDS);
+
+            assertEquals(List.of(next), published);
+            assertTrue(next.serves(StaticGtfsFeed.Source.STOPS, oldStops));
+            assertEquals("Colosseo", StopService.getAllStops(oldStops).get(0).getName());
+        } finally {
+            StaticGtfsFeed.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void failedReload_keepsTheCurrentVersion() throws Exception {
+        StaticGtfsLoader feeds = new StaticGtfsLoader(paths(tmp.newFolder("ok").toPath(), "Termini", "Termini"));
+        StaticGtfsFeed current = feeds.current();
+
+        try {
+            feeds.reload(new StaticGtfsLoader.Paths(null, null, null, null)).get(10, TimeUnit.SECONDS);
+            fail("reload con path mancanti: atteso errore");
+        } catch (ExecutionException expected) {
+            // ok
+        }
+        assertSame(current, feeds.current());
+        assertEquals("Termini", feeds.get().stops().get(0).getName());
+        assertEquals(current.path(StaticGtfsFeed.Source.STOPS), feeds.paths().stopsCsvPath());
+    }
+
+    @Test
+    public void reloadWithNewPathsWhileRunning_queuesAFollowUpForTheRequestedPaths() throws Exception {
+        StaticGtfsLoader feeds = new StaticGtfsLoader(paths(tmp.newFolder("q0").toPath(), "Termini", "Termini"));
+        feeds.current();
+        StaticGtfsLoader.Paths first = paths(tmp.newFolder("q1").toPath(), "Colosseo", "Termini");
+        StaticGtfsLoader.Paths second = paths(tmp.newFolder("q2").toPath(), "Laurentina", "Termini");
+
+        CompletableFuture<StaticGtfsFeed> a = feeds.reload(first);
+        CompletableFuture<StaticGtfsFeed> b = feeds.reload(second);
+        assertNotSame(a, b);
+        assertSame(b, feeds.reload(second));
+
+        assertEquals("Colosseo", a.get(10, TimeUnit.SECONDS).stops().get(0).getName());
+        StaticGtfsFeed latest = b.get(10, TimeUnit.SECONDS);
+        assertEquals("Laurentina", latest.stops().get(0).getName());
+        assertEquals(second.stopsCsvPath(), latest.path(StaticGtfsFeed.Source.STOPS));
+        assertSame(latest, feeds.current());
+        assertEquals(second, feeds.paths());
+    }
+
+    @Test
+    public void reloadFromNewArchive_unmountsTheReplacedArchive() throws Exception {
+        GtfsArchive first = GtfsArchive.open(zip(tmp.newFolder("z1").toPath(), "Termini")).mount();
+        StaticGtfsLoader feeds = new StaticGtfsLoader(archivePaths(first));
+        feeds.current();
+        String oldStops = first.path("stops");
+        assertTrue(GtfsArchive.isMounted(oldStops));
+
+        GtfsArchive second = GtfsArchive.open(zip(tmp.newFolder("z2").toPath(), "Colosseo")).mount();
+        StaticGtfsFeed next = feeds.reload(archivePaths(second)).get(10, TimeUnit.SECONDS);
+
+        assertFalse(GtfsArchive.isMounted(oldStops));
+        assertTrue(GtfsArchive.isMounted(second.path("stops")));
+        // il path vecchio resta un alias servito dalla nuova versione
+        assertTrue(next.serves(StaticGtfsFeed.Source.STOPS, oldStops));
+        assertEquals("Colosseo", StopService.getAllStops(oldStops).get(0).getName());
+    }
+
+    @Test
+    public void repeatedReloads_releaseIdsTwoVersionsOld_replacedVersionKeepsItsIds() throws Exception {
+        Path dir = tmp.newFolder("ids").toPath();
+        StaticGtfsLoader feeds = new StaticGtfsLoader(paths(dir, "Termini", "Termini", "RL_ID_T0"));
+        feeds.current();
+        feeds.reload(paths(dir, "Termini", "Termini", "RL_ID_T1")).get(10, TimeUnit.SECONDS);
+        feeds.reload(paths(dir, "Termini", "Termini", "RL_ID_T2")).get(10, TimeUnit.SECONDS);
+        int size = GtfsIdDictionary.TRIPS.size();
+
+        for (int i = 3; i <= 5; i++) {
+            feeds.reload(paths(dir, "Termini", "Termini", "RL_ID_T" + i)).get(10, TimeUnit.SECONDS);
+        }
+        StaticGtfsRepository replaced = feeds.currentRepository();
+        int replacedTrip = GtfsIdDictionary.TRIPS.idOf("RL_ID_T5");
+        feeds.reload(paths(dir, "Termini", "Termini", "RL_ID_T6")).get(10, TimeUnit.SECONDS);
+
+        assertTrue(GtfsIdDictionary.TRIPS.size() <= size);
+        for (int i = 0; i <= 3; i++) {
+            assertEquals(GtfsIdDictionary.NO_ID, GtfsIdDictionary.TRIPS.idOf("RL_ID_T" + i));
+        }
+        // la versione appena sostituita (e quella prima, ancora ritirata) resta risolvibile
+        assertNotEquals(GtfsIdDictionary.NO_ID, GtfsIdDictionary.TRIPS.idOf("RL_ID_T4"));
+        assertEquals(replacedTrip, GtfsIdDictionary.TRIPS.idOf("RL_ID_T5"));
+        assertEquals("RL_ID_T5", GtfsIdDictionary.TRIPS.name(replacedTrip));
+        assertEquals(2, replaced.getStopTimesForTrip("RL_ID_T5").size());
+        assertEquals(2, feeds.currentRepository().getStopTimesForTrip("RL_ID_T6").size());
+    }
+
+    // ===== helpers =====
+
+    private static StaticGtfsLoader.Paths archivePaths(GtfsArchive a) {
+        return new StaticGtfsLoader.Paths(a.path("stops"), a.path("routes"), a.path("trips"), a.path("stop_times"));
+    }
+
+    private static Path zip(Path dir, String stopName) throws Exception {
+        StaticGtfsLoader.Paths csv = paths(dir, stopName, "Termini");
+        Path zip = dir.resolve("feed.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (String f : List.of(csv.stopsCsvPath(), csv.routesCsvPath(), csv.tripsCsvPath(), csv.stopTimesCsvPath())) {
+                Path p = Path.of(f);
+                out.putNextEntry(new ZipEntry(p.getFileName().toString()));
+                out.write(Files.readAllBytes(p));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private static StaticGtfsLoader.Paths paths(Path dir, String stopName, String headsign) throws Exception {
+        return paths(dir, stopName, headsign, "RL_T1");
+    }
+
+    private static StaticGtfsLoader.Paths paths(Path dir, String stopName, String headsign, String tripId)
+            throws Exception {
+        Path stops = write(dir, "stops.csv", "stop_id,stop_code,stop_name,stop_lat,stop_lon\n"
+                + "RL_S1,905," + stopName + ",41.9009,12.5016\n"
+                + "RL_S2,70,Venezia,41.8960,12.4823\n");
+        Path routes = write(dir, "routes.csv", "route_id,route_short_name,route_type\nRL_R1,64,3\n");
+        Path trips = write(dir, "trips.csv", "route_id,service_id,trip_id,trip_headsign,direction_id\n"
+                + "RL_R1,FER," + tripId + "," + headsign + ",0\n");
+        Path stopTimes = write(dir, "stop_times.csv", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                + tripId + ",10:00:00,10:00:00,RL_S1,1\n"
+                + tripId + ",10:05:00,10:05:00,RL_S2,2\n");
+        return new StaticGtfsLoader.Paths(stops.toString(), routes.toString(), trips.toString(), stopTimes.toString());
+    }
+
+    private static Path write(Path dir, String name, String content) throws Exception {
+        Path p = dir.resolve(name);
+        Files.writeString(p, content, StandardCharsets.UTF_8);
+        return p;
+    }
+}
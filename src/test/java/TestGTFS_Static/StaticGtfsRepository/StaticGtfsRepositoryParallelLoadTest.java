@@ -0,0 +1,254 @@
+package TestGTFS_Static.StaticGtfsRepository;
+
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.Parsing.Csv.GtfsCsvReader;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.Static.StopTimesStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class StaticGtfsRepositoryParallelLoadTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void parallelAndSequentialLoading_produceTheSameStore() throws Exception {
+        File routes = write("routes.csv", "route_id,route_short_name,route_type\nR0,64,3\nR1,40,3\nR2,H,3\n");
+        StringBuilder trips = new StringBuilder("route_id,service_id,trip_id,direction_id\n");
+        StringBuilder stopTimes = new StringBuilder(
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign\n");
+        for (int t = 0; t < 1_500; t++) {
+            trips.append("R").append(t % 3).append(",FER,T").append(t).append(',').append(t % 2).append('\n');
+            for (int k = 0; k < 30; k++) {
+                String time = StopTimesStore.formatGtfsTime(5 * 3600 + t * 30 + k * 60);
+                stopTimes.append('T').append(t).append(',').append(time).append(',').append(time)
+                        .append(",S").append((t + k) % 200).append(',').append(k + 1)
+                        .append(",\"Capolinea\nriga ").append(k).append("\"\n");
+            }
+        }
+        File tripsFile = write("trips.csv", trips.toString());
+        File stopTimesFile = write("stop_times.csv", stopTimes.toString());
+        assertTrue("il file deve essere abbastanza grande da essere diviso", stopTimesFile.length() > (2 << 20));
+
+        StaticGtfsRepository parallel = build(routes, tripsFile, stopTimesFile, true);
+        StaticGtfsRepository sequential = build(routes, tripsFile, stopTimesFile, false);
+
+        StopTimesStore a = parallel.getStopTimesStore();
+        StopTimesStore b = sequential.getStopTimesStore();
+        assertEquals(45_000, a.size());
+        assertEquals(b.size(), a.size());
+        assertEquals(b.tripCount(), a.tripCount());
+        for (int row = 0; row < a.size(); row++) {
+            assertEquals(b.tripId(b.tripRef(row)), a.tripId(a.tripRef(row)));
+            assertEquals(b.stopId(b.stopRef(row)), a.stopId(a.stopRef(row)));
+            assertEquals(b.arrivalSec(row), a.arrivalSec(row));
+            assertEquals(b.sequence(row), a.sequence(row));
+        }
+
+        List<StopTimesModel> trip = parallel.getStopTimesForTrip("T7");
+        assertEquals(30, trip.size());
+        assertEquals("Capolinea\nriga 0", trip.get(0).getStop_headsign());
+        assertEquals(sequential.getRoutesForStop("S5").size(), parallel.getRoutesForStop("S5").size());
+    }
+
+    @Test
+    public void readChunks_neverSplitsInsideQuotedFields() throws Exception {
+        StringBuilder csv = new StringBuilder("id,note\n");
+        for (int i = 0; i < 250_000; i++) {
+            csv.append(i).append(",\"a\nb,c\"\n");
+        }
+        ByteBuffer buf = ByteBuffer.wrap(csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<List<Integer>> chunks = GtfsCsvReader.readChunks(buf, pool, new GtfsCsvReader.ChunkSinkFactory<>() {
+                @Override
+                public List<Integer> newChunk() {
+                    return new ArrayList<>();
+                }
+
+                @Override
+                public GtfsCsvReader.RowSink open(GtfsCsvReader.Header header, List<Integer> chunk) {
+                    int cId = header.column("id");
+                    int cNote = header.column("note");
+                    return row -> {
+                        assertEquals("a\nb,c", row.string(cNote));
+                        chunk.add(row.intValue(cId, -1));
+                    };
+                }
+            });
+
+            assertTrue(chunks.size() > 1);
+            int expected = 0;
+            for (List<Integer> chunk : chunks) {
+                for (int id : chunk) {
+                    assertEquals(expected++, id);
+                }
+            }
+            assertEquals(250_000, expected);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelIndexBuild_matchesSequentialBuild() {
+        List<StopTimesModel> rows = syntheticStopTimes(3_000, 40);
+        List<TripsModel> trips = syntheticTrips(3_000);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            StaticGtfsRepository sequential = buildFromModels(trips, rows, null);
+            StaticGtfsRepository parallel = buildFromModels(trips, rows, pool);
+
+            StopTimesStore a = parallel.getStopTimesStore();
+            StopTimesStore b = sequential.getStopTimesStore();
+            assertEquals(120_000, a.size());
+            for (int row = 0; row < a.size(); row++) {
+                assertEquals(b.tripRef(row), a.tripRef(row));
+                assertEquals(b.stopRef(row), a.stopRef(row));
+                assertEquals(b.sequence(row), a.sequence(row));
+                assertEquals(b.arrivalSec(row), a.arrivalSec(row));
+            }
+            for (int s = 0; s < 300; s++) {
+                assertEquals(routeIds(sequential, "BS" + s), routeIds(parallel, "BS" + s));
+            }
+            assertEquals(sequential.getTripIdsForRouteDirection("BR1", 0),
+                    parallel.getTripIdsForRouteDirection("BR1", 0));
+            assertEquals("1", parallel.getStopTimesForTrip("BT7").get(0).getStop_sequence());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Benchmark (informativo): tempo di costruzione della repository al variare dei worker.
+     * Non fa asserzioni sui tempi, che dipendono dalla macchina: stampa la tabella e verifica solo il risultato.
+     */
+    @Test
+    public void benchmark_indexBuildScalesWithCores() {
+        List<StopTimesModel> rows = syntheticStopTimes(5_000, 40);
+        List<TripsModel> trips = syntheticTrips(5_000);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        buildFromModels(trips, rows, null); // warm-up
+        long base = bestOf(3, () -> buildFromModels(trips, rows, null));
+        System.out.printf("[bench] index build, %d righe: sequenziale %d ms%n", rows.size(), base / 1_000_000);
+        for (int workers = 2; workers <= Math.max(2, cores); workers *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            try {
+                long t = bestOf(3, () -> assertEquals(200_000,
+                        buildFromModels(trips, rows, pool).getStopTimesStore().size()));
+                System.out.printf("[bench] %d worker: %d ms (speedup %.2fx)%n",
+                        workers, t / 1_000_000, (double) base / t);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // ===== helpers =====
+
+    private static long bestOf(int runs, Runnable build) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long t0 = System.nanoTime();
+            build.run();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        return best;
+    }
+
+    private static StaticGtfsRepository buildFromModels(List<TripsModel> trips, List<StopTimesModel> rows,
+                                                        ForkJoinPool pool) {
+        RoutesModel r0 = new RoutesModel();
+        r0.setRoute_id("BR0");
+        RoutesModel r1 = new RoutesModel();
+        r1.setRoute_id("BR1");
+        return new StaticGtfsRepositoryBuilder()
+                .withStops(List.of())
+                .withRoutes(List.of(r0, r1))
+                .withTrips(trips)
+                .withStopTimes(rows)
+                .withCalendars(List.of())
+                .withCalendarDates(List.of())
+                .parallelLoading(pool != null)
+                .withPool(pool)
+                .build();
+    }
+
+    private static List<TripsModel> syntheticTrips(int count) {
+        List<TripsModel> out = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            TripsModel trip = new TripsModel();
+            trip.setTrip_id("BT" + t);
+            trip.setRoute_id("BR" + (t % 2));
+            trip.setDirection_id(String.valueOf((t / 2) % 2));
+            out.add(trip);
+        }
+        return out;
+    }
+
+    /** Righe di ogni trip in ordine di stop_sequence inverso, per far lavorare l'ordinamento. */
+    private static List<StopTimesModel> syntheticStopTimes(int tripCount, int stopsPerTrip) {
+        List<StopTimesModel> out = new ArrayList<>(tripCount * stopsPerTrip);
+        for (int t = 0; t < tripCount; t++) {
+            for (int k = stopsPerTrip; k >= 1; k--) {
+                StopTimesModel st = new StopTimesModel();
+                st.setTrip_id("BT" + t);
+                st.setStop_id("BS" + ((t + k) % 300));
+                st.setArrival_time(StopTimesStore.formatGtfsTime(5 * 3600 + t * 7 + k * 60));
+                st.setStop_sequence(String.valueOf(k));
+                out.add(st);
+            }
+        }
+        return out;
+    }
+
+    private static Set<String> routeIds(StaticGtfsRepository repo, String stopId) {
+        Set<String> out = new HashSet<>();
+        for (RoutesModel r : repo.getRoutesForStop(stopId)) {
+            out.add(r.getRoute_id());
+        }
+        return out;
+    }
+
+    private static StaticGtfsRepository build(File routes, File trips, File stopTimes, boolean parallel) {
+        StopModel s = new StopModel();
+        s.setId("S5");
+        s.setLatitude(41.9);
+        s.setLongitude(12.5);
+
+        return new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(s))
+                .withRoutesPath(routes.getAbsolutePath())
+                .withTripsPath(trips.getAbsolutePath())
+                .withStopTimesPath(stopTimes.getAbsolutePath())
+                .parallelLoading(parallel)
+                .build();
+    }
+
+    private File write(String name, String content) throws Exception {
+        File f = tmp.newFile(name);
+        Files.writeString(f.toPath(), content, StandardCharsets.UTF_8);
+        return f;
+    }
+}
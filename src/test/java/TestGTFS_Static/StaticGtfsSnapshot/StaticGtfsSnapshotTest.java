@@ -0,0 +1,154 @@
+package TestGTFS_Static.StaticGtfsSnapshot;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.StopTimesModel;
+import Service.Parsing.Static.StaticGtfsData;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.Static.StaticGtfsSnapshot;
+import Service.Parsing.TripsService;
+import Service.Points.StopService;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StaticGtfsSnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path stops;
+    private Path routes;
+    private Path trips;
+    private Path stopTimes;
+    private Path snapshotDir;
+
+    @Before
+    public void setUp() throws Exception {
+        stops = write("stops.csv", "stop_id,stop_code,stop_name,stop_lat,stop_lon\n"
+                + "S1,905,Termini,41.9009,12.5016\n"
+                + "S2,70,\"Venezia, piazza\",41.8960,12.4823\n");
+        routes = write("routes.csv", "route_id,route_short_name,route_type\nR1,64,3\n");
+        trips = write("trips.csv", "route_id,service_id,trip_id,trip_headsign,direction_id\n"
+                + "R1,FER,T1,San Pietro,0\n");
+        stopTimes = write("stop_times.csv", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                + "T1,10:05:00,10:05:00,S2,2\n"
+                + "T1,10:00:00,10:00:00,S1,1\n");
+        snapshotDir = tmp.newFolder("snap").toPath();
+        StopService.reloadStops(stops.toString());
+    }
+
+    @Test
+    public void firstBuildWritesSnapshot_secondReadsTheSameData() throws Exception {
+        StaticGtfsRepository parsed = builder().build();
+
+        String key = StaticGtfsSnapshot.sourceKey(List.of(stops, routes, trips, stopTimes));
+        Path file = StaticGtfsSnapshot.snapshotFile(snapshotDir, key);
+        awaitFile(file);
+
+        StaticGtfsData data = StaticGtfsSnapshot.read(file, key, true);
+        assertNotNull(data);
+        assertEquals(2, data.stops.size());
+        assertEquals("Venezia, piazza", data.stops.get(1).getName());
+        assertEquals(41.8960, data.stops.get(1).getLatitude(), 0.0);
+        assertEquals("San Pietro", data.trips.get(0).getTrip_headsign());
+        assertNotNull(data.routeIdsByStopId);
+
+        StaticGtfsRepository cached = builder().build();
+        List<StopTimesModel> a = parsed.getStopTimesForTrip("T1");
+        List<StopTimesModel> b = cached.getStopTimesForTrip("T1");
+        assertEquals(a.size(), b.size());
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(a.get(i).getStop_id(), b.get(i).getStop_id());
+            assertEquals(a.get(i).getArrival_time(), b.get(i).getArrival_time());
+        }
+        assertEquals(1, cached.getRoutesForStop("S2").size());
+        assertEquals(1, cached.getStopTimesForStop("S1").size());
+    }
+
+    @Test
+    public void changedSources_changeKeyAndFallBackToCsv() throws Exception {
+        builder().build();
+        String oldKey = StaticGtfsSnapshot.sourceKey(List.of(stops, routes, trips, stopTimes));
+        awaitFile(StaticGtfsSnapshot.snapshotFile(snapshotDir, oldKey));
+
+        Files.writeString(trips, "route_id,service_id,trip_id,trip_headsign,direction_id\n"
+                + "R1,FER,T1,Termini,1\n", StandardCharsets.UTF_8);
+        String newKey = StaticGtfsSnapshot.sourceKey(List.of(stops, routes, trips, stopTimes));
+
+        assertNotEquals(oldKey, newKey);
+        assertNull(StaticGtfsSnapshot.read(StaticGtfsSnapshot.snapshotFile(snapshotDir, oldKey), newKey, true));
+
+        TripsService.reloadTrips(trips.toString()); // cache per-path del processo corrente
+        StaticGtfsRepository repo = builder().build();
+        assertEquals("Termini", repo.getTripById("T1").getTrip_headsign());
+    }
+
+    @Test
+    public void truncatedSnapshot_isIgnored() throws Exception {
+        builder().build();
+        String key = StaticGtfsSnapshot.sourceKey(List.of(stops, routes, trips, stopTimes));
+        Path file = StaticGtfsSnapshot.snapshotFile(snapshotDir, key);
+        awaitFile(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertNull(StaticGtfsSnapshot.read(file, key, true));
+        assertEquals(2, builder().build().getStopTimesForTrip("T1").size());
+    }
+
+    @Test
+    public void snapshot_writesOnlyTheIdsUsedByTheRepository() throws Exception {
+        GtfsIdDictionary.TRIPS.intern("SNAP_STALE_TRIP");
+        GtfsIdDictionary.STOPS.intern("SNAP_STALE_STOP");
+
+        builder().build();
+        String key = StaticGtfsSnapshot.sourceKey(List.of(stops, routes, trips, stopTimes));
+        Path file = StaticGtfsSnapshot.snapshotFile(snapshotDir, key);
+        awaitFile(file);
+
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertFalse(content.contains("SNAP_STALE_TRIP"));
+        assertFalse(content.contains("SNAP_STALE_STOP"));
+
+        StaticGtfsData data = StaticGtfsSnapshot.read(file, key, true);
+        assertNotNull(data);
+        assertEquals(2, data.stopTimesStore.viewForTrip("T1").size());
+        assertEquals(1, data.stopTimesStore.viewForStop("S2").size());
+    }
+
+    // ===== helpers =====
+
+    private StaticGtfsRepositoryBuilder builder() {
+        return new StaticGtfsRepositoryBuilder()
+                .withStopsPath(stops.toString())
+                .withRoutesPath(routes.toString())
+                .withTripsPath(trips.toString())
+                .withStopTimesPath(stopTimes.toString())
+                .withSnapshotDir(snapshotDir);
+    }
+
+    private static void awaitFile(Path file) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue("snapshot non scritto: " + file, Files.exists(file));
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path p = tmp.newFile(name).toPath();
+        Files.writeString(p, content, StandardCharsets.UTF_8);
+        return p;
+    }
+}
@@ -0,0 +1,168 @@
+package TestGTFS_Static.StopTimesDiskStore;
+
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.Static.StopTimesDiskStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StopTimesDiskStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** DT2 è spezzato in due blocchi non contigui; le sequenze di DT1 sono fuori ordine. */
+    private static final String STOP_TIMES =
+            "trip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign,pickup_type\n" +
+            "DT1,10:10:00,10:11:00,DS2,2,Termini,\n" +
+            "DT1,10:05:00,10:05:30,DS1,1,,1\n" +
+            "DT1,10:20:00,10:20:00,DS3,3,,\n" +
+            "DT2,11:00:00,11:00:00,DS1,1,,\n" +
+            "DT3,25:10:00,25:10:00,DS3,1,,\n" +
+            "DT2,11:10:00,11:10:00,DS3,2,,\n";
+
+    @Test
+    public void tripRows_areDecodedSortedBySequence() throws Exception {
+        StopTimesDiskStore disk = StopTimesDiskStore.open(write(STOP_TIMES), 8);
+
+        assertEquals(6, disk.size());
+        assertEquals(3, disk.tripCount());
+
+        List<StopTimesModel> t1 = disk.viewForTrip("DT1");
+        assertEquals(3, t1.size());
+        assertEquals("DS1", t1.get(0).getStop_id());
+        assertEquals("10:05:00", t1.get(0).getArrival_time());
+        assertEquals("1", t1.get(0).getPickup_type());
+        assertEquals("Termini", t1.get(1).getStop_headsign());
+        assertEquals("3", t1.get(2).getStop_sequence());
+
+        assertEquals("25:10:00", disk.viewForTrip("DT3").get(0).getArrival_time());
+        assertTrue(disk.viewForTrip("MISSING").isEmpty());
+    }
+
+    @Test
+    public void nonContiguousTrip_readsAllSegments() throws Exception {
+        StopTimesDiskStore disk = StopTimesDiskStore.open(write(STOP_TIMES), 8);
+
+        List<StopTimesModel> t2 = disk.viewForTrip("DT2");
+        assertEquals(2, t2.size());
+        assertEquals("DS1", t2.get(0).getStop_id());
+        assertEquals("DS3", t2.get(1).getStop_id());
+    }
+
+    @Test
+    public void stopPostings_andViewForStop() throws Exception {
+        StopTimesDiskStore disk = StopTimesDiskStore.open(write(STOP_TIMES), 8);
+
+        int ds3 = disk.stopIndex("DS3");
+        assertTrue(ds3 >= 0);
+        assertEquals(3, disk.tripsForStop(ds3).length);
+        assertEquals(3, disk.viewForStop("DS3").size());
+        assertEquals(2, disk.viewForStop("DS1").size());
+        assertEquals(-1, disk.stopIndex("MISSING"));
+        assertTrue(disk.viewForStop("MISSING").isEmpty());
+    }
+
+    @Test
+    public void decodedTrips_areBoundedByLruCache() throws Exception {
+        StopTimesDiskStore disk = StopTimesDiskStore.open(write(STOP_TIMES), 2);
+
+        disk.viewForTrip("DT1");
+        disk.viewForTrip("DT2");
+        disk.viewForTrip("DT3");
+        assertEquals(2, disk.cachedTrips());
+
+        StopTimesDiskStore.TripRows a = disk.trip(disk.tripIndex("DT3"));
+        assertSame(a, disk.trip(disk.tripIndex("DT3")));
+
+        // scansione completa: stesse righe, sempre con cache limitata
+        assertEquals(6, disk.viewAll().size());
+        assertEquals("DT1", disk.viewAll().get(0).getTrip_id());
+        assertEquals(2, disk.cachedTrips());
+    }
+
+    @Test
+    public void viewForStop_readsOnlyStopRows_withoutFillingTheCache() throws Exception {
+        StopTimesDiskStore disk = StopTimesDiskStore.open(write(STOP_TIMES), 2);
+        StopTimesDiskStore.TripRows dt1 = disk.trip(disk.tripIndex("DT1"));
+
+        List<StopTimesModel> ds3 = disk.viewForStop("DS3");
+        assertEquals(List.of("DT1", "DT3", "DT2"), ds3.stream().map(StopTimesModel::getTrip_id).toList());
+        assertEquals("11:10:00", ds3.get(2).getArrival_time());
+        // solo DT1 (già richiesto) resta in cache: la scansione della fermata non la riempie
+        assertEquals(1, disk.cachedTrips());
+        assertSame(dt1, disk.trip(disk.tripIndex("DT1")));
+
+        StopTimesDiskStore.TripRows rows = disk.rowsAtStop(disk.tripIndex("DT2"), disk.stopIndex("DS1"));
+        assertEquals(1, rows.size());
+        assertEquals(1, rows.sequence(0));
+        assertEquals(0, disk.rowsAtStop(disk.tripIndex("DT3"), disk.stopIndex("DS1")).size());
+        assertNull(disk.rowsAtStop(-1, disk.stopIndex("DS1")));
+    }
+
+    @Test
+    public void repository_lowMemoryMode_servesQueriesFromDisk() throws Exception {
+        StaticGtfsRepository repo = new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("DS1"), stop("DS2"), stop("DS3")))
+                .withRoutes(List.of(route("DR1"), route("DR2")))
+                .withTrips(List.of(trip("DT1", "DR1"), trip("DT2", "DR2"), trip("DT3", "DR2")))
+                .withStopTimesPath(write(STOP_TIMES))
+                .lowMemoryStopTimes(true)
+                .lowMemoryTripCache(4)
+                .build();
+
+        assertNotNull(repo.getStopTimesOnDisk());
+        assertEquals(0, repo.getStopTimesStore().size());
+
+        assertEquals(3, repo.getStopTimesForTrip("DT1").size());
+        assertEquals(3, repo.getStopTimesForStop("DS3").size());
+        assertEquals(2, repo.getRoutesForStop("DS3").size());
+        assertEquals(1, repo.getRoutesForStop("DS2").size());
+        assertEquals(2, repo.getStopIdsForRoutes(List.of(route("DR2"))).size());
+    }
+
+    // ===== helpers =====
+
+    private String write(String content) throws Exception {
+        File f = tmp.newFile("stop_times.txt");
+        Files.writeString(f.toPath(), content, StandardCharsets.UTF_8);
+        return f.getAbsolutePath();
+    }
+
+    private static StopModel stop(String id) {
+        StopModel s = new StopModel();
+        s.setId(id);
+        s.setName(id);
+        s.setLatitude(41.9);
+        s.setLongitude(12.5);
+        return s;
+    }
+
+    private static RoutesModel route(String routeId) {
+        RoutesModel r = new RoutesModel();
+        r.setRoute_id(routeId);
+        r.setRoute_short_name(routeId);
+        r.setRoute_type("3");
+        return r;
+    }
+
+    private static TripsModel trip(String tripId, String routeId) {
+        TripsModel t = new TripsModel();
+        t.setTrip_id(tripId);
+        t.setRoute_id(routeId);
+        t.setDirection_id("0");
+        return t;
+    }
+}
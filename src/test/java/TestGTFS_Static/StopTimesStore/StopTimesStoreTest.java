@@ -0,0 +1,148 @@
+package TestGTFS_Static.StopTimesStore;
+
+import Model.Parsing.Static.StopTimesModel;
+import Service.Parsing.Static.StopTimesStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StopTimesStoreTest {
+
+    @Test
+    public void parseGtfsSeconds_handlesOver24hAndInvalid() {
+        assertEquals(10 * 3600, StopTimesStore.parseGtfsSeconds("10:00:00"));
+        assertEquals(9 * 3600 + 5 * 60 + 7, StopTimesStore.parseGtfsSeconds(" 9:05:07 "));
+        assertEquals(25 * 3600 + 30 * 60, StopTimesStore.parseGtfsSeconds("25:30:00"));
+
+        assertEquals(StopTimesStore.NO_TIME, StopTimesStore.parseGtfsSeconds(null));
+        assertEquals(StopTimesStore.NO_TIME, StopTimesStore.parseGtfsSeconds(""));
+        assertEquals(StopTimesStore.NO_TIME, StopTimesStore.parseGtfsSeconds("10:60:00"));
+        assertEquals(StopTimesStore.NO_TIME, StopTimesStore.parseGtfsSeconds("48:00:00"));
+        assertEquals(StopTimesStore.NO_TIME, StopTimesStore.parseGtfsSeconds("ab:cd:ef"));
+    }
+
+    @Test
+    public void tripRows_areContiguousAndSortedBySequence() {
+        List<StopTimesModel> in = List.of(
+                stopTime("T1", "S2", "10:10:00", "2"),
+                stopTime("T2", "S1", "11:00:00", "1"),
+                stopTime("T1", "S1", "10:05:00", "1"),
+                stopTime("T1", "S3", "10:20:00", "3")
+        );
+
+        StopTimesStore store = StopTimesStore.fromModels(in, true);
+        assertEquals(4, store.size());
+        assertEquals(2, store.tripCount());
+
+        int t1 = store.tripIndex("T1");
+        assertEquals(3, store.tripEnd(t1) - store.tripStart(t1));
+
+        int prev = Integer.MIN_VALUE;
+        for (int row = store.tripStart(t1); row < store.tripEnd(t1); row++) {
+            assertTrue(store.sequence(row) > prev);
+            prev = store.sequence(row);
+        }
+
+        List<StopTimesModel> view = store.viewForTrip("T1");
+        assertEquals("S1", view.get(0).getStop_id());
+        assertEquals("10:05:00", view.get(0).getArrival_time());
+        assertEquals("3", view.get(2).getStop_sequence());
+    }
+
+    @Test
+    public void stopIndex_andScanFallback_returnSameRows() {
+        List<StopTimesModel> in = List.of(
+                stopTime("T1", "S1", "10:00:00", "1"),
+                stopTime("T1", "S2", "10:05:00", "2"),
+                stopTime("T2", "S1", "11:00:00", "1")
+        );
+
+        StopTimesStore indexed = StopTimesStore.fromModels(in, true);
+        StopTimesStore scanned = StopTimesStore.fromModels(in, false);
+
+        assertTrue(indexed.hasStopIndex());
+        assertFalse(scanned.hasStopIndex());
+        assertEquals(2, indexed.viewForStop("S1").size());
+        assertEquals(2, scanned.viewForStop("S1").size());
+        assertTrue(indexed.viewForStop("MISSING").isEmpty());
+    }
+
+    @Test
+    public void toModel_roundTripsFlagsAndOptionalFields() {
+        StopTimesModel st = stopTime("T1", "S1", "10:00:00", "4");
+        st.setDeparture_time("10:01:00");
+        st.setStop_headsign("Termini");
+        st.setPickup_type("1");
+        st.setDrop_off_type("3");
+        st.setTimepoint("0");
+        st.setShape_dist_traveled("120");
+
+        StopTimesModel out = StopTimesStore.fromModels(List.of(st), true).viewForTrip("T1").get(0);
+
+        assertEquals("10:01:00", out.getDeparture_time());
+        assertEquals("Termini", out.getStop_headsign());
+        assertEquals("1", out.getPickup_type());
+        assertEquals("3", out.getDrop_off_type());
+        assertEquals("0", out.getTimepoint());
+        assertEquals("120", out.getShape_dist_traveled());
+    }
+
+    @Test
+    public void memory_columnarIsMuchSmallerThanModelList() {
+        // Dataset sintetico con proporzioni simili al feed di Roma: ~40 fermate per trip.
+        List<StopTimesModel> rows = new ArrayList<>();
+        for (int t = 0; t < 2_500; t++) {
+            for (int k = 0; k < 40; k++) {
+                StopTimesModel st = stopTime("0#" + (100_000 + t) + "-1", "7" + (1000 + (t * 7 + k) % 3000),
+                        StopTimesStore.formatGtfsTime(6 * 3600 + t * 20 + k * 90), String.valueOf(k + 1));
+                st.setDeparture_time(st.getArrival_time());
+                st.setPickup_type("0");
+                st.setDrop_off_type("0");
+                st.setTimepoint("1");
+                st.setShape_dist_traveled(String.valueOf(k * 350));
+                rows.add(st);
+            }
+        }
+
+        StopTimesStore store = StopTimesStore.fromModels(rows, true);
+
+        long legacy = estimateModelListBytes(rows);
+        long columnar = store.estimatedHeapBytes();
+
+        // Con 100k righe lo store deve stare ben sotto 1/5 della lista di modelli.
+        assertTrue("legacy=" + legacy + " columnar=" + columnar, columnar * 5 < legacy);
+    }
+
+    // ===== helpers =====
+
+    /**
+     * Stima heap della lista "classica": ArrayList + StopTimesModel (10 ref) + una String per campo non null.
+     */
+    private static long estimateModelListBytes(List<StopTimesModel> rows) {
+        long bytes = 16L + 4L * rows.size();
+        for (StopTimesModel st : rows) {
+            bytes += 16 + 10 * 4;
+            bytes += str(st.getTrip_id()) + str(st.getArrival_time()) + str(st.getDeparture_time())
+                    + str(st.getStop_id()) + str(st.getStop_sequence()) + str(st.getStop_headsign())
+                    + str(st.getPickup_type()) + str(st.getDrop_off_type())
+                    + str(st.getShape_dist_traveled()) + str(st.getTimepoint());
+        }
+        return bytes;
+    }
+
+    private static long str(String s) {
+        return (s == null) ? 0 : 24 + 16 + s.length();
+    }
+
+    private static StopTimesModel stopTime(String tripId, String stopId, String arr, String seq) {
+        StopTimesModel st = new StopTimesModel();
+        st.setTrip_id(tripId);
+        st.setStop_id(stopId);
+        st.setArrival_time(arr);
+        st.setStop_sequence(seq);
+        return st;
+    }
+}
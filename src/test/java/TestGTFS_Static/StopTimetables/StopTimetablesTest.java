@@ -0,0 +1,130 @@
+package TestGTFS_Static.StopTimetables;
+
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.Static.StopTimesStore;
+import Service.Parsing.Static.StopTimetables;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import static org.junit.Assert.*;
+
+public class StopTimetablesTest {
+
+    private static final IntPredicate ALL = t -> true;
+    private static final IntPredicate NONE = t -> false;
+
+    @Test
+    public void nextArrival_isFirstTimeAfterNow() {
+        StopTimetables tt = repo().getStopTimetables();
+
+        assertEquals(4, tt.size("TS1", "TR1", 0));
+        assertEquals(sec(10, 0), tt.nextArrival("TS1", "TR1", 0, sec(9, 0), ALL, NONE));
+        assertEquals(sec(10, 0), tt.nextArrival("TS1", "TR1", 0, sec(10, 0), ALL, NONE));
+        assertEquals(sec(12, 0), tt.nextArrival("TS1", "TR1", 0, sec(10, 1), ALL, NONE));
+        assertEquals(sec(24, 30), tt.nextArrival("TS1", "TR1", 0, sec(23, 0), ALL, NONE));
+        assertEquals(StopTimesStore.NO_TIME, tt.nextArrival("TS1", "TR1", 0, sec(24, 31), ALL, NONE));
+    }
+
+    @Test
+    public void nextArrival_skipsTripsNotRunning() {
+        StopTimetables tt = repo().getStopTimetables();
+        int tt11 = GtfsIdDictionary.TRIPS.idOf("TT11");
+
+        // TT11 (12:00) non circola oggi: il successivo è TT12 alle 14:00
+        IntPredicate notTt11 = t -> t != tt11;
+        assertEquals(sec(14, 0), tt.nextArrival("TS1", "TR1", 0, sec(11, 0), notTt11, NONE));
+    }
+
+    @Test
+    public void nextArrival_directionsAndAllDirections() {
+        StopTimetables tt = repo().getStopTimetables();
+
+        assertEquals(sec(11, 0), tt.nextArrival("TS1", "TR1", 1, sec(10, 30), ALL, NONE));
+        assertEquals(sec(11, 0), tt.nextArrival("TS1", "TR1", -1, sec(10, 30), ALL, NONE));
+        assertEquals(StopTimesStore.NO_TIME, tt.nextArrival("TS1", "MISSING", -1, sec(10, 30), ALL, NONE));
+    }
+
+    @Test
+    public void nextArrival_yesterdayNightTripIsMappedToToday() {
+        StopTimetables tt = repo().getStopTimetables();
+
+        // TT13 ha arrivo 24:30 nel giorno di servizio di ieri -> 00:30 di oggi
+        int tt13 = GtfsIdDictionary.TRIPS.idOf("TT13");
+        IntPredicate onlyTt13 = t -> t == tt13;
+        assertEquals(sec(0, 30), tt.nextArrival("TS1", "TR1", 0, sec(0, 10), NONE, onlyTt13));
+        assertEquals(StopTimesStore.NO_TIME, tt.nextArrival("TS1", "TR1", 0, sec(0, 31), NONE, onlyTt13));
+    }
+
+    @Test
+    public void repository_buildsTimetablesOnce() {
+        StaticGtfsRepository repo = repo();
+        assertSame(repo.getStopTimetables(), repo.getStopTimetables());
+    }
+
+    // ===== helpers =====
+
+    private static StaticGtfsRepository repo() {
+        return new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("TS1"), stop("TS2")))
+                .withRoutes(List.of(route("TR1")))
+                .withTrips(List.of(
+                        trip("TT10", "TR1", 0), trip("TT11", "TR1", 0), trip("TT12", "TR1", 0),
+                        trip("TT13", "TR1", 0), trip("TT20", "TR1", 1)))
+                .withStopTimes(List.of(
+                        stopTime("TT11", "TS1", "12:00:00", "1"),
+                        stopTime("TT10", "TS1", "10:00:00", "1"),
+                        stopTime("TT10", "TS2", "10:10:00", "2"),
+                        stopTime("TT12", "TS1", "14:00:00", "1"),
+                        stopTime("TT13", "TS1", "24:30:00", "1"),
+                        stopTime("TT20", "TS1", "11:00:00", "1")))
+                .withCalendars(List.of())
+                .withCalendarDates(List.of())
+                .build();
+    }
+
+    private static int sec(int h, int m) {
+        return h * 3600 + m * 60;
+    }
+
+    private static StopModel stop(String id) {
+        StopModel s = new StopModel();
+        s.setId(id);
+        s.setName(id);
+        s.setLatitude(41.9);
+        s.setLongitude(12.5);
+        return s;
+    }
+
+    private static RoutesModel route(String routeId) {
+        RoutesModel r = new RoutesModel();
+        r.setRoute_id(routeId);
+        r.setRoute_short_name(routeId);
+        r.setRoute_type("3");
+        return r;
+    }
+
+    private static TripsModel trip(String tripId, String routeId, int dir) {
+        TripsModel t = new TripsModel();
+        t.setTrip_id(tripId);
+        t.setRoute_id(routeId);
+        t.setDirection_id(String.valueOf(dir));
+        return t;
+    }
+
+    private static StopTimesModel stopTime(String tripId, String stopId, String arr, String seq) {
+        StopTimesModel st = new StopTimesModel();
+        st.setTrip_id(tripId);
+        st.setStop_id(stopId);
+        st.setArrival_time(arr);
+        st.setStop_sequence(seq);
+        return st;
+    }
+}
@@ -0,0 +1,203 @@
+package TestGTFS_Static.TripPatterns;
+
+import Model.Parsing.Static.CalendarDateModel;
+import Model.Parsing.Static.GtfsIdDictionary;
+import Model.Parsing.Static.RoutesModel;
+import Model.Parsing.Static.StopTimesModel;
+import Model.Parsing.Static.TripsModel;
+import Model.Points.StopModel;
+import Service.Parsing.Static.StaticGtfsRepository;
+import Service.Parsing.Static.StaticGtfsRepositoryBuilder;
+import Service.Parsing.Static.StopTimesStore;
+import Service.Parsing.Static.TripPatterns;
+import Service.Parsing.TripStopsService;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TripPatternsTest {
+
+    @Test
+    public void tripsWithSameStops_shareOnePattern() {
+        TripPatterns tp = repo().getTripPatterns();
+
+        int p1 = tp.patternOfTrip(GtfsIdDictionary.TRIPS.idOf("PT1"));
+        assertEquals(p1, tp.patternOfTrip(GtfsIdDictionary.TRIPS.idOf("PT2")));
+        assertEquals(p1, tp.patternOfTrip(GtfsIdDictionary.TRIPS.idOf("PT3")));
+        assertNotEquals(p1, tp.patternOfTrip(GtfsIdDictionary.TRIPS.idOf("PT4")));
+
+        assertEquals(3, tp.tripCount(p1));
+        assertEquals(3, tp.stopCount(p1));
+        assertEquals(GtfsIdDictionary.STOPS.idOf("PS1"), tp.stopRef(p1, 0));
+        assertEquals(GtfsIdDictionary.STOPS.idOf("PS3"), tp.stopRef(p1, 2));
+        assertEquals(-1, tp.patternOfTrip(GtfsIdDictionary.TRIPS.idOf("PT9")));
+    }
+
+    @Test
+    public void timingProfiles_areSharedAndTimesRestored() {
+        TripPatterns tp = repo().getTripPatterns();
+
+        // PT1 e PT2 hanno le stesse percorrenze, PT3 è più lento: 2 profili per il pattern, 1 per PT4
+        assertEquals(3, tp.profileCount());
+
+        int pt2 = GtfsIdDictionary.TRIPS.idOf("PT2");
+        assertEquals(sec(11, 0), tp.arrivalSec(pt2, 0));
+        assertEquals(sec(11, 10), tp.arrivalSec(pt2, 1));
+        assertEquals(sec(11, 11), tp.departureSec(pt2, 1));
+        assertEquals(StopTimesStore.NO_TIME, tp.arrivalSec(pt2, 2));
+
+        int pt3 = GtfsIdDictionary.TRIPS.idOf("PT3");
+        assertEquals(sec(12, 15), tp.arrivalSec(pt3, 1));
+    }
+
+    @Test
+    public void mostFrequentPattern_drivesStopListAndRepresentativeTrip() {
+        StaticGtfsRepository repo = repo();
+        TripPatterns tp = repo.getTripPatterns();
+
+        int[] patterns = tp.patterns("PR1", 0);
+        assertEquals(2, patterns.length);
+        assertEquals(tp.mostFrequentPattern("PR1", 0), patterns[0]);
+        assertEquals(-1, tp.mostFrequentPattern("PR1", 1));
+        assertEquals(-1, tp.mostFrequentPattern("MISSING", 0));
+
+        // PT4 (variante corta) è il primo trip della linea, ma il percorso tipico è quello di PT1..PT3
+        String rep = repo.getRepresentativeTripId("PR1", 0);
+        assertNotEquals("PT4", rep);
+
+        List<String> ids = new ArrayList<>();
+        for (StopModel s : TripStopsService.getStopsForRouteDirection("PR1", 0, repo)) {
+            ids.add(s.getId());
+        }
+        assertEquals(List.of("PS1", "PS2", "PS3"), ids);
+    }
+
+    @Test
+    public void representativeTrip_followsPatternWithMostTripsActiveToday() {
+        // PT1..PT3 (percorso più frequente nel feed) oggi ha una sola corsa, la variante PT4/PT5 ne ha due
+        LocalDate today = LocalDate.now();
+        StaticGtfsRepository repo = new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("PS1"), stop("PS2"), stop("PS3")))
+                .withRoutes(List.of(route("PR2")))
+                .withTrips(List.of(
+                        trip("PT1", "PR2", "MAI"), trip("PT2", "PR2", "OGGI"), trip("PT3", "PR2", "MAI"),
+                        trip("PT4", "PR2", "OGGI"), trip("PT5", "PR2", "OGGI")))
+                .withStopTimes(List.of(
+                        stopTime("PT1", "PS1", "10:00:00", "10:00:00", "1"),
+                        stopTime("PT1", "PS3", "10:10:00", "10:10:00", "2"),
+                        stopTime("PT2", "PS1", "11:00:00", "11:00:00", "1"),
+                        stopTime("PT2", "PS3", "11:10:00", "11:10:00", "2"),
+                        stopTime("PT3", "PS1", "12:00:00", "12:00:00", "1"),
+                        stopTime("PT3", "PS3", "12:10:00", "12:10:00", "2"),
+                        stopTime("PT4", "PS1", "09:00:00", "09:00:00", "1"),
+                        stopTime("PT4", "PS2", "09:10:00", "09:10:00", "2"),
+                        stopTime("PT5", "PS1", "13:00:00", "13:00:00", "1"),
+                        stopTime("PT5", "PS2", "13:10:00", "13:10:00", "2")))
+                .withCalendars(List.of())
+                .withCalendarDates(List.of(
+                        // anche ieri/domani: il giorno di servizio può non coincidere con la data di sistema
+                        calendarDate("OGGI", today.minusDays(1)), calendarDate("OGGI", today),
+                        calendarDate("OGGI", today.plusDays(1)), calendarDate("MAI", today.plusYears(1))))
+                .build();
+
+        TripPatterns tp = repo.getTripPatterns();
+        int main = tp.patternOfTrip(GtfsIdDictionary.TRIPS.idOf("PT1"));
+        int variant = tp.patternOfTrip(GtfsIdDictionary.TRIPS.idOf("PT4"));
+        assertEquals(0, tp.rankOf(main));
+        assertEquals(1, tp.rankOf(variant));
+        assertEquals(-1, tp.rankOf(-1));
+
+        assertEquals("PT4", repo.getRepresentativeTripId("PR2", 0));
+    }
+
+    @Test
+    public void repository_buildsPatternsOnce() {
+        StaticGtfsRepository repo = repo();
+        assertSame(repo.getTripPatterns(), repo.getTripPatterns());
+        assertTrue(repo.getTripPatterns().estimatedHeapBytes() > 0);
+    }
+
+    // ===== helpers =====
+
+    private static StaticGtfsRepository repo() {
+        return new StaticGtfsRepositoryBuilder()
+                .withStops(List.of(stop("PS1"), stop("PS2"), stop("PS3")))
+                .withRoutes(List.of(route("PR1")))
+                .withTrips(List.of(
+                        trip("PT4", "PR1"), trip("PT1", "PR1"), trip("PT2", "PR1"),
+                        trip("PT3", "PR1"), trip("PT9", "PR1")))
+                .withStopTimes(List.of(
+                        stopTime("PT4", "PS1", "09:00:00", "09:00:00", "1"),
+                        stopTime("PT4", "PS2", "09:10:00", "09:10:00", "2"),
+                        stopTime("PT1", "PS1", "10:00:00", "10:00:00", "1"),
+                        stopTime("PT1", "PS2", "10:10:00", "10:11:00", "2"),
+                        stopTime("PT1", "PS3", "", "", "3"),
+                        stopTime("PT2", "PS1", "11:00:00", "11:00:00", "1"),
+                        stopTime("PT2", "PS2", "11:10:00", "11:11:00", "2"),
+                        stopTime("PT2", "PS3", "", "", "3"),
+                        stopTime("PT3", "PS1", "12:00:00", "12:00:00", "1"),
+                        stopTime("PT3", "PS2", "12:15:00", "12:16:00", "2"),
+                        stopTime("PT3", "PS3", "12:30:00", "12:30:00", "3")))
+                .withCalendars(List.of())
+                .withCalendarDates(List.of())
+                .build();
+    }
+
+    private static int sec(int h, int m) {
+        return h * 3600 + m * 60;
+    }
+
+    private static StopModel stop(String id) {
+        StopModel s = new StopModel();
+        s.setId(id);
+        s.setName(id);
+        s.setLatitude(41.9);
+        s.setLongitude(12.5);
+        return s;
+    }
+
+    private static RoutesModel route(String routeId) {
+        RoutesModel r = new RoutesModel();
+        r.setRoute_id(routeId);
+        r.setRoute_short_name(routeId);
+        r.setRoute_type("3");
+        return r;
+    }
+
+    private static TripsModel trip(String tripId, String routeId) {
+        TripsModel t = new TripsModel();
+        t.setTrip_id(tripId);
+        t.setRoute_id(routeId);
+        t.setDirection_id("0");
+        return t;
+    }
+
+    private static TripsModel trip(String tripId, String routeId, String serviceId) {
+        TripsModel t = trip(tripId, routeId);
+        t.setService_id(serviceId);
+        return t;
+    }
+
+    private static CalendarDateModel calendarDate(String serviceId, LocalDate date) {
+        CalendarDateModel d = new CalendarDateModel();
+        d.setService_id(serviceId);
+        d.setDate(date.format(DateTimeFormatter.BASIC_ISO_DATE));
+        d.setException_type("1");
+        return d;
+    }
+
+    private static StopTimesModel stopTime(String tripId, String stopId, String arr, String dep, String seq) {
+        StopTimesModel st = new StopTimesModel();
+        st.setTrip_id(tripId);
+        st.setStop_id(stopId);
+        st.setArrival_time(arr);
+        st.setDeparture_time(dep);
+        st.setStop_sequence(seq);
+        return st;
+    }
+}
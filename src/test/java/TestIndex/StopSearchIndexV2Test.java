@@ -2,14 +2,23 @@ package TestIndex;
 
 import Model.Points.StopModel;
 import Service.Index.StopSearchIndexV2;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.*;
 
 public class StopSearchIndexV2Test {
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     @Test
     public void findById_works() {
         StopModel s1 = stop("1", "905", "Termini");
@@ -80,6 +89,99 @@ public class StopSearchIndexV2Test {
         assertTrue(res.isEmpty());
     }
 
+    @Test
+    public void searchByName_intersectsTokensAndPrefixes_andStopsAtLimit() {
+        List<StopModel> stops = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            stops.add(stop("R" + i, "R" + i, "Roma " + (i % 2 == 0 ? "Tiburtina" : "Tuscolana") + " " + i));
+        }
+        stops.add(stop("T1", "T1", "Roma Termini"));
+        stops.add(stop("T2", "T2", "Termini Metro"));
+        stops.add(stop("T3", "T3", "Roma Tuscolo"));
+        StopSearchIndexV2 idx = new StopSearchIndexV2(stops);
+
+        // due token comuni: solo la fermata che li ha entrambi
+        assertEquals(List.of(stops.get(50)), idx.searchByName("roma termini", 10));
+
+        // token completo + prefisso di un solo token ("tuscolan" -> tuscolana), con stop al limite
+        assertEquals(5, idx.searchByName("roma tuscolan", 5).size());
+        assertEquals(25, idx.searchByName("roma tuscolan", 100).size());
+
+        // prefisso condiviso da più token ("tusc" -> tuscolana, tuscolo): unione delle posting
+        assertEquals(26, idx.searchByName("tusc", 100).size());
+        assertEquals(List.of(stops.get(50), stops.get(51)), idx.searchByName("termin", 10));
+        assertEquals(52, idx.searchByName("roma", 100).size());
+    }
+
+    @Test
+    public void fileRoundTrip_answersLikeTheBuiltIndex() throws Exception {
+        List<StopModel> stops = List.of(
+                stop("1", "905", "Via Prenestina"),
+                stop("2", "9051", "Piazza Venezia"),
+                stop("3", "906", "Termini"));
+        Path dir = tmp.newFolder("idx").toPath();
+
+        StopSearchIndexV2 built = StopSearchIndexV2.loadOrBuild(stops, "k1", dir);
+        Path file = dir.resolve("stop-index-k1.idx");
+        assertTrue(Files.isRegularFile(file));
+
+        StopSearchIndexV2 loaded = StopSearchIndexV2.read(file, "k1", stops);
+        assertNotNull(loaded);
+        assertSame(stops.get(0), loaded.findById("1"));
+        assertSame(stops.get(2), loaded.findByCodeExact(" 906 "));
+        assertEquals(built.suggestByCodePrefix("905", 10), loaded.suggestByCodePrefix("905", 10));
+        assertEquals(built.searchByName("prenest", 10), loaded.searchByName("prenest", 10));
+        assertEquals(built.searchByName("venezia piazza", 10), loaded.searchByName("venezia piazza", 10));
+        assertEquals(built.searchByName("prenestna", 10), loaded.searchByName("prenestna", 10));
+    }
+
+    @Test
+    public void fileRead_rejectsOtherKeyOrOtherStops() throws Exception {
+        List<StopModel> stops = List.of(stop("1", "905", "Termini"), stop("2", "906", "Colosseo"));
+        Path dir = tmp.newFolder("idx").toPath();
+        StopSearchIndexV2.loadOrBuild(stops, "k1", dir);
+        Path file = dir.resolve("stop-index-k1.idx");
+
+        assertNull(StopSearchIndexV2.read(file, "k2", stops));
+        assertNull(StopSearchIndexV2.read(file, "k1", List.of(stops.get(1), stops.get(0))));
+        assertNull(StopSearchIndexV2.read(dir.resolve("missing.idx"), "k1", stops));
+
+        // nuova chiave: il file precedente viene sostituito
+        StopSearchIndexV2.loadOrBuild(stops, "k2", dir);
+        assertFalse(Files.exists(file));
+        assertTrue(Files.isRegularFile(dir.resolve("stop-index-k2.idx")));
+    }
+
+    @Test
+    public void fileRead_rejectsCorruptLengthsAndPostings_loadOrBuildRebuilds() throws Exception {
+        List<StopModel> stops = List.of(stop("1", "905", "Termini"), stop("2", "906", "Colosseo"));
+        Path dir = tmp.newFolder("idx").toPath();
+        StopSearchIndexV2.loadOrBuild(stops, "k1", dir);
+        Path file = dir.resolve("stop-index-k1.idx");
+        byte[] good = Files.readAllBytes(file);
+
+        // magic(8) + versione(4) + chiave(4 + 2) + numero fermate(4) + hash id(4): poi il numero di nomi
+        int namesCount = 8 + 4 + 4 + 2 + 4 + 4;
+        for (int bad : new int[]{-5, Integer.MAX_VALUE}) {
+            Files.write(file, withInt(good, namesCount, bad));
+            assertNull(StopSearchIndexV2.read(file, "k1", stops));
+        }
+
+        // ultima posting fuori dall'array delle fermate: rifiutata in lettura, non a query time
+        Files.write(file, withInt(good, good.length - Integer.BYTES, 99));
+        assertNull(StopSearchIndexV2.read(file, "k1", stops));
+
+        StopSearchIndexV2 rebuilt = StopSearchIndexV2.loadOrBuild(stops, "k1", dir);
+        assertEquals(List.of(stops.get(1)), rebuilt.searchByName("colosseo", 10));
+        assertNotNull(StopSearchIndexV2.read(file, "k1", stops));
+    }
+
+    private static byte[] withInt(byte[] src, int at, int value) {
+        byte[] out = src.clone();
+        ByteBuffer.wrap(out).putInt(at, value);
+        return out;
+    }
+
     private static StopModel stop(String id, String code, String name) {
         StopModel s = new StopModel();
         s.setId(id);